@@ -0,0 +1,381 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.benchmarks;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.cloud.AuthCredentials;
+import com.google.cloud.RetryParams;
+import com.google.cloud.spi.ServiceRpcFactory;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import com.google.cloud.storage.spi.RpcBatch;
+import com.google.cloud.storage.spi.StorageRpc;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A thread-safe, in-memory {@link StorageRpc} stand-in for benchmarks.
+ *
+ * <p>Every call that would be a round trip to Cloud Storage parks the calling thread for the
+ * configured latency before doing its work, so benchmarks can model both CPU-bound (zero latency)
+ * and network-bound behavior. A batch counts as a single round trip. Buckets, ACLs, rewrites and
+ * preconditions are not supported.
+ */
+public class InMemoryStorageRpc implements StorageRpc {
+
+  private final long latencyNanos;
+  private final ConcurrentMap<String, StorageObject> metadata = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, byte[]> contents = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Upload> uploads = new ConcurrentHashMap<>();
+  private final AtomicLong generations = new AtomicLong();
+  private final AtomicLong roundTrips = new AtomicLong();
+
+  private static final class Upload {
+    final StorageObject object;
+    byte[] bytes = new byte[0];
+
+    Upload(StorageObject object) {
+      this.object = object;
+    }
+  }
+
+  public InMemoryStorageRpc(long latency, TimeUnit unit) {
+    this.latencyNanos = unit.toNanos(latency);
+  }
+
+  /**
+   * Returns {@link StorageOptions} whose service is backed by {@code rpc}, without retries or
+   * credentials.
+   */
+  public static StorageOptions options(final InMemoryStorageRpc rpc) {
+    return StorageOptions.builder()
+        .projectId("benchmark-project")
+        .authCredentials(AuthCredentials.noAuth())
+        .retryParams(RetryParams.noRetries())
+        .serviceRpcFactory(new ServiceRpcFactory<StorageRpc, StorageOptions>() {
+          @Override
+          public StorageRpc create(StorageOptions options) {
+            return rpc;
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Stores {@code content} as {@code bucket/name}, without simulating latency.
+   */
+  public void put(String bucket, String name, byte[] content) {
+    StorageObject object = new StorageObject().setBucket(bucket).setName(name);
+    commit(object, content);
+  }
+
+  /**
+   * Returns the number of simulated round trips served so far.
+   */
+  public long roundTrips() {
+    return roundTrips.get();
+  }
+
+  private void roundTrip() {
+    roundTrips.incrementAndGet();
+    if (latencyNanos > 0) {
+      LockSupport.parkNanos(latencyNanos);
+    }
+  }
+
+  private static String key(StorageObject object) {
+    return object.getBucket() + "/" + object.getName();
+  }
+
+  private StorageObject commit(StorageObject object, byte[] content) {
+    String key = key(object);
+    StorageObject stored = object.clone()
+        .setId(key)
+        .setGeneration(generations.incrementAndGet())
+        .setSize(BigInteger.valueOf(content.length));
+    contents.put(key, content);
+    metadata.put(key, stored);
+    return stored;
+  }
+
+  private static StorageException notFound(String key) {
+    return new StorageException(404, "Not found: " + key);
+  }
+
+  @Override
+  public Bucket create(Bucket bucket, Map<Option, ?> options) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public StorageObject create(StorageObject object, InputStream content, Map<Option, ?> options) {
+    roundTrip();
+    try {
+      return commit(object, ByteStreams.toByteArray(content));
+    } catch (IOException e) {
+      throw new StorageException(e);
+    }
+  }
+
+  @Override
+  public Tuple<String, Iterable<Bucket>> list(Map<Option, ?> options) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Tuple<String, Iterable<StorageObject>> list(String bucket, Map<Option, ?> options) {
+    roundTrip();
+    String prefix = bucket + "/";
+    List<StorageObject> objects = new ArrayList<>();
+    for (Map.Entry<String, StorageObject> entry : metadata.entrySet()) {
+      if (entry.getKey().startsWith(prefix)) {
+        objects.add(entry.getValue());
+      }
+    }
+    return Tuple.<String, Iterable<StorageObject>>of(null, objects);
+  }
+
+  @Override
+  public Bucket get(Bucket bucket, Map<Option, ?> options) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public StorageObject get(StorageObject object, Map<Option, ?> options) {
+    roundTrip();
+    return metadata.get(key(object));
+  }
+
+  @Override
+  public Bucket patch(Bucket bucket, Map<Option, ?> options) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public StorageObject patch(StorageObject storageObject, Map<Option, ?> options) {
+    roundTrip();
+    return doPatch(storageObject);
+  }
+
+  private StorageObject doPatch(StorageObject storageObject) {
+    String key = key(storageObject);
+    StorageObject stored = metadata.get(key);
+    if (stored == null) {
+      throw notFound(key);
+    }
+    if (storageObject.getContentType() != null) {
+      stored.setContentType(storageObject.getContentType());
+    }
+    if (storageObject.getMetadata() != null) {
+      stored.setMetadata(storageObject.getMetadata());
+    }
+    return stored;
+  }
+
+  @Override
+  public boolean delete(Bucket bucket, Map<Option, ?> options) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean delete(StorageObject object, Map<Option, ?> options) {
+    roundTrip();
+    return doDelete(object);
+  }
+
+  private boolean doDelete(StorageObject object) {
+    String key = key(object);
+    contents.remove(key);
+    return metadata.remove(key) != null;
+  }
+
+  @Override
+  public RpcBatch createBatch() {
+    return new InMemoryBatch();
+  }
+
+  @Override
+  public StorageObject compose(Iterable<StorageObject> sources, StorageObject target,
+      Map<Option, ?> targetOptions) {
+    roundTrip();
+    int length = 0;
+    List<byte[]> parts = new ArrayList<>();
+    for (StorageObject source : sources) {
+      byte[] part = contents.get(key(source));
+      if (part == null) {
+        throw notFound(key(source));
+      }
+      parts.add(part);
+      length += part.length;
+    }
+    byte[] composed = new byte[length];
+    int offset = 0;
+    for (byte[] part : parts) {
+      System.arraycopy(part, 0, composed, offset, part.length);
+      offset += part.length;
+    }
+    return commit(target, composed);
+  }
+
+  @Override
+  public byte[] load(StorageObject storageObject, Map<Option, ?> options) {
+    roundTrip();
+    byte[] content = contents.get(key(storageObject));
+    if (content == null) {
+      throw notFound(key(storageObject));
+    }
+    return content;
+  }
+
+  @Override
+  public Tuple<String, byte[]> read(
+      StorageObject from, Map<Option, ?> options, long position, int bytes) {
+    roundTrip();
+    String key = key(from);
+    byte[] content = contents.get(key);
+    if (content == null) {
+      throw notFound(key);
+    }
+    String etag = String.valueOf(metadata.get(key).getGeneration());
+    if (position >= content.length) {
+      return Tuple.of(etag, new byte[0]);
+    }
+    int end = (int) Math.min(content.length, position + bytes);
+    return Tuple.of(etag, Arrays.copyOfRange(content, (int) position, end));
+  }
+
+  @Override
+  public String open(StorageObject object, Map<Option, ?> options) {
+    roundTrip();
+    String uploadId = key(object) + "#" + generations.incrementAndGet();
+    uploads.put(uploadId, new Upload(object));
+    return uploadId;
+  }
+
+  @Override
+  public void write(String uploadId, byte[] toWrite, int toWriteOffset, long destOffset,
+      int length, boolean last) {
+    roundTrip();
+    Upload upload = uploads.get(uploadId);
+    if (upload == null) {
+      throw notFound(uploadId);
+    }
+    synchronized (upload) {
+      int end = (int) destOffset + length;
+      if (upload.bytes.length < end) {
+        upload.bytes = Arrays.copyOf(upload.bytes, end);
+      }
+      System.arraycopy(toWrite, toWriteOffset, upload.bytes, (int) destOffset, length);
+      if (last) {
+        uploads.remove(uploadId);
+        commit(upload.object, upload.bytes);
+      }
+    }
+  }
+
+  @Override
+  public RewriteResponse openRewrite(RewriteRequest rewriteRequest) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public RewriteResponse continueRewrite(RewriteResponse previousResponse) {
+    throw new UnsupportedOperationException();
+  }
+
+  private class InMemoryBatch implements RpcBatch {
+
+    private final List<Runnable> operations = new ArrayList<>();
+
+    @Override
+    public void addDelete(final StorageObject storageObject, final Callback<Void> callback,
+        Map<Option, ?> options) {
+      operations.add(new Runnable() {
+        @Override
+        public void run() {
+          if (doDelete(storageObject)) {
+            callback.onSuccess(null);
+          } else {
+            callback.onFailure(error(404, key(storageObject)));
+          }
+        }
+      });
+    }
+
+    @Override
+    public void addPatch(final StorageObject storageObject,
+        final Callback<StorageObject> callback, Map<Option, ?> options) {
+      operations.add(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            callback.onSuccess(doPatch(storageObject));
+          } catch (StorageException e) {
+            callback.onFailure(error(e.code(), e.getMessage()));
+          }
+        }
+      });
+    }
+
+    @Override
+    public void addGet(final StorageObject storageObject, final Callback<StorageObject> callback,
+        Map<Option, ?> options) {
+      operations.add(new Runnable() {
+        @Override
+        public void run() {
+          StorageObject stored = metadata.get(key(storageObject));
+          if (stored != null) {
+            callback.onSuccess(stored);
+          } else {
+            callback.onFailure(error(404, key(storageObject)));
+          }
+        }
+      });
+    }
+
+    @Override
+    public void submit() {
+      roundTrip();
+      for (Runnable operation : ImmutableList.copyOf(operations)) {
+        operation.run();
+      }
+      operations.clear();
+    }
+
+    private GoogleJsonError error(int code, String message) {
+      GoogleJsonError error = new GoogleJsonError();
+      error.setCode(code);
+      error.setMessage(message);
+      return error;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.benchmarks.datastore;
+
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.PathElement;
+import com.google.protobuf.TextFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding {@link Key}s in the binary URL-safe format with the text format
+ * used by earlier versions, which {@link Key#fromUrlSafe(String)} still accepts. The legacy
+ * encoder is reproduced here since {@link Key#toUrlSafe()} no longer produces that format. No I/O
+ * is performed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class KeyUrlSafeBenchmark {
+
+  private Key key;
+  private com.google.datastore.v1.Key keyPb;
+  private String urlSafe;
+  private String legacyUrlSafe;
+
+  @Setup
+  public void setUp() throws UnsupportedEncodingException {
+    key = Key.builder("benchmark-project", "Order", 5629499534213120L)
+        .namespace("tenant-42")
+        .ancestors(PathElement.of("Customer", "customer-1234"))
+        .build();
+    keyPb = com.google.datastore.v1.Key.newBuilder()
+        .setPartitionId(com.google.datastore.v1.PartitionId.newBuilder()
+            .setProjectId(key.projectId())
+            .setNamespaceId(key.namespace()))
+        .addPath(com.google.datastore.v1.Key.PathElement.newBuilder()
+            .setKind("Customer")
+            .setName("customer-1234"))
+        .addPath(com.google.datastore.v1.Key.PathElement.newBuilder()
+            .setKind(key.kind())
+            .setId(key.id()))
+        .build();
+    urlSafe = key.toUrlSafe();
+    legacyUrlSafe = legacyToUrlSafe();
+  }
+
+  @Benchmark
+  public String toUrlSafe() {
+    return key.toUrlSafe();
+  }
+
+  @Benchmark
+  public String legacyToUrlSafe() throws UnsupportedEncodingException {
+    return URLEncoder.encode(TextFormat.printToString(keyPb), "UTF-8");
+  }
+
+  @Benchmark
+  public Key fromUrlSafe() {
+    return Key.fromUrlSafe(urlSafe);
+  }
+
+  @Benchmark
+  public Key legacyFromUrlSafe() {
+    return Key.fromUrlSafe(legacyUrlSafe);
+  }
+}
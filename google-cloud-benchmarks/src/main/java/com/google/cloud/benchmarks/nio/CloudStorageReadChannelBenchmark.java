@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.benchmarks.nio;
+
+import com.google.cloud.benchmarks.InMemoryStorageRpc;
+import com.google.cloud.storage.contrib.nio.CloudStorageConfiguration;
+import com.google.cloud.storage.contrib.nio.CloudStorageFileSystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures random-access reads through the NIO {@code CloudStorageReadChannel}: every operation
+ * seeks to a random offset and reads a small record, the access pattern of index and columnar
+ * file readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CloudStorageReadChannelBenchmark {
+
+  @Param({"67108864"})
+  public int blobSize;
+
+  @Param({"4096", "65536"})
+  public int recordSize;
+
+  @Param({"0", "5000"})
+  public long latencyMicros;
+
+  private CloudStorageFileSystem fileSystem;
+  private SeekableByteChannel channel;
+  private ByteBuffer record;
+  private final Random random = new Random(0);
+
+  @Setup
+  public void setUp() throws IOException {
+    InMemoryStorageRpc rpc = new InMemoryStorageRpc(latencyMicros, TimeUnit.MICROSECONDS);
+    rpc.put("bucket", "data", new byte[blobSize]);
+    fileSystem = CloudStorageFileSystem.forBucket(
+        "bucket", CloudStorageConfiguration.DEFAULT, InMemoryStorageRpc.options(rpc));
+    Path path = fileSystem.getPath("data");
+    channel = Files.newByteChannel(path);
+    record = ByteBuffer.allocate(recordSize);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    channel.close();
+    fileSystem.close();
+  }
+
+  @Benchmark
+  public int seekAndRead() throws IOException {
+    channel.position(random.nextInt(blobSize - recordSize));
+    record.clear();
+    return channel.read(record);
+  }
+}
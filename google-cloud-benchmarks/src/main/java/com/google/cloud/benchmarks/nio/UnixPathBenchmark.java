@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.benchmarks.nio;
+
+import com.google.cloud.storage.contrib.nio.CloudStorageConfiguration;
+import com.google.cloud.storage.contrib.nio.CloudStorageFileSystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing and manipulating {@code CloudStoragePath}s, which delegate to
+ * {@code UnixPath}. No I/O is performed, so no storage stand-in is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class UnixPathBenchmark {
+
+  private static final String DIRECTORY = "/logs/2016/09/30/frontend/";
+  private static final String FILE = "/logs/2016/09/30/frontend/instance-7/requests.log";
+  private static final String MESSY = "/logs/./2016/09/../09/30/frontend/instance-7/requests.log";
+
+  private CloudStorageFileSystem fileSystem;
+  private Path directory;
+  private Path file;
+  private Path messy;
+
+  @Setup
+  public void setUp() {
+    fileSystem = CloudStorageFileSystem.forBucket("bucket", CloudStorageConfiguration.DEFAULT);
+    directory = fileSystem.getPath(DIRECTORY);
+    file = fileSystem.getPath(FILE);
+    messy = fileSystem.getPath(MESSY);
+  }
+
+  @Benchmark
+  public Path parse() {
+    return fileSystem.getPath(FILE);
+  }
+
+  @Benchmark
+  public Path normalize() {
+    return messy.normalize();
+  }
+
+  @Benchmark
+  public Path resolve() {
+    return directory.resolve("instance-7/requests.log");
+  }
+
+  @Benchmark
+  public Path relativize() {
+    return directory.relativize(file);
+  }
+
+  @Benchmark
+  public Path getFileName() {
+    return file.getFileName();
+  }
+
+  @Benchmark
+  public Path getParent() {
+    return file.getParent();
+  }
+
+  @Benchmark
+  public int hashCodeOfParsed() {
+    return fileSystem.getPath(FILE).hashCode();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.benchmarks.storage;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.benchmarks.InMemoryStorageRpc;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures streaming a whole blob through {@code BlobReadChannel} for a range of chunk sizes and
+ * simulated round-trip latencies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ReadChannelBenchmark {
+
+  private static final BlobId BLOB = BlobId.of("bucket", "blob");
+
+  @Param({"16777216"})
+  public int blobSize;
+
+  @Param({"262144", "2097152", "8388608"})
+  public int chunkSize;
+
+  @Param({"64"})
+  public int readBufferKiB;
+
+  @Param({"0", "20000"})
+  public long latencyMicros;
+
+  private Storage storage;
+  private ByteBuffer readBuffer;
+
+  @Setup
+  public void setUp() {
+    InMemoryStorageRpc rpc = new InMemoryStorageRpc(latencyMicros, TimeUnit.MICROSECONDS);
+    byte[] content = new byte[blobSize];
+    new Random(0).nextBytes(content);
+    rpc.put(BLOB.bucket(), BLOB.name(), content);
+    storage = InMemoryStorageRpc.options(rpc).service();
+    readBuffer = ByteBuffer.allocate(readBufferKiB * 1024);
+  }
+
+  @Benchmark
+  public long readAll() throws IOException {
+    long total = 0;
+    try (ReadChannel reader = storage.reader(BLOB)) {
+      reader.chunkSize(chunkSize);
+      int read;
+      while ((read = reader.read(readBuffer)) >= 0) {
+        total += read;
+        readBuffer.clear();
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.benchmarks.storage;
+
+import com.google.cloud.benchmarks.InMemoryStorageRpc;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageBatch;
+import com.google.cloud.storage.StorageBatchResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures assembling and submitting a {@link StorageBatch} of gets and updates, which is
+ * dominated by option-map and callback construction when latency is zero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class StorageBatchBenchmark {
+
+  @Param({"10", "100"})
+  public int batchSize;
+
+  @Param({"0"})
+  public long latencyMicros;
+
+  private Storage storage;
+  private final List<BlobId> blobs = new ArrayList<>();
+  private final List<BlobInfo> updates = new ArrayList<>();
+
+  @Setup
+  public void setUp() {
+    InMemoryStorageRpc rpc = new InMemoryStorageRpc(latencyMicros, TimeUnit.MICROSECONDS);
+    for (int i = 0; i < batchSize; i++) {
+      BlobId blob = BlobId.of("bucket", "blob-" + i);
+      rpc.put(blob.bucket(), blob.name(), new byte[0]);
+      blobs.add(blob);
+      updates.add(BlobInfo.builder(blob).contentType("text/plain").build());
+    }
+    storage = InMemoryStorageRpc.options(rpc).service();
+  }
+
+  @Benchmark
+  public void getAndUpdate(Blackhole blackhole) {
+    StorageBatch batch = storage.batch();
+    List<StorageBatchResult<Blob>> results = new ArrayList<>(2 * batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      results.add(batch.get(blobs.get(i)));
+      results.add(batch.update(updates.get(i)));
+    }
+    batch.submit();
+    for (StorageBatchResult<Blob> result : results) {
+      blackhole.consume(result.get());
+    }
+  }
+}
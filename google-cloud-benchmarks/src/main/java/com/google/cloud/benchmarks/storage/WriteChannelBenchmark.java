@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.benchmarks.storage;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.benchmarks.InMemoryStorageRpc;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures uploading a blob through {@code BlobWriteChannel} (and so {@code BaseWriteChannel}'s
+ * buffering) for a range of chunk sizes, caller write sizes and simulated round-trip latencies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class WriteChannelBenchmark {
+
+  private static final BlobInfo BLOB = BlobInfo.builder("bucket", "blob").build();
+
+  @Param({"16777216"})
+  public int blobSize;
+
+  @Param({"262144", "2097152", "8388608"})
+  public int chunkSize;
+
+  @Param({"4", "64", "1024"})
+  public int writeBufferKiB;
+
+  @Param({"0", "20000"})
+  public long latencyMicros;
+
+  private Storage storage;
+  private ByteBuffer writeBuffer;
+
+  @Setup
+  public void setUp() {
+    InMemoryStorageRpc rpc = new InMemoryStorageRpc(latencyMicros, TimeUnit.MICROSECONDS);
+    storage = InMemoryStorageRpc.options(rpc).service();
+    byte[] content = new byte[writeBufferKiB * 1024];
+    new Random(0).nextBytes(content);
+    writeBuffer = ByteBuffer.wrap(content);
+  }
+
+  @Benchmark
+  public long writeAll() throws IOException {
+    long total = 0;
+    try (WriteChannel writer = storage.writer(BLOB)) {
+      writer.chunkSize(chunkSize);
+      while (total < blobSize) {
+        writeBuffer.clear();
+        writeBuffer.limit((int) Math.min(writeBuffer.capacity(), blobSize - total));
+        total += writer.write(writeBuffer);
+      }
+    }
+    return total;
+  }
+}
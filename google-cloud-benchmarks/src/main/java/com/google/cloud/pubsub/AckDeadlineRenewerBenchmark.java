@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.common.util.concurrent.Futures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of leasing and releasing messages in {@code AckDeadlineRenewer} from 64
+ * consumer threads, with a number of messages already outstanding. Renewals are sent to a
+ * {@code PubSub} stand-in that completes them right away. The benchmark lives in the
+ * {@code com.google.cloud.pubsub} package because the renewer is package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(64)
+public class AckDeadlineRenewerBenchmark {
+
+  private static final String SUBSCRIPTION = "subscription";
+
+  @Param({"0", "100000"})
+  public int outstandingMessages;
+
+  private final AtomicInteger threads = new AtomicInteger();
+  private AckDeadlineRenewer renewer;
+
+  /**
+   * The ack ids leased by one consumer thread.
+   */
+  @State(Scope.Thread)
+  public static class Consumer {
+
+    private String prefix;
+    private long next;
+
+    @Setup
+    public void setUp(AckDeadlineRenewerBenchmark benchmark) {
+      prefix = "consumer-" + benchmark.threads.incrementAndGet() + "-";
+    }
+
+    String nextAckId() {
+      return prefix + next++;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    final PubSubOptions options = PubSubOptions.builder().projectId("benchmark").build();
+    PubSub pubsub = (PubSub) Proxy.newProxyInstance(PubSub.class.getClassLoader(),
+        new Class<?>[] {PubSub.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+              case "options":
+                return options;
+              case "modifyAckDeadlineAsync":
+                return Futures.immediateFuture(null);
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          }
+        });
+    renewer = new AckDeadlineRenewer(pubsub);
+    List<String> ackIds = new ArrayList<>(outstandingMessages);
+    for (int i = 0; i < outstandingMessages; i++) {
+      ackIds.add("outstanding-" + i);
+    }
+    renewer.add(SUBSCRIPTION, ackIds);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    renewer.close();
+  }
+
+  @Benchmark
+  public void addAndRemove(Consumer consumer) {
+    String ackId = consumer.nextAckId();
+    renewer.add(SUBSCRIPTION, ackId);
+    renewer.remove(SUBSCRIPTION, ackId);
+  }
+
+  @Benchmark
+  public void addBatchAndRemove(Consumer consumer) {
+    List<String> ackIds = new ArrayList<>(10);
+    for (int i = 0; i < 10; i++) {
+      ackIds.add(consumer.nextAckId());
+    }
+    renewer.add(SUBSCRIPTION, ackIds);
+    for (String ackId : ackIds) {
+      renewer.remove(SUBSCRIPTION, ackId);
+    }
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Cloud Storage file channel.
+ *
+ * <p>This channel is read-only and always reads the generation of the object that existed when it
+ * was opened. Positional reads, i.e. {@link #read(ByteBuffer, long)}, don't modify the channel's
+ * position and may be issued concurrently from many threads; each one is served by its own ranged
+ * request through a shared {@link CloudStorageObjectHandle}.
+ *
+ * <p>{@link #map(MapMode, long, long)} is only supported in {@link MapMode#READ_ONLY} mode. Pages
+ * of {@code pageSize} bytes are fetched into a sparse local temp file the first time a mapping
+ * touches them, and the returned buffer maps that file. Pages are never fetched twice, so
+ * remapping a region is cheap. The temp file is deleted when the channel is closed.
+ *
+ * @see CloudStorageReadChannel
+ */
+@ThreadSafe
+final class CloudStorageFileChannel extends FileChannel {
+
+  private final CloudStorageObjectHandle handle;
+  private final BlobId file;
+  private final long size;
+  private final int pageSize;
+  private final Object pageLock = new Object();
+
+  @GuardedBy("this")
+  private ReadChannel channel;
+  @GuardedBy("this")
+  private long position;
+  @GuardedBy("pageLock")
+  private FileChannel pages;
+  @GuardedBy("pageLock")
+  private final BitSet loadedPages = new BitSet();
+
+  @CheckReturnValue
+  static CloudStorageFileChannel create(Storage gcsStorage, BlobId file, int pageSize)
+      throws IOException {
+    checkArgument(pageSize > 0, "pageSize must be positive: %s", pageSize);
+    return new CloudStorageFileChannel(CloudStorageObjectHandle.open(gcsStorage, file), pageSize);
+  }
+
+  private CloudStorageFileChannel(CloudStorageObjectHandle handle, int pageSize) {
+    checkArgument(handle.size() / pageSize < Integer.MAX_VALUE, "pageSize too small: %s", pageSize);
+    this.handle = handle;
+    this.file = handle.blobId();
+    this.size = handle.size();
+    this.pageSize = pageSize;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    synchronized (this) {
+      checkOpen();
+      if (position >= size) {
+        return -1;
+      }
+      if (channel == null) {
+        channel = handle.newReader(position);
+        channel.chunkSize(pageSize);
+      }
+      int amt = channel.read(dst);
+      if (amt > 0) {
+        position += amt;
+      }
+      return amt;
+    }
+  }
+
+  @Override
+  public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+    synchronized (this) {
+      long total = 0;
+      for (int i = offset; i < offset + length; i++) {
+        ByteBuffer dst = dsts[i];
+        while (dst.hasRemaining()) {
+          int amt = read(dst);
+          if (amt < 0) {
+            return total == 0 ? -1 : total;
+          }
+          total += amt;
+        }
+      }
+      return total;
+    }
+  }
+
+  @Override
+  public int read(ByteBuffer dst, long position) throws IOException {
+    checkOpen();
+    return handle.read(dst, position);
+  }
+
+  @Override
+  public long position() throws IOException {
+    synchronized (this) {
+      checkOpen();
+      return position;
+    }
+  }
+
+  @Override
+  public FileChannel position(long newPosition) throws IOException {
+    checkArgument(newPosition >= 0, "negative position: %s", newPosition);
+    synchronized (this) {
+      checkOpen();
+      if (newPosition != position && channel != null) {
+        channel.seek(newPosition);
+      }
+      position = newPosition;
+      return this;
+    }
+  }
+
+  @Override
+  public long size() throws IOException {
+    checkOpen();
+    return size;
+  }
+
+  @Override
+  public long transferTo(long position, long count, WritableByteChannel target)
+      throws IOException {
+    checkArgument(position >= 0 && count >= 0, "position=%s count=%s", position, count);
+    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, pageSize));
+    long transferred = 0;
+    while (transferred < count) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), count - transferred));
+      if (read(buffer, position + transferred) <= 0) {
+        break;
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        transferred += target.write(buffer);
+      }
+    }
+    return transferred;
+  }
+
+  /**
+   * Maps a region of this object into memory. Only {@link MapMode#READ_ONLY} is supported.
+   *
+   * @throws NonWritableChannelException if {@code mode} isn't {@link MapMode#READ_ONLY}
+   * @throws IOException if the region extends past the end of the object
+   */
+  @Override
+  public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+    checkArgument(position >= 0 && size >= 0, "position=%s size=%s", position, size);
+    checkArgument(size <= Integer.MAX_VALUE, "region too large: %s", size);
+    if (mode != MapMode.READ_ONLY) {
+      throw new NonWritableChannelException();
+    }
+    checkOpen();
+    if (position + size > this.size) {
+      throw new IOException(String.format(
+          "Can't map [%d, %d) beyond end of gs://%s/%s (%d bytes)",
+          position, position + size, file.bucket(), file.name(), this.size));
+    }
+    synchronized (pageLock) {
+      loadPages(position, position + size);
+      return pages.map(MapMode.READ_ONLY, position, size);
+    }
+  }
+
+  @GuardedBy("pageLock")
+  private void loadPages(long start, long end) throws IOException {
+    if (pages == null) {
+      Path tempFile = Files.createTempFile("gcs-nio-", ".pages");
+      pages = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+          StandardOpenOption.SPARSE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+    if (start == end) {
+      return;
+    }
+    int last = (int) ((end - 1) / pageSize);
+    for (int page = loadedPages.nextClearBit((int) (start / pageSize));
+        page <= last;
+        page = loadedPages.nextClearBit(page + 1)) {
+      long pageStart = (long) page * pageSize;
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(pageSize, size - pageStart));
+      while (buffer.hasRemaining()) {
+        if (read(buffer, pageStart + buffer.position()) < 0) {
+          throw new IOException(String.format(
+              "Unexpected end of gs://%s/%s at %d", file.bucket(), file.name(),
+              pageStart + buffer.position()));
+        }
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        pages.write(buffer, pageStart + buffer.position());
+      }
+      loadedPages.set(page);
+    }
+  }
+
+  /**
+   * Acquires a shared lock, which is trivially honored since the object generation backing this
+   * channel can't change.
+   *
+   * @throws NonWritableChannelException if {@code shared} is {@code false}
+   */
+  @Override
+  public FileLock lock(long position, long size, boolean shared) throws IOException {
+    return tryLock(position, size, shared);
+  }
+
+  @Override
+  public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+    if (!shared) {
+      throw new NonWritableChannelException();
+    }
+    checkOpen();
+    return new SharedLock(this, position, size);
+  }
+
+  @Override
+  public void force(boolean metaData) {
+    // Nothing to do for a read-only channel.
+  }
+
+  @Override
+  public int write(ByteBuffer src) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs, int offset, int length) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public int write(ByteBuffer src, long position) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public FileChannel truncate(long size) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public long transferFrom(ReadableByteChannel src, long position, long count) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  protected void implCloseChannel() throws IOException {
+    synchronized (this) {
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+    }
+    synchronized (pageLock) {
+      if (pages != null) {
+        pages.close();
+        pages = null;
+      }
+    }
+  }
+
+  private void checkOpen() throws ClosedChannelException {
+    if (!isOpen()) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  private static final class SharedLock extends FileLock {
+
+    private boolean valid = true;
+
+    SharedLock(FileChannel channel, long position, long size) {
+      super(channel, position, size, true);
+    }
+
+    @Override
+    public synchronized boolean isValid() {
+      return valid && channel().isOpen();
+    }
+
+    @Override
+    public synchronized void release() {
+      valid = false;
+    }
+  }
+}
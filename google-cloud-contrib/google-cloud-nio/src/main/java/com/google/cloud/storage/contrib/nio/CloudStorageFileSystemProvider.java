@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 import com.google.auto.service.AutoService;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.Acl;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
@@ -39,6 +40,7 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
 import java.nio.file.AtomicMoveNotSupportedException;
@@ -62,6 +64,7 @@ import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -155,6 +158,11 @@ public final class CloudStorageFileSystemProvider extends FileSystemProvider {
     }
   }
 
+  Storage storage() {
+    initStorage();
+    return storage;
+  }
+
   @Override
   public String getScheme() {
     return CloudStorageFileSystem.URI_SCHEME;
@@ -223,9 +231,46 @@ public final class CloudStorageFileSystemProvider extends FileSystemProvider {
     }
   }
 
+  /**
+   * Returns a read-only {@link FileChannel} over a Cloud Storage object, which supports positional
+   * reads and {@link FileChannel.MapMode#READ_ONLY read-only} memory mapping. The page size used
+   * when mapping defaults to the file system's block size and may be changed with
+   * {@link CloudStorageOptions#withBlockSize(int)}.
+   *
+   * @throws UnsupportedOperationException if {@code options} requests writing
+   */
+  @Override
+  public FileChannel newFileChannel(
+      Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+    checkNotNull(path);
+    initStorage();
+    CloudStorageUtil.checkNotNullArray(attrs);
+    CloudStoragePath cloudPath = CloudStorageUtil.checkPath(path);
+    int pageSize = cloudPath.getFileSystem().config().blockSize();
+    Set<OpenOption> readOptions = new HashSet<>();
+    for (OpenOption option : options) {
+      if (option instanceof OptionBlockSize) {
+        pageSize = ((OptionBlockSize) option).size();
+      } else if (option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND) {
+        throw new UnsupportedOperationException("FileChannel is read-only: " + option);
+      } else {
+        readOptions.add(option);
+      }
+    }
+    checkReadOptions(cloudPath, readOptions);
+    return CloudStorageFileChannel.create(storage, cloudPath.getBlobId(), pageSize);
+  }
+
   private SeekableByteChannel newReadChannel(Path path, Set<? extends OpenOption> options)
       throws IOException {
     initStorage();
+    CloudStoragePath cloudPath = CloudStorageUtil.checkPath(path);
+    checkReadOptions(cloudPath, options);
+    return CloudStorageReadChannel.create(storage, cloudPath.getBlobId(), 0);
+  }
+
+  private static void checkReadOptions(
+      CloudStoragePath cloudPath, Set<? extends OpenOption> options) {
     for (OpenOption option : options) {
       if (option instanceof StandardOpenOption) {
         switch ((StandardOpenOption) option) {
@@ -251,11 +296,9 @@ public final class CloudStorageFileSystemProvider extends FileSystemProvider {
         throw new UnsupportedOperationException(option.toString());
       }
     }
-    CloudStoragePath cloudPath = CloudStorageUtil.checkPath(path);
     if (cloudPath.seemsLikeADirectoryAndUsePseudoDirectories()) {
       throw new CloudStoragePseudoDirectoryException(cloudPath);
     }
-    return CloudStorageReadChannel.create(storage, cloudPath.getBlobId(), 0);
   }
 
   private SeekableByteChannel newWriteChannel(Path path, Set<? extends OpenOption> options)
@@ -269,6 +312,8 @@ public final class CloudStorageFileSystemProvider extends FileSystemProvider {
     BlobInfo.Builder infoBuilder = BlobInfo.builder(file);
     List<Storage.BlobWriteOption> writeOptions = new ArrayList<>();
     List<Acl> acls = new ArrayList<>();
+    OptionWriteBehind writeBehind = null;
+    int blockSize = cloudPath.getFileSystem().config().blockSize();
 
     HashMap<String, String> metas = new HashMap<>();
     for (OpenOption option : options) {
@@ -286,7 +331,9 @@ public final class CloudStorageFileSystemProvider extends FileSystemProvider {
       } else if (option instanceof OptionAcl) {
         acls.add(((OptionAcl) option).acl());
       } else if (option instanceof OptionBlockSize) {
-        // TODO: figure out how to plumb in block size.
+        blockSize = ((OptionBlockSize) option).size();
+      } else if (option instanceof OptionWriteBehind) {
+        writeBehind = (OptionWriteBehind) option;
       } else if (option instanceof StandardOpenOption) {
         switch ((StandardOpenOption) option) {
           case CREATE:
@@ -324,9 +371,14 @@ public final class CloudStorageFileSystemProvider extends FileSystemProvider {
     }
 
     try {
-      return new CloudStorageWriteChannel(
-          storage.writer(infoBuilder.build(),
-              writeOptions.toArray(new Storage.BlobWriteOption[writeOptions.size()])));
+      WriteChannel writer = storage.writer(infoBuilder.build(),
+          writeOptions.toArray(new Storage.BlobWriteOption[writeOptions.size()]));
+      writer.chunkSize(blockSize);
+      if (writeBehind != null) {
+        return CloudStorageWriteBehindChannel.create(
+            writer, blockSize, writeBehind.awaitUploadOnClose());
+      }
+      return new CloudStorageWriteChannel(writer);
     } catch (StorageException oops) {
       throw asIoException(oops);
     }
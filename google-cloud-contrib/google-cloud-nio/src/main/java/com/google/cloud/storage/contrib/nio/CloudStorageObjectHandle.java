@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.common.base.MoreObjects;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Immutable handle to one generation of a Cloud Storage object.
+ *
+ * <p>The object's size and generation are fetched once, when the handle is opened. Afterwards any
+ * number of threads may call {@link #read(ByteBuffer, long)} concurrently: every call is served by
+ * its own ranged request against the pinned generation, so readers never contend with each other
+ * and never see a torn object if it's overwritten while they're reading.
+ *
+ * <pre>{@code
+ *   CloudStorageObjectHandle handle = CloudStorageObjectHandle.open(path);
+ *   ByteBuffer rowGroup = ByteBuffer.allocate(rowGroupSize);
+ *   handle.read(rowGroup, rowGroupOffset);
+ * }</pre>
+ */
+@Immutable
+public final class CloudStorageObjectHandle {
+
+  private final Storage storage;
+  private final BlobId file;
+  private final long size;
+
+  /**
+   * Opens a handle to the current generation of the object at {@code path}.
+   *
+   * @throws NoSuchFileException if the object doesn't exist
+   */
+  @CheckReturnValue
+  public static CloudStorageObjectHandle open(Path path) throws IOException {
+    CloudStoragePath cloudPath = CloudStorageUtil.checkPath(path);
+    if (cloudPath.seemsLikeADirectoryAndUsePseudoDirectories()) {
+      throw new CloudStoragePseudoDirectoryException(cloudPath);
+    }
+    return open(cloudPath.getFileSystem().provider().storage(), cloudPath.getBlobId());
+  }
+
+  @CheckReturnValue
+  static CloudStorageObjectHandle open(Storage gcsStorage, BlobId file) throws IOException {
+    BlobInfo blobInfo = gcsStorage.get(file);
+    if (blobInfo == null) {
+      throw new NoSuchFileException(String.format("gs://%s/%s", file.bucket(), file.name()));
+    }
+    BlobId pinned = blobInfo.generation() == null
+        ? file : BlobId.of(file.bucket(), file.name(), blobInfo.generation());
+    return new CloudStorageObjectHandle(gcsStorage, pinned, blobInfo.size());
+  }
+
+  private CloudStorageObjectHandle(Storage storage, BlobId file, long size) {
+    this.storage = checkNotNull(storage);
+    this.file = checkNotNull(file);
+    this.size = size;
+  }
+
+  /**
+   * Returns the blob identifier, including the pinned generation if the service reported one.
+   */
+  public BlobId blobId() {
+    return file;
+  }
+
+  /**
+   * Returns the object generation this handle reads, or {@code null} if unknown.
+   */
+  @Nullable
+  public Long generation() {
+    return file.generation();
+  }
+
+  /**
+   * Returns the size of the object in bytes.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Reads up to {@code dst.remaining()} bytes starting at {@code position} using a single ranged
+   * request. This method is safe to call from many threads at once.
+   *
+   * @return the number of bytes read, or {@code -1} if {@code position} is at or past the end of
+   *     the object
+   */
+  public int read(ByteBuffer dst, long position) throws IOException {
+    checkArgument(position >= 0, "negative position: %s", position);
+    if (position >= size) {
+      return -1;
+    }
+    int toRead = (int) Math.min(dst.remaining(), size - position);
+    if (toRead == 0) {
+      return 0;
+    }
+    ByteBuffer window = dst.duplicate();
+    window.limit(window.position() + toRead);
+    try (ReadChannel reader = storage.reader(file)) {
+      reader.chunkSize(toRead);
+      reader.seek(position);
+      while (window.hasRemaining()) {
+        if (reader.read(window) < 0) {
+          break;
+        }
+      }
+    }
+    int amt = window.position() - dst.position();
+    dst.position(window.position());
+    return amt;
+  }
+
+  /**
+   * Returns a new stateful channel over this object, positioned at {@code position}, without
+   * fetching the object's metadata again.
+   */
+  @CheckReturnValue
+  ReadChannel newReader(long position) throws IOException {
+    ReadChannel reader = storage.reader(file);
+    if (position > 0) {
+      reader.seek(position);
+    }
+    return reader;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("blobId", file).add("size", size).toString();
+  }
+}
@@ -85,11 +85,38 @@ public final class CloudStorageOptions {
   /**
    * Sets the block size (in bytes) when talking to the Google Cloud Storage server.
    *
+   * <p>When writing, this is the size of each upload request, rounded down to a multiple of
+   * 256 KiB, and at least 256 KiB.
+   *
    * <p>The default is {@value CloudStorageFileSystem#BLOCK_SIZE_DEFAULT}.
    */
   public static CloudStorageOption.OpenCopy withBlockSize(int size) {
     return OptionBlockSize.create(size);
   }
 
+  /**
+   * Stages writes in a local spool file while a background thread uploads them, so writers aren't
+   * slowed down to network speed. Closing the channel waits for the upload to finish.
+   *
+   * @see CloudStorageWriteBehindChannel
+   */
+  public static CloudStorageOption.Open withWriteBehind() {
+    return OptionWriteBehind.create(true);
+  }
+
+  /**
+   * Like {@link #withWriteBehind()}, except closing the channel returns as soon as everything has
+   * been spooled. Use {@link CloudStorageWriteBehindChannel#upload()} to find out when, and
+   * whether, the object was committed.
+   *
+   * <p>Durability: the upload keeps running after {@code close()} returns, and the JVM won't exit
+   * normally until it finishes. An upload failure is only reported through
+   * {@link CloudStorageWriteBehindChannel#upload()}; if nobody checks it, the object is silently
+   * missing. A {@code System.exit()} or crash before the upload finishes loses the data.
+   */
+  public static CloudStorageOption.Open withAsyncWriteBehind() {
+    return OptionWriteBehind.create(false);
+  }
+
   private CloudStorageOptions() {}
 }
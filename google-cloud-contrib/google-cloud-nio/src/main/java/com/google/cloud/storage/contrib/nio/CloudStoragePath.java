@@ -52,6 +52,8 @@ public final class CloudStoragePath implements Path {
 
   private final CloudStorageFileSystem fileSystem;
   private final UnixPath path;
+  // Object name used by equals, hashCode and compareTo, computed on first use.
+  private UnixPath lazyObjectName;
 
   private CloudStoragePath(CloudStorageFileSystem fileSystem, UnixPath path) {
     this.fileSystem = fileSystem;
@@ -144,6 +146,11 @@ public final class CloudStoragePath implements Path {
     return objectName;
   }
 
+  private UnixPath objectName() {
+    UnixPath result = lazyObjectName;
+    return result != null ? result : (lazyObjectName = toRealPathInternal(false));
+  }
+
   /**
    * Returns path without extra slashes or {@code .} and {@code ..} and preserves trailing slash.
    */
@@ -284,7 +291,7 @@ public final class CloudStoragePath implements Path {
     if (res != 0) {
       return res;
     }
-    return toRealPathInternal(false).compareTo(that.toRealPathInternal(false));
+    return objectName().compareTo(that.objectName());
   }
 
   @Override
@@ -292,13 +299,12 @@ public final class CloudStoragePath implements Path {
     return this == other
         || other instanceof CloudStoragePath
             && Objects.equals(bucket(), ((CloudStoragePath) other).bucket())
-            && Objects.equals(
-                toRealPathInternal(false), ((CloudStoragePath) other).toRealPathInternal(false));
+            && Objects.equals(objectName(), ((CloudStoragePath) other).objectName());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(bucket(), toRealPathInternal(false));
+    return Objects.hash(bucket(), objectName());
   }
 
   @Override
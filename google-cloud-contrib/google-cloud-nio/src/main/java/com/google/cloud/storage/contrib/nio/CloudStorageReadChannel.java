@@ -20,7 +20,6 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.cloud.ReadChannel;
 import com.google.cloud.storage.BlobId;
-import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 
 import java.io.IOException;
@@ -28,7 +27,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.SeekableByteChannel;
-import java.nio.file.NoSuchFileException;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.concurrent.ThreadSafe;
@@ -37,6 +35,7 @@ import javax.annotation.concurrent.ThreadSafe;
  * Cloud Storage read channel.
  *
  * @see CloudStorageWriteChannel
+ * @see CloudStorageObjectHandle
  */
 @ThreadSafe
 final class CloudStorageReadChannel implements SeekableByteChannel {
@@ -46,16 +45,20 @@ final class CloudStorageReadChannel implements SeekableByteChannel {
   private long size;
 
   @CheckReturnValue
-  @SuppressWarnings("resource")
   static CloudStorageReadChannel create(Storage gcsStorage, BlobId file, long position)
       throws IOException {
-    // XXX: Reading size and opening file should be atomic.
-    long size = fetchSize(gcsStorage, file);
-    ReadChannel channel = gcsStorage.reader(file);
-    if (position > 0) {
-      channel.seek((int) position);
-    }
-    return new CloudStorageReadChannel(position, size, channel);
+    return create(CloudStorageObjectHandle.open(gcsStorage, file), position);
+  }
+
+  /**
+   * Opens a channel over an already opened handle, which avoids fetching the object's metadata
+   * again for every channel.
+   */
+  @CheckReturnValue
+  @SuppressWarnings("resource")
+  static CloudStorageReadChannel create(CloudStorageObjectHandle handle, long position)
+      throws IOException {
+    return new CloudStorageReadChannel(position, handle.size(), handle.newReader(position));
   }
 
   private CloudStorageReadChannel(long position, long size, ReadChannel channel) {
@@ -139,12 +142,4 @@ final class CloudStorageReadChannel implements SeekableByteChannel {
       throw new ClosedChannelException();
     }
   }
-
-  private static long fetchSize(Storage gcsStorage, BlobId file) throws IOException {
-    BlobInfo blobInfo = gcsStorage.get(file);
-    if (blobInfo == null) {
-      throw new NoSuchFileException(String.format("gs://%s/%s", file.bucket(), file.name()));
-    }
-    return blobInfo.size();
-  }
 }
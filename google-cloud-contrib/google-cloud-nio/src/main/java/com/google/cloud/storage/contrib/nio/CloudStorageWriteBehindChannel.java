@@ -0,0 +1,306 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.WriteChannel;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Cloud Storage write channel that stages writes on local disk.
+ *
+ * <p>Writes are appended to a local spool file, which is fast and sequential, while background
+ * threads stream the spool to a resumable upload session, one chunk at a time. Producers that
+ * write faster than the network therefore don't block, and batch jobs can overlap computing one
+ * file with uploading the previous ones. The spool file is deleted once the upload finishes or
+ * fails.
+ *
+ * <p>Uploads of all channels share a pool of 16 threads. A channel only holds a thread while it
+ * has a full chunk to send, or when it's closed, so channels left open without writes don't starve
+ * the others. The threads aren't daemons, so the JVM doesn't exit while an upload of a closed
+ * channel is still running; they stop a second after the pool runs out of work.
+ *
+ * <p>Channels of this type are returned when opening a file with
+ * {@link CloudStorageOptions#withWriteBehind()} or
+ * {@link CloudStorageOptions#withAsyncWriteBehind()}. In the latter case {@link #close()} returns
+ * as soon as all bytes have been spooled, and {@link #upload()} tells when the object is committed:
+ *
+ * <pre>{@code
+ *   try (SeekableByteChannel chan = Files.newByteChannel(
+ *       path, StandardOpenOption.WRITE, CloudStorageOptions.withAsyncWriteBehind())) {
+ *     chan.write(data);
+ *     uploads.add(((CloudStorageWriteBehindChannel) chan).upload());
+ *   }
+ * }</pre>
+ *
+ * <p>If the upload fails, later writes and a synchronous {@link #close()} throw an
+ * {@link IOException} caused by the failure, and {@link #upload()} fails with it. After an
+ * asynchronous close, {@link #upload()} is the only place the failure is reported, so callers
+ * that don't check it won't notice lost objects.
+ *
+ * <p>This class does not support seeking, reading, or append.
+ *
+ * @see CloudStorageWriteChannel
+ */
+@ThreadSafe
+public final class CloudStorageWriteBehindChannel implements SeekableByteChannel {
+
+  private static final int MAX_UPLOADERS = 16;
+  private static final Executor UPLOADERS = createUploaders();
+
+  private final WriteChannel channel;
+  private final int chunkSize;
+  private final boolean awaitUploadOnClose;
+  private final FileChannel spool;
+  private final SettableFuture<Void> upload = SettableFuture.create();
+  private final Runnable uploadTask = new Runnable() {
+    @Override
+    public void run() {
+      uploadSpool();
+    }
+  };
+
+  @GuardedBy("this")
+  private long size;
+  @GuardedBy("this")
+  private long uploaded;
+  @GuardedBy("this")
+  private boolean uploading;
+  @GuardedBy("this")
+  private boolean closed;
+  @GuardedBy("this")
+  private Throwable failure;
+
+  @CheckReturnValue
+  static CloudStorageWriteBehindChannel create(
+      WriteChannel channel, int chunkSize, boolean awaitUploadOnClose) throws IOException {
+    checkArgument(chunkSize > 0, "chunkSize must be positive: %s", chunkSize);
+    Path spoolFile = Files.createTempFile("gcs-nio-", ".spool");
+    FileChannel spool = FileChannel.open(spoolFile, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    return new CloudStorageWriteBehindChannel(channel, spool, chunkSize, awaitUploadOnClose);
+  }
+
+  private static Executor createUploaders() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_UPLOADERS, MAX_UPLOADERS,
+        1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(false).setNameFormat("gcs-nio-upload-%d").build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private CloudStorageWriteBehindChannel(
+      WriteChannel channel, FileChannel spool, int chunkSize, boolean awaitUploadOnClose) {
+    this.channel = checkNotNull(channel);
+    this.spool = spool;
+    this.chunkSize = chunkSize;
+    this.awaitUploadOnClose = awaitUploadOnClose;
+  }
+
+  /**
+   * Returns a future that completes once the object has been committed to Cloud Storage, or fails
+   * with the reason the upload didn't succeed.
+   */
+  public ListenableFuture<Void> upload() {
+    return upload;
+  }
+
+  @Override
+  public boolean isOpen() {
+    synchronized (this) {
+      return !closed;
+    }
+  }
+
+  /**
+   * Closes this channel, after which no more bytes may be written. If this channel wasn't opened
+   * with {@link CloudStorageOptions#withAsyncWriteBehind()}, waits for the upload to finish.
+   *
+   * @throws IOException if the upload failed
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (startUpload()) {
+        UPLOADERS.execute(uploadTask);
+      }
+    }
+    if (awaitUploadOnClose) {
+      awaitUpload();
+    }
+  }
+
+  private void awaitUpload() throws IOException {
+    try {
+      upload.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for upload");
+    } catch (ExecutionException e) {
+      throw new IOException("Upload failed", e.getCause());
+    }
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    throw new NonReadableChannelException();
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    synchronized (this) {
+      checkOpen();
+      int amt = 0;
+      while (src.hasRemaining()) {
+        amt += spool.write(src, size + amt);
+      }
+      size += amt;
+      if (startUpload()) {
+        UPLOADERS.execute(uploadTask);
+      }
+      return amt;
+    }
+  }
+
+  @Override
+  public long position() throws IOException {
+    synchronized (this) {
+      checkOpen();
+      return size;
+    }
+  }
+
+  @Override
+  public SeekableByteChannel position(long newPosition) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long size() throws IOException {
+    synchronized (this) {
+      checkOpen();
+      return size;
+    }
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long newSize) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  @GuardedBy("this")
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+    if (failure != null) {
+      throw new IOException("Upload failed", failure);
+    }
+  }
+
+  /**
+   * Returns whether an upload task should be started, which is when none is running and either a
+   * full chunk is spooled or this channel is closed. Once the upload failed none is started.
+   */
+  @GuardedBy("this")
+  private boolean startUpload() {
+    if (uploading || failure != null || (!closed && size - uploaded < chunkSize)) {
+      return false;
+    }
+    uploading = true;
+    return true;
+  }
+
+  /**
+   * Streams the spool to {@link #channel} while full chunks are available. Once this channel is
+   * closed, streams the rest of the spool and commits the object.
+   */
+  private void uploadSpool() {
+    ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+    try {
+      while (true) {
+        long position;
+        synchronized (this) {
+          long remaining = size - uploaded;
+          if (!closed && remaining < chunkSize) {
+            uploading = false;
+            return;
+          }
+          if (remaining == 0) {
+            break;
+          }
+          position = uploaded;
+          buffer.clear();
+          buffer.limit((int) Math.min(chunkSize, remaining));
+        }
+        while (buffer.hasRemaining()) {
+          spool.read(buffer, position + buffer.position());
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        synchronized (this) {
+          uploaded += buffer.limit();
+        }
+      }
+      channel.close();
+      closeSpool(null);
+      upload.set(null);
+    } catch (Throwable e) {
+      closeSpool(e);
+      upload.setException(e);
+    }
+  }
+
+  private synchronized void closeSpool(Throwable cause) {
+    failure = cause;
+    try {
+      spool.close();
+    } catch (IOException e) {
+      // The spool is a temp file we're done with; failing to delete it isn't the upload's problem.
+    }
+  }
+}
@@ -19,17 +19,9 @@ package com.google.cloud.storage.contrib.nio;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Ordering;
-import com.google.common.collect.PeekingIterator;
-
-import java.util.ArrayList;
-import java.util.Collections;
+import com.google.common.collect.AbstractIterator;
+
 import java.util.Iterator;
-import java.util.List;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -44,6 +36,10 @@ import javax.annotation.concurrent.Immutable;
  * preserve trailing backslashes, in order to ensure the path will continue to be recognized as a
  * directory.
  *
+ * <p>Components are never materialized as a list. Instead the path string is indexed once, lazily,
+ * into an array of component offsets, and most operations work directly on regions of the
+ * original string, allocating only the resulting path.
+ *
  * <p><b>Note:</b> This code might not play nice with
  * <a href="http://docs.oracle.com/javase/tutorial/i18n/text/supplementaryChars.html">Supplementary
  * Characters as Surrogates</a>.
@@ -59,13 +55,11 @@ final class UnixPath implements CharSequence {
   public static final UnixPath EMPTY_PATH = new UnixPath(false, "");
   public static final UnixPath ROOT_PATH = new UnixPath(false, ROOT);
 
-  private static final Splitter SPLITTER = Splitter.on(SEPARATOR).omitEmptyStrings();
-  private static final Splitter SPLITTER_PERMIT_EMPTY_COMPONENTS = Splitter.on(SEPARATOR);
-  private static final Joiner JOINER = Joiner.on(SEPARATOR);
-  private static final Ordering<Iterable<String>> ORDERING = Ordering.natural().lexicographical();
+  private static final int[] NO_OFFSETS = new int[0];
 
   private final String path;
-  private List<String> lazyStringParts;
+  // Start (inclusive) and end (exclusive) of each component, i.e. [start0, end0, start1, ...].
+  private int[] lazyOffsets;
   private final boolean permitEmptyComponents;
 
   private UnixPath(boolean permitEmptyComponents, String path) {
@@ -173,11 +167,12 @@ final class UnixPath implements CharSequence {
     } else if (isRoot()) {
       return null;
     } else {
-      List<String> parts = getParts();
-      String last = parts.get(parts.size() - 1);
-      return parts.size() == 1 && path.equals(last)
+      int[] offsets = getOffsets();
+      int start = offsets[offsets.length - 2];
+      int end = offsets[offsets.length - 1];
+      return offsets.length == 2 && start == 0 && end == path.length()
           ? this
-          : new UnixPath(permitEmptyComponents, last);
+          : new UnixPath(permitEmptyComponents, path.substring(start, end));
     }
   }
 
@@ -222,13 +217,28 @@ final class UnixPath implements CharSequence {
       return this;
     }
     checkArgument(beginIndex >= 0 && endIndex > beginIndex);
-    List<String> subList;
-    try {
-      subList = getParts().subList(beginIndex, endIndex);
-    } catch (IndexOutOfBoundsException e) {
+    int[] offsets = getOffsets();
+    if (endIndex > offsets.length / 2) {
       throw new IllegalArgumentException();
     }
-    return new UnixPath(permitEmptyComponents, JOINER.join(subList));
+    int start = offsets[2 * beginIndex];
+    int end = offsets[2 * endIndex - 1];
+    int joinedLength = endIndex - beginIndex - 1;
+    for (int i = beginIndex; i < endIndex; i++) {
+      joinedLength += offsets[2 * i + 1] - offsets[2 * i];
+    }
+    if (end - start == joinedLength) {
+      // Components are separated by single slashes, so they're already joined in path.
+      return new UnixPath(permitEmptyComponents, path.substring(start, end));
+    }
+    StringBuilder result = new StringBuilder(joinedLength);
+    for (int i = beginIndex; i < endIndex; i++) {
+      if (i > beginIndex) {
+        result.append(SEPARATOR);
+      }
+      result.append(path, offsets[2 * i], offsets[2 * i + 1]);
+    }
+    return new UnixPath(permitEmptyComponents, result.toString());
   }
 
   /**
@@ -242,7 +252,7 @@ final class UnixPath implements CharSequence {
     } else if (isRoot()) {
       return 0;
     } else {
-      return getParts().size();
+      return getOffsets().length / 2;
     }
   }
 
@@ -255,11 +265,12 @@ final class UnixPath implements CharSequence {
     if (path.isEmpty()) {
       return this;
     }
-    try {
-      return new UnixPath(permitEmptyComponents, getParts().get(index));
-    } catch (IndexOutOfBoundsException e) {
+    int[] offsets = getOffsets();
+    if (index < 0 || index >= offsets.length / 2) {
       throw new IllegalArgumentException();
     }
+    return new UnixPath(
+        permitEmptyComponents, path.substring(offsets[2 * index], offsets[2 * index + 1]));
   }
 
   /**
@@ -268,46 +279,74 @@ final class UnixPath implements CharSequence {
    * @see java.nio.file.Path#normalize()
    */
   public UnixPath normalize() {
-    List<String> parts = new ArrayList<>();
-    boolean mutated = false;
+    if (isNormal()) {
+      return this;
+    }
+    int length = path.length();
+    int maxParts = 1;
+    for (int i = 0; i < length; i++) {
+      if (path.charAt(i) == SEPARATOR) {
+        maxParts++;
+      }
+    }
+    // Each kept part includes its trailing separator, if any.
+    int[] starts = new int[maxParts];
+    int[] ends = new int[maxParts];
+    int parts = 0;
     int resultLength = 0;
     int mark = 0;
     int index;
     do {
       index = path.indexOf(SEPARATOR, mark);
-      String part = path.substring(mark, index == -1 ? path.length() : index + 1);
-      switch (part) {
-        case CURRENT_DIR:
-        case CURRENT_DIR + SEPARATOR:
-          mutated = true;
-          break;
-        case PARENT_DIR:
-        case PARENT_DIR + SEPARATOR:
-          mutated = true;
-          if (!parts.isEmpty()) {
-            resultLength -= parts.remove(parts.size() - 1).length();
-          }
-          break;
-        default:
-          if (index != mark || index == 0) {
-            parts.add(part);
-            resultLength = part.length();
-          } else {
-            mutated = true;
-          }
+      int end = index == -1 ? length : index + 1;
+      if (isDot(mark, index == -1 ? length : index)) {
+        // Skip current directory.
+      } else if (isDotDot(mark, index == -1 ? length : index)) {
+        if (parts > 0) {
+          parts--;
+          resultLength -= ends[parts] - starts[parts];
+        }
+      } else if (index != mark || index == 0) {
+        starts[parts] = mark;
+        ends[parts] = end;
+        parts++;
+        resultLength += end - mark;
       }
       mark = index + 1;
     } while (index != -1);
-    if (!mutated) {
-      return this;
-    }
     StringBuilder result = new StringBuilder(resultLength);
-    for (String part : parts) {
-      result.append(part);
+    for (int i = 0; i < parts; i++) {
+      result.append(path, starts[i], ends[i]);
     }
     return new UnixPath(permitEmptyComponents, result.toString());
   }
 
+  /**
+   * Returns {@code true} if {@link #normalize()} would leave this path unchanged, i.e. it has no
+   * {@code .} or {@code ..} components and no repeated separators.
+   */
+  private boolean isNormal() {
+    int length = path.length();
+    int mark = 0;
+    for (int i = 0; i <= length; i++) {
+      if (i == length || path.charAt(i) == SEPARATOR) {
+        if (i == mark && mark > 0 && i < length || isDot(mark, i) || isDotDot(mark, i)) {
+          return false;
+        }
+        mark = i + 1;
+      }
+    }
+    return true;
+  }
+
+  private boolean isDot(int start, int end) {
+    return end - start == 1 && path.charAt(start) == DOT;
+  }
+
+  private boolean isDotDot(int start, int end) {
+    return end - start == 2 && path.charAt(start) == DOT && path.charAt(start + 1) == DOT;
+  }
+
   /**
    * Returns {@code other} appended to {@code path}.
    *
@@ -346,23 +385,20 @@ final class UnixPath implements CharSequence {
     if (path.isEmpty()) {
       return other;
     }
-    PeekingIterator<String> left = Iterators.peekingIterator(split());
-    PeekingIterator<String> right = Iterators.peekingIterator(other.split());
-    while (left.hasNext() && right.hasNext()) {
-      if (!left.peek().equals(right.peek())) {
-        break;
-      }
-      left.next();
-      right.next();
+    int[] left = getOffsets();
+    int[] right = other.getOffsets();
+    int common = 0;
+    while (2 * common < left.length && 2 * common < right.length
+        && componentEquals(left, common, other, right, common)) {
+      common++;
     }
     StringBuilder result = new StringBuilder(path.length() + other.path.length());
-    while (left.hasNext()) {
+    for (int i = common; 2 * i < left.length; i++) {
       result.append(PARENT_DIR);
       result.append(SEPARATOR);
-      left.next();
     }
-    while (right.hasNext()) {
-      result.append(right.next());
+    for (int i = common; 2 * i < right.length; i++) {
+      result.append(other.path, right[2 * i], right[2 * i + 1]);
       result.append(SEPARATOR);
     }
     if (result.length() > 0 && !other.hasTrailingSeparator()) {
@@ -386,12 +422,13 @@ final class UnixPath implements CharSequence {
     } else if (!me.path.isEmpty() && other.path.isEmpty()) {
       return false;
     }
-    return startsWith(split(), other.split());
-  }
-
-  private static boolean startsWith(Iterator<String> lefts, Iterator<String> rights) {
-    while (rights.hasNext()) {
-      if (!lefts.hasNext() || !rights.next().equals(lefts.next())) {
+    int[] left = getOffsets();
+    int[] right = other.getOffsets();
+    if (right.length > left.length) {
+      return false;
+    }
+    for (int i = 0; 2 * i < right.length; i++) {
+      if (!componentEquals(left, i, other, right, i)) {
         return false;
       }
     }
@@ -413,7 +450,18 @@ final class UnixPath implements CharSequence {
     } else if (other.isAbsolute()) {
       return me.isAbsolute() && me.path.equals(other.path);
     }
-    return startsWith(me.splitReverse(), other.splitReverse());
+    int[] left = me.getOffsets();
+    int[] right = other.getOffsets();
+    if (right.length > left.length) {
+      return false;
+    }
+    int shift = (left.length - right.length) / 2;
+    for (int i = 0; 2 * i < right.length; i++) {
+      if (!me.componentEquals(left, shift + i, other, right, i)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -422,7 +470,18 @@ final class UnixPath implements CharSequence {
    * @see java.nio.file.Path#compareTo(java.nio.file.Path)
    */
   public int compareTo(UnixPath other) {
-    return ORDERING.compare(getParts(), other.getParts());
+    int[] left = getOffsets();
+    int[] right = other.getOffsets();
+    for (int i = 0; 2 * i < left.length; i++) {
+      if (2 * i >= right.length) {
+        return 1;
+      }
+      int result = compareComponents(left, i, other, right, i);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return left.length < right.length ? -1 : 0;
   }
 
   /**
@@ -469,14 +528,40 @@ final class UnixPath implements CharSequence {
    * Splits path into components, excluding separators and empty strings.
    */
   public Iterator<String> split() {
-    return getParts().iterator();
+    final int[] offsets = getOffsets();
+    return new AbstractIterator<String>() {
+      private int index;
+
+      @Override
+      protected String computeNext() {
+        if (2 * index >= offsets.length) {
+          return endOfData();
+        }
+        String part = path.substring(offsets[2 * index], offsets[2 * index + 1]);
+        index++;
+        return part;
+      }
+    };
   }
 
   /**
    * Splits path into components in reverse, excluding separators and empty strings.
    */
   public Iterator<String> splitReverse() {
-    return Lists.reverse(getParts()).iterator();
+    final int[] offsets = getOffsets();
+    return new AbstractIterator<String>() {
+      private int index = offsets.length / 2 - 1;
+
+      @Override
+      protected String computeNext() {
+        if (index < 0) {
+          return endOfData();
+        }
+        String part = path.substring(offsets[2 * index], offsets[2 * index + 1]);
+        index--;
+        return part;
+      }
+    };
   }
 
   @Override
@@ -520,22 +605,71 @@ final class UnixPath implements CharSequence {
   }
 
   /**
-   * Returns list of path components, excluding slashes.
+   * Returns offsets of path components, excluding slashes.
    */
-  private List<String> getParts() {
-    List<String> result = lazyStringParts;
+  private int[] getOffsets() {
+    int[] result = lazyOffsets;
     return result != null
         ? result
-        : (lazyStringParts =
-            path.isEmpty() || isRoot() ? Collections.<String>emptyList() : createParts());
+        : (lazyOffsets = path.isEmpty() || isRoot() ? NO_OFFSETS : createOffsets());
   }
 
-  private List<String> createParts() {
-    if (permitEmptyComponents) {
-      return SPLITTER_PERMIT_EMPTY_COMPONENTS.splitToList(
-          path.charAt(0) == SEPARATOR ? path.substring(1) : path);
-    } else {
-      return SPLITTER.splitToList(path);
+  private int[] createOffsets() {
+    // Empty components are dropped unless permitted, in which case only the leading slash of an
+    // absolute path is skipped.
+    int length = path.length();
+    int from = permitEmptyComponents && path.charAt(0) == SEPARATOR ? 1 : 0;
+    int count = 0;
+    int mark = from;
+    for (int i = from; i <= length; i++) {
+      if (i == length || path.charAt(i) == SEPARATOR) {
+        if (permitEmptyComponents || i > mark) {
+          count++;
+        }
+        mark = i + 1;
+      }
+    }
+    int[] offsets = new int[2 * count];
+    count = 0;
+    mark = from;
+    for (int i = from; i <= length; i++) {
+      if (i == length || path.charAt(i) == SEPARATOR) {
+        if (permitEmptyComponents || i > mark) {
+          offsets[count++] = mark;
+          offsets[count++] = i;
+        }
+        mark = i + 1;
+      }
+    }
+    return offsets;
+  }
+
+  private boolean componentEquals(int[] offsets, int index, UnixPath other, int[] otherOffsets,
+      int otherIndex) {
+    int start = offsets[2 * index];
+    int length = offsets[2 * index + 1] - start;
+    int otherStart = otherOffsets[2 * otherIndex];
+    return length == otherOffsets[2 * otherIndex + 1] - otherStart
+        && path.regionMatches(start, other.path, otherStart, length);
+  }
+
+  /**
+   * Compares two components the same way {@link String#compareTo(String)} would.
+   */
+  private int compareComponents(int[] offsets, int index, UnixPath other, int[] otherOffsets,
+      int otherIndex) {
+    int start = offsets[2 * index];
+    int length = offsets[2 * index + 1] - start;
+    int otherStart = otherOffsets[2 * otherIndex];
+    int otherLength = otherOffsets[2 * otherIndex + 1] - otherStart;
+    int limit = Math.min(length, otherLength);
+    for (int i = 0; i < limit; i++) {
+      char c1 = path.charAt(start + i);
+      char c2 = other.path.charAt(otherStart + i);
+      if (c1 != c2) {
+        return c1 - c2;
+      }
     }
+    return length - otherLength;
   }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Unit tests for {@link CloudStorageFileChannel}.
+ */
+@RunWith(JUnit4.class)
+public class CloudStorageFileChannelTest {
+
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  private final byte[] data = new byte[1000];
+  private Path path;
+
+  @Before
+  public void before() throws IOException {
+    CloudStorageFileSystemProvider.setStorageOptions(LocalStorageHelper.options());
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    path = Paths.get(URI.create("gs://bucket/index"));
+    Files.write(path, data);
+  }
+
+  private FileChannel open() throws IOException {
+    return FileChannel.open(path, CloudStorageOptions.withBlockSize(64));
+  }
+
+  @Test
+  public void testRead_sequential() throws IOException {
+    try (FileChannel chan = open()) {
+      assertThat(chan.size()).isEqualTo(1000L);
+      ByteBuffer buffer = ByteBuffer.allocate(10);
+      assertThat(chan.read(buffer)).isEqualTo(10);
+      assertThat(chan.position()).isEqualTo(10L);
+      assertThat(buffer.array()[9]).isEqualTo((byte) 9);
+      chan.position(995);
+      buffer.clear();
+      assertThat(chan.read(buffer)).isEqualTo(5);
+      assertThat(chan.read(buffer)).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testRead_positional_doesNotMovePosition() throws IOException {
+    try (FileChannel chan = open()) {
+      ByteBuffer buffer = ByteBuffer.allocate(100);
+      assertThat(chan.read(buffer, 500)).isEqualTo(100);
+      assertThat(buffer.array()[0]).isEqualTo(data[500]);
+      assertThat(buffer.array()[99]).isEqualTo(data[599]);
+      assertThat(chan.position()).isEqualTo(0L);
+      buffer.clear();
+      assertThat(chan.read(buffer, 950)).isEqualTo(50);
+      assertThat(buffer.position()).isEqualTo(50);
+      assertThat(chan.read(buffer, 1000)).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testMap_readOnly() throws IOException {
+    try (FileChannel chan = open()) {
+      MappedByteBuffer mapped = chan.map(MapMode.READ_ONLY, 100, 300);
+      assertThat(mapped.remaining()).isEqualTo(300);
+      for (int i = 0; i < 300; i++) {
+        assertThat(mapped.get(i)).isEqualTo(data[100 + i]);
+      }
+      mapped = chan.map(MapMode.READ_ONLY, 0, 1000);
+      assertThat(mapped.get(999)).isEqualTo(data[999]);
+    }
+  }
+
+  @Test
+  public void testMap_readWrite_throwsNonWritableChannelException() throws IOException {
+    try (FileChannel chan = open()) {
+      thrown.expect(NonWritableChannelException.class);
+      chan.map(MapMode.READ_WRITE, 0, 10);
+    }
+  }
+
+  @Test
+  public void testMap_pastEnd_throwsIoException() throws IOException {
+    try (FileChannel chan = open()) {
+      thrown.expect(IOException.class);
+      chan.map(MapMode.READ_ONLY, 990, 20);
+    }
+  }
+
+  @Test
+  public void testWrite_throwsNonWritableChannelException() throws IOException {
+    try (FileChannel chan = open()) {
+      thrown.expect(NonWritableChannelException.class);
+      chan.write(ByteBuffer.allocate(1));
+    }
+  }
+
+  @Test
+  public void testOpen_forWrite_throwsUnsupportedOperationException() throws IOException {
+    thrown.expect(UnsupportedOperationException.class);
+    FileChannel.open(path, StandardOpenOption.WRITE);
+  }
+
+  @Test
+  public void testOpen_missingFile_throwsNoSuchFileException() throws IOException {
+    thrown.expect(NoSuchFileException.class);
+    FileChannel.open(Paths.get(URI.create("gs://bucket/missing")));
+  }
+
+  @Test
+  public void testRead_whenClosed_throwsCce() throws IOException {
+    FileChannel chan = open();
+    chan.close();
+    thrown.expect(ClosedChannelException.class);
+    chan.read(ByteBuffer.allocate(1), 0);
+  }
+}
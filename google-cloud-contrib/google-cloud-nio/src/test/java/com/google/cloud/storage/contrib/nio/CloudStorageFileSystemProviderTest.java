@@ -26,8 +26,18 @@ import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.CREATE_NEW;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
-
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.testing.NullPointerTester;
 
 import org.junit.Before;
@@ -208,6 +218,22 @@ public class CloudStorageFileSystemProviderTest {
     assertThat(new String(Files.readAllBytes(path), UTF_8)).isEqualTo("fileconten");
   }
 
+  @Test
+  public void testNewByteChannelWrite_blockSize_setsUploadChunkSize() throws IOException {
+    StorageOptions storageOptions = mock(StorageOptions.class);
+    Storage storage = mock(Storage.class);
+    WriteChannel writer = mock(WriteChannel.class);
+    when(storageOptions.service()).thenReturn(storage);
+    when(storage.writer(any(BlobInfo.class), (Storage.BlobWriteOption[]) anyVararg()))
+        .thenReturn(writer);
+    CloudStorageFileSystemProvider provider = new CloudStorageFileSystemProvider(storageOptions);
+    Path path = provider.getPath(URI.create("gs://bucket/tests"));
+    ImmutableSet<OpenOption> options = ImmutableSet.of(WRITE,
+        CloudStorageOptions.withBlockSize(512 * 1024));
+    provider.newByteChannel(path, options).close();
+    verify(writer).chunkSize(512 * 1024);
+  }
+
   @Test
   public void testNewInputStream() throws IOException {
     Path path = Paths.get(URI.create("gs://bucket/wat"));
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit tests for {@link CloudStorageObjectHandle}.
+ */
+@RunWith(JUnit4.class)
+public class CloudStorageObjectHandleTest {
+
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  private final byte[] data = new byte[4096];
+  private Path path;
+
+  @Before
+  public void before() throws IOException {
+    CloudStorageFileSystemProvider.setStorageOptions(LocalStorageHelper.options());
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31);
+    }
+    path = Paths.get(URI.create("gs://bucket/rowgroups"));
+    Files.write(path, data);
+  }
+
+  @Test
+  public void testOpen() throws IOException {
+    CloudStorageObjectHandle handle = CloudStorageObjectHandle.open(path);
+    assertThat(handle.size()).isEqualTo(4096L);
+    assertThat(handle.blobId().bucket()).isEqualTo("bucket");
+    assertThat(handle.blobId().name()).isEqualTo("rowgroups");
+  }
+
+  @Test
+  public void testOpen_missingFile_throwsNoSuchFileException() throws IOException {
+    thrown.expect(NoSuchFileException.class);
+    CloudStorageObjectHandle.open(Paths.get(URI.create("gs://bucket/missing")));
+  }
+
+  @Test
+  public void testRead_pastEnd() throws IOException {
+    CloudStorageObjectHandle handle = CloudStorageObjectHandle.open(path);
+    ByteBuffer buffer = ByteBuffer.allocate(100);
+    assertThat(handle.read(buffer, 4050)).isEqualTo(46);
+    assertThat(buffer.position()).isEqualTo(46);
+    assertThat(buffer.get(45)).isEqualTo(data[4095]);
+    assertThat(handle.read(buffer, 4096)).isEqualTo(-1);
+  }
+
+  @Test
+  public void testRead_concurrent() throws Exception {
+    final CloudStorageObjectHandle handle = CloudStorageObjectHandle.open(path);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<byte[]>> results = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        final long offset = i * 128L;
+        results.add(executor.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(128);
+            handle.read(buffer, offset);
+            return buffer.array();
+          }
+        }));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        byte[] chunk = results.get(i).get();
+        for (int j = 0; j < chunk.length; j++) {
+          assertThat(chunk[j]).isEqualTo(data[i * 128 + j]);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testReadChannel_fromHandle_readsFromPosition() throws IOException {
+    CloudStorageReadChannel chan =
+        CloudStorageReadChannel.create(CloudStorageObjectHandle.open(path), 1000);
+    ByteBuffer buffer = ByteBuffer.allocate(10);
+    assertThat(chan.read(buffer)).isEqualTo(10);
+    assertThat(buffer.get(0)).isEqualTo(data[1000]);
+    assertThat(chan.position()).isEqualTo(1010L);
+    assertThat(chan.size()).isEqualTo((long) data.length);
+    chan.close();
+  }
+}
@@ -54,18 +54,34 @@ public class CloudStorageReadChannelTest {
 
   private final Storage gcsStorage = mock(Storage.class);
   private final BlobId file = BlobId.of("blob", "attack");
+  private final BlobId pinnedFile = BlobId.of("blob", "attack", 7L);
   private final Blob metadata = mock(Blob.class);
   private final ReadChannel gcsChannel = mock(ReadChannel.class);
 
   @Before
   public void before() throws IOException {
     when(metadata.size()).thenReturn(42L);
+    when(metadata.generation()).thenReturn(7L);
     when(gcsStorage.get(file)).thenReturn(metadata);
-    when(gcsStorage.reader(eq(file))).thenReturn(gcsChannel);
+    when(gcsStorage.reader(eq(pinnedFile))).thenReturn(gcsChannel);
     when(gcsChannel.isOpen()).thenReturn(true);
     chan = CloudStorageReadChannel.create(gcsStorage, file, 0);
     verify(gcsStorage).get(eq(file));
-    verify(gcsStorage).reader(eq(file));
+    verify(gcsStorage).reader(eq(pinnedFile));
+  }
+
+  @Test
+  public void testCreate_withoutGeneration_readsLatest() throws IOException {
+    Storage storage = mock(Storage.class);
+    Blob blob = mock(Blob.class);
+    ReadChannel channel = mock(ReadChannel.class);
+    when(blob.size()).thenReturn(42L);
+    when(blob.generation()).thenReturn(null);
+    when(storage.get(file)).thenReturn(blob);
+    when(storage.reader(eq(file))).thenReturn(channel);
+    when(channel.isOpen()).thenReturn(true);
+    CloudStorageReadChannel.create(storage, file, 0);
+    verify(storage).reader(eq(file));
   }
 
   @Test
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.WriteChannel;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link CloudStorageWriteBehindChannel}.
+ */
+@RunWith(JUnit4.class)
+public class CloudStorageWriteBehindChannelTest {
+
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  private final byte[] data = new byte[1000];
+  private Path path;
+
+  @Before
+  public void before() {
+    CloudStorageFileSystemProvider.setStorageOptions(LocalStorageHelper.options());
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    path = Paths.get(URI.create("gs://bucket/spooled"));
+  }
+
+  @Test
+  public void testNewByteChannel_withWriteBehind_returnsWriteBehindChannel() throws IOException {
+    try (SeekableByteChannel chan = Files.newByteChannel(
+        path, StandardOpenOption.WRITE, CloudStorageOptions.withWriteBehind())) {
+      assertThat(chan).isInstanceOf(CloudStorageWriteBehindChannel.class);
+    }
+  }
+
+  @Test
+  public void testWrite_closeWaitsForUpload() throws IOException {
+    try (SeekableByteChannel chan = Files.newByteChannel(path, StandardOpenOption.WRITE,
+        CloudStorageOptions.withWriteBehind(), CloudStorageOptions.withBlockSize(64))) {
+      for (int i = 0; i < data.length; i += 100) {
+        assertThat(chan.write(ByteBuffer.wrap(data, i, 100))).isEqualTo(100);
+      }
+      assertThat(chan.position()).isEqualTo(1000L);
+      assertThat(chan.size()).isEqualTo(1000L);
+    }
+    assertThat(Files.readAllBytes(path)).isEqualTo(data);
+  }
+
+  @Test
+  public void testWrite_asyncClose_uploadCompletesLater() throws Exception {
+    CloudStorageWriteBehindChannel chan;
+    try (SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.WRITE,
+        CloudStorageOptions.withAsyncWriteBehind(), CloudStorageOptions.withBlockSize(64))) {
+      chan = (CloudStorageWriteBehindChannel) channel;
+      chan.write(ByteBuffer.wrap(data));
+    }
+    assertThat(chan.isOpen()).isFalse();
+    chan.upload().get(10, TimeUnit.SECONDS);
+    assertThat(Files.readAllBytes(path)).isEqualTo(data);
+  }
+
+  @Test
+  public void testOutputStream_withWriteBehind() throws IOException {
+    Files.write(path, data, CloudStorageOptions.withWriteBehind());
+    assertThat(Files.readAllBytes(path)).isEqualTo(data);
+  }
+
+  @Test
+  public void testRead_throwsNonReadableChannelException() throws IOException {
+    try (SeekableByteChannel chan = Files.newByteChannel(
+        path, StandardOpenOption.WRITE, CloudStorageOptions.withWriteBehind())) {
+      thrown.expect(NonReadableChannelException.class);
+      chan.read(ByteBuffer.allocate(1));
+    }
+  }
+
+  @Test
+  public void testWrite_whenClosed_throwsCce() throws IOException {
+    SeekableByteChannel chan = Files.newByteChannel(
+        path, StandardOpenOption.WRITE, CloudStorageOptions.withWriteBehind());
+    chan.close();
+    thrown.expect(ClosedChannelException.class);
+    chan.write(ByteBuffer.wrap(data));
+  }
+
+  @Test
+  public void testUploadFailure_failsFutureAndLaterWrites() throws Exception {
+    WriteChannel gcsChannel = mock(WriteChannel.class);
+    IOException failure = new IOException("upload failed");
+    when(gcsChannel.write(any(ByteBuffer.class))).thenThrow(failure);
+    CloudStorageWriteBehindChannel chan = CloudStorageWriteBehindChannel.create(gcsChannel, 64,
+        false);
+    chan.write(ByteBuffer.wrap(data));
+    try {
+      chan.upload().get(10, TimeUnit.SECONDS);
+      fail("ExecutionException expected");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isSameAs(failure);
+    }
+    try {
+      chan.write(ByteBuffer.wrap(data));
+      fail("IOException expected");
+    } catch (IOException e) {
+      assertThat(e.getCause()).isSameAs(failure);
+    }
+    // Closing an asynchronous channel doesn't report the failure again
+    chan.close();
+  }
+
+  @Test
+  public void testUploadFailure_failsClose() throws Exception {
+    WriteChannel gcsChannel = mock(WriteChannel.class);
+    IOException failure = new IOException("upload failed");
+    when(gcsChannel.write(any(ByteBuffer.class))).thenThrow(failure);
+    // Less than a chunk is spooled, so the upload only starts on close
+    CloudStorageWriteBehindChannel chan = CloudStorageWriteBehindChannel.create(gcsChannel, 64,
+        true);
+    chan.write(ByteBuffer.wrap(data, 0, 10));
+    try {
+      chan.close();
+      fail("IOException expected");
+    } catch (IOException e) {
+      assertThat(e.getCause()).isSameAs(failure);
+    }
+    assertThat(chan.upload().isDone()).isTrue();
+  }
+
+  @Test
+  public void testUploadFailure_onCommit_failsClose() throws Exception {
+    WriteChannel gcsChannel = mock(WriteChannel.class);
+    IOException failure = new IOException("commit failed");
+    when(gcsChannel.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+      @Override
+      public Integer answer(InvocationOnMock invocation) {
+        ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[0];
+        int written = buffer.remaining();
+        buffer.position(buffer.limit());
+        return written;
+      }
+    });
+    doThrow(failure).when(gcsChannel).close();
+    CloudStorageWriteBehindChannel chan = CloudStorageWriteBehindChannel.create(gcsChannel, 64,
+        true);
+    chan.write(ByteBuffer.wrap(data, 0, 64));
+    try {
+      chan.close();
+      fail("IOException expected");
+    } catch (IOException e) {
+      assertThat(e.getCause()).isSameAs(failure);
+    }
+  }
+
+  @Test
+  public void testClose_twice_isNoop() throws IOException {
+    SeekableByteChannel chan = Files.newByteChannel(
+        path, StandardOpenOption.WRITE, CloudStorageOptions.withWriteBehind());
+    chan.write(ByteBuffer.wrap(data));
+    chan.close();
+    chan.close();
+    assertThat(Files.size(path)).isEqualTo(1000L);
+  }
+}
@@ -28,6 +28,8 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.Random;
+
 /**
  * Unit tests for {@link UnixPath}.
  */
@@ -85,6 +87,41 @@ public class UnixPathTest {
     assertThat(path.normalize()).isSameAs(path);
   }
 
+  @Test
+  public void testNormalize_underflowAfterExtraSlashes() {
+    // These used to throw NegativeArraySizeException
+    assertThat(p("/a/..//..").normalize()).isEqualTo(p(""));
+    assertThat(p("/a//../..").normalize()).isEqualTo(p(""));
+    assertThat(p("/ab/../..").normalize()).isEqualTo(p(""));
+    assertThat(p("/a/..//../b/").normalize()).isEqualTo(p("b/"));
+    assertThat(pp("/a/..//..").normalize()).isEqualTo(pp(""));
+    assertThat(pp("/a//../..").normalize()).isEqualTo(pp(""));
+  }
+
+  @Test
+  public void testNormalize_randomPaths() {
+    String[] components = {"a", "b", ".", "..", ""};
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      StringBuilder builder = new StringBuilder();
+      int count = random.nextInt(8);
+      for (int j = 0; j < count; j++) {
+        if (j > 0 || random.nextBoolean()) {
+          builder.append('/');
+        }
+        builder.append(components[random.nextInt(components.length)]);
+      }
+      for (UnixPath path : new UnixPath[] {p(builder.toString()), pp(builder.toString())}) {
+        UnixPath normalized = path.normalize();
+        String result = "/" + normalized + "/";
+        assertThat(normalized.normalize()).isEqualTo(normalized);
+        assertThat(normalized.toString()).doesNotContain("//");
+        assertThat(result).doesNotContain("/./");
+        assertThat(result).doesNotContain("/../");
+      }
+    }
+  }
+
   @Test
   public void testResolve() {
     assertThat(p("/hello").resolve(p("cat"))).isEqualTo(p("/hello/cat"));
@@ -102,6 +139,13 @@ public class UnixPathTest {
     assertThat(p("hello").resolve(path)).isSameAs(path);
   }
 
+  @Test
+  public void testResolve_unnormalizedPath_isKeptAsIs() {
+    assertThat(p("/a/..//..").resolve(p("b"))).isEqualTo(p("/a/..//../b"));
+    assertThat(p("/a/..//").resolve(p("../b"))).isEqualTo(p("/a/..//../b"));
+    assertThat(pp("/a/..//..").resolve(pp("b"))).isEqualTo(pp("/a/..//../b"));
+  }
+
   @Test
   public void testGetPath() {
     assertThat(UnixPath.getPath(false, "hello")).isEqualTo(p("hello"));
@@ -150,6 +194,15 @@ public class UnixPathTest {
     assertThat(p("/a/b/").relativize(p("/etc/"))).isEqualTo(p("../../etc/"));
   }
 
+  @Test
+  public void testRelativize_unnormalizedPath() {
+    assertThat(p("/a/..//..").relativize(p("/a/b"))).isEqualTo(p("../../b"));
+    assertThat(p("/a/b").relativize(p("/a/..//.."))).isEqualTo(p("../../.."));
+    assertThat(p("/a//b").relativize(p("/a/c"))).isEqualTo(p("../c"));
+    assertThat(pp("/a/..//..").relativize(pp("/a/b"))).isEqualTo(pp("../../../b"));
+    assertThat(pp("/a/b").relativize(pp("/a/..//.."))).isEqualTo(pp("../..//.."));
+  }
+
   @Test
   public void testStartsWith() {
     assertThat(p("/hi/there").startsWith(p("/hi/there"))).isTrue();
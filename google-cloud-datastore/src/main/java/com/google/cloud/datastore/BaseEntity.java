@@ -29,6 +29,7 @@ import static com.google.cloud.datastore.NullValue.of;
 import static com.google.cloud.datastore.StringValue.of;
 
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Maps;
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -38,6 +39,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A base class for entities (key and properties).
@@ -54,7 +57,11 @@ public abstract class BaseEntity<K extends IncompleteKey>
 
   private static final long serialVersionUID = 8175618724683792766L;
 
-  private final transient ImmutableSortedMap<String, Value<?>> properties;
+  // Null until decoded, if the entity was created by fromPb.
+  private transient volatile ImmutableSortedMap<String, Value<?>> properties;
+  // The protocol buffer the properties are lazily decoded from, or null if they are not.
+  private final transient com.google.datastore.v1.Entity entityPb;
+  private final transient ConcurrentMap<String, Value<?>> decodedProperties;
   private final K key;
 
   public abstract static class Builder<K extends IncompleteKey, B extends Builder<K, B>> {
@@ -75,7 +82,7 @@ public abstract class BaseEntity<K extends IncompleteKey>
 
     Builder(K key, BaseEntity<?> entity) {
       key(key);
-      properties(entity.properties);
+      properties(entity.properties());
     }
 
     protected K key() {
@@ -452,16 +459,31 @@ public abstract class BaseEntity<K extends IncompleteKey>
   BaseEntity(Builder<K, ?> builder) {
     this.key = builder.key;
     this.properties = ImmutableSortedMap.copyOf(builder.properties);
+    this.entityPb = null;
+    this.decodedProperties = null;
   }
 
   BaseEntity(BaseEntity<K> from) {
     this.key = from.key();
     this.properties = from.properties;
+    this.entityPb = from.entityPb;
+    this.decodedProperties = from.decodedProperties;
+  }
+
+  /**
+   * Creates an entity whose properties are decoded from {@code entityPb} only when accessed.
+   * Query and lookup results are created this way, as callers often read only a few of the
+   * properties they return.
+   */
+  BaseEntity(K key, com.google.datastore.v1.Entity entityPb) {
+    this.key = key;
+    this.entityPb = entityPb;
+    this.decodedProperties = new ConcurrentHashMap<>();
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(key, properties);
+    return Objects.hash(key, properties());
   }
 
   @Override
@@ -474,7 +496,7 @@ public abstract class BaseEntity<K extends IncompleteKey>
     }
     BaseEntity<?> other = (BaseEntity<?>) obj;
     return Objects.equals(key, other.key)
-        && Objects.equals(properties, other.properties);
+        && Objects.equals(properties(), other.properties());
   }
 
   /**
@@ -495,7 +517,9 @@ public abstract class BaseEntity<K extends IncompleteKey>
    * Returns {@code true} if the entity contains a property with the given {@code name}.
    */
   public boolean contains(String name) {
-    return properties.containsKey(name);
+    ImmutableSortedMap<String, Value<?>> decoded = properties;
+    return decoded != null ? decoded.containsKey(name)
+        : entityPb.getProperties().containsKey(name);
   }
 
   /**
@@ -505,7 +529,7 @@ public abstract class BaseEntity<K extends IncompleteKey>
    */
   public <V extends Value<?>> V getValue(String name) {
     @SuppressWarnings("unchecked")
-    V property = (V) properties.get(name);
+    V property = (V) property(name);
     if (property == null) {
       throw DatastoreException.throwInvalidRequest("No such property %s", name);
     }
@@ -636,11 +660,43 @@ public abstract class BaseEntity<K extends IncompleteKey>
    * Returns the properties name.
    */
   public Set<String> names() {
-    return properties.keySet();
+    ImmutableSortedMap<String, Value<?>> decoded = properties;
+    return decoded != null ? decoded.keySet()
+        : ImmutableSortedSet.copyOf(entityPb.getProperties().keySet());
+  }
+
+  private Value<?> property(String name) {
+    ImmutableSortedMap<String, Value<?>> decoded = properties;
+    if (decoded != null) {
+      return decoded.get(name);
+    }
+    Value<?> value = decodedProperties.get(name);
+    if (value == null) {
+      com.google.datastore.v1.Value valuePb = entityPb.getProperties().get(name);
+      if (valuePb == null) {
+        return null;
+      }
+      value = Value.fromPb(valuePb);
+      Value<?> previous = decodedProperties.putIfAbsent(name, value);
+      if (previous != null) {
+        value = previous;
+      }
+    }
+    return value;
   }
 
   ImmutableSortedMap<String, Value<?>> properties() {
-    return properties;
+    ImmutableSortedMap<String, Value<?>> decoded = properties;
+    if (decoded == null) {
+      ImmutableSortedMap.Builder<String, Value<?>> builder = ImmutableSortedMap.naturalOrder();
+      for (String name : entityPb.getProperties().keySet()) {
+        builder.put(name, property(name));
+      }
+      // Concurrent callers may both build the map, but from the same decoded values.
+      decoded = builder.build();
+      properties = decoded;
+    }
+    return decoded;
   }
 
   @Override
@@ -654,9 +710,12 @@ public abstract class BaseEntity<K extends IncompleteKey>
 
   @Override
   final com.google.datastore.v1.Entity toPb() {
+    if (entityPb != null) {
+      return entityPb;
+    }
     com.google.datastore.v1.Entity.Builder entityPb = com.google.datastore.v1.Entity.newBuilder();
     Map<String, com.google.datastore.v1.Value> propertiesPb = entityPb.getMutableProperties();
-    for (Map.Entry<String, Value<?>> entry : properties.entrySet()) {
+    for (Map.Entry<String, Value<?>> entry : properties().entrySet()) {
       propertiesPb.put(entry.getKey(), entry.getValue().toPb());
     }
     if (key != null) {
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A writer for large numbers of independent, non-transactional writes.
+ *
+ * <p>Unlike a {@link Batch}, which sends all its writes in a single commit, a bulk writer buffers
+ * writes and sends a commit whenever the buffer reaches
+ * {@link BulkWriterOptions#maxMutationsPerCommit()} mutations or
+ * {@link BulkWriterOptions#maxCommitBytes()} serialized bytes. Up to
+ * {@link BulkWriterOptions#maxConcurrentCommits()} commits are sent concurrently; once that many
+ * are in flight, writing blocks until one completes.
+ *
+ * <p>Each write returns a {@link ListenableFuture} for its own outcome. Commits are retried according to
+ * {@link DatastoreOptions#retryParams()}. If Cloud Datastore rejects a commit with a
+ * non-retryable error, its mutations are split in halves and sent again until the offending ones
+ * are isolated, so one bad entity doesn't fail the rest. A failed write's {@link Future#get()}
+ * throws an {@link ExecutionException} whose cause is a {@link DatastoreException}.
+ *
+ * <pre> {@code
+ * try (BulkWriter writer = datastore.newBulkWriter()) {
+ *   for (Entity entity : entities) {
+ *     results.add(writer.put(entity));
+ *   }
+ * }
+ * for (Future<Key> result : results) {
+ *   result.get();
+ * }
+ * }</pre>
+ *
+ * <p>Since commits are concurrent, writes to the same key are not guaranteed to be applied in
+ * order unless {@link #flush()} is called between them. This class is thread-safe.
+ */
+public interface BulkWriter extends AutoCloseable {
+
+  /**
+   * Inserts {@code entity}, which must not already exist. If its key is incomplete, an id is
+   * allocated when the entity is committed. {@link Future#get()} returns the entity's key.
+   */
+  ListenableFuture<Key> add(FullEntity<?> entity);
+
+  /**
+   * Updates {@code entity}, which must already exist. {@link Future#get()} returns its key.
+   */
+  ListenableFuture<Key> update(Entity entity);
+
+  /**
+   * Writes {@code entity}, whether or not it exists. If its key is incomplete, an id is allocated
+   * when the entity is committed. {@link Future#get()} returns the entity's key.
+   */
+  ListenableFuture<Key> put(FullEntity<?> entity);
+
+  /**
+   * Deletes the entity with the given key, if any. {@link Future#get()} returns the key.
+   */
+  ListenableFuture<Key> delete(Key key);
+
+  /**
+   * Sends all buffered writes and waits for every commit in flight to complete. Failures are
+   * reported by the futures of the affected writes, not by this method.
+   *
+   * @throws DatastoreException if this writer is closed
+   */
+  void flush();
+
+  /**
+   * Flushes this writer and closes it. Further writes throw a {@link DatastoreException}.
+   */
+  @Override
+  void close();
+}
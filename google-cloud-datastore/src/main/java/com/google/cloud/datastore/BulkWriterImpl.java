@@ -0,0 +1,271 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.CodedOutputStream;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+final class BulkWriterImpl implements BulkWriter {
+
+  // Errors caused by a single mutation, such as an invalid entity, an insert of an existing entity
+  // or an update of a missing one. Any other error would fail every part of the commit as well.
+  private static final Set<String> MUTATION_ERRORS =
+      ImmutableSet.of("INVALID_ARGUMENT", "ALREADY_EXISTS", "NOT_FOUND");
+
+  private final DatastoreImpl datastore;
+  private final BulkWriterOptions options;
+  private final Semaphore commitPermits;
+  private final ExecutorService commitExecutor;
+
+  @GuardedBy("this")
+  private List<PendingMutation> buffer = new ArrayList<>();
+  @GuardedBy("this")
+  private final Set<Key> bufferedKeys = new HashSet<>();
+  @GuardedBy("this")
+  private long bufferedBytes;
+  @GuardedBy("this")
+  private boolean active = true;
+
+  private static final class PendingMutation {
+
+    private final com.google.datastore.v1.Mutation mutationPb;
+    private final Key key;
+    private final int size;
+    private final SettableFuture<Key> result = SettableFuture.create();
+
+    PendingMutation(com.google.datastore.v1.Mutation mutationPb, Key key) {
+      this.mutationPb = mutationPb;
+      this.key = key;
+      int serializedSize = mutationPb.getSerializedSize();
+      // Field tag and length prefix of the mutation within the commit request.
+      this.size = 1 + CodedOutputStream.computeUInt32SizeNoTag(serializedSize) + serializedSize;
+    }
+  }
+
+  BulkWriterImpl(DatastoreImpl datastore, BulkWriterOptions options) {
+    this.datastore = datastore;
+    this.options = options;
+    this.commitPermits = new Semaphore(options.maxConcurrentCommits(), true);
+    this.commitExecutor = newCommitExecutor(options.maxConcurrentCommits());
+  }
+
+  /**
+   * Returns an executor for the commits of one bulk writer. Writes block while
+   * {@code concurrency} commits are in flight, so commits don't run on the service's shared
+   * executor: a write made from one of its threads, e.g. in a callback of an asynchronous lookup,
+   * would otherwise wait for commits queued behind it. Idle threads time out, and all of them stop
+   * once the writer is closed.
+   */
+  private static ExecutorService newCommitExecutor(int concurrency) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 60L,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("datastore-bulk-writer-%d")
+            .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @Override
+  public ListenableFuture<Key> add(FullEntity<?> entity) {
+    Preconditions.checkArgument(entity.key() != null, "Entity must have a key");
+    return write(com.google.datastore.v1.Mutation.newBuilder().setInsert(entity.toPb()).build(),
+        completeKey(entity));
+  }
+
+  @Override
+  public ListenableFuture<Key> update(Entity entity) {
+    return write(com.google.datastore.v1.Mutation.newBuilder().setUpdate(entity.toPb()).build(),
+        entity.key());
+  }
+
+  @Override
+  public ListenableFuture<Key> put(FullEntity<?> entity) {
+    Preconditions.checkArgument(entity.key() != null, "Entity must have a key");
+    Key key = completeKey(entity);
+    // Like Batch, entities with incomplete keys are inserted since their key can't exist yet.
+    com.google.datastore.v1.Mutation.Builder mutationPb = com.google.datastore.v1.Mutation
+        .newBuilder();
+    if (key != null) {
+      mutationPb.setUpsert(entity.toPb());
+    } else {
+      mutationPb.setInsert(entity.toPb());
+    }
+    return write(mutationPb.build(), key);
+  }
+
+  @Override
+  public ListenableFuture<Key> delete(Key key) {
+    return write(com.google.datastore.v1.Mutation.newBuilder().setDelete(key.toPb()).build(), key);
+  }
+
+  private static Key completeKey(FullEntity<?> entity) {
+    return entity.key() instanceof Key ? (Key) entity.key() : null;
+  }
+
+  private ListenableFuture<Key> write(com.google.datastore.v1.Mutation mutationPb, Key key) {
+    PendingMutation mutation = new PendingMutation(mutationPb, key);
+    List<PendingMutation> chunk = null;
+    synchronized (this) {
+      validateActive();
+      // A commit can't hold two mutations of the same entity, nor exceed the size limits.
+      if (!buffer.isEmpty() && ((key != null && bufferedKeys.contains(key))
+          || bufferedBytes + mutation.size > options.maxCommitBytes())) {
+        chunk = drainBuffer();
+      }
+      buffer.add(mutation);
+      bufferedBytes += mutation.size;
+      if (key != null) {
+        bufferedKeys.add(key);
+      }
+      if (chunk == null && buffer.size() == options.maxMutationsPerCommit()) {
+        chunk = drainBuffer();
+      }
+    }
+    if (chunk != null) {
+      send(chunk);
+    }
+    return mutation.result;
+  }
+
+  @GuardedBy("this")
+  private List<PendingMutation> drainBuffer() {
+    List<PendingMutation> chunk = buffer;
+    buffer = new ArrayList<>();
+    bufferedKeys.clear();
+    bufferedBytes = 0;
+    return chunk;
+  }
+
+  @GuardedBy("this")
+  private void validateActive() {
+    if (!active) {
+      throw DatastoreException.throwInvalidRequest("bulk writer is no longer active");
+    }
+  }
+
+  private void send(final List<PendingMutation> chunk) {
+    commitPermits.acquireUninterruptibly();
+    try {
+      commitExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            commit(chunk);
+          } finally {
+            commitPermits.release();
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      commitPermits.release();
+      fail(chunk, e);
+    }
+  }
+
+  /**
+   * Commits {@code chunk} and completes the result of each of its mutations. If the commit is
+   * rejected because of one of its mutations, the two halves of {@code chunk} are committed
+   * separately to isolate the mutations that caused it. Any other error fails the whole chunk.
+   */
+  private void commit(List<PendingMutation> chunk) {
+    com.google.datastore.v1.CommitRequest.Builder requestPb =
+        com.google.datastore.v1.CommitRequest.newBuilder();
+    requestPb.setMode(com.google.datastore.v1.CommitRequest.Mode.NON_TRANSACTIONAL);
+    for (PendingMutation mutation : chunk) {
+      requestPb.addMutations(mutation.mutationPb);
+    }
+    com.google.datastore.v1.CommitResponse responsePb;
+    try {
+      responsePb = datastore.commit(requestPb.build());
+    } catch (DatastoreException e) {
+      if (chunk.size() > 1 && MUTATION_ERRORS.contains(e.reason())) {
+        int half = chunk.size() / 2;
+        commit(chunk.subList(0, half));
+        commit(chunk.subList(half, chunk.size()));
+      } else {
+        fail(chunk, e);
+      }
+      return;
+    } catch (RuntimeException e) {
+      fail(chunk, e);
+      return;
+    }
+    for (int i = 0; i < chunk.size(); i++) {
+      PendingMutation mutation = chunk.get(i);
+      mutation.result.set(mutation.key != null
+          ? mutation.key : Key.fromPb(responsePb.getMutationResults(i).getKey()));
+    }
+  }
+
+  private static void fail(List<PendingMutation> chunk, Throwable cause) {
+    for (PendingMutation mutation : chunk) {
+      mutation.result.setException(cause);
+    }
+  }
+
+  @Override
+  public void flush() {
+    List<PendingMutation> chunk;
+    synchronized (this) {
+      validateActive();
+      chunk = drainBuffer();
+    }
+    flush(chunk);
+  }
+
+  private void flush(List<PendingMutation> chunk) {
+    if (!chunk.isEmpty()) {
+      send(chunk);
+    }
+    // Holding every permit means no commit is in flight.
+    commitPermits.acquireUninterruptibly(options.maxConcurrentCommits());
+    commitPermits.release(options.maxConcurrentCommits());
+  }
+
+  @Override
+  public void close() {
+    List<PendingMutation> chunk;
+    synchronized (this) {
+      if (!active) {
+        return;
+      }
+      active = false;
+      chunk = drainBuffer();
+    }
+    try {
+      flush(chunk);
+    } finally {
+      commitExecutor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Options for a {@link BulkWriter}.
+ *
+ * @see Datastore#newBulkWriter(BulkWriterOptions)
+ */
+public final class BulkWriterOptions implements Serializable {
+
+  private static final long serialVersionUID = -2361757314254963315L;
+
+  /**
+   * The maximum number of mutations Cloud Datastore accepts in a single commit.
+   */
+  public static final int MAX_MUTATIONS_PER_COMMIT = 500;
+  static final int DEFAULT_MAX_COMMIT_BYTES = 9 * 1024 * 1024;
+  static final int DEFAULT_MAX_CONCURRENT_COMMITS = 8;
+
+  private final int maxMutationsPerCommit;
+  private final int maxCommitBytes;
+  private final int maxConcurrentCommits;
+
+  public static final class Builder {
+
+    private int maxMutationsPerCommit = MAX_MUTATIONS_PER_COMMIT;
+    private int maxCommitBytes = DEFAULT_MAX_COMMIT_BYTES;
+    private int maxConcurrentCommits = DEFAULT_MAX_CONCURRENT_COMMITS;
+
+    private Builder() {
+    }
+
+    private Builder(BulkWriterOptions options) {
+      maxMutationsPerCommit = options.maxMutationsPerCommit;
+      maxCommitBytes = options.maxCommitBytes;
+      maxConcurrentCommits = options.maxConcurrentCommits;
+    }
+
+    /**
+     * Sets the maximum number of mutations sent in one commit. Defaults to
+     * {@link #MAX_MUTATIONS_PER_COMMIT}.
+     */
+    public Builder maxMutationsPerCommit(int maxMutationsPerCommit) {
+      checkArgument(maxMutationsPerCommit > 0 && maxMutationsPerCommit <= MAX_MUTATIONS_PER_COMMIT,
+          "maxMutationsPerCommit must be between 1 and %s", MAX_MUTATIONS_PER_COMMIT);
+      this.maxMutationsPerCommit = maxMutationsPerCommit;
+      return this;
+    }
+
+    /**
+     * Sets the maximum serialized size of the mutations sent in one commit. A mutation larger than
+     * this is sent on its own. Defaults to 9 MiB, leaving room below the 10 MiB request limit.
+     */
+    public Builder maxCommitBytes(int maxCommitBytes) {
+      checkArgument(maxCommitBytes > 0, "maxCommitBytes must be positive");
+      this.maxCommitBytes = maxCommitBytes;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of commits in flight at once. Writers block when this many commits
+     * are outstanding and another one is ready. Defaults to 8. Each writer sends its commits from
+     * threads of its own, independent of {@link DatastoreOptions#asyncConcurrency()}.
+     */
+    public Builder maxConcurrentCommits(int maxConcurrentCommits) {
+      checkArgument(maxConcurrentCommits > 0, "maxConcurrentCommits must be positive");
+      this.maxConcurrentCommits = maxConcurrentCommits;
+      return this;
+    }
+
+    public BulkWriterOptions build() {
+      return new BulkWriterOptions(this);
+    }
+  }
+
+  private BulkWriterOptions(Builder builder) {
+    maxMutationsPerCommit = builder.maxMutationsPerCommit;
+    maxCommitBytes = builder.maxCommitBytes;
+    maxConcurrentCommits = builder.maxConcurrentCommits;
+  }
+
+  public int maxMutationsPerCommit() {
+    return maxMutationsPerCommit;
+  }
+
+  public int maxCommitBytes() {
+    return maxCommitBytes;
+  }
+
+  public int maxConcurrentCommits() {
+    return maxConcurrentCommits;
+  }
+
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the default options.
+   */
+  public static BulkWriterOptions defaults() {
+    return builder().build();
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(maxMutationsPerCommit, maxCommitBytes, maxConcurrentCommits);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof BulkWriterOptions)) {
+      return false;
+    }
+    BulkWriterOptions other = (BulkWriterOptions) obj;
+    return maxMutationsPerCommit == other.maxMutationsPerCommit
+        && maxCommitBytes == other.maxCommitBytes
+        && maxConcurrentCommits == other.maxConcurrentCommits;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("maxMutationsPerCommit", maxMutationsPerCommit)
+        .add("maxCommitBytes", maxCommitBytes)
+        .add("maxConcurrentCommits", maxConcurrentCommits)
+        .toString();
+  }
+}
@@ -0,0 +1,781 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link Datastore} that caches entities looked up by key.
+ *
+ * <p>Lookups, i.e. {@code get} and {@code fetch} and their asynchronous variants, are served from a
+ * bounded in-process cache, then from an optional {@link SecondLevelCache} shared with other
+ * processes, and only then from the wrapped service, whose results are added to both caches.
+ * Entities that don't exist are not cached. Queries are not cached.
+ *
+ * <p>Writes made through this object, including through its transactions, batches and bulk
+ * writers, invalidate the written keys once they complete. Writes made through any other client
+ * are not seen until the cached entity expires, see {@link Builder#expireAfterWrite}. Lookups
+ * within a transaction always bypass the cache.
+ *
+ * <pre> {@code
+ * Datastore datastore = CachingDatastore.builder(DatastoreOptions.defaultInstance().service())
+ *     .maximumSize(10_000)
+ *     .expireAfterWrite(1, TimeUnit.MINUTES)
+ *     .build();
+ * Entity config = datastore.get(configKey);
+ * }</pre>
+ */
+public final class CachingDatastore implements Datastore {
+
+  private static final int INVALIDATION_STRIPES = 1024;
+
+  private final Datastore datastore;
+  private final Cache<Key, Entity> cache;
+  private final SecondLevelCache secondLevelCache;
+  // The invalidation count of each stripe of keys, incremented whenever a key of the stripe is
+  // invalidated. Keys only share a count when their hashes collide, which at worst skips caching.
+  @GuardedBy("this")
+  private final long[] invalidations = new long[INVALIDATION_STRIPES];
+
+  /**
+   * A cache shared by several processes, such as a memcache. Implementations must be thread-safe
+   * and should fail silently, since the wrapped service remains the source of truth.
+   */
+  public interface SecondLevelCache {
+
+    /**
+     * Returns the cached entities among those with the given keys.
+     */
+    Map<Key, Entity> getAll(Set<Key> keys);
+
+    /**
+     * Caches the given entities.
+     */
+    void putAll(Map<Key, Entity> entities);
+
+    /**
+     * Removes the entities with the given keys, if cached.
+     */
+    void invalidateAll(Set<Key> keys);
+  }
+
+  public static final class Builder {
+
+    private final Datastore datastore;
+    private long maximumSize = 10_000;
+    private long expireAfterWriteNanos = -1;
+    private SecondLevelCache secondLevelCache;
+
+    private Builder(Datastore datastore) {
+      this.datastore = checkNotNull(datastore);
+    }
+
+    /**
+     * Sets the maximum number of entities cached in-process. Least recently used entities are
+     * evicted first. Defaults to 10,000.
+     */
+    public Builder maximumSize(long maximumSize) {
+      checkArgument(maximumSize >= 0, "maximumSize must not be negative");
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * Sets how long an entity is cached in-process, which bounds how stale it can be with respect
+     * to writes made by other clients. By default entities are cached until evicted or
+     * invalidated.
+     */
+    public Builder expireAfterWrite(long duration, TimeUnit unit) {
+      checkArgument(duration >= 0, "duration must not be negative");
+      this.expireAfterWriteNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Sets a cache to look entities up in when they aren't cached in-process.
+     */
+    public Builder secondLevelCache(SecondLevelCache secondLevelCache) {
+      this.secondLevelCache = checkNotNull(secondLevelCache);
+      return this;
+    }
+
+    public CachingDatastore build() {
+      return new CachingDatastore(this);
+    }
+  }
+
+  private CachingDatastore(Builder builder) {
+    this.datastore = builder.datastore;
+    CacheBuilder<Object, Object> cacheBuilder =
+        CacheBuilder.newBuilder().maximumSize(builder.maximumSize).recordStats();
+    if (builder.expireAfterWriteNanos >= 0) {
+      cacheBuilder.expireAfterWrite(builder.expireAfterWriteNanos, TimeUnit.NANOSECONDS);
+    }
+    this.cache = cacheBuilder.build();
+    this.secondLevelCache = builder.secondLevelCache;
+  }
+
+  /**
+   * Returns a builder for a cache in front of {@code datastore}.
+   */
+  public static Builder builder(Datastore datastore) {
+    return new Builder(datastore);
+  }
+
+  /**
+   * Returns the statistics of the in-process cache.
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Removes all entities from the in-process cache.
+   */
+  public void invalidateAll() {
+    synchronized (this) {
+      for (int i = 0; i < INVALIDATION_STRIPES; i++) {
+        invalidations[i]++;
+      }
+      cache.invalidateAll();
+    }
+  }
+
+  private static int stripe(Key key) {
+    return (key.hashCode() & Integer.MAX_VALUE) % INVALIDATION_STRIPES;
+  }
+
+  /**
+   * Returns the invalidation count of each of the given keys.
+   */
+  private synchronized Map<Key, Long> invalidations(Collection<Key> keys) {
+    Map<Key, Long> counts = new HashMap<>();
+    for (Key key : keys) {
+      counts.put(key, invalidations[stripe(key)]);
+    }
+    return counts;
+  }
+
+  /**
+   * Returns the entities whose keys weren't invalidated since {@code invalidationsAtStart} was
+   * taken.
+   */
+  @GuardedBy("this")
+  private Map<Key, Entity> notInvalidated(
+      Map<Key, Entity> entities, Map<Key, Long> invalidationsAtStart) {
+    Map<Key, Entity> current = new HashMap<>();
+    for (Map.Entry<Key, Entity> entry : entities.entrySet()) {
+      Long count = invalidationsAtStart.get(entry.getKey());
+      if (count != null && count == invalidations[stripe(entry.getKey())]) {
+        current.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return current;
+  }
+
+  private void invalidate(Set<Key> keys) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      for (Key key : keys) {
+        invalidations[stripe(key)]++;
+      }
+      cache.invalidateAll(keys);
+    }
+    if (secondLevelCache != null) {
+      secondLevelCache.invalidateAll(keys);
+    }
+  }
+
+  /**
+   * Caches entities looked up from the wrapped service, except those whose keys were written
+   * through this object since the lookup started: they could predate the write.
+   *
+   * <p>The second level cache is not updated under the lock, so a write can invalidate it before
+   * the entities are added to it. The invalidation counts are checked again once they are added,
+   * and the entities written in the meantime are invalidated again.
+   */
+  private void populate(Map<Key, Entity> entities, Map<Key, Long> invalidationsAtStart) {
+    Map<Key, Entity> current;
+    synchronized (this) {
+      current = notInvalidated(entities, invalidationsAtStart);
+      cache.putAll(current);
+    }
+    if (secondLevelCache != null && !current.isEmpty()) {
+      secondLevelCache.putAll(current);
+      Set<Key> written = new HashSet<>(current.keySet());
+      synchronized (this) {
+        written.removeAll(notInvalidated(current, invalidationsAtStart).keySet());
+      }
+      if (!written.isEmpty()) {
+        secondLevelCache.invalidateAll(written);
+      }
+    }
+  }
+
+  /**
+   * Returns the cached entities with the given keys, also looking in the second level cache.
+   */
+  private Map<Key, Entity> lookupCached(Set<Key> keys) {
+    Map<Key, Entity> found = new HashMap<>(cache.getAllPresent(keys));
+    if (found.size() < keys.size() && secondLevelCache != null) {
+      Set<Key> missing = new HashSet<>(keys);
+      missing.removeAll(found.keySet());
+      Map<Key, Long> invalidationsAtStart = invalidations(missing);
+      Map<Key, Entity> shared = secondLevelCache.getAll(missing);
+      synchronized (this) {
+        cache.putAll(notInvalidated(shared, invalidationsAtStart));
+      }
+      found.putAll(shared);
+    }
+    return found;
+  }
+
+  private Map<Key, Entity> lookup(Set<Key> keys, ReadOption... options) {
+    Map<Key, Entity> found = lookupCached(keys);
+    if (found.size() < keys.size()) {
+      List<Key> missing = new ArrayList<>(keys.size() - found.size());
+      for (Key key : keys) {
+        if (!found.containsKey(key)) {
+          missing.add(key);
+        }
+      }
+      Map<Key, Long> invalidationsAtStart = invalidations(missing);
+      Map<Key, Entity> loaded = toMap(datastore.get(missing, options));
+      populate(loaded, invalidationsAtStart);
+      found.putAll(loaded);
+    }
+    return found;
+  }
+
+  private static Map<Key, Entity> toMap(Iterator<Entity> entities) {
+    Map<Key, Entity> map = new HashMap<>();
+    while (entities.hasNext()) {
+      Entity entity = entities.next();
+      map.put(entity.key(), entity);
+    }
+    return map;
+  }
+
+  private static Map<Key, Entity> toMap(List<Entity> entities) {
+    Map<Key, Entity> map = new HashMap<>();
+    for (Entity entity : entities) {
+      if (entity != null) {
+        map.put(entity.key(), entity);
+      }
+    }
+    return map;
+  }
+
+  private static Set<Key> keys(Iterable<Key> keys) {
+    return ImmutableSet.copyOf(keys);
+  }
+
+  /**
+   * Returns the complete keys of {@code entities}. Entities with incomplete keys are new, so there
+   * is nothing cached for them.
+   */
+  private static Set<Key> keys(FullEntity<?>... entities) {
+    Set<Key> keys = new HashSet<>();
+    for (FullEntity<?> entity : entities) {
+      if (entity.key() instanceof Key) {
+        keys.add((Key) entity.key());
+      }
+    }
+    return keys;
+  }
+
+  @Override
+  public Entity get(Key key) {
+    return get(key, new ReadOption[0]);
+  }
+
+  @Override
+  public Entity get(Key key, ReadOption... options) {
+    return lookup(Collections.singleton(key), options).get(key);
+  }
+
+  @Override
+  public Iterator<Entity> get(Key... keys) {
+    return get(Arrays.asList(keys));
+  }
+
+  @Override
+  public Iterator<Entity> get(Iterable<Key> keys, ReadOption... options) {
+    Set<Key> keySet = keys(keys);
+    Map<Key, Entity> found = lookup(keySet, options);
+    List<Entity> entities = new ArrayList<>(found.size());
+    for (Key key : keySet) {
+      Entity entity = found.get(key);
+      if (entity != null) {
+        entities.add(entity);
+      }
+    }
+    return entities.iterator();
+  }
+
+  @Override
+  public List<Entity> fetch(Key... keys) {
+    return fetch(Arrays.asList(keys));
+  }
+
+  @Override
+  public List<Entity> fetch(Iterable<Key> keys, ReadOption... options) {
+    Map<Key, Entity> found = lookup(keys(keys), options);
+    List<Entity> entities = new ArrayList<>();
+    for (Key key : keys) {
+      entities.add(found.get(key));
+    }
+    return entities;
+  }
+
+  @Override
+  public <T> QueryResults<T> run(Query<T> query) {
+    return datastore.run(query);
+  }
+
+  @Override
+  public <T> QueryResults<T> run(Query<T> query, ReadOption... options) {
+    return datastore.run(query, options);
+  }
+
+  @Override
+  public Entity add(FullEntity<?> entity) {
+    try {
+      return datastore.add(entity);
+    } finally {
+      invalidate(keys(entity));
+    }
+  }
+
+  @Override
+  public List<Entity> add(FullEntity<?>... entities) {
+    try {
+      return datastore.add(entities);
+    } finally {
+      invalidate(keys(entities));
+    }
+  }
+
+  @Override
+  public void update(Entity... entities) {
+    try {
+      datastore.update(entities);
+    } finally {
+      invalidate(keys(entities));
+    }
+  }
+
+  @Override
+  public Entity put(FullEntity<?> entity) {
+    try {
+      return datastore.put(entity);
+    } finally {
+      invalidate(keys(entity));
+    }
+  }
+
+  @Override
+  public List<Entity> put(FullEntity<?>... entities) {
+    try {
+      return datastore.put(entities);
+    } finally {
+      invalidate(keys(entities));
+    }
+  }
+
+  @Override
+  public void delete(Key... keys) {
+    try {
+      datastore.delete(keys);
+    } finally {
+      invalidate(keys(Arrays.asList(keys)));
+    }
+  }
+
+  @Override
+  public ListenableFuture<Entity> getAsync(final Key key, ReadOption... options) {
+    Entity cached = lookupCached(Collections.singleton(key)).get(key);
+    if (cached != null) {
+      return Futures.immediateFuture(cached);
+    }
+    final Map<Key, Long> invalidationsAtStart = invalidations(Collections.singleton(key));
+    return Futures.transform(datastore.getAsync(key, options), new Function<Entity, Entity>() {
+      @Override
+      public Entity apply(Entity entity) {
+        if (entity != null) {
+          populate(Collections.singletonMap(key, entity), invalidationsAtStart);
+        }
+        return entity;
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<List<Entity>> fetchAsync(Iterable<Key> keys, ReadOption... options) {
+    Set<Key> keySet = keys(keys);
+    Map<Key, Entity> cached = lookupCached(keySet);
+    if (cached.size() == keySet.size()) {
+      List<Entity> entities = new ArrayList<>();
+      for (Key key : keys) {
+        entities.add(cached.get(key));
+      }
+      return Futures.immediateFuture(entities);
+    }
+    final Map<Key, Long> invalidationsAtStart = invalidations(keySet);
+    return Futures.transform(datastore.fetchAsync(keys, options),
+        new Function<List<Entity>, List<Entity>>() {
+          @Override
+          public List<Entity> apply(List<Entity> entities) {
+            populate(toMap(entities), invalidationsAtStart);
+            return entities;
+          }
+        }, MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public <T> ListenableFuture<QueryResults<T>> runAsync(Query<T> query, ReadOption... options) {
+    return datastore.runAsync(query, options);
+  }
+
+  /**
+   * Invalidates {@code keys} once {@code future} completes, successfully or not.
+   */
+  private <V> ListenableFuture<V> invalidateOnCompletion(
+      ListenableFuture<V> future, final Set<Key> keys) {
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        invalidate(keys);
+      }
+    }, MoreExecutors.directExecutor());
+    return future;
+  }
+
+  @Override
+  public ListenableFuture<List<Entity>> putAsync(FullEntity<?>... entities) {
+    return invalidateOnCompletion(datastore.putAsync(entities), keys(entities));
+  }
+
+  @Override
+  public ListenableFuture<Void> deleteAsync(Key... keys) {
+    return invalidateOnCompletion(datastore.deleteAsync(keys), keys(Arrays.asList(keys)));
+  }
+
+  /**
+   * Commits {@code transaction}, which invalidates its writes if it was created by this object.
+   */
+  @Override
+  public ListenableFuture<Transaction.Response> commitAsync(Transaction transaction) {
+    return datastore.commitAsync(transaction);
+  }
+
+  /**
+   * Submits {@code batch}, which invalidates its writes if it was created by this object.
+   */
+  @Override
+  public ListenableFuture<Batch.Response> submitAsync(Batch batch) {
+    return datastore.submitAsync(batch);
+  }
+
+  @Override
+  public Transaction newTransaction() {
+    return new CachingTransaction(datastore.newTransaction());
+  }
+
+  @Override
+  public <T> T runInTransaction(final TransactionCallable<T> callable) {
+    final Set<Key> written = new HashSet<>();
+    try {
+      return datastore.runInTransaction(new TransactionCallable<T>() {
+        @Override
+        public T run(DatastoreReaderWriter readerWriter) throws Exception {
+          return callable.run(new RecordingReaderWriter<>(readerWriter, written));
+        }
+      });
+    } finally {
+      invalidate(written);
+    }
+  }
+
+  @Override
+  public TransactionMetrics transactionMetrics() {
+    return datastore.transactionMetrics();
+  }
+
+  @Override
+  public Batch newBatch() {
+    return new CachingBatch(datastore.newBatch());
+  }
+
+  @Override
+  public BulkWriter newBulkWriter() {
+    return new CachingBulkWriter(datastore.newBulkWriter());
+  }
+
+  @Override
+  public BulkWriter newBulkWriter(BulkWriterOptions options) {
+    return new CachingBulkWriter(datastore.newBulkWriter(options));
+  }
+
+  @Override
+  public Key allocateId(IncompleteKey key) {
+    return datastore.allocateId(key);
+  }
+
+  @Override
+  public List<Key> allocateId(IncompleteKey... keys) {
+    return datastore.allocateId(keys);
+  }
+
+  @Override
+  public KeyFactory newKeyFactory() {
+    return datastore.newKeyFactory();
+  }
+
+  @Override
+  public DatastoreOptions options() {
+    return datastore.options();
+  }
+
+  /**
+   * Forwards writes to {@code delegate} and records the keys they write.
+   */
+  private static class RecordingWriter<W extends DatastoreWriter> implements DatastoreWriter {
+
+    final W delegate;
+    final Set<Key> written;
+
+    RecordingWriter(W delegate, Set<Key> written) {
+      this.delegate = delegate;
+      this.written = written;
+    }
+
+    @Override
+    public Entity add(FullEntity<?> entity) {
+      written.addAll(keys(entity));
+      return delegate.add(entity);
+    }
+
+    @Override
+    public List<Entity> add(FullEntity<?>... entities) {
+      written.addAll(keys(entities));
+      return delegate.add(entities);
+    }
+
+    @Override
+    public void update(Entity... entities) {
+      written.addAll(keys(entities));
+      delegate.update(entities);
+    }
+
+    @Override
+    public Entity put(FullEntity<?> entity) {
+      written.addAll(keys(entity));
+      return delegate.put(entity);
+    }
+
+    @Override
+    public List<Entity> put(FullEntity<?>... entities) {
+      written.addAll(keys(entities));
+      return delegate.put(entities);
+    }
+
+    @Override
+    public void delete(Key... keys) {
+      written.addAll(Arrays.asList(keys));
+      delegate.delete(keys);
+    }
+  }
+
+  /**
+   * Forwards reads to {@code delegate}, bypassing the cache.
+   */
+  private static class RecordingReaderWriter<W extends DatastoreReaderWriter>
+      extends RecordingWriter<W> implements DatastoreReaderWriter {
+
+    RecordingReaderWriter(W delegate, Set<Key> written) {
+      super(delegate, written);
+    }
+
+    @Override
+    public Entity get(Key key) {
+      return delegate.get(key);
+    }
+
+    @Override
+    public Iterator<Entity> get(Key... keys) {
+      return delegate.get(keys);
+    }
+
+    @Override
+    public List<Entity> fetch(Key... keys) {
+      return delegate.fetch(keys);
+    }
+
+    @Override
+    public <T> QueryResults<T> run(Query<T> query) {
+      return delegate.run(query);
+    }
+  }
+
+  private final class CachingTransaction extends RecordingReaderWriter<Transaction>
+      implements Transaction {
+
+    CachingTransaction(Transaction delegate) {
+      super(delegate, new HashSet<Key>());
+    }
+
+    @Override
+    public void addWithDeferredIdAllocation(FullEntity<?>... entities) {
+      written.addAll(keys(entities));
+      delegate.addWithDeferredIdAllocation(entities);
+    }
+
+    @Override
+    public void putWithDeferredIdAllocation(FullEntity<?>... entities) {
+      written.addAll(keys(entities));
+      delegate.putWithDeferredIdAllocation(entities);
+    }
+
+    @Override
+    public Response commit() {
+      try {
+        return delegate.commit();
+      } finally {
+        invalidate(written);
+      }
+    }
+
+    @Override
+    public void rollback() {
+      delegate.rollback();
+    }
+
+    @Override
+    public boolean active() {
+      return delegate.active();
+    }
+
+    @Override
+    public Datastore datastore() {
+      return CachingDatastore.this;
+    }
+  }
+
+  private final class CachingBatch extends RecordingWriter<Batch> implements Batch {
+
+    CachingBatch(Batch delegate) {
+      super(delegate, new HashSet<Key>());
+    }
+
+    @Override
+    public void addWithDeferredIdAllocation(FullEntity<?>... entities) {
+      written.addAll(keys(entities));
+      delegate.addWithDeferredIdAllocation(entities);
+    }
+
+    @Override
+    public void putWithDeferredIdAllocation(FullEntity<?>... entities) {
+      written.addAll(keys(entities));
+      delegate.putWithDeferredIdAllocation(entities);
+    }
+
+    @Override
+    public Response submit() {
+      try {
+        return delegate.submit();
+      } finally {
+        invalidate(written);
+      }
+    }
+
+    @Override
+    public boolean active() {
+      return delegate.active();
+    }
+
+    @Override
+    public Datastore datastore() {
+      return CachingDatastore.this;
+    }
+  }
+
+  private final class CachingBulkWriter implements BulkWriter {
+
+    private final BulkWriter delegate;
+
+    CachingBulkWriter(BulkWriter delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public ListenableFuture<Key> add(FullEntity<?> entity) {
+      return invalidateOnCompletion(delegate.add(entity), keys(entity));
+    }
+
+    @Override
+    public ListenableFuture<Key> update(Entity entity) {
+      return invalidateOnCompletion(delegate.update(entity), keys(entity));
+    }
+
+    @Override
+    public ListenableFuture<Key> put(FullEntity<?> entity) {
+      return invalidateOnCompletion(delegate.put(entity), keys(entity));
+    }
+
+    @Override
+    public ListenableFuture<Key> delete(Key key) {
+      return invalidateOnCompletion(delegate.delete(key), Collections.singleton(key));
+    }
+
+    @Override
+    public void flush() {
+      delegate.flush();
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+}
@@ -24,7 +24,8 @@ import java.util.List;
 /**
  * An interface for Google Cloud Datastore.
  */
-public interface Datastore extends Service<DatastoreOptions>, DatastoreReaderWriter {
+public interface Datastore
+    extends Service<DatastoreOptions>, DatastoreReaderWriter, DatastoreAsync {
 
   /**
    * Returns a new Datastore transaction.
@@ -52,16 +53,40 @@ public interface Datastore extends Service<DatastoreOptions>, DatastoreReaderWri
    * Any thrown exception will cause the transaction to rollback and will be propagated
    * as a {@link DatastoreException} with the original exception as its root cause.
    *
+   * <p>By default a transaction aborted because of contention with other transactions fails with a
+   * {@link DatastoreException}. If {@link DatastoreOptions.Builder#transactionRetryParams} enables
+   * retries, <b>the callback is invoked again</b> in a new transaction instead, possibly several
+   * times. Any side effect of the callback other than through {@code readerWriter}, such as
+   * sending a message or incrementing a counter, is then repeated too. Attempts and aborts are
+   * counted by {@link #transactionMetrics()}.
+   *
    * @param callable the callback to call with a newly created transactional readerWriter
    * @throws DatastoreException upon failure
    */
   <T> T runInTransaction(TransactionCallable<T> callable);
 
+  /**
+   * Returns the attempt and contention counts, by kind, of the transactions run with
+   * {@link #runInTransaction(TransactionCallable)}.
+   */
+  TransactionMetrics transactionMetrics();
+
   /**
    * Returns a new Batch for processing multiple write operations in one request.
    */
   Batch newBatch();
 
+  /**
+   * Returns a new {@link BulkWriter} with default options, for streaming many non-transactional
+   * writes through concurrent commits of bounded size.
+   */
+  BulkWriter newBulkWriter();
+
+  /**
+   * Returns a new {@link BulkWriter} configured by {@code options}.
+   */
+  BulkWriter newBulkWriter(BulkWriterOptions options);
+
   /**
    * Allocate a unique id for the given key.
    * The returned key will have the same information (projectId, kind, namespace and ancestors)
@@ -125,7 +150,8 @@ public interface Datastore extends Service<DatastoreOptions>, DatastoreReaderWri
    * the result is unspecified. Results are loaded lazily, so it is possible to get a
    * {@code DatastoreException} from the returned {@code Iterator}'s
    * {@link Iterator#hasNext hasNext} or {@link Iterator#next next} methods. {@link ReadOption}s can
-   * be specified if desired.
+   * be specified if desired. Large sets of keys are split into several lookups that are sent
+   * concurrently, at most {@link DatastoreOptions#asyncConcurrency()} at a time.
    *
    * @throws DatastoreException upon failure
    * @see #get(Key)
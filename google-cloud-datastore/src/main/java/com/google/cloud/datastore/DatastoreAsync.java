@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous operations of Google Cloud Datastore.
+ *
+ * <p>Each method sends its request without blocking the caller and returns a
+ * {@link ListenableFuture} for the result, so many independent reads and writes can be in flight at
+ * once, and callbacks can be chained without blocking a thread. Requests are retried
+ * according to {@link DatastoreOptions#retryParams()}, just like their synchronous counterparts.
+ * At most {@link DatastoreOptions#asyncConcurrency()} requests are sent concurrently; additional
+ * ones are queued. If a request fails, {@link Future#get()} throws an {@link ExecutionException}
+ * whose cause is a {@link DatastoreException}.
+ *
+ * <pre> {@code
+ * List<Future<Entity>> futures = new ArrayList<>();
+ * for (Key key : keys) {
+ *   futures.add(datastore.getAsync(key));
+ * }
+ * for (Future<Entity> future : futures) {
+ *   Entity entity = future.get();
+ * }
+ * }</pre>
+ */
+public interface DatastoreAsync {
+
+  /**
+   * Sends a request for the entity with the given key. {@link Future#get()} returns the entity or
+   * {@code null} if it doesn't exist. {@link ReadOption}s can be specified if desired.
+   *
+   * @see Datastore#get(Key, ReadOption...)
+   */
+  ListenableFuture<Entity> getAsync(Key key, ReadOption... options);
+
+  /**
+   * Sends a request for the entities with the given keys. {@link Future#get()} returns a list with
+   * a value for each given key (ordered by input), {@code null} for nonexistent keys.
+   * {@link ReadOption}s can be specified if desired.
+   *
+   * @see Datastore#fetch(Iterable, ReadOption...)
+   */
+  ListenableFuture<List<Entity>> fetchAsync(Iterable<Key> keys, ReadOption... options);
+
+  /**
+   * Submits a {@link Query}. {@link Future#get()} returns its results once the first batch has
+   * been received; further batches are loaded as the results are iterated. {@link ReadOption}s can
+   * be specified if desired.
+   *
+   * @see Datastore#run(Query, ReadOption...)
+   */
+  <T> ListenableFuture<QueryResults<T>> runAsync(Query<T> query, ReadOption... options);
+
+  /**
+   * Sends a request to put the given entities. {@link Future#get()} returns the entities as they
+   * were stored, with keys allocated for incomplete ones, in input order.
+   *
+   * @see Datastore#put(FullEntity...)
+   */
+  ListenableFuture<List<Entity>> putAsync(FullEntity<?>... entities);
+
+  /**
+   * Sends a request to delete the entities with the given keys. Nonexistent keys are ignored.
+   *
+   * @see Datastore#delete(Key...)
+   */
+  ListenableFuture<Void> deleteAsync(Key... keys);
+
+  /**
+   * Commits {@code transaction}. {@link Future#get()} returns the commit response. The transaction
+   * must not be used for anything else until the returned future completes.
+   *
+   * @see Transaction#commit()
+   */
+  ListenableFuture<Transaction.Response> commitAsync(Transaction transaction);
+
+  /**
+   * Submits {@code batch}. {@link Future#get()} returns the submit response. The batch must not be
+   * used for anything else until the returned future completes.
+   *
+   * @see Batch#submit()
+   */
+  ListenableFuture<Batch.Response> submitAsync(Batch batch);
+}
@@ -32,9 +32,14 @@ import java.util.Set;
  */
 public final class DatastoreException extends BaseServiceException {
 
+  /**
+   * The error code of requests that failed because of contention with other transactions.
+   */
+  static final int ABORTED_CODE = 10;
+
   // see https://cloud.google.com/datastore/docs/concepts/errors#Error_Codes"
   private static final Set<Error> RETRYABLE_ERRORS = ImmutableSet.of(
-      new Error(10, "ABORTED"), new Error(4, "DEADLINE_EXCEEDED"), new Error(14, "UNAVAILABLE"));
+      new Error(ABORTED_CODE, "ABORTED"), new Error(4, "DEADLINE_EXCEEDED"), new Error(14, "UNAVAILABLE"));
   private static final long serialVersionUID = 2663750991205874435L;
 
   public DatastoreException(int code, String message, String reason) {
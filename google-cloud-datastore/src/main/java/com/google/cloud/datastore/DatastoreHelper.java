@@ -90,7 +90,10 @@ class DatastoreHelper {
   }
 
   static <T> T runInTransaction(Datastore datastore, Datastore.TransactionCallable<T> callable) {
-    Transaction transaction = datastore.newTransaction();
+    return runInTransaction(datastore.newTransaction(), callable);
+  }
+
+  static <T> T runInTransaction(Transaction transaction, Datastore.TransactionCallable<T> callable) {
     try {
       T value = callable.run(transaction);
       transaction.commit();
@@ -17,6 +17,8 @@
 package com.google.cloud.datastore;
 
 import com.google.cloud.BaseService;
+import com.google.cloud.ExceptionHandler;
+import com.google.cloud.ExceptionHandler.Interceptor;
 import com.google.cloud.RetryHelper;
 import com.google.cloud.RetryHelper.RetryHelperException;
 import com.google.cloud.RetryParams;
@@ -24,10 +26,19 @@ import com.google.cloud.datastore.ReadOption.EventualConsistency;
 import com.google.cloud.datastore.spi.DatastoreRpc;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.datastore.v1.ReadOptions.ReadConsistency;
 import com.google.protobuf.ByteString;
 
@@ -41,16 +52,93 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datastore {
 
+  /**
+   * Maximum number of keys sent in a single lookup request. Larger sets of keys are split into
+   * lookups of at most this many keys, which are sent concurrently.
+   */
+  static final int MAX_LOOKUP_KEYS = 1000;
+
+  /**
+   * Retries transactions aborted because of contention, and nothing else.
+   */
+  private static final ExceptionHandler TRANSACTION_EXCEPTION_HANDLER = ExceptionHandler.builder()
+      .abortOn(RuntimeException.class)
+      .interceptor(new Interceptor() {
+
+        private static final long serialVersionUID = 4605394513404516582L;
+
+        @Override
+        public RetryResult beforeEval(Exception exception) {
+          return isContention(exception) ? RetryResult.RETRY : RetryResult.NO_RETRY;
+        }
+
+        @Override
+        public RetryResult afterEval(Exception exception, RetryResult retryResult) {
+          return RetryResult.CONTINUE_EVALUATION;
+        }
+      })
+      .build();
+
+  /**
+   * Doesn't retry commits aborted because of contention, for transactions that
+   * {@link #runInTransaction(TransactionCallable)} runs again instead. Other failures are handled
+   * as usual.
+   */
+  private static final ExceptionHandler TRANSACTIONAL_COMMIT_EXCEPTION_HANDLER =
+      ExceptionHandler.builder()
+          .abortOn(RuntimeException.class)
+          .interceptor(new Interceptor() {
+
+            private static final long serialVersionUID = -1859385163713946113L;
+
+            @Override
+            public RetryResult beforeEval(Exception exception) {
+              return isContention(exception) ? RetryResult.NO_RETRY
+                  : RetryResult.CONTINUE_EVALUATION;
+            }
+
+            @Override
+            public RetryResult afterEval(Exception exception, RetryResult retryResult) {
+              return RetryResult.CONTINUE_EVALUATION;
+            }
+          }, EXCEPTION_HANDLER_INTERCEPTOR)
+          .build();
+
   private final DatastoreRpc datastoreRpc;
   private final RetryParams retryParams;
+  private final ListeningExecutorService asyncExecutor;
+  private final TransactionMetrics transactionMetrics = new TransactionMetrics();
 
   DatastoreImpl(DatastoreOptions options) {
     super(options);
     this.datastoreRpc = options.rpc();
     retryParams = MoreObjects.firstNonNull(options.retryParams(), RetryParams.noRetries());
+    asyncExecutor = newAsyncExecutor(options.asyncConcurrency());
+  }
+
+  /**
+   * Returns an executor for requests sent on behalf of asynchronous methods. The underlying RPC
+   * blocks, so each in-flight request occupies one of at most {@code concurrency} threads. Idle
+   * threads time out so that an unused service holds none, and threads are daemons, so the
+   * executor never needs to be shut down and doesn't keep the JVM alive.
+   */
+  private static ListeningExecutorService newAsyncExecutor(int concurrency) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 60L,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("datastore-async-%d").build());
+    executor.allowCoreThreadTimeOut(true);
+    return MoreExecutors.listeningDecorator(executor);
+  }
+
+  ListeningExecutorService asyncExecutor() {
+    return asyncExecutor;
   }
 
   @Override
@@ -58,14 +146,66 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
     return new BatchImpl(this);
   }
 
+  @Override
+  public BulkWriter newBulkWriter() {
+    return newBulkWriter(BulkWriterOptions.defaults());
+  }
+
+  @Override
+  public BulkWriter newBulkWriter(BulkWriterOptions options) {
+    return new BulkWriterImpl(this, options);
+  }
+
   @Override
   public Transaction newTransaction() {
     return new TransactionImpl(this);
   }
 
   @Override
-  public <T> T runInTransaction(TransactionCallable<T> callable) {
-    return DatastoreHelper.runInTransaction(this, callable);
+  public <T> T runInTransaction(final TransactionCallable<T> callable) {
+    try {
+      return RetryHelper.runWithRetries(new Callable<T>() {
+        @Override
+        public T call() {
+          return runTransactionAttempt(callable);
+        }
+      }, options().transactionRetryParams(), TRANSACTION_EXCEPTION_HANDLER, options().clock());
+    } catch (RetryHelperException e) {
+      throw DatastoreException.translateAndThrow(e);
+    }
+  }
+
+  private <T> T runTransactionAttempt(TransactionCallable<T> callable) {
+    boolean retriesTransaction = options().transactionRetryParams().retryMaxAttempts() > 1;
+    TransactionImpl transaction = new TransactionImpl(this, !retriesTransaction);
+    boolean aborted = false;
+    try {
+      return DatastoreHelper.runInTransaction(transaction, callable);
+    } catch (DatastoreException e) {
+      aborted = isContention(e);
+      throw e;
+    } finally {
+      transactionMetrics.record(transaction.kinds(), aborted);
+    }
+  }
+
+  /**
+   * Returns whether {@code exception} was caused by a transaction aborted because of contention,
+   * possibly thrown by a read within a transaction callable and then wrapped.
+   */
+  private static boolean isContention(Throwable exception) {
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof DatastoreException
+          && ((DatastoreException) cause).code() == DatastoreException.ABORTED_CODE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public TransactionMetrics transactionMetrics() {
+    return transactionMetrics;
   }
 
   @Override
@@ -75,11 +215,25 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
 
   @Override
   public <T> QueryResults<T> run(Query<T> query, ReadOption... options) {
-    return run(toReadOptionsPb(options), query);
+    return run(toReadOptionsPb(options), query, prefetchBatches(options));
   }
 
   <T> QueryResults<T> run(com.google.datastore.v1.ReadOptions readOptionsPb, Query<T> query) {
-    return new QueryResultsImpl<>(this, readOptionsPb, query);
+    return run(readOptionsPb, query, 0);
+  }
+
+  private <T> QueryResults<T> run(com.google.datastore.v1.ReadOptions readOptionsPb,
+      Query<T> query, int prefetchBatches) {
+    return new QueryResultsImpl<>(this, readOptionsPb, query, prefetchBatches);
+  }
+
+  private static int prefetchBatches(ReadOption... options) {
+    if (options == null) {
+      return 0;
+    }
+    ReadOption.Prefetch prefetch =
+        (ReadOption.Prefetch) ReadOption.asImmutableMap(options).get(ReadOption.Prefetch.class);
+    return prefetch != null ? prefetch.batches() : 0;
   }
 
   com.google.datastore.v1.RunQueryResponse runQuery(
@@ -235,15 +389,66 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
     if (keys.length == 0) {
       return Collections.emptyIterator();
     }
+    Set<Key> dedupKeys = Sets.newLinkedHashSet(Arrays.asList(keys));
+    if (dedupKeys.size() > MAX_LOOKUP_KEYS) {
+      return getInShards(readOptionsPb, dedupKeys);
+    }
+    return new ResultsIterator(newLookupRequest(readOptionsPb, dedupKeys));
+  }
+
+  private static com.google.datastore.v1.LookupRequest.Builder newLookupRequest(
+      com.google.datastore.v1.ReadOptions readOptionsPb, Iterable<Key> keys) {
     com.google.datastore.v1.LookupRequest.Builder requestPb =
         com.google.datastore.v1.LookupRequest.newBuilder();
     if (readOptionsPb != null) {
       requestPb.setReadOptions(readOptionsPb);
     }
-    for (Key k : Sets.newLinkedHashSet(Arrays.asList(keys))) {
+    for (Key k : keys) {
       requestPb.addKeys(k.toPb());
     }
-    return new ResultsIterator(requestPb);
+    return requestPb;
+  }
+
+  /**
+   * Looks up {@code keys} with concurrent requests of at most {@link #MAX_LOOKUP_KEYS} keys each.
+   * Every shard follows up on its own deferred keys. The returned iterator yields the results of
+   * each shard in turn.
+   */
+  private Iterator<Entity> getInShards(
+      com.google.datastore.v1.ReadOptions readOptionsPb, Set<Key> keys) {
+    final List<ListenableFutureTask<List<Entity>>> shards = new ArrayList<>();
+    for (List<Key> shardKeys : Iterables.partition(keys, MAX_LOOKUP_KEYS)) {
+      final com.google.datastore.v1.LookupRequest.Builder requestPb =
+          newLookupRequest(readOptionsPb, shardKeys);
+      ListenableFutureTask<List<Entity>> shard =
+          ListenableFutureTask.create(new Callable<List<Entity>>() {
+            @Override
+            public List<Entity> call() {
+              return Lists.newArrayList(new ResultsIterator(requestPb));
+            }
+          });
+      asyncExecutor.execute(shard);
+      shards.add(shard);
+    }
+    return Iterators.concat(new AbstractIterator<Iterator<Entity>>() {
+      private int next;
+
+      @Override
+      protected Iterator<Entity> computeNext() {
+        if (next == shards.size()) {
+          return endOfData();
+        }
+        ListenableFutureTask<List<Entity>> shard = shards.get(next++);
+        // Runs the shard in this thread unless a pool thread already started it. This keeps
+        // lookups issued from the pool itself, e.g. by fetchAsync, from waiting on queued shards.
+        shard.run();
+        try {
+          return Uninterruptibles.getUninterruptibly(shard).iterator();
+        } catch (ExecutionException e) {
+          throw Throwables.propagate(e.getCause());
+        }
+      }
+    });
   }
 
   final class ResultsIterator extends AbstractIterator<Entity> {
@@ -366,6 +571,82 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
     }
   }
 
+  @Override
+  public ListenableFuture<Entity> getAsync(final Key key, final ReadOption... options) {
+    return asyncExecutor.submit(new Callable<Entity>() {
+      @Override
+      public Entity call() {
+        return get(key, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<List<Entity>> fetchAsync(
+      Iterable<Key> keys, final ReadOption... options) {
+    final Key[] keyArray = Iterables.toArray(keys, Key.class);
+    return asyncExecutor.submit(new Callable<List<Entity>>() {
+      @Override
+      public List<Entity> call() {
+        return DatastoreHelper.fetch(DatastoreImpl.this, keyArray, options);
+      }
+    });
+  }
+
+  @Override
+  public <T> ListenableFuture<QueryResults<T>> runAsync(
+      final Query<T> query, final ReadOption... options) {
+    return asyncExecutor.submit(new Callable<QueryResults<T>>() {
+      @Override
+      public QueryResults<T> call() {
+        return run(query, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<List<Entity>> putAsync(FullEntity<?>... entities) {
+    final FullEntity<?>[] entityArray = entities.clone();
+    return asyncExecutor.submit(new Callable<List<Entity>>() {
+      @Override
+      public List<Entity> call() {
+        return put(entityArray);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> deleteAsync(Key... keys) {
+    final Key[] keyArray = keys.clone();
+    return asyncExecutor.submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        delete(keyArray);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Transaction.Response> commitAsync(final Transaction transaction) {
+    return asyncExecutor.submit(new Callable<Transaction.Response>() {
+      @Override
+      public Transaction.Response call() {
+        return transaction.commit();
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Batch.Response> submitAsync(final Batch batch) {
+    return asyncExecutor.submit(new Callable<Batch.Response>() {
+      @Override
+      public Batch.Response call() {
+        return batch.submit();
+      }
+    });
+  }
+
   @Override
   public KeyFactory newKeyFactory() {
     return DatastoreHelper.newKeyFactory(options());
@@ -382,6 +663,15 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
 
   com.google.datastore.v1.CommitResponse commit(
       final com.google.datastore.v1.CommitRequest requestPb) {
+    return commit(requestPb, true);
+  }
+
+  /**
+   * Sends a commit request, retrying it as configured by the service options. If
+   * {@code retryAborted} is {@code false}, commits aborted because of contention aren't retried.
+   */
+  com.google.datastore.v1.CommitResponse commit(
+      final com.google.datastore.v1.CommitRequest requestPb, boolean retryAborted) {
     try {
       return RetryHelper.runWithRetries(
           new Callable<com.google.datastore.v1.CommitResponse>() {
@@ -391,7 +681,8 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
             }
           },
           retryParams,
-          EXCEPTION_HANDLER, options().clock());
+          retryAborted ? EXCEPTION_HANDLER : TRANSACTIONAL_COMMIT_EXCEPTION_HANDLER,
+          options().clock());
     } catch (RetryHelperException e) {
       throw DatastoreException.translateAndThrow(e);
     }
@@ -17,8 +17,11 @@
 package com.google.cloud.datastore;
 
 import static com.google.cloud.datastore.Validator.validateNamespace;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.cloud.HttpServiceOptions;
+import com.google.cloud.RetryParams;
 import com.google.cloud.datastore.spi.DatastoreRpc;
 import com.google.cloud.datastore.spi.DatastoreRpcFactory;
 import com.google.cloud.datastore.spi.DefaultDatastoreRpc;
@@ -32,11 +35,14 @@ import java.util.Set;
 public class DatastoreOptions
     extends HttpServiceOptions<Datastore, DatastoreRpc, DatastoreOptions> {
 
-  private static final long serialVersionUID = -7859275434360052450L;
+  private static final long serialVersionUID = -7531182616762650835L;
   private static final String DATASTORE_SCOPE = "https://www.googleapis.com/auth/datastore";
   private static final Set<String> SCOPES = ImmutableSet.of(DATASTORE_SCOPE);
+  private static final int DEFAULT_ASYNC_CONCURRENCY = 16;
 
   private final String namespace;
+  private final int asyncConcurrency;
+  private final RetryParams transactionRetryParams;
 
   public static class DefaultDatastoreFactory implements DatastoreFactory {
 
@@ -62,6 +68,8 @@ public class DatastoreOptions
       HttpServiceOptions.Builder<Datastore, DatastoreRpc, DatastoreOptions, Builder> {
 
     private String namespace;
+    private int asyncConcurrency = DEFAULT_ASYNC_CONCURRENCY;
+    private RetryParams transactionRetryParams = RetryParams.noRetries();
 
     private Builder() {
     }
@@ -69,6 +77,8 @@ public class DatastoreOptions
     private Builder(DatastoreOptions options) {
       super(options);
       namespace = options.namespace;
+      asyncConcurrency = options.asyncConcurrency;
+      transactionRetryParams = options.transactionRetryParams;
     }
 
     @Override
@@ -83,11 +93,37 @@ public class DatastoreOptions
       this.namespace = validateNamespace(namespace);
       return this;
     }
+
+    /**
+     * Sets the maximum number of requests the datastore service sends concurrently on behalf of
+     * its asynchronous methods. Defaults to 16.
+     *
+     * @see DatastoreAsync
+     */
+    public Builder asyncConcurrency(int asyncConcurrency) {
+      checkArgument(asyncConcurrency > 0, "asyncConcurrency must be positive");
+      this.asyncConcurrency = asyncConcurrency;
+      return this;
+    }
+
+    /**
+     * Sets how {@link Datastore#runInTransaction(Datastore.TransactionCallable)} retries
+     * transactions that fail because of contention. Each retry runs the callable again in a new
+     * transaction after a jittered, exponentially growing delay, so only enable retries for
+     * callables without side effects outside the transaction. Defaults to
+     * {@link RetryParams#noRetries()}.
+     */
+    public Builder transactionRetryParams(RetryParams transactionRetryParams) {
+      this.transactionRetryParams = checkNotNull(transactionRetryParams);
+      return this;
+    }
   }
 
   private DatastoreOptions(Builder builder) {
     super(DatastoreFactory.class, DatastoreRpcFactory.class, builder);
     namespace = builder.namespace != null ? builder.namespace : defaultNamespace();
+    asyncConcurrency = builder.asyncConcurrency;
+    transactionRetryParams = builder.transactionRetryParams;
   }
 
   @Override
@@ -123,6 +159,22 @@ public class DatastoreOptions
     return namespace;
   }
 
+  /**
+   * Returns the maximum number of requests sent concurrently on behalf of asynchronous methods.
+   */
+  public int asyncConcurrency() {
+    return asyncConcurrency;
+  }
+
+  /**
+   * Returns how transactions that fail because of contention are retried.
+   *
+   * @see Builder#transactionRetryParams(RetryParams)
+   */
+  public RetryParams transactionRetryParams() {
+    return transactionRetryParams;
+  }
+
   /**
    * Returns a default {@code DatastoreOptions} instance.
    */
@@ -155,7 +207,7 @@ public class DatastoreOptions
 
   @Override
   public int hashCode() {
-    return Objects.hash(baseHashCode(), namespace);
+    return Objects.hash(baseHashCode(), namespace, asyncConcurrency, transactionRetryParams);
   }
 
   @Override
@@ -164,7 +216,9 @@ public class DatastoreOptions
       return false;
     }
     DatastoreOptions other = (DatastoreOptions) obj;
-    return baseEquals(other) && Objects.equals(namespace, other.namespace);
+    return baseEquals(other) && Objects.equals(namespace, other.namespace)
+        && asyncConcurrency == other.asyncConcurrency
+        && Objects.equals(transactionRetryParams, other.transactionRetryParams);
   }
 
   public static Builder builder() {
@@ -68,6 +68,10 @@ public final class Entity extends FullEntity<Key> {
     Preconditions.checkArgument(from.key() != null);
   }
 
+  private Entity(Key key, com.google.datastore.v1.Entity entityPb) {
+    super(key, entityPb);
+  }
+
   @Override
   protected BaseEntity.Builder<Key, Builder> emptyBuilder() {
     return new Builder();
@@ -92,7 +96,12 @@ public final class Entity extends FullEntity<Key> {
     return new Builder(key, copyFrom);
   }
 
+  /**
+   * Returns an entity whose properties are decoded from {@code entityPb} when first accessed.
+   */
   static Entity fromPb(com.google.datastore.v1.Entity entityPb) {
-    return new Builder().fill(entityPb).build();
+    IncompleteKey key = entityPb.hasKey() ? IncompleteKey.fromPb(entityPb.getKey()) : null;
+    Preconditions.checkArgument(key instanceof Key, "Entity must have a complete key");
+    return new Entity((Key) key, entityPb);
   }
 }
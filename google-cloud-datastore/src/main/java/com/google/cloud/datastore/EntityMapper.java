@@ -0,0 +1,582 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.datastore.v1.Value.ValueTypeCase;
+import com.google.protobuf.ByteString;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps entities to objects of a class and back.
+ *
+ * <p>Each non-static, non-transient field of the class and its superclasses is mapped to the
+ * property of the same name, unless renamed with {@link Property}. A field annotated with
+ * {@link Id} holds the entity's key. Supported field types are {@code String}, {@code long},
+ * {@code int}, {@code double}, {@code float}, {@code boolean} and their boxed counterparts,
+ * {@code byte[]}, {@link Blob}, {@link DateTime}, {@link Key}, {@link LatLng} and enums, which are
+ * stored by name. The class must have a constructor without parameters, which may be private.
+ *
+ * <p>Fields are read from and written to the entities' protocol buffers directly, without
+ * creating {@link Value} objects, and the reflective lookups are made once per class. Mapping
+ * entities returned by a lookup or a query doesn't decode the properties that no field maps.
+ *
+ * <pre> {@code
+ * class Task {
+ *   private @EntityMapper.Id Key key;
+ *   private String description;
+ *   private @EntityMapper.Property(name = "done", excludeFromIndexes = true) boolean completed;
+ * }
+ *
+ * EntityMapper<Task> mapper = EntityMapper.of(Task.class);
+ * Task task = mapper.fromEntity(datastore.get(taskKey));
+ * task.completed = true;
+ * datastore.put(mapper.toEntity(task));
+ * }</pre>
+ *
+ * <p>A property whose value doesn't match the type of its field, or doesn't fit in an {@code int}
+ * field, fails the mapping with an {@link IllegalArgumentException}. Properties with no matching
+ * field are ignored, and fields with no matching property keep the value set by the constructor.
+ * This class is thread-safe.
+ */
+public final class EntityMapper<T> {
+
+  private static final ConcurrentMap<Class<?>, EntityMapper<?>> MAPPERS =
+      new ConcurrentHashMap<>();
+
+  private final Class<T> type;
+  private final Constructor<T> constructor;
+  private final Field idField;
+  private final List<FieldCodec> codecs;
+
+  /**
+   * Maps a field to the property with the given name, instead of the field name.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.FIELD)
+  public @interface Property {
+
+    /**
+     * The name of the property, or the field name if empty.
+     */
+    String name() default "";
+
+    /**
+     * Whether the property is excluded from indexes.
+     */
+    boolean excludeFromIndexes() default false;
+  }
+
+  /**
+   * Marks the field of type {@link Key} that holds the entity's key.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.FIELD)
+  public @interface Id {
+  }
+
+  private abstract static class FieldCodec {
+
+    final Field field;
+    final String name;
+    final boolean excludeFromIndexes;
+
+    FieldCodec(Field field) {
+      this.field = field;
+      Property property = field.getAnnotation(Property.class);
+      this.name = property == null || property.name().isEmpty() ? field.getName()
+          : property.name();
+      this.excludeFromIndexes = property != null && property.excludeFromIndexes();
+    }
+
+    /**
+     * Sets the field of {@code object} to {@code valuePb}, which is not a null value.
+     */
+    abstract void read(Object object, com.google.datastore.v1.Value valuePb)
+        throws IllegalAccessException;
+
+    /**
+     * Sets {@code valuePb} to the field of {@code object}, returning {@code false} if it's null.
+     */
+    abstract boolean write(Object object, com.google.datastore.v1.Value.Builder valuePb)
+        throws IllegalAccessException;
+
+    final void checkType(com.google.datastore.v1.Value valuePb, ValueTypeCase expected) {
+      if (valuePb.getValueTypeCase() != expected) {
+        throw new IllegalArgumentException(String.format("Property %s has a %s, not a %s", name,
+            valuePb.getValueTypeCase(), expected));
+      }
+    }
+
+    final int checkedIntValue(com.google.datastore.v1.Value valuePb) {
+      checkType(valuePb, ValueTypeCase.INTEGER_VALUE);
+      long value = valuePb.getIntegerValue();
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException(String.format("Property %s has %d, out of int range",
+            name, value));
+      }
+      return (int) value;
+    }
+  }
+
+  /**
+   * A codec for fields of reference types, which are set to null for null values.
+   */
+  private abstract static class ObjectCodec extends FieldCodec {
+
+    ObjectCodec(Field field) {
+      super(field);
+    }
+
+    @Override
+    final void read(Object object, com.google.datastore.v1.Value valuePb)
+        throws IllegalAccessException {
+      field.set(object, decode(valuePb));
+    }
+
+    @Override
+    final boolean write(Object object, com.google.datastore.v1.Value.Builder valuePb)
+        throws IllegalAccessException {
+      Object value = field.get(object);
+      if (value == null) {
+        return false;
+      }
+      encode(value, valuePb);
+      return true;
+    }
+
+    abstract Object decode(com.google.datastore.v1.Value valuePb);
+
+    abstract void encode(Object value, com.google.datastore.v1.Value.Builder valuePb);
+  }
+
+  private EntityMapper(Class<T> type) {
+    this.type = type;
+    try {
+      constructor = type.getDeclaredConstructor();
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(
+          type.getName() + " must have a constructor without parameters", e);
+    }
+    constructor.setAccessible(true);
+    Field id = null;
+    ImmutableList.Builder<FieldCodec> codecsBuilder = ImmutableList.builder();
+    Set<String> names = new HashSet<>();
+    for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+      for (Field field : current.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+            || field.isSynthetic()) {
+          continue;
+        }
+        field.setAccessible(true);
+        if (field.isAnnotationPresent(Id.class)) {
+          checkArgument(field.getType() == Key.class && id == null,
+              "%s must have at most one @Id field, of type Key", type.getName());
+          id = field;
+          continue;
+        }
+        FieldCodec codec = codec(field);
+        checkArgument(names.add(codec.name), "%s maps property %s twice", type.getName(),
+            codec.name);
+        codecsBuilder.add(codec);
+      }
+    }
+    this.idField = id;
+    this.codecs = codecsBuilder.build();
+  }
+
+  /**
+   * Returns the mapper for objects of class {@code type}.
+   *
+   * @throws IllegalArgumentException if {@code type} has no constructor without parameters or a
+   *     field of an unsupported type
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> EntityMapper<T> of(Class<T> type) {
+    EntityMapper<T> mapper = (EntityMapper<T>) MAPPERS.get(type);
+    if (mapper == null) {
+      mapper = new EntityMapper<>(type);
+      EntityMapper<T> previous = (EntityMapper<T>) MAPPERS.putIfAbsent(type, mapper);
+      if (previous != null) {
+        mapper = previous;
+      }
+    }
+    return mapper;
+  }
+
+  /**
+   * Returns a new object holding the key and properties of {@code entity}.
+   */
+  public T fromEntity(BaseEntity<?> entity) {
+    return fromPb(entity.toPb());
+  }
+
+  /**
+   * Returns new objects holding the keys and properties of {@code entities}, in order.
+   */
+  public List<T> fromEntities(List<? extends BaseEntity<?>> entities) {
+    List<T> objects = new ArrayList<>(entities.size());
+    for (BaseEntity<?> entity : entities) {
+      objects.add(entity == null ? null : fromEntity(entity));
+    }
+    return Collections.unmodifiableList(objects);
+  }
+
+  /**
+   * Returns an entity with the key held by the {@link Id} field of {@code object}, which must be
+   * set, and its properties.
+   */
+  public Entity toEntity(T object) {
+    checkArgument(idField != null, "%s has no @Id field", type.getName());
+    try {
+      return toEntity((Key) checkNotNull(idField.get(object), "The @Id field must be set"),
+          object);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns an entity with the given key and the properties of {@code object}.
+   */
+  public Entity toEntity(Key key, T object) {
+    return Entity.fromPb(toPb(key, object));
+  }
+
+  T fromPb(com.google.datastore.v1.Entity entityPb) {
+    Map<String, com.google.datastore.v1.Value> propertiesPb = entityPb.getProperties();
+    try {
+      T object = constructor.newInstance();
+      if (idField != null && entityPb.hasKey()) {
+        idField.set(object, Key.fromPb(entityPb.getKey()));
+      }
+      for (FieldCodec codec : codecs) {
+        com.google.datastore.v1.Value valuePb = propertiesPb.get(codec.name);
+        if (valuePb == null) {
+          continue;
+        }
+        if (valuePb.getValueTypeCase() == ValueTypeCase.NULL_VALUE) {
+          if (!codec.field.getType().isPrimitive()) {
+            codec.field.set(object, null);
+          }
+        } else {
+          codec.read(object, valuePb);
+        }
+      }
+      return object;
+    } catch (InstantiationException | IllegalAccessException e) {
+      throw new IllegalStateException("Failed to create " + type.getName(), e);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Failed to create " + type.getName(), e.getCause());
+    }
+  }
+
+  com.google.datastore.v1.Entity toPb(Key key, T object) {
+    com.google.datastore.v1.Entity.Builder entityPb = com.google.datastore.v1.Entity.newBuilder();
+    entityPb.setKey(key.toPb());
+    Map<String, com.google.datastore.v1.Value> propertiesPb = entityPb.getMutableProperties();
+    try {
+      for (FieldCodec codec : codecs) {
+        com.google.datastore.v1.Value.Builder valuePb = com.google.datastore.v1.Value.newBuilder();
+        if (!codec.write(object, valuePb)) {
+          valuePb.setNullValue(com.google.protobuf.NullValue.NULL_VALUE);
+        }
+        if (codec.excludeFromIndexes) {
+          valuePb.setExcludeFromIndexes(true);
+        }
+        propertiesPb.put(codec.name, valuePb.build());
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+    return entityPb.build();
+  }
+
+  private static FieldCodec codec(Field field) {
+    Class<?> fieldType = field.getType();
+    if (fieldType == long.class) {
+      return new FieldCodec(field) {
+        @Override
+        void read(Object object, com.google.datastore.v1.Value valuePb)
+            throws IllegalAccessException {
+          checkType(valuePb, ValueTypeCase.INTEGER_VALUE);
+          field.setLong(object, valuePb.getIntegerValue());
+        }
+
+        @Override
+        boolean write(Object object, com.google.datastore.v1.Value.Builder valuePb)
+            throws IllegalAccessException {
+          valuePb.setIntegerValue(field.getLong(object));
+          return true;
+        }
+      };
+    } else if (fieldType == int.class) {
+      return new FieldCodec(field) {
+        @Override
+        void read(Object object, com.google.datastore.v1.Value valuePb)
+            throws IllegalAccessException {
+          field.setInt(object, checkedIntValue(valuePb));
+        }
+
+        @Override
+        boolean write(Object object, com.google.datastore.v1.Value.Builder valuePb)
+            throws IllegalAccessException {
+          valuePb.setIntegerValue(field.getInt(object));
+          return true;
+        }
+      };
+    } else if (fieldType == double.class) {
+      return new FieldCodec(field) {
+        @Override
+        void read(Object object, com.google.datastore.v1.Value valuePb)
+            throws IllegalAccessException {
+          checkType(valuePb, ValueTypeCase.DOUBLE_VALUE);
+          field.setDouble(object, valuePb.getDoubleValue());
+        }
+
+        @Override
+        boolean write(Object object, com.google.datastore.v1.Value.Builder valuePb)
+            throws IllegalAccessException {
+          valuePb.setDoubleValue(field.getDouble(object));
+          return true;
+        }
+      };
+    } else if (fieldType == float.class) {
+      return new FieldCodec(field) {
+        @Override
+        void read(Object object, com.google.datastore.v1.Value valuePb)
+            throws IllegalAccessException {
+          checkType(valuePb, ValueTypeCase.DOUBLE_VALUE);
+          field.setFloat(object, (float) valuePb.getDoubleValue());
+        }
+
+        @Override
+        boolean write(Object object, com.google.datastore.v1.Value.Builder valuePb)
+            throws IllegalAccessException {
+          valuePb.setDoubleValue(field.getFloat(object));
+          return true;
+        }
+      };
+    } else if (fieldType == boolean.class) {
+      return new FieldCodec(field) {
+        @Override
+        void read(Object object, com.google.datastore.v1.Value valuePb)
+            throws IllegalAccessException {
+          checkType(valuePb, ValueTypeCase.BOOLEAN_VALUE);
+          field.setBoolean(object, valuePb.getBooleanValue());
+        }
+
+        @Override
+        boolean write(Object object, com.google.datastore.v1.Value.Builder valuePb)
+            throws IllegalAccessException {
+          valuePb.setBooleanValue(field.getBoolean(object));
+          return true;
+        }
+      };
+    } else if (fieldType == String.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.STRING_VALUE);
+          return valuePb.getStringValue();
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setStringValue((String) value);
+        }
+      };
+    } else if (fieldType == Long.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.INTEGER_VALUE);
+          return valuePb.getIntegerValue();
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setIntegerValue((Long) value);
+        }
+      };
+    } else if (fieldType == Integer.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          return checkedIntValue(valuePb);
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setIntegerValue((Integer) value);
+        }
+      };
+    } else if (fieldType == Double.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.DOUBLE_VALUE);
+          return valuePb.getDoubleValue();
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setDoubleValue((Double) value);
+        }
+      };
+    } else if (fieldType == Float.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.DOUBLE_VALUE);
+          return (float) valuePb.getDoubleValue();
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setDoubleValue((Float) value);
+        }
+      };
+    } else if (fieldType == Boolean.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.BOOLEAN_VALUE);
+          return valuePb.getBooleanValue();
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setBooleanValue((Boolean) value);
+        }
+      };
+    } else if (fieldType == byte[].class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.BLOB_VALUE);
+          return valuePb.getBlobValue().toByteArray();
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setBlobValue(ByteString.copyFrom((byte[]) value));
+        }
+      };
+    } else if (fieldType == Blob.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.BLOB_VALUE);
+          return new Blob(valuePb.getBlobValue());
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setBlobValue(((Blob) value).byteString());
+        }
+      };
+    } else if (fieldType == DateTime.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.TIMESTAMP_VALUE);
+          return new DateTime(DateTime.timestampPbToMicroseconds(valuePb.getTimestampValue()));
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setTimestampValue(((DateTime) value).toPb());
+        }
+      };
+    } else if (fieldType == Key.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.KEY_VALUE);
+          return Key.fromPb(valuePb.getKeyValue());
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setKeyValue(((Key) value).toPb());
+        }
+      };
+    } else if (fieldType == LatLng.class) {
+      return new ObjectCodec(field) {
+        @Override
+        Object decode(com.google.datastore.v1.Value valuePb) {
+          checkType(valuePb, ValueTypeCase.GEO_POINT_VALUE);
+          return LatLng.of(valuePb.getGeoPointValue().getLatitude(),
+              valuePb.getGeoPointValue().getLongitude());
+        }
+
+        @Override
+        void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+          valuePb.setGeoPointValue(((LatLng) value).toPb());
+        }
+      };
+    } else if (fieldType.isEnum()) {
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      FieldCodec codec = enumCodec(field, (Class) fieldType);
+      return codec;
+    }
+    throw new IllegalArgumentException(String.format("Field %s of %s has unsupported type %s",
+        field.getName(), field.getDeclaringClass().getName(), fieldType.getName()));
+  }
+
+  private static <E extends Enum<E>> FieldCodec enumCodec(Field field, final Class<E> enumType) {
+    return new ObjectCodec(field) {
+      @Override
+      Object decode(com.google.datastore.v1.Value valuePb) {
+        checkType(valuePb, ValueTypeCase.STRING_VALUE);
+        return Enum.valueOf(enumType, valuePb.getStringValue());
+      }
+
+      @Override
+      void encode(Object value, com.google.datastore.v1.Value.Builder valuePb) {
+        valuePb.setStringValue(((Enum<?>) value).name());
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("type", type.getName()).toString();
+  }
+}
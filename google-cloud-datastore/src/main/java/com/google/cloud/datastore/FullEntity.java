@@ -51,6 +51,10 @@ public class FullEntity<K extends IncompleteKey> extends BaseEntity<K> {
     super(from);
   }
 
+  FullEntity(K key, com.google.datastore.v1.Entity entityPb) {
+    super(key, entityPb);
+  }
+
   @Override
   protected BaseEntity.Builder<K, ?> emptyBuilder() {
     return new Builder<K>();
@@ -68,7 +72,11 @@ public class FullEntity<K extends IncompleteKey> extends BaseEntity<K> {
     return new Builder<>(copyFrom);
   }
 
+  /**
+   * Returns an entity whose properties are decoded from {@code entityPb} when first accessed.
+   */
   static FullEntity<?> fromPb(com.google.datastore.v1.Entity entityPb) {
-    return new Builder<>().fill(entityPb).build();
+    return new FullEntity<>(
+        entityPb.hasKey() ? IncompleteKey.fromPb(entityPb.getKey()) : null, entityPb);
   }
 }
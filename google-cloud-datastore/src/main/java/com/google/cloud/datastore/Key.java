@@ -20,12 +20,12 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.TextFormat;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.net.URLEncoder;
 
 /**
  * A key that is guaranteed to be complete and could be used to reference a
@@ -39,6 +39,13 @@ public final class Key extends IncompleteKey {
 
   private static final long serialVersionUID = 3160994559785491356L;
 
+  /**
+   * Prefixes URL-safe keys encoded as base64url protocol buffer bytes. Keys encoded as URL-encoded
+   * text format, by earlier versions, start with a field name instead.
+   */
+  private static final String URL_SAFE_PREFIX = "k1.";
+  private static final BaseEncoding URL_SAFE_ENCODING = BaseEncoding.base64Url().omitPadding();
+
   public static final class Builder extends BaseKey.Builder<Builder> {
 
     private String name;
@@ -134,22 +141,28 @@ public final class Key extends IncompleteKey {
   }
 
   /**
-   * Returns the key in an encoded form that can be used as part of a URL.
+   * Returns the key in an encoded form that can be used as part of a URL. The key's protocol
+   * buffer is encoded as base64url, after a version prefix.
    */
   public String toUrlSafe() {
-    try {
-      return URLEncoder.encode(TextFormat.printToString(toPb()), UTF_8.name());
-    } catch (UnsupportedEncodingException e) {
-      throw new IllegalStateException("Unexpected encoding exception", e);
-    }
+    return URL_SAFE_PREFIX + URL_SAFE_ENCODING.encode(toPb().toByteArray());
   }
 
   /**
-   * Create a {@code Key} given its URL safe encoded form.
+   * Create a {@code Key} given its URL safe encoded form. Keys encoded by earlier versions of
+   * {@link #toUrlSafe()}, as URL-encoded protocol buffer text format, are also accepted.
    *
    * @throws IllegalArgumentException when decoding fails
    */
   public static Key fromUrlSafe(String urlSafe) {
+    if (urlSafe.startsWith(URL_SAFE_PREFIX)) {
+      try {
+        return fromPb(com.google.datastore.v1.Key.parseFrom(
+            URL_SAFE_ENCODING.decode(urlSafe.substring(URL_SAFE_PREFIX.length()))));
+      } catch (InvalidProtocolBufferException e) {
+        throw new IllegalArgumentException("Could not parse key", e);
+      }
+    }
     try {
       String utf8Str = URLDecoder.decode(urlSafe, UTF_8.name());
       com.google.datastore.v1.Key.Builder builder = com.google.datastore.v1.Key.newBuilder();
@@ -51,6 +51,10 @@ public final class ProjectionEntity extends BaseEntity<Key> {
     super(builder);
   }
 
+  private ProjectionEntity(Key key, com.google.datastore.v1.Entity entityPb) {
+    super(key, entityPb);
+  }
+
   @SuppressWarnings({"unchecked", "deprecation"})
   @Override
   public DateTime getDateTime(String name) {
@@ -71,8 +75,12 @@ public final class ProjectionEntity extends BaseEntity<Key> {
     return ((Value<Blob>) value).get();
   }
 
+  /**
+   * Returns an entity whose properties are decoded from {@code entityPb} when first accessed.
+   */
   static ProjectionEntity fromPb(com.google.datastore.v1.Entity entityPb) {
-    return new Builder().fill(entityPb).build();
+    return new ProjectionEntity(entityPb.hasKey() ? Key.fromPb(entityPb.getKey()) : null,
+        entityPb);
   }
 
   @Override
@@ -24,7 +24,8 @@ import java.util.Iterator;
  * the {@link #resultClass} value.
  * Results are loaded lazily in batches, where batch size is set by Cloud Datastore. As a result, it
  * is possible to get a {@code DatastoreException} upon {@link Iterator#hasNext hasNext} or
- * {@link Iterator#next next} calls.
+ * {@link Iterator#next next} calls. Batches can be requested ahead of iteration by running the
+ * query with {@link ReadOption#prefetch(int)}.
  *
  * @param <V> the type of the results value.
  */
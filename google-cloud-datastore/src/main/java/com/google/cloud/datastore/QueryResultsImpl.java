@@ -18,12 +18,22 @@ package com.google.cloud.datastore;
 
 import com.google.cloud.datastore.Query.ResultType;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.datastore.v1.QueryResultBatch.MoreResultsType;
 import com.google.protobuf.ByteString;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T> {
 
@@ -31,6 +41,9 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
   private final com.google.datastore.v1.ReadOptions readOptionsPb;
   private final com.google.datastore.v1.PartitionId partitionIdPb;
   private final ResultType<T> queryResultType;
+  private final int prefetchBatches;
+  // Batches requested ahead of the current one, in order. A future yields null past the last batch.
+  private final Deque<ListenableFuture<ResultBatch<T>>> prefetched = new ArrayDeque<>();
   private Query<T> query;
   private ResultType<?> actualResultType;
   private com.google.datastore.v1.RunQueryResponse runQueryResponsePb;
@@ -39,11 +52,43 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
   private Iterator<com.google.datastore.v1.EntityResult> entityResultPbIter;
   private ByteString cursor;
 
+  /**
+   * A batch of results together with the query that produced it.
+   */
+  private static final class ResultBatch<T> {
+
+    private final Query<T> query;
+    private final com.google.datastore.v1.RunQueryRequest requestPb;
+    private final com.google.datastore.v1.RunQueryResponse responsePb;
+
+    ResultBatch(Query<T> query, com.google.datastore.v1.RunQueryRequest requestPb,
+        com.google.datastore.v1.RunQueryResponse responsePb) {
+      this.query = query;
+      this.requestPb = requestPb;
+      this.responsePb = responsePb;
+    }
+
+    boolean isLast() {
+      return responsePb.getBatch().getMoreResults() != MoreResultsType.NOT_FINISHED;
+    }
+  }
+
   QueryResultsImpl(DatastoreImpl datastore, com.google.datastore.v1.ReadOptions readOptionsPb,
                    Query<T> query) {
+    this(datastore, readOptionsPb, query, 0);
+  }
+
+  /**
+   * Creates query results that request up to {@code prefetchBatches} batches ahead of the one
+   * being iterated, so that fetching results overlaps with processing them.
+   */
+  QueryResultsImpl(DatastoreImpl datastore, com.google.datastore.v1.ReadOptions readOptionsPb,
+                   Query<T> query, int prefetchBatches) {
+    Preconditions.checkArgument(prefetchBatches >= 0, "prefetchBatches must not be negative");
     this.datastore = datastore;
     this.readOptionsPb = readOptionsPb;
     this.query = query;
+    this.prefetchBatches = prefetchBatches;
     queryResultType = query.type();
     com.google.datastore.v1.PartitionId.Builder pbBuilder =
          com.google.datastore.v1.PartitionId.newBuilder();
@@ -62,7 +107,7 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
     }
   }
 
-  private void sendRequest() {
+  private com.google.datastore.v1.RunQueryRequest newRequest(Query<T> query) {
     com.google.datastore.v1.RunQueryRequest.Builder requestPb =
         com.google.datastore.v1.RunQueryRequest.newBuilder();
     if (readOptionsPb != null) {
@@ -70,7 +115,69 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
     }
     requestPb.setPartitionId(partitionIdPb);
     query.populatePb(requestPb);
-    runQueryResponsePb = datastore.runQuery(requestPb.build());
+    return requestPb.build();
+  }
+
+  private void sendRequest() {
+    com.google.datastore.v1.RunQueryRequest requestPb = newRequest(query);
+    setBatch(requestPb, datastore.runQuery(requestPb));
+    prefetch();
+  }
+
+  private void receivePrefetchedBatch() {
+    ResultBatch<T> batch;
+    try {
+      batch = Uninterruptibles.getUninterruptibly(prefetched.removeFirst());
+    } catch (ExecutionException e) {
+      prefetched.clear();
+      throw Throwables.propagate(e.getCause());
+    }
+    query = batch.query;
+    setBatch(batch.requestPb, batch.responsePb);
+    prefetch();
+  }
+
+  /**
+   * Requests the batches following the current one until {@link #prefetchBatches} are pending.
+   * Each request needs the end cursor of the batch before it, so every pending batch is chained
+   * to its predecessor.
+   */
+  private void prefetch() {
+    if (lastBatch) {
+      prefetched.clear();
+      return;
+    }
+    while (prefetched.size() < prefetchBatches) {
+      ListenableFuture<ResultBatch<T>> tail = prefetched.isEmpty()
+          ? Futures.immediateFuture(new ResultBatch<>(query, null, runQueryResponsePb))
+          : prefetched.getLast();
+      prefetched.addLast(
+          Futures.transformAsync(tail, new AsyncFunction<ResultBatch<T>, ResultBatch<T>>() {
+            @Override
+            public ListenableFuture<ResultBatch<T>> apply(ResultBatch<T> previous) {
+              if (previous == null || previous.isLast()) {
+                return Futures.immediateFuture(null);
+              }
+              return fetchBatchAfter(previous);
+            }
+          }, MoreExecutors.directExecutor()));
+    }
+  }
+
+  private ListenableFuture<ResultBatch<T>> fetchBatchAfter(ResultBatch<T> previous) {
+    final Query<T> nextQuery = previous.query.nextQuery(previous.responsePb);
+    return datastore.asyncExecutor().submit(new Callable<ResultBatch<T>>() {
+      @Override
+      public ResultBatch<T> call() {
+        com.google.datastore.v1.RunQueryRequest requestPb = newRequest(nextQuery);
+        return new ResultBatch<>(nextQuery, requestPb, datastore.runQuery(requestPb));
+      }
+    });
+  }
+
+  private void setBatch(com.google.datastore.v1.RunQueryRequest requestPb,
+      com.google.datastore.v1.RunQueryResponse responsePb) {
+    runQueryResponsePb = responsePb;
     mostRecentQueryPb = runQueryResponsePb.getQuery();
     if (mostRecentQueryPb == null) {
       mostRecentQueryPb = requestPb.getQuery();
@@ -89,8 +196,12 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
   @Override
   protected T computeNext() {
     while (!entityResultPbIter.hasNext() && !lastBatch) {
-      query = query.nextQuery(runQueryResponsePb);
-      sendRequest();
+      if (prefetched.isEmpty()) {
+        query = query.nextQuery(runQueryResponsePb);
+        sendRequest();
+      } else {
+        receivePrefetchedBatch();
+      }
     }
     if (!entityResultPbIter.hasNext()) {
       cursor = runQueryResponsePb.getBatch().getEndCursor();
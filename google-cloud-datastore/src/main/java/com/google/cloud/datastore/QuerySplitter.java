@@ -0,0 +1,347 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.cloud.datastore.StructuredQuery.CompositeFilter;
+import com.google.cloud.datastore.StructuredQuery.Filter;
+import com.google.cloud.datastore.StructuredQuery.OrderBy;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a {@link StructuredQuery} into queries over disjoint key ranges, so that its results can
+ * be read in parallel.
+ *
+ * <p>Split points are chosen by sampling keys of the query's kind in {@code __scatter__} order,
+ * which Cloud Datastore populates for a pseudo-random subset of entities. Each split adds
+ * {@code __key__} range filters to the original query; together the splits return exactly the
+ * entities the original query would. Splits can be run by different threads or machines, or all
+ * at once with {@link #run(Datastore, List, ReadOption...)}:
+ *
+ * <pre> {@code
+ * List<StructuredQuery<Entity>> splits = QuerySplitter.split(datastore, query, 8);
+ * QueryResults<Entity> results = QuerySplitter.run(datastore, splits);
+ * while (results.hasNext()) {
+ *   Entity entity = results.next();
+ * }
+ * }</pre>
+ *
+ * <p>Only queries with a kind and without sort orders, limit, offset, cursors or inequality
+ * filters on properties other than {@code __key__} can be split. The whole kind is sampled, as
+ * Cloud Datastore doesn't allow {@code __key__} inequality filters on the {@code __scatter__}
+ * ordered sample query, but samples outside the query's {@code __key__} range are discarded. Fewer
+ * splits than requested are returned if the kind, or the query's key range, has too few sampled
+ * entities.
+ */
+public final class QuerySplitter {
+
+  static final String SCATTER_PROPERTY_NAME = "__scatter__";
+  static final int SAMPLES_PER_SPLIT = 32;
+
+  /**
+   * Orders keys the way Cloud Datastore does: path element by path element, comparing kinds, then
+   * numeric ids before names. A key sorts before its descendants.
+   */
+  static final Comparator<Key> KEY_ORDER = new Comparator<Key>() {
+    @Override
+    public int compare(Key left, Key right) {
+      List<PathElement> leftPath = path(left);
+      List<PathElement> rightPath = path(right);
+      int size = Math.min(leftPath.size(), rightPath.size());
+      for (int i = 0; i < size; i++) {
+        int result = compare(leftPath.get(i), rightPath.get(i));
+        if (result != 0) {
+          return result;
+        }
+      }
+      return Integer.compare(leftPath.size(), rightPath.size());
+    }
+
+    private int compare(PathElement left, PathElement right) {
+      int result = compareStrings(left.kind(), right.kind());
+      if (result != 0) {
+        return result;
+      }
+      if (left.hasId() != right.hasId()) {
+        return left.hasId() ? -1 : 1;
+      }
+      return left.hasId()
+          ? Long.compare(left.id(), right.id()) : compareStrings(left.name(), right.name());
+    }
+
+    private int compareStrings(String left, String right) {
+      return UnsignedBytes.lexicographicalComparator().compare(
+          left.getBytes(StandardCharsets.UTF_8), right.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<PathElement> path(Key key) {
+      return ImmutableList.<PathElement>builder()
+          .addAll(key.ancestors())
+          .add(key.hasId() ? PathElement.of(key.kind(), key.id())
+              : PathElement.of(key.kind(), key.name()))
+          .build();
+    }
+  };
+
+  private QuerySplitter() {
+  }
+
+  /**
+   * Returns at most {@code numSplits} queries over disjoint key ranges whose results, taken
+   * together, are the results of {@code query}. Splits are returned in key order.
+   *
+   * @throws IllegalArgumentException if {@code numSplits} is not positive or {@code query} can't
+   *     be split
+   * @throws DatastoreException upon failure sampling the query's kind
+   */
+  public static <V> List<StructuredQuery<V>> split(
+      Datastore datastore, StructuredQuery<V> query, int numSplits) {
+    checkArgument(numSplits > 0, "numSplits must be positive");
+    checkArgument(query.kind() != null, "query must have a kind");
+    checkArgument(query.orderBy().isEmpty(), "query must not have sort orders");
+    checkArgument(query.limit() == null && query.offset() == 0,
+        "query must not have a limit or offset");
+    checkArgument(query.startCursor() == null && query.endCursor() == null,
+        "query must not have cursors");
+    // Cloud Datastore only allows inequality filters on a single property, __key__ here
+    checkArgument(query.filter() == null || !hasInequalityFilter(query.filter().toPb()),
+        "query must not have inequality filters on properties other than %s",
+        StructuredQuery.KEY_PROPERTY_NAME);
+    if (numSplits == 1) {
+      return ImmutableList.of(query);
+    }
+    List<Key> samples = sample(datastore, query, numSplits);
+    if (query.filter() != null) {
+      com.google.datastore.v1.Filter filterPb = query.filter().toPb();
+      for (Iterator<Key> iterator = samples.iterator(); iterator.hasNext(); ) {
+        if (!inKeyRange(iterator.next(), filterPb)) {
+          iterator.remove();
+        }
+      }
+    }
+    List<Key> splitKeys = splitKeys(samples, numSplits);
+    ImmutableList.Builder<StructuredQuery<V>> splits = ImmutableList.builder();
+    Key lower = null;
+    for (Key upper : splitKeys) {
+      splits.add(keyRange(query, lower, upper));
+      lower = upper;
+    }
+    splits.add(keyRange(query, lower, null));
+    return splits.build();
+  }
+
+  /**
+   * Runs the given queries concurrently and returns their results one query after the other, in
+   * list order. The first batch of every query is requested right away; further batches are
+   * requested as the results are iterated. {@link ReadOption}s can be specified if desired.
+   *
+   * <p>The returned results don't support {@link QueryResults#cursorAfter()}. To resume reading
+   * a split, or to consume splits in different threads, run each split separately, for instance
+   * with {@link Datastore#runAsync(Query, ReadOption...)}.
+   *
+   * @throws DatastoreException upon failure, when the results of the failed query are reached
+   */
+  public static <V> QueryResults<V> run(
+      Datastore datastore, List<? extends Query<V>> splits, ReadOption... options) {
+    checkArgument(!splits.isEmpty(), "splits must not be empty");
+    List<Future<QueryResults<V>>> results = new ArrayList<>(splits.size());
+    for (Query<V> split : splits) {
+      results.add(datastore.runAsync(split, options));
+    }
+    return new MergedResults<>(results);
+  }
+
+  private static boolean hasInequalityFilter(com.google.datastore.v1.Filter filterPb) {
+    if (filterPb.getFilterTypeCase()
+        == com.google.datastore.v1.Filter.FilterTypeCase.COMPOSITE_FILTER) {
+      for (com.google.datastore.v1.Filter subFilterPb
+          : filterPb.getCompositeFilter().getFiltersList()) {
+        if (hasInequalityFilter(subFilterPb)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    com.google.datastore.v1.PropertyFilter propertyFilterPb = filterPb.getPropertyFilter();
+    if (StructuredQuery.KEY_PROPERTY_NAME.equals(propertyFilterPb.getProperty().getName())) {
+      return false;
+    }
+    switch (propertyFilterPb.getOp()) {
+      case LESS_THAN:
+      case LESS_THAN_OR_EQUAL:
+      case GREATER_THAN:
+      case GREATER_THAN_OR_EQUAL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns whether {@code key} is a useful split point for a query with filter {@code filterPb}:
+   * whether it's strictly after the query's {@code __key__} lower bounds, and before its upper
+   * bounds.
+   */
+  private static boolean inKeyRange(Key key, com.google.datastore.v1.Filter filterPb) {
+    if (filterPb.getFilterTypeCase()
+        == com.google.datastore.v1.Filter.FilterTypeCase.COMPOSITE_FILTER) {
+      for (com.google.datastore.v1.Filter subFilterPb
+          : filterPb.getCompositeFilter().getFiltersList()) {
+        if (!inKeyRange(key, subFilterPb)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    com.google.datastore.v1.PropertyFilter propertyFilterPb = filterPb.getPropertyFilter();
+    if (!StructuredQuery.KEY_PROPERTY_NAME.equals(propertyFilterPb.getProperty().getName())
+        || propertyFilterPb.getValue().getValueTypeCase()
+            != com.google.datastore.v1.Value.ValueTypeCase.KEY_VALUE) {
+      return true;
+    }
+    int result = KEY_ORDER.compare(key, Key.fromPb(propertyFilterPb.getValue().getKeyValue()));
+    switch (propertyFilterPb.getOp()) {
+      case GREATER_THAN:
+      case GREATER_THAN_OR_EQUAL:
+        // Splitting at the lower bound would only add an empty split
+        return result > 0;
+      case LESS_THAN:
+        return result < 0;
+      case LESS_THAN_OR_EQUAL:
+        return result <= 0;
+      case EQUAL:
+        // At most one entity matches, there's nothing to split
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  private static List<Key> sample(Datastore datastore, StructuredQuery<?> query, int numSplits) {
+    KeyQuery sampleQuery = Query.keyQueryBuilder()
+        .namespace(query.namespace())
+        .kind(query.kind())
+        .orderBy(OrderBy.asc(SCATTER_PROPERTY_NAME))
+        .limit((numSplits - 1) * SAMPLES_PER_SPLIT)
+        .build();
+    return Lists.newArrayList(datastore.run(sampleQuery));
+  }
+
+  /**
+   * Picks at most {@code numSplits - 1} distinct, evenly spaced keys out of {@code samples}.
+   */
+  static List<Key> splitKeys(List<Key> samples, int numSplits) {
+    List<Key> sorted = new ArrayList<>(samples);
+    Collections.sort(sorted, KEY_ORDER);
+    List<Key> splitKeys = new ArrayList<>(numSplits - 1);
+    double stride = (sorted.size() + 1) / (double) numSplits;
+    for (int i = 1; i < numSplits; i++) {
+      int index = (int) Math.round(i * stride) - 1;
+      if (index < 0 || index >= sorted.size()) {
+        continue;
+      }
+      Key key = sorted.get(index);
+      if (splitKeys.isEmpty() || !splitKeys.get(splitKeys.size() - 1).equals(key)) {
+        splitKeys.add(key);
+      }
+    }
+    return splitKeys;
+  }
+
+  private static <V> StructuredQuery<V> keyRange(StructuredQuery<V> query, Key lower, Key upper) {
+    List<Filter> filters = new ArrayList<>(3);
+    if (query.filter() != null) {
+      filters.add(query.filter());
+    }
+    if (lower != null) {
+      filters.add(PropertyFilter.ge(StructuredQuery.KEY_PROPERTY_NAME, lower));
+    }
+    if (upper != null) {
+      filters.add(PropertyFilter.lt(StructuredQuery.KEY_PROPERTY_NAME, upper));
+    }
+    if (filters.isEmpty()) {
+      return query;
+    }
+    Filter filter = filters.size() == 1 ? filters.get(0) : CompositeFilter.and(filters.get(0),
+        filters.subList(1, filters.size()).toArray(new Filter[filters.size() - 1]));
+    return query.toBuilder().filter(filter).build();
+  }
+
+  private static final class MergedResults<V> extends AbstractIterator<V>
+      implements QueryResults<V> {
+
+    private final Iterator<Future<QueryResults<V>>> pending;
+    private QueryResults<V> current;
+    private final Class<?> resultClass;
+
+    MergedResults(List<Future<QueryResults<V>>> results) {
+      this.pending = results.iterator();
+      this.current = get(pending.next());
+      this.resultClass = current.resultClass();
+    }
+
+    private static <V> QueryResults<V> get(Future<QueryResults<V>> future) {
+      try {
+        return Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+
+    @Override
+    protected V computeNext() {
+      while (!current.hasNext()) {
+        if (!pending.hasNext()) {
+          return endOfData();
+        }
+        current = get(pending.next());
+      }
+      return current.next();
+    }
+
+    @Override
+    public Class<?> resultClass() {
+      return resultClass;
+    }
+
+    /**
+     * Not supported; a single cursor can't describe the position in several queries.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Cursor cursorAfter() {
+      throw new UnsupportedOperationException("Merged query results have no cursor");
+    }
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.cloud.datastore;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.collect.ImmutableMap;
 
 import java.io.Serializable;
@@ -48,6 +50,25 @@ public abstract class ReadOption implements Serializable {
     }
   }
 
+  /**
+   * Specifies how many batches of query results to request ahead of the batch being iterated.
+   * This option only affects queries.
+   */
+  public static final class Prefetch extends ReadOption {
+
+    private static final long serialVersionUID = 5214873097441815738L;
+
+    private final int batches;
+
+    private Prefetch(int batches) {
+      this.batches = batches;
+    }
+
+    public int batches() {
+      return batches;
+    }
+  }
+
   private ReadOption() {}
 
   /**
@@ -58,6 +79,19 @@ public abstract class ReadOption implements Serializable {
     return new EventualConsistency(true);
   }
 
+  /**
+   * Returns a {@code ReadOption} that makes query results request up to {@code batches} batches
+   * in the background, as soon as the batch before each of them arrives, instead of waiting until
+   * the current batch has been consumed. Iterating a large query then overlaps network round trips
+   * with processing the results. At most {@code batches} batches are buffered per query.
+   *
+   * @throws IllegalArgumentException if {@code batches} is negative
+   */
+  public static Prefetch prefetch(int batches) {
+    checkArgument(batches >= 0, "batches must not be negative");
+    return new Prefetch(batches);
+  }
+
   static Map<Class<? extends ReadOption>, ReadOption> asImmutableMap(ReadOption... options) {
     ImmutableMap.Builder<Class<? extends ReadOption>, ReadOption> builder = ImmutableMap.builder();
     for (ReadOption option : options) {
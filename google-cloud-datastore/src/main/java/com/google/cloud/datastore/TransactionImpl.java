@@ -19,13 +19,17 @@ package com.google.cloud.datastore;
 import com.google.protobuf.ByteString;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 final class TransactionImpl extends BaseDatastoreBatchWriter implements Transaction {
 
   private final DatastoreImpl datastore;
   private final ByteString transaction;
+  private final boolean retryAbortedCommit;
+  private final Set<String> readKinds = new HashSet<>();
   private boolean rolledback;
 
   static class ResponseImpl implements Transaction.Response {
@@ -51,8 +55,17 @@ final class TransactionImpl extends BaseDatastoreBatchWriter implements Transact
   }
 
   TransactionImpl(DatastoreImpl datastore) {
+    this(datastore, true);
+  }
+
+  /**
+   * Creates a transaction. If {@code retryAbortedCommit} is {@code false}, a commit aborted because
+   * of contention fails right away, so that the caller can run the whole transaction again.
+   */
+  TransactionImpl(DatastoreImpl datastore, boolean retryAbortedCommit) {
     super("transaction");
     this.datastore = datastore;
+    this.retryAbortedCommit = retryAbortedCommit;
     com.google.datastore.v1.BeginTransactionRequest.Builder requestPb =
         com.google.datastore.v1.BeginTransactionRequest.newBuilder();
     transaction = datastore.requestTransactionId(requestPb);
@@ -66,6 +79,9 @@ final class TransactionImpl extends BaseDatastoreBatchWriter implements Transact
   @Override
   public Iterator<Entity> get(Key... keys) {
     validateActive();
+    for (Key key : keys) {
+      readKinds.add(key.kind());
+    }
     com.google.datastore.v1.ReadOptions.Builder readOptionsPb =
         com.google.datastore.v1.ReadOptions.newBuilder();
     readOptionsPb.setTransaction(transaction);
@@ -81,6 +97,9 @@ final class TransactionImpl extends BaseDatastoreBatchWriter implements Transact
   @Override
   public <T> QueryResults<T> run(Query<T> query) {
     validateActive();
+    if (query instanceof StructuredQuery && ((StructuredQuery<?>) query).kind() != null) {
+      readKinds.add(((StructuredQuery<?>) query).kind());
+    }
     com.google.datastore.v1.ReadOptions.Builder readOptionsPb =
         com.google.datastore.v1.ReadOptions.newBuilder();
     readOptionsPb.setTransaction(transaction);
@@ -96,7 +115,8 @@ final class TransactionImpl extends BaseDatastoreBatchWriter implements Transact
     requestPb.setMode(com.google.datastore.v1.CommitRequest.Mode.TRANSACTIONAL);
     requestPb.setTransaction(transaction);
     requestPb.addAllMutations(mutationsPb);
-    com.google.datastore.v1.CommitResponse responsePb = datastore.commit(requestPb.build());
+    com.google.datastore.v1.CommitResponse responsePb = datastore.commit(requestPb.build(),
+        retryAbortedCommit);
     deactivate();
     return new ResponseImpl(responsePb, toAddAutoId().size());
   }
@@ -112,6 +132,30 @@ final class TransactionImpl extends BaseDatastoreBatchWriter implements Transact
     rolledback = true;
   }
 
+  /**
+   * Returns the kinds of the entities read or written by this transaction, as far as they are
+   * known. The kinds read by GQL queries are not known.
+   */
+  Set<String> kinds() {
+    Set<String> kinds = new HashSet<>(readKinds);
+    for (FullEntity<IncompleteKey> entity : toAddAutoId()) {
+      kinds.add(entity.key().kind());
+    }
+    for (Key key : toAdd().keySet()) {
+      kinds.add(key.kind());
+    }
+    for (Key key : toUpdate().keySet()) {
+      kinds.add(key.kind());
+    }
+    for (Key key : toPut().keySet()) {
+      kinds.add(key.kind());
+    }
+    for (Key key : toDelete()) {
+      kinds.add(key.kind());
+    }
+    return kinds;
+  }
+
   @Override
   public Datastore datastore() {
     return datastore;
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the attempts of transactions run with
+ * {@link Datastore#runInTransaction(Datastore.TransactionCallable)}, and how many of them were
+ * aborted because of contention, by entity kind. An attempt counts towards every kind it read or
+ * wrote. Counts are kept for the lifetime of the {@link Datastore} service.
+ *
+ * @see Datastore#transactionMetrics()
+ */
+public final class TransactionMetrics {
+
+  private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<>();
+
+  private static final class Counters {
+    final AtomicLong attempts = new AtomicLong();
+    final AtomicLong aborted = new AtomicLong();
+  }
+
+  /**
+   * A snapshot of the transaction attempts that involved one kind.
+   */
+  public static final class KindMetrics {
+
+    private final long attempts;
+    private final long aborted;
+
+    KindMetrics(long attempts, long aborted) {
+      this.attempts = attempts;
+      this.aborted = aborted;
+    }
+
+    /**
+     * Returns the number of transaction attempts, including aborted ones.
+     */
+    public long attempts() {
+      return attempts;
+    }
+
+    /**
+     * Returns the number of transaction attempts aborted because of contention.
+     */
+    public long aborted() {
+      return aborted;
+    }
+
+    /**
+     * Returns the fraction of attempts aborted because of contention, or 0 if there were none.
+     */
+    public double contentionRate() {
+      return attempts == 0 ? 0 : (double) aborted / attempts;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("attempts", attempts)
+          .add("aborted", aborted)
+          .toString();
+    }
+  }
+
+  TransactionMetrics() {
+  }
+
+  void record(Iterable<String> kinds, boolean aborted) {
+    for (String kind : kinds) {
+      Counters kindCounters = counters.get(kind);
+      if (kindCounters == null) {
+        Counters newCounters = new Counters();
+        kindCounters = counters.putIfAbsent(kind, newCounters);
+        if (kindCounters == null) {
+          kindCounters = newCounters;
+        }
+      }
+      kindCounters.attempts.incrementAndGet();
+      if (aborted) {
+        kindCounters.aborted.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the metrics of every kind involved in a transaction so far, sorted by
+   * kind.
+   */
+  public Map<String, KindMetrics> byKind() {
+    ImmutableSortedMap.Builder<String, KindMetrics> snapshot = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+      Counters kindCounters = entry.getValue();
+      // Reads aborted first so that it never exceeds attempts.
+      long aborted = kindCounters.aborted.get();
+      snapshot.put(entry.getKey(), new KindMetrics(kindCounters.attempts.get(), aborted));
+    }
+    return snapshot.build();
+  }
+
+  /**
+   * Returns a snapshot of the metrics of {@code kind}, with zero counts if it wasn't involved in
+   * any transaction.
+   */
+  public KindMetrics kind(String kind) {
+    Counters kindCounters = counters.get(kind);
+    if (kindCounters == null) {
+      return new KindMetrics(0, 0);
+    }
+    long aborted = kindCounters.aborted.get();
+    return new KindMetrics(kindCounters.attempts.get(), aborted);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("byKind", byKind()).toString();
+  }
+}
@@ -0,0 +1,835 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore.testing;
+
+import com.google.cloud.AuthCredentials;
+import com.google.cloud.RetryParams;
+import com.google.cloud.datastore.DatastoreException;
+import com.google.cloud.datastore.DatastoreOptions;
+import com.google.cloud.datastore.spi.DatastoreRpc;
+import com.google.cloud.datastore.spi.DatastoreRpcFactory;
+import com.google.datastore.v1.AllocateIdsRequest;
+import com.google.datastore.v1.AllocateIdsResponse;
+import com.google.datastore.v1.BeginTransactionRequest;
+import com.google.datastore.v1.BeginTransactionResponse;
+import com.google.datastore.v1.CommitRequest;
+import com.google.datastore.v1.CommitResponse;
+import com.google.datastore.v1.Entity;
+import com.google.datastore.v1.EntityResult;
+import com.google.datastore.v1.Filter;
+import com.google.datastore.v1.Key;
+import com.google.datastore.v1.LookupRequest;
+import com.google.datastore.v1.LookupResponse;
+import com.google.datastore.v1.Mutation;
+import com.google.datastore.v1.MutationResult;
+import com.google.datastore.v1.PartitionId;
+import com.google.datastore.v1.Projection;
+import com.google.datastore.v1.PropertyFilter;
+import com.google.datastore.v1.PropertyOrder;
+import com.google.datastore.v1.PropertyReference;
+import com.google.datastore.v1.Query;
+import com.google.datastore.v1.QueryResultBatch;
+import com.google.datastore.v1.ReadOptions;
+import com.google.datastore.v1.RollbackRequest;
+import com.google.datastore.v1.RollbackResponse;
+import com.google.datastore.v1.RunQueryRequest;
+import com.google.datastore.v1.RunQueryResponse;
+import com.google.datastore.v1.Value;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A thread-safe, in-memory {@link DatastoreRpc} for tests and benchmarks, which needs neither
+ * the Cloud SDK nor a separate emulator process.
+ *
+ * <p>Lookups, structured queries (with filters, orders, projections, distinct-on, cursors, offsets
+ * and limits), commits, transactions and id allocation are supported. Writes are immediately
+ * visible to every read, so results are always strongly consistent. Query results are sorted as
+ * Cloud Datastore sorts them, including across value types, but queries don't need indexes, and
+ * entity values can't be filtered on by sub-property. GQL queries are not supported.
+ *
+ * <p>Transactions are optimistic: a transactional commit fails with an {@code ABORTED}
+ * {@link DatastoreException} if any entity the transaction read or writes was written by another
+ * commit since the transaction began.
+ *
+ * <p>Every call parks the calling thread for the configured latency, outside of any lock, to model
+ * the round trip to the service.
+ *
+ * <pre> {@code
+ * InMemoryDatastoreRpc rpc = InMemoryDatastoreRpc.create();
+ * Datastore datastore = rpc.options().service();
+ * } </pre>
+ */
+public class InMemoryDatastoreRpc implements DatastoreRpc {
+
+  private static final String PROJECT_ID = "in-memory-project";
+  private static final String KEY_PROPERTY = "__key__";
+  private static final int BATCH_SIZE = 300;
+  private static final int INVALID_ARGUMENT = 3;
+  private static final int NOT_FOUND = 5;
+  private static final int ALREADY_EXISTS = 6;
+  private static final int ABORTED = 10;
+
+  private static final Comparator<Key> KEY_ORDER = new Comparator<Key>() {
+    @Override
+    public int compare(Key first, Key second) {
+      int result = first.getPartitionId().getProjectId()
+          .compareTo(second.getPartitionId().getProjectId());
+      if (result == 0) {
+        result = first.getPartitionId().getNamespaceId()
+            .compareTo(second.getPartitionId().getNamespaceId());
+      }
+      for (int i = 0; result == 0 && i < first.getPathCount() && i < second.getPathCount(); i++) {
+        result = comparePathElements(first.getPath(i), second.getPath(i));
+      }
+      return result != 0 ? result : Integer.compare(first.getPathCount(), second.getPathCount());
+    }
+  };
+
+  /**
+   * Orders values as Cloud Datastore does: by type, then by value.
+   */
+  private static final Comparator<Value> VALUE_ORDER = new Comparator<Value>() {
+    @Override
+    public int compare(Value first, Value second) {
+      int result = Integer.compare(typeRank(first), typeRank(second));
+      if (result != 0) {
+        return result;
+      }
+      switch (first.getValueTypeCase()) {
+        case NULL_VALUE:
+          return 0;
+        case INTEGER_VALUE:
+        case TIMESTAMP_VALUE:
+          return Long.compare(integer(first), integer(second));
+        case BOOLEAN_VALUE:
+          return Boolean.compare(first.getBooleanValue(), second.getBooleanValue());
+        case BLOB_VALUE:
+          return compareBytes(first.getBlobValue(), second.getBlobValue());
+        case STRING_VALUE:
+          return compareBytes(first.getStringValueBytes(), second.getStringValueBytes());
+        case DOUBLE_VALUE:
+          return Double.compare(first.getDoubleValue(), second.getDoubleValue());
+        case GEO_POINT_VALUE:
+          result = Double.compare(first.getGeoPointValue().getLatitude(),
+              second.getGeoPointValue().getLatitude());
+          return result != 0 ? result : Double.compare(first.getGeoPointValue().getLongitude(),
+              second.getGeoPointValue().getLongitude());
+        case KEY_VALUE:
+          return KEY_ORDER.compare(first.getKeyValue(), second.getKeyValue());
+        default:
+          return compareBytes(first.toByteString(), second.toByteString());
+      }
+    }
+  };
+
+  private final long latencyNanos;
+  private final AtomicLong roundTrips = new AtomicLong();
+
+  // Guarded by this.
+  private final NavigableMap<Key, Entity> entities = new TreeMap<>(KEY_ORDER);
+  // The commit that last wrote each key, including deletes.
+  private final Map<Key, Long> versions = new HashMap<>();
+  private final Map<ByteString, Transaction> transactions = new HashMap<>();
+  private long commits;
+  private long nextId = 1;
+  private long nextTransaction = 1;
+
+  private static final class Transaction {
+
+    final long snapshot;
+    final Set<Key> reads = new HashSet<>();
+
+    Transaction(long snapshot) {
+      this.snapshot = snapshot;
+    }
+  }
+
+  /**
+   * A query result, with the values it's sorted by.
+   */
+  private static final class Row {
+
+    final Key key;
+    final Value[] sortValues;
+    // Distinguishes the rows a projection on array properties yields for one entity.
+    final int expansion;
+    final Entity entity;
+
+    Row(Key key, Value[] sortValues, int expansion, Entity entity) {
+      this.key = key;
+      this.sortValues = sortValues;
+      this.expansion = expansion;
+      this.entity = entity;
+    }
+  }
+
+  private InMemoryDatastoreRpc(long latency, TimeUnit unit) {
+    this.latencyNanos = unit.toNanos(latency);
+  }
+
+  /**
+   * Creates an empty in-memory Datastore that answers immediately.
+   */
+  public static InMemoryDatastoreRpc create() {
+    return create(0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Creates an empty in-memory Datastore that takes {@code latency} to answer each call.
+   */
+  public static InMemoryDatastoreRpc create(long latency, TimeUnit unit) {
+    return new InMemoryDatastoreRpc(latency, unit);
+  }
+
+  private DatastoreOptions.Builder optionsBuilder() {
+    return DatastoreOptions.builder()
+        .projectId(PROJECT_ID)
+        .authCredentials(AuthCredentials.noAuth())
+        .retryParams(RetryParams.noRetries())
+        .serviceRpcFactory(new DatastoreRpcFactory() {
+          @Override
+          public DatastoreRpc create(DatastoreOptions options) {
+            return InMemoryDatastoreRpc.this;
+          }
+        });
+  }
+
+  /**
+   * Returns a {@link DatastoreOptions} instance whose services use this in-memory Datastore.
+   */
+  public DatastoreOptions options() {
+    return optionsBuilder().build();
+  }
+
+  /**
+   * Returns a {@link DatastoreOptions} instance whose services use this in-memory Datastore. The
+   * default namespace is set to {@code namespace}.
+   */
+  public DatastoreOptions options(String namespace) {
+    return optionsBuilder().namespace(namespace).build();
+  }
+
+  /**
+   * Returns the number of calls served so far.
+   */
+  public long roundTrips() {
+    return roundTrips.get();
+  }
+
+  /**
+   * Deletes all entities and forgets all transactions.
+   */
+  public synchronized void reset() {
+    entities.clear();
+    versions.clear();
+    transactions.clear();
+  }
+
+  private void roundTrip() {
+    roundTrips.incrementAndGet();
+    if (latencyNanos > 0) {
+      LockSupport.parkNanos(latencyNanos);
+    }
+  }
+
+  private static DatastoreException invalidArgument(String message, Object... params) {
+    return new DatastoreException(INVALID_ARGUMENT, String.format(message, params),
+        "INVALID_ARGUMENT");
+  }
+
+  @Override
+  public AllocateIdsResponse allocateIds(AllocateIdsRequest request) {
+    roundTrip();
+    AllocateIdsResponse.Builder response = AllocateIdsResponse.newBuilder();
+    synchronized (this) {
+      for (Key key : request.getKeysList()) {
+        if (isComplete(key)) {
+          throw invalidArgument("Key %s is complete", key);
+        }
+        response.addKeys(completeKey(key));
+      }
+    }
+    return response.build();
+  }
+
+  @Override
+  public BeginTransactionResponse beginTransaction(BeginTransactionRequest request) {
+    roundTrip();
+    ByteString transaction;
+    synchronized (this) {
+      transaction = ByteString.copyFromUtf8(Long.toString(nextTransaction++));
+      transactions.put(transaction, new Transaction(commits));
+    }
+    return BeginTransactionResponse.newBuilder().setTransaction(transaction).build();
+  }
+
+  @Override
+  public CommitResponse commit(CommitRequest request) {
+    roundTrip();
+    CommitResponse.Builder response = CommitResponse.newBuilder();
+    synchronized (this) {
+      Transaction transaction = null;
+      if (request.getMode() == CommitRequest.Mode.TRANSACTIONAL) {
+        transaction = transactions.remove(request.getTransaction());
+        if (transaction == null) {
+          throw invalidArgument("Unknown transaction");
+        }
+      }
+      Set<Key> written = new HashSet<>();
+      for (Mutation mutation : request.getMutationsList()) {
+        validate(mutation, written);
+      }
+      if (transaction != null) {
+        Set<Key> touched = new HashSet<>(transaction.reads);
+        touched.addAll(written);
+        for (Key key : touched) {
+          Long version = versions.get(key);
+          if (version != null && version > transaction.snapshot) {
+            throw new DatastoreException(ABORTED,
+                "too much contention on these datastore entities. please try again.", "ABORTED");
+          }
+        }
+      }
+      long version = ++commits;
+      for (Mutation mutation : request.getMutationsList()) {
+        MutationResult.Builder result = MutationResult.newBuilder().setVersion(version);
+        Key key;
+        switch (mutation.getOperationCase()) {
+          case INSERT:
+          case UPSERT:
+            Entity entity = mutation.getOperationCase() == Mutation.OperationCase.INSERT
+                ? mutation.getInsert() : mutation.getUpsert();
+            key = entity.getKey();
+            if (!isComplete(key)) {
+              key = completeKey(key);
+              entity = entity.toBuilder().setKey(key).build();
+              result.setKey(key);
+            }
+            entities.put(key, entity);
+            break;
+          case UPDATE:
+            key = mutation.getUpdate().getKey();
+            entities.put(key, mutation.getUpdate());
+            break;
+          default:
+            key = mutation.getDelete();
+            entities.remove(key);
+            break;
+        }
+        versions.put(key, version);
+        response.addMutationResults(result);
+      }
+    }
+    return response.build();
+  }
+
+  /**
+   * Checks that {@code mutation} can be applied, adding the key it writes to {@code written}.
+   */
+  private void validate(Mutation mutation, Set<Key> written) {
+    Key key;
+    switch (mutation.getOperationCase()) {
+      case INSERT:
+        key = mutation.getInsert().getKey();
+        if (entities.containsKey(key)) {
+          throw new DatastoreException(ALREADY_EXISTS, "entity already exists", "ALREADY_EXISTS");
+        }
+        break;
+      case UPSERT:
+        key = mutation.getUpsert().getKey();
+        break;
+      case UPDATE:
+        key = mutation.getUpdate().getKey();
+        if (isComplete(key) && !entities.containsKey(key)) {
+          throw new DatastoreException(NOT_FOUND, "no entity to update", "NOT_FOUND");
+        }
+        break;
+      case DELETE:
+        key = mutation.getDelete();
+        break;
+      default:
+        throw invalidArgument("A mutation must have an operation");
+    }
+    if (isComplete(key)) {
+      if (!written.add(key)) {
+        throw invalidArgument("A commit can't have more than one mutation of entity %s", key);
+      }
+    } else if (mutation.getOperationCase() == Mutation.OperationCase.UPDATE
+        || mutation.getOperationCase() == Mutation.OperationCase.DELETE) {
+      throw invalidArgument("Key %s is incomplete", key);
+    }
+  }
+
+  @Override
+  public LookupResponse lookup(LookupRequest request) {
+    roundTrip();
+    LookupResponse.Builder response = LookupResponse.newBuilder();
+    synchronized (this) {
+      Transaction transaction = transaction(request.getReadOptions());
+      for (Key key : request.getKeysList()) {
+        if (!isComplete(key)) {
+          throw invalidArgument("Key %s is incomplete", key);
+        }
+        if (transaction != null) {
+          transaction.reads.add(key);
+        }
+        Entity entity = entities.get(key);
+        if (entity != null) {
+          response.addFound(EntityResult.newBuilder().setEntity(entity).setVersion(version(key)));
+        } else {
+          response.addMissing(EntityResult.newBuilder()
+              .setEntity(Entity.newBuilder().setKey(key))
+              .setVersion(version(key)));
+        }
+      }
+    }
+    return response.build();
+  }
+
+  @Override
+  public RollbackResponse rollback(RollbackRequest request) {
+    roundTrip();
+    synchronized (this) {
+      if (transactions.remove(request.getTransaction()) == null) {
+        throw invalidArgument("Unknown transaction");
+      }
+    }
+    return RollbackResponse.getDefaultInstance();
+  }
+
+  @Override
+  public RunQueryResponse runQuery(RunQueryRequest request) {
+    roundTrip();
+    if (request.getQueryTypeCase() != RunQueryRequest.QueryTypeCase.QUERY) {
+      throw invalidArgument("Only structured queries are supported");
+    }
+    Query query = request.getQuery();
+    if (query.getKindCount() > 1) {
+      throw invalidArgument("A query can have at most one kind");
+    }
+    QueryResultBatch.Builder batch;
+    synchronized (this) {
+      Transaction transaction = transaction(request.getReadOptions());
+      batch = runQuery(request.getPartitionId(), query);
+      if (transaction != null) {
+        for (EntityResult result : batch.getEntityResultsList()) {
+          transaction.reads.add(result.getEntity().getKey());
+        }
+      }
+    }
+    return RunQueryResponse.newBuilder().setQuery(query).setBatch(batch).build();
+  }
+
+  private QueryResultBatch.Builder runQuery(PartitionId partitionId, Query query) {
+    List<Row> rows = rows(partitionId, query);
+    Comparator<Row> order = rowOrder(query.getOrderList());
+    Collections.sort(rows, order);
+    if (query.getDistinctOnCount() > 0) {
+      rows = distinct(rows, query.getDistinctOnList());
+    }
+    int index = 0;
+    if (!query.getStartCursor().isEmpty()) {
+      Row start = decodeCursor(query.getStartCursor(), query.getOrderCount());
+      while (index < rows.size() && order.compare(rows.get(index), start) <= 0) {
+        index++;
+      }
+    }
+    int end = rows.size();
+    if (!query.getEndCursor().isEmpty()) {
+      Row endRow = decodeCursor(query.getEndCursor(), query.getOrderCount());
+      end = index;
+      while (end < rows.size() && order.compare(rows.get(end), endRow) <= 0) {
+        end++;
+      }
+    }
+    QueryResultBatch.Builder batch = QueryResultBatch.newBuilder();
+    batch.setEntityResultType(resultType(query));
+    ByteString cursor = query.getStartCursor();
+    int skipped = Math.min(query.getOffset(), end - index);
+    index += skipped;
+    if (skipped > 0) {
+      cursor = encodeCursor(rows.get(index - 1));
+      batch.setSkippedResults(skipped).setSkippedCursor(cursor);
+    }
+    int limit = query.hasLimit() ? query.getLimit().getValue() : Integer.MAX_VALUE;
+    int count = Math.min(Math.min(end - index, limit), BATCH_SIZE);
+    for (Row row : rows.subList(index, index + count)) {
+      cursor = encodeCursor(row);
+      batch.addEntityResults(EntityResult.newBuilder()
+          .setEntity(row.entity)
+          .setVersion(version(row.key))
+          .setCursor(cursor));
+    }
+    batch.setEndCursor(cursor);
+    if (count == limit) {
+      batch.setMoreResults(QueryResultBatch.MoreResultsType.MORE_RESULTS_AFTER_LIMIT);
+    } else if (index + count < end) {
+      batch.setMoreResults(QueryResultBatch.MoreResultsType.NOT_FINISHED);
+    } else if (end < rows.size()) {
+      batch.setMoreResults(QueryResultBatch.MoreResultsType.MORE_RESULTS_AFTER_CURSOR);
+    } else {
+      batch.setMoreResults(QueryResultBatch.MoreResultsType.NO_MORE_RESULTS);
+    }
+    return batch;
+  }
+
+  private static EntityResult.ResultType resultType(Query query) {
+    if (query.getProjectionCount() == 0) {
+      return EntityResult.ResultType.FULL;
+    }
+    for (Projection projection : query.getProjectionList()) {
+      if (!KEY_PROPERTY.equals(projection.getProperty().getName())) {
+        return EntityResult.ResultType.PROJECTION;
+      }
+    }
+    return EntityResult.ResultType.KEY_ONLY;
+  }
+
+  /**
+   * Returns the unsorted results of {@code query}, ignoring its cursors, offset and limit.
+   */
+  private List<Row> rows(PartitionId partitionId, Query query) {
+    String kind = query.getKindCount() > 0 ? query.getKind(0).getName() : null;
+    List<String> projection = new ArrayList<>();
+    for (Projection projectionPb : query.getProjectionList()) {
+      if (!KEY_PROPERTY.equals(projectionPb.getProperty().getName())) {
+        projection.add(projectionPb.getProperty().getName());
+      }
+    }
+    EntityResult.ResultType resultType = resultType(query);
+    List<Row> rows = new ArrayList<>();
+    entities:
+    for (Entity entity : entities.values()) {
+      Key key = entity.getKey();
+      if (!key.getPartitionId().getProjectId().equals(partitionId.getProjectId())
+          || !key.getPartitionId().getNamespaceId().equals(partitionId.getNamespaceId())
+          || kind != null && !kind.equals(key.getPath(key.getPathCount() - 1).getKind())
+          || query.hasFilter() && !matches(query.getFilter(), entity)) {
+        continue;
+      }
+      List<List<Value>> projectedValues = new ArrayList<>(projection.size());
+      for (String property : projection) {
+        List<Value> values = indexedValues(entity, property);
+        if (values.isEmpty()) {
+          continue entities;
+        }
+        projectedValues.add(values);
+      }
+      int expansions = 1;
+      for (List<Value> values : projectedValues) {
+        expansions *= values.size();
+      }
+      for (int expansion = 0; expansion < expansions; expansion++) {
+        Entity.Builder result = Entity.newBuilder().setKey(key);
+        Map<String, Value> projected = new HashMap<>();
+        int remainder = expansion;
+        for (int i = 0; i < projection.size(); i++) {
+          List<Value> values = projectedValues.get(i);
+          projected.put(projection.get(i), values.get(remainder % values.size()));
+          remainder /= values.size();
+        }
+        Value[] sortValues = new Value[query.getOrderCount()];
+        for (int i = 0; i < sortValues.length; i++) {
+          PropertyOrder order = query.getOrder(i);
+          String property = order.getProperty().getName();
+          if (projected.containsKey(property)) {
+            sortValues[i] = projected.get(property);
+          } else {
+            List<Value> values = indexedValues(entity, property);
+            if (values.isEmpty()) {
+              continue entities;
+            }
+            sortValues[i] = order.getDirection() == PropertyOrder.Direction.DESCENDING
+                ? Collections.max(values, VALUE_ORDER) : Collections.min(values, VALUE_ORDER);
+          }
+        }
+        if (resultType == EntityResult.ResultType.FULL) {
+          rows.add(new Row(key, sortValues, expansion, entity));
+        } else {
+          result.getMutableProperties().putAll(projected);
+          rows.add(new Row(key, sortValues, expansion, result.build()));
+        }
+      }
+    }
+    return rows;
+  }
+
+  private static List<Row> distinct(List<Row> rows, List<PropertyReference> distinctOn) {
+    List<Row> distinctRows = new ArrayList<>();
+    Set<List<Value>> seen = new HashSet<>();
+    for (Row row : rows) {
+      List<Value> values = new ArrayList<>(distinctOn.size());
+      for (PropertyReference property : distinctOn) {
+        values.add(KEY_PROPERTY.equals(property.getName()) ? keyValue(row.key)
+            : row.entity.getProperties().get(property.getName()));
+      }
+      if (seen.add(values)) {
+        distinctRows.add(row);
+      }
+    }
+    return distinctRows;
+  }
+
+  private static Comparator<Row> rowOrder(final List<PropertyOrder> orders) {
+    return new Comparator<Row>() {
+      @Override
+      public int compare(Row first, Row second) {
+        for (int i = 0; i < orders.size(); i++) {
+          int result = VALUE_ORDER.compare(first.sortValues[i], second.sortValues[i]);
+          if (result != 0) {
+            return orders.get(i).getDirection() == PropertyOrder.Direction.DESCENDING
+                ? -result : result;
+          }
+        }
+        int result = KEY_ORDER.compare(first.key, second.key);
+        return result != 0 ? result : Integer.compare(first.expansion, second.expansion);
+      }
+    };
+  }
+
+  /**
+   * Encodes the position of {@code row} as an entity holding its key, sort values and expansion.
+   */
+  private static ByteString encodeCursor(Row row) {
+    Entity.Builder cursor = Entity.newBuilder().setKey(row.key);
+    Map<String, Value> properties = cursor.getMutableProperties();
+    for (int i = 0; i < row.sortValues.length; i++) {
+      properties.put(Integer.toString(i), row.sortValues[i]);
+    }
+    properties.put("expansion", Value.newBuilder().setIntegerValue(row.expansion).build());
+    return cursor.build().toByteString();
+  }
+
+  private static Row decodeCursor(ByteString bytes, int orders) {
+    Entity cursor;
+    try {
+      cursor = Entity.parseFrom(bytes);
+    } catch (InvalidProtocolBufferException e) {
+      throw invalidArgument("Invalid cursor");
+    }
+    Map<String, Value> properties = cursor.getProperties();
+    if (properties.size() != orders + 1 || !properties.containsKey("expansion")) {
+      throw invalidArgument("Cursor doesn't match the query");
+    }
+    Value[] sortValues = new Value[orders];
+    for (int i = 0; i < orders; i++) {
+      sortValues[i] = properties.get(Integer.toString(i));
+    }
+    return new Row(cursor.getKey(), sortValues,
+        (int) properties.get("expansion").getIntegerValue(), null);
+  }
+
+  private static boolean matches(Filter filter, Entity entity) {
+    switch (filter.getFilterTypeCase()) {
+      case COMPOSITE_FILTER:
+        for (Filter subfilter : filter.getCompositeFilter().getFiltersList()) {
+          if (!matches(subfilter, entity)) {
+            return false;
+          }
+        }
+        return true;
+      case PROPERTY_FILTER:
+        return matches(filter.getPropertyFilter(), entity);
+      default:
+        throw invalidArgument("Unsupported filter %s", filter);
+    }
+  }
+
+  private static boolean matches(PropertyFilter filter, Entity entity) {
+    String property = filter.getProperty().getName();
+    if (filter.getOp() == PropertyFilter.Operator.HAS_ANCESTOR) {
+      if (!KEY_PROPERTY.equals(property)
+          || filter.getValue().getValueTypeCase() != Value.ValueTypeCase.KEY_VALUE) {
+        throw invalidArgument("Ancestor filters must be on __key__ with a key value");
+      }
+      return isAncestor(filter.getValue().getKeyValue(), entity.getKey());
+    }
+    for (Value value : indexedValues(entity, property)) {
+      int result = VALUE_ORDER.compare(value, filter.getValue());
+      boolean match;
+      switch (filter.getOp()) {
+        case LESS_THAN:
+          match = result < 0;
+          break;
+        case LESS_THAN_OR_EQUAL:
+          match = result <= 0;
+          break;
+        case GREATER_THAN:
+          match = result > 0;
+          break;
+        case GREATER_THAN_OR_EQUAL:
+          match = result >= 0;
+          break;
+        case EQUAL:
+          match = result == 0;
+          break;
+        default:
+          throw invalidArgument("Unsupported operator %s", filter.getOp());
+      }
+      if (match) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isAncestor(Key ancestor, Key key) {
+    if (!ancestor.getPartitionId().equals(key.getPartitionId())
+        || ancestor.getPathCount() > key.getPathCount()) {
+      return false;
+    }
+    for (int i = 0; i < ancestor.getPathCount(); i++) {
+      if (comparePathElements(ancestor.getPath(i), key.getPath(i)) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the values of {@code property} that Cloud Datastore would index: each element of an
+   * array and no value excluded from indexes.
+   */
+  private static List<Value> indexedValues(Entity entity, String property) {
+    if (KEY_PROPERTY.equals(property)) {
+      return Collections.singletonList(keyValue(entity.getKey()));
+    }
+    Value value = entity.getProperties().get(property);
+    if (value == null) {
+      return Collections.emptyList();
+    }
+    if (value.getValueTypeCase() != Value.ValueTypeCase.ARRAY_VALUE) {
+      return value.getExcludeFromIndexes() ? Collections.<Value>emptyList()
+          : Collections.singletonList(value);
+    }
+    List<Value> values = new ArrayList<>();
+    for (Value element : value.getArrayValue().getValuesList()) {
+      if (!element.getExcludeFromIndexes()) {
+        values.add(element);
+      }
+    }
+    return values;
+  }
+
+  private static Value keyValue(Key key) {
+    return Value.newBuilder().setKeyValue(key).build();
+  }
+
+  private static int typeRank(Value value) {
+    switch (value.getValueTypeCase()) {
+      case NULL_VALUE:
+        return 0;
+      case INTEGER_VALUE:
+      case TIMESTAMP_VALUE:
+        return 1;
+      case BOOLEAN_VALUE:
+        return 2;
+      case BLOB_VALUE:
+        return 3;
+      case STRING_VALUE:
+        return 4;
+      case DOUBLE_VALUE:
+        return 5;
+      case GEO_POINT_VALUE:
+        return 6;
+      case KEY_VALUE:
+        return 7;
+      default:
+        return 8;
+    }
+  }
+
+  /**
+   * Returns an integer value, or a timestamp value in microseconds.
+   */
+  private static long integer(Value value) {
+    if (value.getValueTypeCase() == Value.ValueTypeCase.INTEGER_VALUE) {
+      return value.getIntegerValue();
+    }
+    return value.getTimestampValue().getSeconds() * 1000000
+        + value.getTimestampValue().getNanos() / 1000;
+  }
+
+  private static int compareBytes(ByteString first, ByteString second) {
+    int size = Math.min(first.size(), second.size());
+    for (int i = 0; i < size; i++) {
+      int result = Integer.compare(first.byteAt(i) & 0xff, second.byteAt(i) & 0xff);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return Integer.compare(first.size(), second.size());
+  }
+
+  private static int comparePathElements(Key.PathElement first, Key.PathElement second) {
+    int result = compareBytes(first.getKindBytes(), second.getKindBytes());
+    if (result != 0) {
+      return result;
+    }
+    // Ids sort before names.
+    result = Boolean.compare(first.getIdTypeCase() == Key.PathElement.IdTypeCase.NAME,
+        second.getIdTypeCase() == Key.PathElement.IdTypeCase.NAME);
+    if (result != 0) {
+      return result;
+    }
+    return first.getIdTypeCase() == Key.PathElement.IdTypeCase.NAME
+        ? compareBytes(first.getNameBytes(), second.getNameBytes())
+        : Long.compare(first.getId(), second.getId());
+  }
+
+  private static boolean isComplete(Key key) {
+    return key.getPathCount() > 0 && key.getPath(key.getPathCount() - 1).getIdTypeCase()
+        != Key.PathElement.IdTypeCase.IDTYPE_NOT_SET;
+  }
+
+  private Key completeKey(Key key) {
+    Key.Builder builder = key.toBuilder();
+    builder.getPathBuilder(key.getPathCount() - 1).setId(nextId++);
+    return builder.build();
+  }
+
+  private long version(Key key) {
+    Long version = versions.get(key);
+    return version != null ? version : commits;
+  }
+
+  private Transaction transaction(ReadOptions readOptions) {
+    if (readOptions.getConsistencyTypeCase() != ReadOptions.ConsistencyTypeCase.TRANSACTION) {
+      return null;
+    }
+    Transaction transaction = transactions.get(readOptions.getTransaction());
+    if (transaction == null) {
+      throw invalidArgument("Unknown transaction");
+    }
+    return transaction;
+  }
+}
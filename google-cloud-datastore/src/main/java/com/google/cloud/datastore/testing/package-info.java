@@ -30,6 +30,12 @@
  * helper.stop();
  * } </pre>
  *
+ * <p>Tests that don't need the emulator's fidelity can use an {@link InMemoryDatastoreRpc}
+ * instead, which runs in-process and starts immediately:
+ * <pre> {@code
+ * Datastore inMemoryDatastore = InMemoryDatastoreRpc.create().options().service();
+ * } </pre>
+ *
  * @see <a href="https://github.com/GoogleCloudPlatform/google-cloud-java/blob/master/TESTING.md#testing-code-that-uses-datastore">
  *     Google Cloud Java tools for testing</a>
  */
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CachingDatastoreTest {
+
+  private static final Key KEY1 = Key.builder("dataset1", "kind1", "name1").build();
+  private static final Key KEY2 = Key.builder("dataset1", "kind1", "name2").build();
+  private static final Entity ENTITY1 = Entity.builder(KEY1).set("str", "value").build();
+  private static final Entity ENTITY2 = Entity.builder(KEY2).set("bool", true).build();
+
+  private Datastore datastoreMock;
+  private CachingDatastore datastore;
+
+  @Before
+  public void setUp() {
+    datastoreMock = EasyMock.createStrictMock(Datastore.class);
+    datastore = CachingDatastore.builder(datastoreMock).build();
+  }
+
+  @After
+  public void tearDown() {
+    verify(datastoreMock);
+  }
+
+  @Test
+  public void testGetReadsThrough() {
+    expect(datastoreMock.get(ImmutableList.of(KEY1)))
+        .andReturn(Iterators.singletonIterator(ENTITY1));
+    replay(datastoreMock);
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    assertEquals(1, datastore.stats().hitCount());
+  }
+
+  @Test
+  public void testFetchLooksUpMissingKeysOnly() {
+    expect(datastoreMock.get(ImmutableList.of(KEY1)))
+        .andReturn(Iterators.singletonIterator(ENTITY1));
+    expect(datastoreMock.get(ImmutableList.of(KEY2)))
+        .andReturn(Collections.<Entity>emptyIterator());
+    replay(datastoreMock);
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    assertEquals(Arrays.asList(ENTITY1, null), datastore.fetch(KEY1, KEY2));
+  }
+
+  @Test
+  public void testMissingEntitiesAreNotCached() {
+    expect(datastoreMock.get(ImmutableList.of(KEY1)))
+        .andReturn(Collections.<Entity>emptyIterator()).times(2);
+    replay(datastoreMock);
+    assertNull(datastore.get(KEY1));
+    assertNull(datastore.get(KEY1));
+  }
+
+  @Test
+  public void testWritesInvalidate() {
+    Entity updated = Entity.builder(ENTITY1).set("str", "updated").build();
+    expect(datastoreMock.get(ImmutableList.of(KEY1)))
+        .andReturn(Iterators.singletonIterator(ENTITY1));
+    expect(datastoreMock.put(ENTITY2)).andReturn(ENTITY2);
+    expect(datastoreMock.put(updated)).andReturn(updated);
+    expect(datastoreMock.get(ImmutableList.of(KEY1)))
+        .andReturn(Iterators.singletonIterator(updated));
+    datastoreMock.delete(KEY1);
+    expect(datastoreMock.get(ImmutableList.of(KEY1)))
+        .andReturn(Collections.<Entity>emptyIterator());
+    replay(datastoreMock);
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    // Writing another key keeps KEY1 cached
+    datastore.put(ENTITY2);
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    datastore.put(updated);
+    assertEquals(updated, datastore.get(KEY1));
+    datastore.delete(KEY1);
+    assertNull(datastore.get(KEY1));
+  }
+
+  @Test
+  public void testWriteDuringLookupSkipsWrittenKeysOnly() {
+    expect(datastoreMock.get(ImmutableList.of(KEY1, KEY2))).andAnswer(
+        new IAnswer<Iterator<Entity>>() {
+          @Override
+          public Iterator<Entity> answer() {
+            // A write completes while the lookup is in flight
+            datastore.delete(KEY2);
+            return Iterators.forArray(ENTITY1, ENTITY2);
+          }
+        });
+    datastoreMock.delete(KEY2);
+    expect(datastoreMock.get(ImmutableList.of(KEY2)))
+        .andReturn(Collections.<Entity>emptyIterator());
+    replay(datastoreMock);
+    assertEquals(Arrays.asList(ENTITY1, ENTITY2), datastore.fetch(KEY1, KEY2));
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    assertNull(datastore.get(KEY2));
+    assertEquals(1, datastore.stats().hitCount());
+  }
+
+  @Test
+  public void testTransactionBypassesCacheAndInvalidatesOnCommit() {
+    Transaction transactionMock = EasyMock.createStrictMock(Transaction.class);
+    expect(datastoreMock.get(ImmutableList.of(KEY1)))
+        .andReturn(Iterators.singletonIterator(ENTITY1));
+    expect(datastoreMock.newTransaction()).andReturn(transactionMock);
+    expect(datastoreMock.get(ImmutableList.of(KEY1)))
+        .andReturn(Iterators.singletonIterator(ENTITY1));
+    expect(transactionMock.get(KEY1)).andReturn(ENTITY1);
+    transactionMock.update(ENTITY1);
+    expect(transactionMock.commit()).andReturn(null);
+    replay(datastoreMock, transactionMock);
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    Transaction transaction = datastore.newTransaction();
+    assertEquals(ENTITY1, transaction.get(KEY1));
+    transaction.update(ENTITY1);
+    assertSame(datastore, transaction.datastore());
+    transaction.commit();
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    verify(transactionMock);
+  }
+
+  @Test
+  public void testSecondLevelCache() {
+    final Map<Key, Entity> shared = new HashMap<>();
+    CachingDatastore.SecondLevelCache secondLevelCache = new CachingDatastore.SecondLevelCache() {
+      @Override
+      public Map<Key, Entity> getAll(Set<Key> keys) {
+        Map<Key, Entity> found = new HashMap<>(shared);
+        found.keySet().retainAll(keys);
+        return found;
+      }
+
+      @Override
+      public void putAll(Map<Key, Entity> entities) {
+        shared.putAll(entities);
+      }
+
+      @Override
+      public void invalidateAll(Set<Key> keys) {
+        shared.keySet().removeAll(keys);
+      }
+    };
+    datastore = CachingDatastore.builder(datastoreMock).secondLevelCache(secondLevelCache).build();
+    shared.put(KEY1, ENTITY1);
+    expect(datastoreMock.get(ImmutableList.of(KEY2)))
+        .andReturn(Iterators.singletonIterator(ENTITY2));
+    datastoreMock.delete(KEY1);
+    replay(datastoreMock);
+    List<Entity> entities = datastore.fetch(KEY1, KEY2);
+    assertEquals(Arrays.asList(ENTITY1, ENTITY2), entities);
+    assertEquals(ImmutableMap.of(KEY1, ENTITY1, KEY2, ENTITY2), shared);
+    datastore.delete(KEY1);
+    assertEquals(ImmutableSet.of(KEY2), shared.keySet());
+  }
+
+  @Test
+  public void testWriteDuringSecondLevelPopulate() {
+    final Map<Key, Entity> shared = new HashMap<>();
+    final boolean[] writing = {true};
+    CachingDatastore.SecondLevelCache secondLevelCache = new CachingDatastore.SecondLevelCache() {
+      @Override
+      public Map<Key, Entity> getAll(Set<Key> keys) {
+        return Collections.emptyMap();
+      }
+
+      @Override
+      public void putAll(Map<Key, Entity> entities) {
+        if (writing[0]) {
+          // A write completes after the lookup, but invalidates before the entity is shared
+          writing[0] = false;
+          datastore.delete(KEY1);
+        }
+        shared.putAll(entities);
+      }
+
+      @Override
+      public void invalidateAll(Set<Key> keys) {
+        shared.keySet().removeAll(keys);
+      }
+    };
+    datastore = CachingDatastore.builder(datastoreMock).secondLevelCache(secondLevelCache).build();
+    expect(datastoreMock.get(ImmutableList.of(KEY1)))
+        .andReturn(Iterators.singletonIterator(ENTITY1));
+    datastoreMock.delete(KEY1);
+    replay(datastoreMock);
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    assertEquals(Collections.emptyMap(), shared);
+  }
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import com.google.cloud.RetryParams;
 import com.google.cloud.datastore.spi.DatastoreRpc;
 import com.google.cloud.datastore.spi.DatastoreRpcFactory;
 
@@ -65,6 +66,19 @@ public class DatastoreOptionsTest {
     assertEquals("ns1", options.namespace("ns1").build().namespace());
   }
 
+  @Test
+  public void testAsyncConcurrency() throws Exception {
+    assertEquals(16, options.build().asyncConcurrency());
+    assertEquals(4, options.asyncConcurrency(4).build().asyncConcurrency());
+  }
+
+  @Test
+  public void testTransactionRetryParams() throws Exception {
+    assertEquals(RetryParams.noRetries(), options.build().transactionRetryParams());
+    assertEquals(RetryParams.noRetries(),
+        options.transactionRetryParams(RetryParams.noRetries()).build().transactionRetryParams());
+  }
+
   @Test
   public void testDatastore() throws Exception {
     assertSame(datastoreRpc, options.build().rpc());
@@ -76,6 +90,8 @@ public class DatastoreOptionsTest {
     DatastoreOptions copy = original.toBuilder().build();
     assertEquals(original.projectId(), copy.projectId());
     assertEquals(original.namespace(), copy.namespace());
+    assertEquals(original.asyncConcurrency(), copy.asyncConcurrency());
+    assertEquals(original.transactionRetryParams(), copy.transactionRetryParams());
     assertEquals(original.host(), copy.host());
     assertEquals(original.retryParams(), copy.retryParams());
     assertEquals(original.authCredentials(), copy.authCredentials());
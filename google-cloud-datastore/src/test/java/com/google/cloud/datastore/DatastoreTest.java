@@ -26,6 +26,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.cloud.RetryParams;
+import com.google.cloud.datastore.Datastore.TransactionCallable;
 import com.google.cloud.datastore.Query.ResultType;
 import com.google.cloud.datastore.StructuredQuery.OrderBy;
 import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
@@ -35,13 +36,21 @@ import com.google.cloud.datastore.testing.LocalDatastoreHelper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.datastore.v1.BeginTransactionRequest;
+import com.google.datastore.v1.BeginTransactionResponse;
+import com.google.datastore.v1.CommitRequest;
+import com.google.datastore.v1.CommitResponse;
 import com.google.datastore.v1.EntityResult;
 import com.google.datastore.v1.LookupRequest;
 import com.google.datastore.v1.LookupResponse;
+import com.google.datastore.v1.Mutation;
+import com.google.datastore.v1.MutationResult;
 import com.google.datastore.v1.PartitionId;
 import com.google.datastore.v1.QueryResultBatch;
 import com.google.datastore.v1.ReadOptions;
 import com.google.datastore.v1.ReadOptions.ReadConsistency;
+import com.google.datastore.v1.RollbackRequest;
+import com.google.datastore.v1.RollbackResponse;
 import com.google.datastore.v1.RunQueryRequest;
 import com.google.datastore.v1.RunQueryResponse;
 import com.google.protobuf.ByteString;
@@ -63,6 +72,10 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(JUnit4.class)
 public class DatastoreTest {
@@ -269,6 +282,90 @@ public class DatastoreTest {
     assertEquals(3, list.size());
   }
 
+  @Test
+  public void testRunInTransactionRetriesContention() {
+    DatastoreRpc transactionRpcMock = EasyMock.createMock(DatastoreRpc.class);
+    DatastoreRpcFactory transactionRpcFactoryMock =
+        EasyMock.createMock(DatastoreRpcFactory.class);
+    DatastoreOptions transactionOptions = rpcMockOptions.toBuilder()
+        .serviceRpcFactory(transactionRpcFactoryMock)
+        .transactionRetryParams(RetryParams.builder()
+            .initialRetryDelayMillis(1L)
+            .maxRetryDelayMillis(1L)
+            .build())
+        .build();
+    EasyMock.expect(transactionRpcFactoryMock.create(transactionOptions))
+        .andReturn(transactionRpcMock);
+    EasyMock.expect(transactionRpcMock.beginTransaction(
+        EasyMock.anyObject(BeginTransactionRequest.class)))
+        .andReturn(BeginTransactionResponse.newBuilder()
+            .setTransaction(ByteString.copyFromUtf8("transaction")).build())
+        .times(2);
+    // An aborted transactional commit is retried by running the whole transaction again.
+    EasyMock.expect(transactionRpcMock.commit(EasyMock.anyObject(CommitRequest.class)))
+        .andThrow(new DatastoreException(10, "too much contention", "ABORTED"));
+    EasyMock.expect(transactionRpcMock.rollback(EasyMock.anyObject(RollbackRequest.class)))
+        .andReturn(RollbackResponse.getDefaultInstance());
+    EasyMock.expect(transactionRpcMock.commit(EasyMock.anyObject(CommitRequest.class)))
+        .andReturn(CommitResponse.getDefaultInstance());
+    EasyMock.replay(transactionRpcFactoryMock, transactionRpcMock);
+    Datastore transactionDatastore = transactionOptions.service();
+    final List<Integer> attempts = new ArrayList<>();
+    String value = transactionDatastore.runInTransaction(new TransactionCallable<String>() {
+      @Override
+      public String run(DatastoreReaderWriter readerWriter) {
+        attempts.add(attempts.size());
+        readerWriter.put(ENTITY1);
+        return "done";
+      }
+    });
+    assertEquals("done", value);
+    assertEquals(2, attempts.size());
+    TransactionMetrics.KindMetrics metrics =
+        transactionDatastore.transactionMetrics().kind(KIND1);
+    assertEquals(2, metrics.attempts());
+    assertEquals(1, metrics.aborted());
+    assertEquals(0.5, metrics.contentionRate(), 0.0);
+    assertEquals(0, transactionDatastore.transactionMetrics().kind(KIND2).attempts());
+    EasyMock.verify(transactionRpcFactoryMock, transactionRpcMock);
+  }
+
+  @Test
+  public void testTransactionCommitRetriesContention() {
+    EasyMock.expect(rpcMock.beginTransaction(EasyMock.anyObject(BeginTransactionRequest.class)))
+        .andReturn(BeginTransactionResponse.newBuilder()
+            .setTransaction(ByteString.copyFromUtf8("transaction")).build());
+    EasyMock.expect(rpcMock.commit(EasyMock.anyObject(CommitRequest.class)))
+        .andThrow(new DatastoreException(10, "too much contention", "ABORTED"));
+    EasyMock.expect(rpcMock.commit(EasyMock.anyObject(CommitRequest.class)))
+        .andReturn(CommitResponse.getDefaultInstance());
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    Transaction transaction = rpcMockOptions.service().newTransaction();
+    transaction.put(ENTITY1);
+    transaction.commit();
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
+  @Test
+  public void testRunInTransactionDoesNotRetryOtherFailures() {
+    final List<Integer> attempts = new ArrayList<>();
+    try {
+      datastore.runInTransaction(new TransactionCallable<Void>() {
+        @Override
+        public Void run(DatastoreReaderWriter readerWriter) {
+          attempts.add(attempts.size());
+          readerWriter.get(KEY1);
+          throw new IllegalStateException("failed");
+        }
+      });
+      fail("Expecting a failure");
+    } catch (DatastoreException expected) {
+      assertEquals("failed", expected.getCause().getMessage());
+    }
+    assertEquals(1, attempts.size());
+    assertEquals(0, datastore.transactionMetrics().kind(KIND1).aborted());
+  }
+
   private void verifyNotUsable(DatastoreWriter writer) {
     try {
       writer.add(ENTITY3);
@@ -512,6 +609,25 @@ public class DatastoreTest {
     EasyMock.verify(rpcFactoryMock, rpcMock);
   }
 
+  @Test
+  public void testStructuredQueryPaginationWithPrefetch() throws DatastoreException {
+    List<RunQueryResponse> responses = buildResponsesForQueryPagination();
+    List<Key> expectedKeys = new ArrayList<>();
+    for (RunQueryResponse response : responses) {
+      for (EntityResult entityResult : response.getBatch().getEntityResultsList()) {
+        expectedKeys.add(Key.fromPb(entityResult.getEntity().getKey()));
+      }
+      EasyMock.expect(rpcMock.runQuery(EasyMock.anyObject(RunQueryRequest.class)))
+          .andReturn(response);
+    }
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    Datastore datastore = rpcMockOptions.service();
+    QueryResults<Key> results =
+        datastore.run(Query.keyQueryBuilder().build(), ReadOption.prefetch(2));
+    assertEquals(expectedKeys, Lists.newArrayList(results));
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
   private List<RunQueryResponse> buildResponsesForQueryPagination() {
     Entity entity4 = Entity.builder(KEY4).set("value", StringValue.of("value")).build();
     Entity entity5 = Entity.builder(KEY5).set("value", "value").build();
@@ -858,6 +974,167 @@ public class DatastoreTest {
     return rpcMockOptions.service();
   }
 
+  @Test
+  public void testFetchInShards() throws DatastoreException {
+    int keyCount = 2 * DatastoreImpl.MAX_LOOKUP_KEYS + 10;
+    List<Key> keys = new ArrayList<>();
+    for (int i = 0; i < keyCount; i++) {
+      keys.add(Key.builder(KEY1).name("key" + i).build());
+    }
+    // Shard lookups are sent concurrently, so their order can't be verified.
+    DatastoreRpc lookupRpcMock = EasyMock.createMock(DatastoreRpc.class);
+    DatastoreRpcFactory lookupRpcFactoryMock = EasyMock.createMock(DatastoreRpcFactory.class);
+    DatastoreOptions lookupOptions =
+        rpcMockOptions.toBuilder().serviceRpcFactory(lookupRpcFactoryMock).build();
+    EasyMock.expect(lookupRpcFactoryMock.create(lookupOptions)).andReturn(lookupRpcMock);
+    for (List<Key> shard : Lists.partition(keys, DatastoreImpl.MAX_LOOKUP_KEYS)) {
+      LookupRequest.Builder requestPb = LookupRequest.newBuilder();
+      LookupResponse.Builder responsePb = LookupResponse.newBuilder();
+      for (Key key : shard) {
+        requestPb.addKeys(key.toPb());
+        if (key != shard.get(0)) {
+          responsePb.addFound(
+              EntityResult.newBuilder().setEntity(Entity.builder(key).build().toPb()));
+        }
+      }
+      // Each shard defers its first key and looks it up again on its own.
+      responsePb.addDeferred(shard.get(0).toPb());
+      EasyMock.expect(lookupRpcMock.lookup(requestPb.build())).andReturn(responsePb.build());
+      EasyMock.expect(lookupRpcMock.lookup(
+          LookupRequest.newBuilder().addKeys(shard.get(0).toPb()).build()))
+          .andReturn(LookupResponse.newBuilder()
+              .addFound(EntityResult.newBuilder()
+                  .setEntity(Entity.builder(shard.get(0)).build().toPb()))
+              .build());
+    }
+    EasyMock.replay(lookupRpcFactoryMock, lookupRpcMock);
+    List<Entity> entities = lookupOptions.service().fetch(keys);
+    assertEquals(keyCount, entities.size());
+    for (int i = 0; i < keyCount; i++) {
+      assertEquals(keys.get(i), entities.get(i).key());
+    }
+    EasyMock.verify(lookupRpcFactoryMock, lookupRpcMock);
+  }
+
+  @Test
+  public void testBulkWriter() throws Exception {
+    List<Future<Key>> results = new ArrayList<>();
+    List<Key> keys = new ArrayList<>();
+    BulkWriterOptions bulkWriterOptions =
+        BulkWriterOptions.builder().maxMutationsPerCommit(2).maxConcurrentCommits(2).build();
+    try (BulkWriter writer = datastore.newBulkWriter(bulkWriterOptions)) {
+      for (int i = 0; i < 5; i++) {
+        Key key = Key.builder(KEY1).name("bulk" + i).build();
+        keys.add(key);
+        results.add(writer.put(Entity.builder(key).set("index", i).build()));
+      }
+      results.add(writer.add(PARTIAL_ENTITY1));
+      writer.flush();
+      results.add(writer.delete(keys.get(0)));
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(keys.get(i), results.get(i).get());
+    }
+    Key generatedKey = results.get(keys.size()).get();
+    assertEquals(INCOMPLETE_KEY2.kind(), generatedKey.kind());
+    assertEquals(PARTIAL_ENTITY1.properties(), datastore.get(generatedKey).properties());
+    assertEquals(keys.get(0), results.get(keys.size() + 1).get());
+    assertNull(datastore.get(keys.get(0)));
+    for (int i = 1; i < keys.size(); i++) {
+      assertEquals(i, datastore.get(keys.get(i)).getLong("index"));
+    }
+  }
+
+  @Test
+  public void testBulkWriterIsolatesRejectedMutations() throws Exception {
+    Entity entity1 = Entity.builder(KEY1).set("value", "good").build();
+    Entity entity2 = Entity.builder(KEY2).set("value", "bad").build();
+    CommitRequest.Builder requestPb = CommitRequest.newBuilder()
+        .setMode(CommitRequest.Mode.NON_TRANSACTIONAL);
+    Mutation mutation1 = Mutation.newBuilder().setUpsert(entity1.toPb()).build();
+    Mutation mutation2 = Mutation.newBuilder().setUpsert(entity2.toPb()).build();
+    DatastoreException rejected = new DatastoreException(3, "bad entity", "INVALID_ARGUMENT");
+    EasyMock.expect(rpcMock.commit(requestPb.clone().addMutations(mutation1)
+        .addMutations(mutation2).build())).andThrow(rejected);
+    EasyMock.expect(rpcMock.commit(requestPb.clone().addMutations(mutation1).build()))
+        .andReturn(CommitResponse.newBuilder()
+            .addMutationResults(MutationResult.getDefaultInstance()).build());
+    EasyMock.expect(rpcMock.commit(requestPb.clone().addMutations(mutation2).build()))
+        .andThrow(rejected);
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    BulkWriter writer = rpcMockOptions.service().newBulkWriter();
+    Future<Key> result1 = writer.put(entity1);
+    Future<Key> result2 = writer.put(entity2);
+    writer.close();
+    assertEquals(KEY1, result1.get());
+    try {
+      result2.get();
+      fail("Expecting a failure");
+    } catch (ExecutionException expected) {
+      assertSame(rejected, expected.getCause());
+    }
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
+  @Test
+  public void testBulkWriterFailsChunkOnRequestError() throws Exception {
+    Entity entity1 = Entity.builder(KEY1).set("value", "value1").build();
+    Entity entity2 = Entity.builder(KEY2).set("value", "value2").build();
+    CommitRequest requestPb = CommitRequest.newBuilder()
+        .setMode(CommitRequest.Mode.NON_TRANSACTIONAL)
+        .addMutations(Mutation.newBuilder().setUpsert(entity1.toPb()))
+        .addMutations(Mutation.newBuilder().setUpsert(entity2.toPb()))
+        .build();
+    DatastoreException denied = new DatastoreException(7, "denied", "PERMISSION_DENIED");
+    // The chunk is not split, a single commit is attempted
+    EasyMock.expect(rpcMock.commit(requestPb)).andThrow(denied);
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    BulkWriter writer = rpcMockOptions.service().newBulkWriter();
+    Future<Key> result1 = writer.put(entity1);
+    Future<Key> result2 = writer.put(entity2);
+    writer.close();
+    for (Future<Key> result : ImmutableList.of(result1, result2)) {
+      try {
+        result.get();
+        fail("Expecting a failure");
+      } catch (ExecutionException expected) {
+        assertSame(denied, expected.getCause());
+      }
+    }
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
+  @Test
+  public void testBulkWriterFromAsyncCallback() throws Exception {
+    DatastoreRpc bulkRpcMock = EasyMock.createMock(DatastoreRpc.class);
+    DatastoreRpcFactory bulkRpcFactoryMock = EasyMock.createMock(DatastoreRpcFactory.class);
+    DatastoreOptions bulkOptions = rpcMockOptions.toBuilder()
+        .serviceRpcFactory(bulkRpcFactoryMock)
+        .asyncConcurrency(1)
+        .build();
+    EasyMock.expect(bulkRpcFactoryMock.create(bulkOptions)).andReturn(bulkRpcMock);
+    EasyMock.expect(bulkRpcMock.commit(EasyMock.anyObject(CommitRequest.class)))
+        .andReturn(CommitResponse.newBuilder()
+            .addMutationResults(MutationResult.getDefaultInstance()).build())
+        .times(2);
+    EasyMock.replay(bulkRpcFactoryMock, bulkRpcMock);
+    DatastoreImpl bulkDatastore = (DatastoreImpl) bulkOptions.service();
+    final BulkWriter writer = bulkDatastore.newBulkWriter(
+        BulkWriterOptions.builder().maxMutationsPerCommit(1).maxConcurrentCommits(1).build());
+    // Writing from the only thread of the async executor must not wait for commits queued on it.
+    Future<Void> written = bulkDatastore.asyncExecutor().submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        writer.put(ENTITY1);
+        writer.put(ENTITY2);
+        writer.close();
+        return null;
+      }
+    });
+    written.get(10, TimeUnit.SECONDS);
+    EasyMock.verify(bulkRpcFactoryMock, bulkRpcMock);
+  }
+
   @Test
   public void testAddEntity() {
     List<Entity> keys = datastore.fetch(ENTITY1.key(), ENTITY3.key());
@@ -941,6 +1218,83 @@ public class DatastoreTest {
     assertFalse(keys.hasNext());
   }
 
+  @Test
+  public void testGetAsync() throws Exception {
+    List<Future<Entity>> futures = new ArrayList<>();
+    for (Key key : ImmutableList.of(KEY1, KEY2, KEY3)) {
+      futures.add(datastore.getAsync(key));
+    }
+    assertEquals(ENTITY1, futures.get(0).get());
+    assertEquals(ENTITY2, futures.get(1).get());
+    assertNull(futures.get(2).get());
+  }
+
+  @Test
+  public void testFetchAsync() throws Exception {
+    List<Entity> entities = datastore.fetchAsync(ImmutableList.of(KEY3, KEY1, KEY2)).get();
+    assertEquals(Lists.newArrayList(null, ENTITY1, ENTITY2), entities);
+  }
+
+  @Test
+  public void testRunAsync() throws Exception {
+    Query<Entity> query =
+        Query.entityQueryBuilder().kind(KIND1).orderBy(OrderBy.asc("__key__")).build();
+    QueryResults<Entity> results = datastore.runAsync(query).get();
+    assertEquals(ENTITY1, results.next());
+    assertFalse(results.hasNext());
+  }
+
+  @Test
+  public void testPutAndDeleteAsync() throws Exception {
+    Future<List<Entity>> put = datastore.putAsync(ENTITY3, PARTIAL_ENTITY1);
+    List<Entity> entities = put.get();
+    assertEquals(ENTITY3, entities.get(0));
+    assertEquals(PARTIAL_ENTITY1.properties(), entities.get(1).properties());
+    assertEquals(ENTITY3, datastore.get(KEY3));
+    datastore.deleteAsync(KEY3, entities.get(1).key()).get();
+    assertNull(datastore.get(KEY3));
+    assertNull(datastore.get(entities.get(1).key()));
+  }
+
+  @Test
+  public void testCommitAsync() throws Exception {
+    Transaction transaction = datastore.newTransaction();
+    transaction.put(ENTITY3);
+    transaction.delete(KEY1);
+    datastore.commitAsync(transaction).get();
+    assertFalse(transaction.active());
+    assertEquals(ENTITY3, datastore.get(KEY3));
+    assertNull(datastore.get(KEY1));
+  }
+
+  @Test
+  public void testSubmitAsync() throws Exception {
+    Batch batch = datastore.newBatch();
+    batch.put(ENTITY3);
+    batch.delete(KEY2);
+    datastore.submitAsync(batch).get();
+    assertEquals(ENTITY3, datastore.get(KEY3));
+    assertNull(datastore.get(KEY2));
+  }
+
+  @Test
+  public void testGetAsync_failure() throws Exception {
+    LookupRequest requestPb = LookupRequest.newBuilder().addKeys(KEY1.toPb()).build();
+    EasyMock.expect(rpcMock.lookup(requestPb))
+        .andThrow(
+            new DatastoreException(DatastoreException.UNKNOWN_CODE, "denied", "PERMISSION_DENIED"));
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    Datastore datastore = rpcMockOptions.service();
+    try {
+      datastore.getAsync(KEY1).get();
+      fail("Expecting a failure");
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof DatastoreException);
+      assertEquals("denied", expected.getCause().getMessage());
+    }
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
   @Test
   public void testKeyFactory() {
     KeyFactory keyFactory = datastore.newKeyFactory().kind(KIND1);
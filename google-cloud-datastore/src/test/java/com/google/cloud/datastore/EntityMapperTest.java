@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class EntityMapperTest {
+
+  private static final Key KEY = Key.builder("ds", "kind", "name").build();
+  private static final Key OTHER_KEY = Key.builder("ds", "kind", 1).build();
+  private static final DateTime DATE_TIME = DateTime.copyFrom(new java.util.Date(1000));
+  private static final LatLng LAT_LNG = LatLng.of(37.4, -122.1);
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private enum Color {
+    RED, GREEN
+  }
+
+  private static class Base {
+    private @EntityMapper.Id Key id;
+    private String str;
+  }
+
+  private static class Pojo extends Base {
+    private static final int IGNORED_CONSTANT = 1;
+    private transient String ignored;
+    private long longValue;
+    private int intValue;
+    private double doubleValue;
+    private boolean bool;
+    private Long boxedLong;
+    private Integer boxedInt;
+    private byte[] bytes;
+    private DateTime dateTime;
+    private Key key;
+    private LatLng latLng;
+    private Color color;
+    private @EntityMapper.Property(name = "renamed", excludeFromIndexes = true) String text;
+
+    private Pojo() {
+    }
+  }
+
+  private static class Unsupported {
+    private Object value;
+  }
+
+  private static class NoDefaultConstructor {
+    private String value;
+
+    NoDefaultConstructor(String value) {
+      this.value = value;
+    }
+  }
+
+  private static final Entity ENTITY = Entity.builder(KEY)
+      .set("str", "a")
+      .set("longValue", 1L)
+      .set("intValue", 2)
+      .set("doubleValue", 3.5)
+      .set("bool", true)
+      .set("boxedLong", NullValue.of())
+      .set("boxedInt", NullValue.of())
+      .set("bytes", Blob.copyFrom(new byte[] {1, 2}))
+      .set("dateTime", DATE_TIME)
+      .set("key", OTHER_KEY)
+      .set("latLng", LAT_LNG)
+      .set("color", "GREEN")
+      .set("renamed", StringValue.builder("b").excludeFromIndexes(true).build())
+      .build();
+
+  @Test
+  public void testFromEntity() {
+    Pojo pojo = EntityMapper.of(Pojo.class).fromEntity(ENTITY);
+    Base base = pojo;
+    assertEquals(KEY, base.id);
+    assertEquals("a", base.str);
+    assertEquals(1L, pojo.longValue);
+    assertEquals(2, pojo.intValue);
+    assertEquals(3.5, pojo.doubleValue, 0);
+    assertEquals(true, pojo.bool);
+    assertNull(pojo.boxedLong);
+    assertNull(pojo.boxedInt);
+    assertArrayEquals(new byte[] {1, 2}, pojo.bytes);
+    assertEquals(DATE_TIME, pojo.dateTime);
+    assertEquals(OTHER_KEY, pojo.key);
+    assertEquals(LAT_LNG, pojo.latLng);
+    assertEquals(Color.GREEN, pojo.color);
+    assertEquals("b", pojo.text);
+    assertNull(pojo.ignored);
+  }
+
+  @Test
+  public void testToEntity() {
+    EntityMapper<Pojo> mapper = EntityMapper.of(Pojo.class);
+    assertEquals(ENTITY, mapper.toEntity(mapper.fromEntity(ENTITY)));
+    Entity entity = mapper.toEntity(OTHER_KEY, mapper.fromEntity(ENTITY));
+    assertEquals(OTHER_KEY, entity.key());
+    assertEquals(ENTITY.properties(), entity.properties());
+  }
+
+  @Test
+  public void testMissingPropertiesKeepDefaults() {
+    Pojo pojo = EntityMapper.of(Pojo.class).fromEntity(Entity.builder(KEY).set("bool", true)
+        .set("unmapped", 1L).build());
+    assertEquals(true, pojo.bool);
+    assertEquals(0L, pojo.longValue);
+    assertNull(((Base) pojo).str);
+  }
+
+  @Test
+  public void testOf() {
+    assertSame(EntityMapper.of(Pojo.class), EntityMapper.of(Pojo.class));
+  }
+
+  @Test
+  public void testTypeMismatch() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Property longValue");
+    EntityMapper.of(Pojo.class).fromEntity(Entity.builder(KEY).set("longValue", "1").build());
+  }
+
+  @Test
+  public void testIntOutOfRange() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Property intValue");
+    EntityMapper.of(Pojo.class).fromEntity(Entity.builder(KEY)
+        .set("intValue", Integer.MAX_VALUE + 1L).build());
+  }
+
+  @Test
+  public void testBoxedIntOutOfRange() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Property boxedInt");
+    EntityMapper.of(Pojo.class).fromEntity(Entity.builder(KEY)
+        .set("boxedInt", Integer.MIN_VALUE - 1L).build());
+  }
+
+  @Test
+  public void testUnsupportedType() {
+    thrown.expect(IllegalArgumentException.class);
+    EntityMapper.of(Unsupported.class);
+  }
+
+  @Test
+  public void testNoDefaultConstructor() {
+    thrown.expect(IllegalArgumentException.class);
+    EntityMapper.of(NoDefaultConstructor.class);
+  }
+}
@@ -17,9 +17,13 @@
 package com.google.cloud.datastore;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import com.google.common.collect.ImmutableSet;
+
 import org.junit.Test;
 
 public class EntityTest {
@@ -55,4 +59,27 @@ public class EntityTest {
     assertNotEquals(INCOMPLETE_ENTITY, entity);
     assertEquals(INCOMPLETE_ENTITY.properties(), entity.properties());
   }
+
+  @Test
+  public void testFromPb() throws Exception {
+    Entity source = Entity.builder(KEY1)
+        .set("foo", "bar")
+        .set("long", 1L)
+        .set("entity", INCOMPLETE_ENTITY)
+        .build();
+    com.google.datastore.v1.Entity entityPb = source.toPb();
+    Entity entity = Entity.fromPb(entityPb);
+    assertEquals(KEY1, entity.key());
+    assertTrue(entity.contains("long"));
+    assertFalse(entity.contains("missing"));
+    assertEquals(ImmutableSet.of("entity", "foo", "long"), entity.names());
+    assertEquals("bar", entity.getString("foo"));
+    assertSame(entity.getValue("foo"), entity.getValue("foo"));
+    assertEquals(INCOMPLETE_ENTITY, entity.getEntity("entity"));
+    assertSame(entityPb, entity.toPb());
+    assertEquals(source, entity);
+    assertEquals(source.hashCode(), entity.hashCode());
+    assertEquals(source.properties(), entity.properties());
+    assertEquals(source, Entity.builder(entity).build());
+  }
 }
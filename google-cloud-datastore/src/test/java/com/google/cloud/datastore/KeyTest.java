@@ -20,8 +20,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.google.protobuf.TextFormat;
+
 import org.junit.Test;
 
+import java.net.URLEncoder;
+
 public class KeyTest {
 
   @Test
@@ -75,5 +79,21 @@ public class KeyTest {
     String urlSafe = key.toUrlSafe();
     Key copy = Key.fromUrlSafe(urlSafe);
     assertEquals(key, copy);
+    key = Key.builder(key, "k2", 42).namespace("ns").build();
+    urlSafe = key.toUrlSafe();
+    assertTrue(urlSafe.matches("k1\\.[A-Za-z0-9_-]+"));
+    assertEquals(key, Key.fromUrlSafe(urlSafe));
+  }
+
+  @Test
+  public void testFromLegacyUrlSafe() throws Exception {
+    Key key = Key.builder(Key.builder("d", "k", "n").build(), "k2", 42).build();
+    String legacy = URLEncoder.encode(TextFormat.printToString(key.toPb()), "UTF-8");
+    assertEquals(key, Key.fromUrlSafe(legacy));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFromInvalidUrlSafe() throws Exception {
+    Key.fromUrlSafe("k1.not*base64");
   }
 }
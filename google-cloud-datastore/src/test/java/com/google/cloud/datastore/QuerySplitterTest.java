@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.datastore.StructuredQuery.CompositeFilter;
+import com.google.cloud.datastore.StructuredQuery.OrderBy;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+
+import org.easymock.EasyMock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class QuerySplitterTest {
+
+  private static final String PROJECT_ID = "project";
+  private static final String KIND = "kind";
+  private static final Key PARENT = Key.builder(PROJECT_ID, "parent", 1).build();
+  private static final Key ID1 = Key.builder(PROJECT_ID, KIND, 1).build();
+  private static final Key ID2 = Key.builder(PROJECT_ID, KIND, 2).build();
+  private static final Key NAME_A = Key.builder(PROJECT_ID, KIND, "a").build();
+  private static final Key NAME_B = Key.builder(PROJECT_ID, KIND, "b").build();
+  private static final Key CHILD = Key.builder(ID1, KIND, "child").build();
+  private static final Key OTHER_KIND = Key.builder(PROJECT_ID, "other", 1).build();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static final class ListResults<V> implements QueryResults<V> {
+
+    private final Iterator<V> iterator;
+
+    ListResults(List<V> values) {
+      this.iterator = values.iterator();
+    }
+
+    @Override
+    public Class<?> resultClass() {
+      return Key.class;
+    }
+
+    @Override
+    public Cursor cursorAfter() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return iterator.hasNext();
+    }
+
+    @Override
+    public V next() {
+      return iterator.next();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Test
+  public void testKeyOrder() {
+    List<Key> expected = ImmutableList.of(ID1, CHILD, ID2, NAME_A, NAME_B, OTHER_KIND);
+    List<Key> keys = new ArrayList<>(expected);
+    Collections.reverse(keys);
+    Collections.sort(keys, QuerySplitter.KEY_ORDER);
+    assertEquals(expected, keys);
+    assertEquals(0, QuerySplitter.KEY_ORDER.compare(ID1, Key.builder(ID1).build()));
+  }
+
+  @Test
+  public void testSplitKeys() {
+    List<Key> samples = new ArrayList<>();
+    for (int i = 1; i <= 11; i++) {
+      samples.add(Key.builder(PROJECT_ID, KIND, i).build());
+    }
+    Collections.reverse(samples);
+    List<Key> splitKeys = QuerySplitter.splitKeys(samples, 3);
+    assertEquals(ImmutableList.of(samples.get(7), samples.get(3)), splitKeys);
+    assertEquals(ImmutableList.of(ID1), QuerySplitter.splitKeys(ImmutableList.of(ID1), 2));
+    assertEquals(ImmutableList.of(ID1), QuerySplitter.splitKeys(ImmutableList.of(ID1, ID1), 4));
+    assertTrue(QuerySplitter.splitKeys(ImmutableList.<Key>of(), 4).isEmpty());
+  }
+
+  @Test
+  public void testSplit() {
+    Datastore datastore = EasyMock.createMock(Datastore.class);
+    KeyQuery sampleQuery = Query.keyQueryBuilder()
+        .kind(KIND)
+        .orderBy(OrderBy.asc(QuerySplitter.SCATTER_PROPERTY_NAME))
+        .limit(2 * QuerySplitter.SAMPLES_PER_SPLIT)
+        .build();
+    expect(datastore.run(sampleQuery))
+        .andReturn(new ListResults<>(ImmutableList.of(NAME_A, ID2, ID1, NAME_B, OTHER_KIND)));
+    replay(datastore);
+    PropertyFilter filter = PropertyFilter.hasAncestor(PARENT);
+    EntityQuery query = Query.entityQueryBuilder().kind(KIND).filter(filter).build();
+    List<StructuredQuery<Entity>> splits = QuerySplitter.split(datastore, query, 3);
+    assertEquals(ImmutableList.of(
+        query.toBuilder().filter(CompositeFilter.and(filter, PropertyFilter.lt("__key__", ID2)))
+            .build(),
+        query.toBuilder().filter(CompositeFilter.and(filter, PropertyFilter.ge("__key__", ID2),
+            PropertyFilter.lt("__key__", NAME_B))).build(),
+        query.toBuilder().filter(CompositeFilter.and(filter, PropertyFilter.ge("__key__", NAME_B)))
+            .build()),
+        splits);
+    verify(datastore);
+  }
+
+  @Test
+  public void testSplitWithoutSamples() {
+    Datastore datastore = EasyMock.createMock(Datastore.class);
+    expect(datastore.run(EasyMock.<Query<Key>>anyObject()))
+        .andReturn(new ListResults<>(ImmutableList.<Key>of()));
+    replay(datastore);
+    KeyQuery query = Query.keyQueryBuilder().kind(KIND).build();
+    assertEquals(ImmutableList.of(query), QuerySplitter.split(datastore, query, 8));
+    verify(datastore);
+  }
+
+  @Test
+  public void testSplitQueryWithLimit() {
+    thrown.expect(IllegalArgumentException.class);
+    QuerySplitter.split(EasyMock.createMock(Datastore.class),
+        Query.keyQueryBuilder().kind(KIND).limit(10).build(), 2);
+  }
+
+  @Test
+  public void testSplitQueryWithInequalityFilter() {
+    thrown.expect(IllegalArgumentException.class);
+    QuerySplitter.split(EasyMock.createMock(Datastore.class),
+        Query.keyQueryBuilder()
+            .kind(KIND)
+            .filter(CompositeFilter.and(PropertyFilter.eq("name", "value"),
+                PropertyFilter.gt("age", 18)))
+            .build(), 2);
+  }
+
+  @Test
+  public void testSplitQueryWithKeyInequalityFilter() {
+    KeyQuery query = Query.keyQueryBuilder()
+        .kind(KIND)
+        .filter(PropertyFilter.ge(StructuredQuery.KEY_PROPERTY_NAME, ID1))
+        .build();
+    assertEquals(ImmutableList.of(query),
+        QuerySplitter.split(EasyMock.createMock(Datastore.class), query, 1));
+  }
+
+  @Test
+  public void testSplitKeepsKeyRange() {
+    Datastore datastore = EasyMock.createMock(Datastore.class);
+    KeyQuery sampleQuery = Query.keyQueryBuilder()
+        .kind(KIND)
+        .orderBy(OrderBy.asc(QuerySplitter.SCATTER_PROPERTY_NAME))
+        .limit(2 * QuerySplitter.SAMPLES_PER_SPLIT)
+        .build();
+    expect(datastore.run(sampleQuery))
+        .andReturn(new ListResults<>(ImmutableList.of(NAME_A, ID2, ID1, NAME_B, OTHER_KIND)));
+    replay(datastore);
+    // Samples at or out of the range bounds are not used as split points
+    CompositeFilter filter = CompositeFilter.and(PropertyFilter.ge("__key__", ID2),
+        PropertyFilter.lt("__key__", OTHER_KIND));
+    KeyQuery query = Query.keyQueryBuilder().kind(KIND).filter(filter).build();
+    List<StructuredQuery<Key>> splits = QuerySplitter.split(datastore, query, 3);
+    assertEquals(ImmutableList.of(
+        query.toBuilder().filter(CompositeFilter.and(filter, PropertyFilter.lt("__key__", NAME_A)))
+            .build(),
+        query.toBuilder().filter(CompositeFilter.and(filter, PropertyFilter.ge("__key__", NAME_A),
+            PropertyFilter.lt("__key__", NAME_B))).build(),
+        query.toBuilder().filter(CompositeFilter.and(filter, PropertyFilter.ge("__key__", NAME_B)))
+            .build()),
+        splits);
+    verify(datastore);
+  }
+
+  @Test
+  public void testSplitOutOfKeyRangeSamples() {
+    Datastore datastore = EasyMock.createMock(Datastore.class);
+    expect(datastore.run(EasyMock.<Query<Key>>anyObject()))
+        .andReturn(new ListResults<>(ImmutableList.of(ID1, ID2, NAME_A)));
+    replay(datastore);
+    KeyQuery query = Query.keyQueryBuilder()
+        .kind(KIND)
+        .filter(PropertyFilter.gt("__key__", NAME_B))
+        .build();
+    assertEquals(ImmutableList.of(query), QuerySplitter.split(datastore, query, 4));
+    verify(datastore);
+  }
+
+  @Test
+  public void testRun() {
+    Datastore datastore = EasyMock.createMock(Datastore.class);
+    Query<Key> query1 = Query.keyQueryBuilder().kind(KIND)
+        .filter(PropertyFilter.lt("__key__", NAME_A)).build();
+    Query<Key> query2 = Query.keyQueryBuilder().kind(KIND)
+        .filter(PropertyFilter.ge("__key__", NAME_A)).build();
+    Query<Key> query3 = Query.keyQueryBuilder().kind(KIND)
+        .filter(PropertyFilter.ge("__key__", OTHER_KIND)).build();
+    QueryResults<Key> results1 = new ListResults<>(ImmutableList.of(ID1, ID2));
+    QueryResults<Key> results2 = new ListResults<>(ImmutableList.<Key>of());
+    QueryResults<Key> results3 = new ListResults<>(ImmutableList.of(NAME_A));
+    expect(datastore.runAsync(query1)).andReturn(Futures.immediateFuture(results1));
+    expect(datastore.runAsync(query2)).andReturn(Futures.immediateFuture(results2));
+    expect(datastore.runAsync(query3)).andReturn(Futures.immediateFuture(results3));
+    replay(datastore);
+    QueryResults<Key> results =
+        QuerySplitter.run(datastore, ImmutableList.of(query1, query2, query3));
+    assertEquals(Key.class, results.resultClass());
+    assertEquals(ImmutableList.of(ID1, ID2, NAME_A), Lists.newArrayList(results));
+    verify(datastore);
+  }
+}
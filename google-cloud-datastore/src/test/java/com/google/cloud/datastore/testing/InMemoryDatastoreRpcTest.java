@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.AuthCredentials;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreException;
+import com.google.cloud.datastore.DatastoreOptions;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.EntityQuery;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.IncompleteKey;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.KeyFactory;
+import com.google.cloud.datastore.ProjectionEntity;
+import com.google.cloud.datastore.ProjectionEntityQuery;
+import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.StructuredQuery.CompositeFilter;
+import com.google.cloud.datastore.StructuredQuery.OrderBy;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.cloud.datastore.StringValue;
+import com.google.cloud.datastore.Transaction;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class InMemoryDatastoreRpcTest {
+
+  private static final String NAMESPACE = "namespace";
+  private static final String KIND = "kind";
+
+  private InMemoryDatastoreRpc rpc;
+  private Datastore datastore;
+  private KeyFactory keyFactory;
+
+  @Before
+  public void setUp() {
+    rpc = InMemoryDatastoreRpc.create();
+    datastore = rpc.options().service();
+    keyFactory = datastore.newKeyFactory().kind(KIND);
+  }
+
+  private Entity entity(long id, long value, String... tags) {
+    Entity.Builder builder = Entity.builder(keyFactory.newKey(id)).set("value", value);
+    if (tags.length > 0) {
+      List<StringValue> tagValues = new ArrayList<>();
+      for (String tag : tags) {
+        tagValues.add(StringValue.of(tag));
+      }
+      builder.set("tags", tagValues);
+    }
+    return builder.build();
+  }
+
+  private static <T> List<T> list(QueryResults<T> results) {
+    return Lists.newArrayList(results);
+  }
+
+  @Test
+  public void testOptions() {
+    DatastoreOptions options = rpc.options(NAMESPACE);
+    assertSame(AuthCredentials.noAuth(), options.authCredentials());
+    assertEquals(NAMESPACE, options.namespace());
+    assertSame(rpc, options.rpc());
+  }
+
+  @Test
+  public void testLookupAndCommit() {
+    Entity entity = entity(1, 10);
+    assertNull(datastore.get(entity.key()));
+    datastore.add(entity);
+    assertEquals(entity, datastore.get(entity.key()));
+    try {
+      datastore.add(entity);
+      fail("Expected DatastoreException");
+    } catch (DatastoreException expected) {
+      assertEquals("ALREADY_EXISTS", expected.reason());
+    }
+    Entity updated = Entity.builder(entity).set("value", 11).build();
+    datastore.update(updated);
+    assertEquals(updated, datastore.get(entity.key()));
+    datastore.delete(entity.key());
+    assertNull(datastore.get(entity.key()));
+    try {
+      datastore.update(updated);
+      fail("Expected DatastoreException");
+    } catch (DatastoreException expected) {
+      assertEquals("NOT_FOUND", expected.reason());
+    }
+    assertEquals(9, rpc.roundTrips());
+  }
+
+  @Test
+  public void testAllocateIds() {
+    IncompleteKey incompleteKey = keyFactory.newKey();
+    Key first = datastore.allocateId(incompleteKey);
+    Key second = datastore.allocateId(incompleteKey);
+    assertFalse(first.equals(second));
+    Entity entity = datastore.add(FullEntity.builder(incompleteKey).set("value", 1).build());
+    assertTrue(entity.key().hasId());
+    assertEquals(entity, datastore.get(entity.key()));
+  }
+
+  @Test
+  public void testQueryFiltersAndOrders() {
+    datastore.put(entity(1, 30, "a"), entity(2, 10, "b", "c"), entity(3, 20, "c"),
+        Entity.builder(keyFactory.newKey(4)).set("other", 1).build());
+    EntityQuery query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .filter(CompositeFilter.and(PropertyFilter.ge("value", 15), PropertyFilter.eq("tags", "c")))
+        .build();
+    assertEquals(ImmutableList.of(entity(3, 20, "c")), list(datastore.run(query)));
+    query = Query.entityQueryBuilder().kind(KIND).orderBy(OrderBy.desc("value")).build();
+    List<Entity> results = list(datastore.run(query));
+    assertEquals(ImmutableList.of(entity(1, 30, "a"), entity(3, 20, "c"), entity(2, 10, "b", "c")),
+        results);
+    assertEquals(4, list(datastore.run(Query.keyQueryBuilder().kind(KIND).build())).size());
+    Key parent = keyFactory.newKey(3);
+    Entity child = Entity.builder(Key.builder(parent, "child", "c1").build()).build();
+    datastore.put(child);
+    assertEquals(ImmutableList.of(parent, child.key()), list(datastore.run(
+        Query.keyQueryBuilder().filter(PropertyFilter.hasAncestor(parent)).build())));
+  }
+
+  @Test
+  public void testQueryCursorsOffsetAndLimit() {
+    for (int i = 1; i <= 10; i++) {
+      datastore.put(entity(i, i));
+    }
+    EntityQuery query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .orderBy(OrderBy.asc("value"))
+        .offset(2)
+        .limit(3)
+        .build();
+    QueryResults<Entity> results = datastore.run(query);
+    assertEquals(ImmutableList.of(entity(3, 3), entity(4, 4), entity(5, 5)), list(results));
+    query = query.toBuilder().startCursor(results.cursorAfter()).offset(0).limit(2).build();
+    assertEquals(ImmutableList.of(entity(6, 6), entity(7, 7)), list(datastore.run(query)));
+  }
+
+  @Test
+  public void testQueryBatches() {
+    Entity[] entities = new Entity[1000];
+    for (int i = 0; i < entities.length; i++) {
+      entities[i] = entity(i + 1, i);
+    }
+    datastore.put(entities);
+    long roundTrips = rpc.roundTrips();
+    List<Entity> results = list(datastore.run(Query.entityQueryBuilder().kind(KIND).build()));
+    assertEquals(ImmutableList.copyOf(entities), results);
+    assertTrue(rpc.roundTrips() - roundTrips > 1);
+  }
+
+  @Test
+  public void testProjectionQuery() {
+    datastore.put(entity(1, 1, "a", "b"), entity(2, 2, "b"));
+    ProjectionEntityQuery query = Query.projectionEntityQueryBuilder()
+        .kind(KIND)
+        .projection("tags")
+        .orderBy(OrderBy.asc("tags"))
+        .build();
+    List<String> tags = new ArrayList<>();
+    for (ProjectionEntity entity : list(datastore.run(query))) {
+      tags.add(entity.getString("tags"));
+      assertFalse(entity.contains("value"));
+    }
+    assertEquals(ImmutableList.of("a", "b", "b"), tags);
+    query = query.toBuilder().distinctOn("tags").build();
+    assertEquals(2, list(datastore.run(query)).size());
+  }
+
+  @Test
+  public void testTransactionConflict() {
+    Entity entity = entity(1, 1);
+    datastore.put(entity);
+    Transaction transaction = datastore.newTransaction();
+    assertEquals(entity, transaction.get(entity.key()));
+    datastore.put(entity(1, 2));
+    transaction.put(entity(1, 3));
+    try {
+      transaction.commit();
+      fail("Expected DatastoreException");
+    } catch (DatastoreException expected) {
+      assertEquals(10, expected.code());
+    }
+    assertEquals(entity(1, 2), datastore.get(entity.key()));
+    transaction = datastore.newTransaction();
+    transaction.put(entity(1, 4));
+    transaction.commit();
+    assertEquals(entity(1, 4), datastore.get(entity.key()));
+    transaction = datastore.newTransaction();
+    transaction.delete(entity.key());
+    transaction.rollback();
+    assertEquals(entity(1, 4), datastore.get(entity.key()));
+  }
+
+  @Test
+  public void testReset() {
+    datastore.put(entity(1, 1));
+    rpc.reset();
+    assertNull(datastore.get(keyFactory.newKey(1)));
+  }
+}
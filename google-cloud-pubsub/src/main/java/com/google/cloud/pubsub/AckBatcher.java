@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class for an acknowledge batcher. An acknowledge batcher groups the ack ids added to it (via
+ * {@link #ack(String, String)} or {@link #nack(String, String)}) by subscription and sends them
+ * with a single call to {@link PubSub#ackAsync(String, Iterable)} or
+ * {@link PubSub#nackAsync(String, Iterable)}. A batch is sent as soon as it holds
+ * {@code maxAckIds} ack ids or {@code maxBytes} bytes of ack ids, or {@code flushDelayMillis}
+ * milliseconds after its first ack id was added, whichever comes first. Pending batches are sent
+ * when the batcher is closed, ack ids added afterwards are sent right away.
+ */
+class AckBatcher implements AutoCloseable {
+
+  static final int MAX_ACK_IDS = 1_000;
+  // Acknowledge requests are limited to 512KiB, we stay well below that
+  static final int MAX_BYTES = 256 * 1024;
+  static final long FLUSH_DELAY_MILLIS = 5;
+
+  private final PubSub pubsub;
+  private final ScheduledExecutorService executor;
+  private final int maxAckIds;
+  private final int maxBytes;
+  private final long flushDelayMillis;
+  private final Map<String, Batch> ackBatches = new HashMap<>();
+  private final Map<String, Batch> nackBatches = new HashMap<>();
+  private final Object lock = new Object();
+  private boolean closed;
+
+  /**
+   * This class holds the ack ids of a subscription waiting to be either acknowledged or "nacked".
+   * When run, the batch is sent unless it was already sent because it got full.
+   */
+  private final class Batch implements Runnable {
+
+    private final Map<String, Batch> batches;
+    private final String subscription;
+    private final boolean ack;
+    private final List<String> ackIds = new ArrayList<>();
+    private int bytes;
+    private Future<?> flushFuture;
+
+    Batch(Map<String, Batch> batches, String subscription, boolean ack) {
+      this.batches = batches;
+      this.subscription = subscription;
+      this.ack = ack;
+    }
+
+    boolean add(String ackId) {
+      ackIds.add(ackId);
+      // Ack ids are ASCII strings, their length is also their size in bytes
+      bytes += ackId.length();
+      return ackIds.size() >= maxAckIds || bytes >= maxBytes;
+    }
+
+    @Override
+    public void run() {
+      synchronized (lock) {
+        if (batches.get(subscription) != this) {
+          return;
+        }
+        batches.remove(subscription);
+      }
+      send();
+    }
+
+    void send() {
+      if (ack) {
+        pubsub.ackAsync(subscription, ackIds);
+      } else {
+        pubsub.nackAsync(subscription, ackIds);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("subscription", subscription)
+          .add("ack", ack)
+          .add("ackIds", ackIds)
+          .toString();
+    }
+  }
+
+  AckBatcher(PubSub pubsub, ScheduledExecutorService executor) {
+    this(pubsub, executor, MAX_ACK_IDS, MAX_BYTES, FLUSH_DELAY_MILLIS);
+  }
+
+  AckBatcher(PubSub pubsub, ScheduledExecutorService executor, int maxAckIds, int maxBytes,
+      long flushDelayMillis) {
+    this.pubsub = pubsub;
+    this.executor = executor;
+    this.maxAckIds = maxAckIds;
+    this.maxBytes = maxBytes;
+    this.flushDelayMillis = flushDelayMillis;
+  }
+
+  /**
+   * Adds a message to acknowledge. The message is identified by the subscription from which it was
+   * pulled and its acknowledge id.
+   *
+   * @param subscription the subscription from which the message has been pulled
+   * @param ackId the message's acknowledge id
+   */
+  void ack(String subscription, String ackId) {
+    add(ackBatches, subscription, ackId, true);
+  }
+
+  /**
+   * Adds a message to "nack". The message is identified by the subscription from which it was
+   * pulled and its acknowledge id.
+   *
+   * @param subscription the subscription from which the message has been pulled
+   * @param ackId the message's acknowledge id
+   */
+  void nack(String subscription, String ackId) {
+    add(nackBatches, subscription, ackId, false);
+  }
+
+  private void add(Map<String, Batch> batches, String subscription, String ackId, boolean ack) {
+    Batch batchToSend = null;
+    synchronized (lock) {
+      if (closed) {
+        batchToSend = new Batch(batches, subscription, ack);
+        batchToSend.add(ackId);
+      } else {
+        Batch batch = batches.get(subscription);
+        if (batch == null) {
+          batch = new Batch(batches, subscription, ack);
+          batch.flushFuture = executor.schedule(batch, flushDelayMillis, TimeUnit.MILLISECONDS);
+          batches.put(subscription, batch);
+        }
+        if (batch.add(ackId)) {
+          // The batch is full, we send it now instead of waiting for its flush delay
+          batches.remove(subscription);
+          batch.flushFuture.cancel(false);
+          batchToSend = batch;
+        }
+      }
+    }
+    if (batchToSend != null) {
+      batchToSend.send();
+    }
+  }
+
+  @Override
+  public void close() {
+    List<Batch> batchesToSend = new ArrayList<>();
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      batchesToSend.addAll(ackBatches.values());
+      batchesToSend.addAll(nackBatches.values());
+      ackBatches.clear();
+      nackBatches.clear();
+    }
+    for (Batch batch : batchesToSend) {
+      batch.flushFuture.cancel(false);
+      batch.send();
+    }
+  }
+}
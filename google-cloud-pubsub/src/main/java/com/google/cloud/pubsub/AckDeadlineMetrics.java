@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks, by subscription, how long pulled messages are held before they are acknowledged or
+ * "nacked", and the automatic renewals of their acknowledge deadline. Deadlines are renewed to the
+ * 99th percentile of the last {@code 1000} hold times of the subscription, rounded up to the
+ * second, but never less than 10 seconds nor more than the 600 seconds allowed by the service.
+ * Counts are kept for the lifetime of the {@link PubSub} service.
+ *
+ * @see PubSub#ackDeadlineMetrics()
+ */
+public final class AckDeadlineMetrics {
+
+  static final int MIN_DEADLINE_SECONDS = 10;
+  static final int MAX_DEADLINE_SECONDS = 600;
+  private static final int WINDOW_SIZE = 1_000;
+  private static final double PERCENTILE = 0.99;
+
+  private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<>();
+
+  /**
+   * Holds the last {@code WINDOW_SIZE} hold times of a subscription, in whole seconds, and a
+   * histogram of them, so that both recording and computing percentiles need no locking.
+   */
+  private static final class Counters {
+    final AtomicIntegerArray window = new AtomicIntegerArray(WINDOW_SIZE);
+    final AtomicIntegerArray histogram = new AtomicIntegerArray(MAX_DEADLINE_SECONDS + 1);
+    final AtomicLong leases = new AtomicLong();
+    final AtomicLong renewedMessages = new AtomicLong();
+    final AtomicLong renewalRequests = new AtomicLong();
+
+    void recordLease(long holdMillis) {
+      // Hold times over the maximum deadline all fall in the last bucket
+      int seconds = (int) Math.min(TimeUnit.MILLISECONDS.toSeconds(holdMillis),
+          MAX_DEADLINE_SECONDS);
+      long index = leases.getAndIncrement();
+      // The window is empty until it fills up, evicted entries are only set once it wrapped.
+      // Concurrent records can briefly skew the histogram, which barely moves the percentile.
+      int evicted = window.getAndSet((int) (index % WINDOW_SIZE), seconds);
+      if (index >= WINDOW_SIZE) {
+        histogram.decrementAndGet(evicted);
+      }
+      histogram.incrementAndGet(seconds);
+    }
+
+    int ackDeadlineSeconds() {
+      int total = 0;
+      for (int i = 0; i < histogram.length(); i++) {
+        total += histogram.get(i);
+      }
+      long threshold = (long) Math.ceil(total * PERCENTILE);
+      int count = 0;
+      int seconds = 0;
+      while (seconds < MAX_DEADLINE_SECONDS && count + histogram.get(seconds) < threshold) {
+        count += histogram.get(seconds);
+        seconds++;
+      }
+      // Hold times in bucket s are shorter than s + 1 seconds
+      return Math.max(MIN_DEADLINE_SECONDS, Math.min(seconds + 1, MAX_DEADLINE_SECONDS));
+    }
+  }
+
+  /**
+   * A snapshot of the acknowledge deadline renewals of one subscription.
+   */
+  public static final class SubscriptionMetrics {
+
+    private final int ackDeadlineSeconds;
+    private final long leases;
+    private final long renewedMessages;
+    private final long renewalRequests;
+
+    SubscriptionMetrics(int ackDeadlineSeconds, long leases, long renewedMessages,
+        long renewalRequests) {
+      this.ackDeadlineSeconds = ackDeadlineSeconds;
+      this.leases = leases;
+      this.renewedMessages = renewedMessages;
+      this.renewalRequests = renewalRequests;
+    }
+
+    /**
+     * Returns the acknowledge deadline, in seconds, messages are currently renewed to.
+     */
+    public int ackDeadlineSeconds() {
+      return ackDeadlineSeconds;
+    }
+
+    /**
+     * Returns the number of messages that were acknowledged or "nacked" after being pulled.
+     */
+    public long leases() {
+      return leases;
+    }
+
+    /**
+     * Returns the number of acknowledge deadline renewals, counting every renewed message.
+     */
+    public long renewedMessages() {
+      return renewedMessages;
+    }
+
+    /**
+     * Returns the number of requests sent to renew acknowledge deadlines.
+     */
+    public long renewalRequests() {
+      return renewalRequests;
+    }
+
+    /**
+     * Returns the average number of times the acknowledge deadline of a message was renewed, or 0
+     * if no message was acknowledged or "nacked" yet.
+     */
+    public double renewalRate() {
+      return leases == 0 ? 0 : (double) renewedMessages / leases;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("ackDeadlineSeconds", ackDeadlineSeconds)
+          .add("leases", leases)
+          .add("renewedMessages", renewedMessages)
+          .add("renewalRequests", renewalRequests)
+          .toString();
+    }
+  }
+
+  AckDeadlineMetrics() {
+  }
+
+  private Counters counters(String subscription) {
+    Counters subscriptionCounters = counters.get(subscription);
+    if (subscriptionCounters == null) {
+      Counters newCounters = new Counters();
+      subscriptionCounters = counters.putIfAbsent(subscription, newCounters);
+      if (subscriptionCounters == null) {
+        subscriptionCounters = newCounters;
+      }
+    }
+    return subscriptionCounters;
+  }
+
+  void recordLease(String subscription, long holdMillis) {
+    counters(subscription).recordLease(holdMillis);
+  }
+
+  void recordRenewal(String subscription, int messages) {
+    Counters subscriptionCounters = counters(subscription);
+    subscriptionCounters.renewedMessages.addAndGet(messages);
+    subscriptionCounters.renewalRequests.incrementAndGet();
+  }
+
+  /**
+   * Returns the acknowledge deadline, in seconds, to renew the messages of {@code subscription}
+   * to.
+   */
+  int ackDeadlineSeconds(String subscription) {
+    Counters subscriptionCounters = counters.get(subscription);
+    return subscriptionCounters == null
+        ? MIN_DEADLINE_SECONDS : subscriptionCounters.ackDeadlineSeconds();
+  }
+
+  private static SubscriptionMetrics snapshot(Counters subscriptionCounters) {
+    return new SubscriptionMetrics(subscriptionCounters.ackDeadlineSeconds(),
+        subscriptionCounters.leases.get(), subscriptionCounters.renewedMessages.get(),
+        subscriptionCounters.renewalRequests.get());
+  }
+
+  /**
+   * Returns a snapshot of the metrics of every subscription messages were pulled from so far,
+   * sorted by subscription.
+   */
+  public Map<String, SubscriptionMetrics> bySubscription() {
+    ImmutableSortedMap.Builder<String, SubscriptionMetrics> snapshot =
+        ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+      snapshot.put(entry.getKey(), snapshot(entry.getValue()));
+    }
+    return snapshot.build();
+  }
+
+  /**
+   * Returns a snapshot of the metrics of {@code subscription}, with zero counts and the minimum
+   * deadline if no message from it was tracked.
+   */
+  public SubscriptionMetrics subscription(String subscription) {
+    Counters subscriptionCounters = counters.get(subscription);
+    if (subscriptionCounters == null) {
+      return new SubscriptionMetrics(MIN_DEADLINE_SECONDS, 0, 0, 0);
+    }
+    return snapshot(subscriptionCounters);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("bySubscription", bySubscription()).toString();
+  }
+}
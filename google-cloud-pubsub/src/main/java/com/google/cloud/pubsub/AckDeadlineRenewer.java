@@ -19,43 +19,66 @@ package com.google.cloud.pubsub;
 import com.google.cloud.Clock;
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimaps;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class for an automatic ack deadline renewer. An ack deadline renewer automatically renews the
  * acknowledge deadline of messages added to it (via {@link #add(String, String)} or
  * {@link #add(String, Iterable)}. The acknowledge deadlines of added messages are renewed until the
  * messages are explicitly removed using {@link #remove(String, String)}.
+ *
+ * <p>Messages are kept in a hashed timer wheel: a ring of {@code WHEEL_SIZE} concurrent queues,
+ * each holding the messages whose deadline falls in a {@code TICK_MILLIS} bucket. Adding and
+ * removing messages takes constant time and doesn't lock, renewals drain whole buckets at once.
+ * Removed messages are only dropped from the wheel when their bucket is drained.
+ *
+ * <p>The first renewal of a message extends its deadline by 10 seconds. Later renewals extend it
+ * to the deadline chosen by {@link AckDeadlineMetrics} from how long the messages of the same
+ * subscription were held, so that slow message processors need fewer renewals.
  */
 class AckDeadlineRenewer implements AutoCloseable {
 
-  private static final int MIN_DEADLINE_MILLIS = 10_000;
+  private static final int MIN_DEADLINE_MILLIS =
+      AckDeadlineMetrics.MIN_DEADLINE_SECONDS * 1_000;
   private static final int DEADLINE_SLACK_MILLIS = 1_000;
   private static final int RENEW_THRESHOLD_MILLIS = 3_000;
   private static final int NEXT_RENEWAL_THRESHOLD_MILLIS = 1_000;
+  // The wheel must span more than the maximum deadline, so that a turn never wraps a deadline
+  private static final int TICK_MILLIS = 1_000;
+  private static final int WHEEL_SIZE = 1_024;
+  private static final long NO_RENEWAL = Long.MAX_VALUE;
 
   private final PubSub pubsub;
   private final ScheduledExecutorService executor;
   private final ExecutorFactory<ScheduledExecutorService> executorFactory;
   private final Clock clock;
-  private final Queue<Message> messageQueue;
-  private final Map<MessageId, Long> messageDeadlines;
-  private final Object lock = new Object();
+  private final ConcurrentMap<MessageId, Lease> messageLeases;
+  private final AckDeadlineMetrics metrics;
+  private final List<Queue<Message>> wheel;
+  // The bucket the scheduled renewal is for, NO_RENEWAL if no renewal is scheduled
+  private final AtomicLong nextRenewalBucket = new AtomicLong(NO_RENEWAL);
   private final Object futureLock = new Object();
+  // The first bucket that was not drained yet, only accessed by renewals
+  private long nextBucket;
   private Future<?> renewerFuture;
-  private boolean closed;
+  private volatile boolean closed;
 
   /**
    * This class holds the identity of a message to renew: subscription and acknowledge id.
@@ -105,15 +128,38 @@ class AckDeadlineRenewer implements AutoCloseable {
     }
   }
 
+  /**
+   * This class holds the time a message was added to the renewer and its current ack deadline.
+   * Leases are compared by identity, a message added back gets a new lease.
+   */
+  private static final class Lease {
+
+    private final long addedAt;
+    private final long deadline;
+
+    Lease(long addedAt, long deadline) {
+      this.addedAt = addedAt;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("addedAt", addedAt)
+          .add("deadline", deadline)
+          .toString();
+    }
+  }
+
   /**
    * This class holds the identity of a message to renew and its expected ack deadline.
    */
   private static final class Message {
 
     private final MessageId messageId;
-    private final Long deadline;
+    private final long deadline;
 
-    Message(MessageId messageId, Long deadline) {
+    Message(MessageId messageId, long deadline) {
       this.messageId = messageId;
       this.deadline = deadline;
     }
@@ -122,7 +168,7 @@ class AckDeadlineRenewer implements AutoCloseable {
       return messageId;
     }
 
-    Long expectedDeadline() {
+    long expectedDeadline() {
       return deadline;
     }
 
@@ -135,8 +181,7 @@ class AckDeadlineRenewer implements AutoCloseable {
         return false;
       }
       Message other = (Message) obj;
-      return Objects.equals(other.messageId, this.messageId)
-          && Objects.equals(other.deadline, this.deadline);
+      return Objects.equals(other.messageId, this.messageId) && other.deadline == this.deadline;
     }
 
     @Override
@@ -159,90 +204,139 @@ class AckDeadlineRenewer implements AutoCloseable {
     this.executorFactory = options.executorFactory();
     this.executor = executorFactory.get();
     this.clock = options.clock();
-    this.messageQueue = new LinkedList<>();
-    this.messageDeadlines = new HashMap<>();
+    this.messageLeases = new ConcurrentHashMap<>();
+    this.metrics = new AckDeadlineMetrics();
+    List<Queue<Message>> buckets = new ArrayList<>(WHEEL_SIZE);
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      buckets.add(new ConcurrentLinkedQueue<Message>());
+    }
+    this.wheel = ImmutableList.copyOf(buckets);
+    this.nextBucket = bucket(clock.millis());
   }
 
-  private void unsetAndScheduleNextRenewal() {
+  private static long bucket(long millis) {
+    return millis / TICK_MILLIS;
+  }
+
+  private Queue<Message> wheelSlot(long bucket) {
+    return wheel.get((int) (bucket % WHEEL_SIZE));
+  }
+
+  private void enqueue(MessageId messageId, long now) {
+    long deadline = now + MIN_DEADLINE_MILLIS - DEADLINE_SLACK_MILLIS;
+    // The lease must be set before the message is visible in the wheel, otherwise a renewal could
+    // take it for a removed message
+    messageLeases.put(messageId, new Lease(now, deadline));
+    wheelSlot(bucket(deadline)).add(new Message(messageId, deadline));
+  }
+
+  /**
+   * Returns the statistics used to pick the acknowledge deadline of each subscription.
+   */
+  AckDeadlineMetrics metrics() {
+    return metrics;
+  }
+
+  private void scheduleRenewal(long bucket) {
+    // Most of the time a renewal is already scheduled early enough. Renewals reschedule themselves
+    // for the next non-empty bucket.
+    if (nextRenewalBucket.get() <= bucket) {
+      return;
+    }
     synchronized (futureLock) {
-      renewerFuture = null;
-      scheduleNextRenewal();
+      if (closed || nextRenewalBucket.get() <= bucket) {
+        return;
+      }
+      // Renewals with long deadlines may be scheduled after the bucket of a new message. If the
+      // scheduled renewal is already running it will find the new message when rescheduling.
+      if (renewerFuture == null || renewerFuture.cancel(false)) {
+        scheduleRenewalLocked(bucket);
+      }
     }
   }
 
-  private void scheduleNextRenewal() {
-    // Schedules next renewal if there are still messages to process and no renewals scheduled that
-    // could handle them, otherwise does nothing
-    Message nextMessage;
-    synchronized (lock) {
-      Message peek = messageQueue.peek();
-      // We remove from the queue messages that were removed from the ack deadline renewer (and
-      // possibly re-added)
-      while (peek != null && (!messageDeadlines.containsKey(peek.messageId())
-          || messageDeadlines.get(peek.messageId()) > peek.expectedDeadline())) {
-        messageQueue.poll();
-        peek = messageQueue.peek();
+  private void scheduleRenewalLocked(long bucket) {
+    long delay = bucket * TICK_MILLIS - NEXT_RENEWAL_THRESHOLD_MILLIS - clock.millis();
+    nextRenewalBucket.set(bucket);
+    renewerFuture = executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        renewAckDeadlines();
       }
-      nextMessage = peek;
-    }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void unsetAndScheduleNextRenewal() {
     synchronized (futureLock) {
-      if (renewerFuture == null && nextMessage != null) {
-        long delay =
-            (nextMessage.expectedDeadline() - clock.millis()) - NEXT_RENEWAL_THRESHOLD_MILLIS;
-        renewerFuture = executor.schedule(new Runnable() {
-          @Override
-          public void run() {
-            renewAckDeadlines();
-          }
-        }, delay, TimeUnit.MILLISECONDS);
+      renewerFuture = null;
+      // Adds racing with this renewal either see NO_RENEWAL and wait for the lock, or added their
+      // messages before it was set and are found by the scan below
+      nextRenewalBucket.set(NO_RENEWAL);
+      if (closed) {
+        return;
+      }
+      for (long bucket = nextBucket; bucket < nextBucket + WHEEL_SIZE; bucket++) {
+        if (!wheelSlot(bucket).isEmpty()) {
+          scheduleRenewalLocked(bucket);
+          return;
+        }
       }
     }
   }
 
   private void renewAckDeadlines() {
     ListMultimap<String, String> messagesToRenewNext = LinkedListMultimap.create();
+    long now = clock.millis();
     // At every activation we renew all ack deadlines that will expire in the following
     // RENEW_THRESHOLD_MILLIS
-    long threshold = clock.millis() + RENEW_THRESHOLD_MILLIS;
-    Message message;
-    while ((message = nextMessageToRenew(threshold)) != null) {
-      // If the expected deadline is null the message was removed and we must ignore it, otherwise
-      // we renew its ack deadline
-      if (message.expectedDeadline() != null) {
-        messagesToRenewNext.put(message.messageId().subscription(), message.messageId().ackId());
+    long thresholdBucket = bucket(now + RENEW_THRESHOLD_MILLIS);
+    // The deadline of each subscription is picked once per renewal
+    Map<String, Integer> deadlineMillis = new HashMap<>();
+    // Buckets more than a turn of the wheel behind the threshold are empty
+    long firstBucket = Math.max(nextBucket, thresholdBucket - WHEEL_SIZE + 1);
+    for (long bucket = firstBucket; bucket <= thresholdBucket; bucket++) {
+      Queue<Message> slot = wheelSlot(bucket);
+      List<Message> nextTurn = new ArrayList<>();
+      Message message;
+      while ((message = slot.poll()) != null) {
+        MessageId messageId = message.messageId();
+        Lease lease = messageLeases.get(messageId);
+        if (lease == null || lease.deadline != message.expectedDeadline()) {
+          // the message was removed (lease == null) or removed and then added back (deadline
+          // changed), we should not renew its deadline
+          continue;
+        }
+        if (bucket(lease.deadline) > thresholdBucket) {
+          // the message shares the slot but is due in a later turn of the wheel
+          nextTurn.add(message);
+          continue;
+        }
+        String subscription = messageId.subscription();
+        Integer subscriptionDeadline = deadlineMillis.get(subscription);
+        if (subscriptionDeadline == null) {
+          subscriptionDeadline = metrics.ackDeadlineSeconds(subscription) * 1_000;
+          deadlineMillis.put(subscription, subscriptionDeadline);
+        }
+        long deadline = now + subscriptionDeadline - DEADLINE_SLACK_MILLIS;
+        // The deadline is only renewed if the message was not removed or added back meanwhile
+        if (messageLeases.replace(messageId, lease, new Lease(lease.addedAt, deadline))) {
+          wheelSlot(bucket(deadline)).add(new Message(messageId, deadline));
+          messagesToRenewNext.put(messageId.subscription(), messageId.ackId());
+        }
       }
+      slot.addAll(nextTurn);
     }
+    nextBucket = thresholdBucket + 1;
     for (Map.Entry<String, List<String>> entry : Multimaps.asMap(messagesToRenewNext).entrySet()) {
       // We send all ack deadline renewals for a subscription
-      pubsub.modifyAckDeadlineAsync(entry.getKey(), MIN_DEADLINE_MILLIS, TimeUnit.MILLISECONDS,
-          entry.getValue());
+      String subscription = entry.getKey();
+      pubsub.modifyAckDeadlineAsync(subscription, deadlineMillis.get(subscription),
+          TimeUnit.MILLISECONDS, entry.getValue());
+      metrics.recordRenewal(subscription, entry.getValue().size());
     }
     unsetAndScheduleNextRenewal();
   }
 
-  private Message nextMessageToRenew(long threshold) {
-    synchronized (lock) {
-      Message message = messageQueue.peek();
-      // if the queue is empty or the next expected deadline is after threshold we stop
-      if (message == null || message.expectedDeadline() > threshold) {
-        return null;
-      }
-      MessageId messageId = messageQueue.poll().messageId();
-      // Check if the next expected deadline changed. This can happen if the message was removed
-      // from the ack deadline renewer or if it was nacked and then pulled again
-      Long deadline = messageDeadlines.get(messageId);
-      if (deadline == null || deadline > threshold) {
-        // the message was removed (deadline == null) or removed and then added back
-        // (deadline > threshold), we should not renew its deadline (yet)
-        return new Message(messageId, null);
-      } else {
-        // Message deadline must be renewed, we must submit it again to the renewer
-        add(messageId.subscription(), messageId.ackId());
-        return new Message(messageId, deadline);
-      }
-    }
-  }
-
   /**
    * Adds a new message for which the acknowledge deadline should be automatically renewed. The
    * message is identified by the subscription from which it was pulled and its acknowledge id.
@@ -253,13 +347,9 @@ class AckDeadlineRenewer implements AutoCloseable {
    * @param ackId the message's acknowledge id
    */
   void add(String subscription, String ackId) {
-    synchronized (lock) {
-      long deadline = clock.millis() + MIN_DEADLINE_MILLIS - DEADLINE_SLACK_MILLIS;
-      Message message = new Message(new MessageId(subscription, ackId), deadline);
-      messageQueue.add(message);
-      messageDeadlines.put(message.messageId(), deadline);
-    }
-    scheduleNextRenewal();
+    long now = clock.millis();
+    enqueue(new MessageId(subscription, ackId), now);
+    scheduleRenewal(bucket(now + MIN_DEADLINE_MILLIS - DEADLINE_SLACK_MILLIS));
   }
 
   /**
@@ -272,28 +362,26 @@ class AckDeadlineRenewer implements AutoCloseable {
    * @param ackIds the acknowledge ids of the messages
    */
   void add(String subscription, Iterable<String> ackIds) {
-    synchronized (lock) {
-      long deadline = clock.millis() + MIN_DEADLINE_MILLIS - DEADLINE_SLACK_MILLIS;
-      for (String ackId : ackIds) {
-        Message message = new Message(new MessageId(subscription, ackId), deadline);
-        messageQueue.add(message);
-        messageDeadlines.put(message.messageId(), deadline);
-      }
+    long now = clock.millis();
+    for (String ackId : ackIds) {
+      enqueue(new MessageId(subscription, ackId), now);
     }
-    scheduleNextRenewal();
+    scheduleRenewal(bucket(now + MIN_DEADLINE_MILLIS - DEADLINE_SLACK_MILLIS));
   }
 
   /**
    * Removes a message from this {@code AckDeadlineRenewer}. The message is identified by the
    * subscription from which it was pulled and its acknowledge id. Once the message is removed from
-   * this {@code AckDeadlineRenewer}, automated ack deadline renewals will stop.
+   * this {@code AckDeadlineRenewer}, automated ack deadline renewals will stop. The time the
+   * message was held for is used to pick the deadline of later renewals for the subscription.
    *
    * @param subscription the subscription from which the message has been pulled
    * @param ackId the message's acknowledge id
    */
   void remove(String subscription, String ackId) {
-    synchronized (lock) {
-      messageDeadlines.remove(new MessageId(subscription, ackId));
+    Lease lease = messageLeases.remove(new MessageId(subscription, ackId));
+    if (lease != null) {
+      metrics.recordLease(subscription, clock.millis() - lease.addedAt);
     }
   }
 
@@ -303,9 +391,9 @@ class AckDeadlineRenewer implements AutoCloseable {
       return;
     }
     closed = true;
-    synchronized (lock) {
-      messageDeadlines.clear();
-      messageQueue.clear();
+    messageLeases.clear();
+    for (Queue<Message> slot : wheel) {
+      slot.clear();
     }
     synchronized (futureLock) {
       if (renewerFuture != null) {
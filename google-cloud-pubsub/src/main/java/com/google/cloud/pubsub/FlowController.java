@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Limits the number of messages and bytes pulled by message consumers that are not yet
+ * acknowledged or "nacked". A flow controller can be shared by several message consumers, possibly
+ * pulling from different subscriptions, to bound the memory used by all of them (see
+ * {@link PubSub.PullOption#flowController(FlowController)}).
+ *
+ * <p>Consumers stop pulling while either limit is reached and resume as soon as processed messages
+ * are released. The number of messages requested by a pull is also bounded by the bytes left,
+ * using the average size of messages pulled so far. The byte limit can still be exceeded by a
+ * single pull of larger than average messages, and a message larger than the limit is let through
+ * when nothing else is outstanding.
+ *
+ * <p>Example of sharing a flow controller between two consumers:
+ * <pre> {@code
+ * FlowController flowController = FlowController.create(1000, 100 * 1024 * 1024);
+ * MessageConsumer consumer1 = pubsub.pullAsync("subscription1", processor,
+ *     PullOption.flowController(flowController));
+ * MessageConsumer consumer2 = pubsub.pullAsync("subscription2", processor,
+ *     PullOption.flowController(flowController));
+ * }</pre>
+ */
+public final class FlowController {
+
+  private final int maxOutstandingMessages;
+  private final long maxOutstandingBytes;
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+  private int outstandingMessages;
+  private long outstandingBytes;
+  private long receivedMessages;
+  private long receivedBytes;
+  private boolean blocked;
+
+  private FlowController(int maxOutstandingMessages, long maxOutstandingBytes) {
+    this.maxOutstandingMessages = maxOutstandingMessages;
+    this.maxOutstandingBytes = maxOutstandingBytes;
+  }
+
+  /**
+   * Returns the maximum number of pulled messages that can be outstanding at any time.
+   */
+  public int maxOutstandingMessages() {
+    return maxOutstandingMessages;
+  }
+
+  /**
+   * Returns the maximum number of bytes of pulled messages that can be outstanding at any time.
+   */
+  public long maxOutstandingBytes() {
+    return maxOutstandingBytes;
+  }
+
+  /**
+   * Returns the number of messages either being pulled, being processed or waiting to be
+   * processed.
+   */
+  public synchronized int outstandingMessages() {
+    return outstandingMessages;
+  }
+
+  /**
+   * Returns the size in bytes of the messages either being processed or waiting to be processed.
+   */
+  public synchronized long outstandingBytes() {
+    return outstandingBytes;
+  }
+
+  void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  void removeListener(Runnable listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Reserves up to {@code maxMessages} messages for a pull. Returns the number of messages
+   * reserved, 0 if the flow controller is exhausted. In the latter case the listeners are run once
+   * messages are released.
+   */
+  int reserve(int maxMessages) {
+    synchronized (this) {
+      int available = maxOutstandingMessages - outstandingMessages;
+      long availableBytes = maxOutstandingBytes - outstandingBytes;
+      if (available <= 0 || availableBytes <= 0) {
+        blocked = true;
+        return 0;
+      }
+      if (receivedMessages > 0) {
+        long averageBytes = Math.max(1, receivedBytes / receivedMessages);
+        available = (int) Math.min(available, Math.max(1, availableBytes / averageBytes));
+      }
+      int reserved = Math.min(maxMessages, available);
+      outstandingMessages += reserved;
+      return reserved;
+    }
+  }
+
+  /**
+   * Records the result of a pull for which {@code reserved} messages were reserved. Reserved
+   * messages that were not received are released.
+   */
+  void received(int reserved, int messages, long bytes) {
+    synchronized (this) {
+      outstandingMessages -= reserved - messages;
+      outstandingBytes += bytes;
+      receivedMessages += messages;
+      receivedBytes += bytes;
+    }
+    notifyIfReleased();
+  }
+
+  /**
+   * Releases a received message of {@code bytes} bytes, once it was acknowledged or "nacked".
+   */
+  void release(long bytes) {
+    synchronized (this) {
+      outstandingMessages--;
+      outstandingBytes -= bytes;
+    }
+    notifyIfReleased();
+  }
+
+  private void notifyIfReleased() {
+    synchronized (this) {
+      if (!blocked || outstandingMessages >= maxOutstandingMessages
+          || outstandingBytes >= maxOutstandingBytes) {
+        return;
+      }
+      blocked = false;
+    }
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("maxOutstandingMessages", maxOutstandingMessages)
+        .add("maxOutstandingBytes", maxOutstandingBytes)
+        .add("outstandingMessages", outstandingMessages)
+        .add("outstandingBytes", outstandingBytes)
+        .toString();
+  }
+
+  /**
+   * Creates a flow controller that allows at most {@code maxOutstandingMessages} messages and
+   * {@code maxOutstandingBytes} bytes of messages to be outstanding at any time.
+   *
+   * @throws IllegalArgumentException if either limit is not positive
+   */
+  public static FlowController create(int maxOutstandingMessages, long maxOutstandingBytes) {
+    checkArgument(maxOutstandingMessages > 0, "maxOutstandingMessages must be positive");
+    checkArgument(maxOutstandingBytes > 0, "maxOutstandingBytes must be positive");
+    return new FlowController(maxOutstandingMessages, maxOutstandingBytes);
+  }
+}
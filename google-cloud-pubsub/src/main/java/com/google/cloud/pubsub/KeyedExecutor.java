@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Class for an executor that runs tasks with the same key sequentially, in the order they were
+ * submitted, while tasks with different keys run in parallel on an underlying executor. At most
+ * one task per key is submitted to the underlying executor at any time, the following tasks of the
+ * key wait in a queue that is dropped as soon as it is drained.
+ */
+class KeyedExecutor {
+
+  private final Executor executor;
+  private final Map<String, Queue<Runnable>> queues = new HashMap<>();
+
+  /**
+   * Runs the tasks of a key one after the other. Each task is submitted separately to the
+   * underlying executor, so that a key with many tasks does not hold a thread for all of them.
+   */
+  private final class KeyRunnable implements Runnable {
+
+    private final String key;
+    private Runnable task;
+
+    KeyRunnable(String key, Runnable task) {
+      this.key = key;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      try {
+        task.run();
+      } finally {
+        synchronized (queues) {
+          Queue<Runnable> queue = queues.get(key);
+          task = queue.poll();
+          if (task == null) {
+            queues.remove(key);
+          }
+        }
+        if (task != null) {
+          executor.execute(this);
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("key", key).toString();
+    }
+  }
+
+  KeyedExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Runs {@code task} once all tasks previously submitted with {@code key} have completed.
+   */
+  void execute(String key, Runnable task) {
+    synchronized (queues) {
+      Queue<Runnable> queue = queues.get(key);
+      if (queue != null) {
+        queue.add(task);
+        return;
+      }
+      queues.put(key, new ArrayDeque<Runnable>());
+    }
+    try {
+      executor.execute(new KeyRunnable(key, task));
+    } catch (RuntimeException ex) {
+      synchronized (queues) {
+        queues.remove(key);
+      }
+      throw ex;
+    }
+  }
+}
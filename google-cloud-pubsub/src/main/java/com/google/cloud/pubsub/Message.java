@@ -26,7 +26,9 @@ import com.google.protobuf.ByteString;
 import com.google.protobuf.Timestamp;
 import com.google.pubsub.v1.PubsubMessage;
 
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -246,6 +248,22 @@ public class Message implements Serializable {
     return payload;
   }
 
+  /**
+   * Returns a read-only {@link ByteBuffer} view of the message payload. The payload is not copied,
+   * which makes this method preferable to {@link #payloadAsString()} or
+   * {@link ByteArray#toByteArray()} to read large payloads.
+   */
+  public ByteBuffer payloadAsReadOnlyByteBuffer() {
+    return payload.asReadOnlyByteBuffer();
+  }
+
+  /**
+   * Returns an {@link InputStream} that reads the message payload. The payload is not copied.
+   */
+  public InputStream payloadAsInputStream() {
+    return payload.asInputStream();
+  }
+
   final boolean baseEquals(Message message) {
     return Objects.equals(id, message.id)
         && Objects.equals(payload, message.payload)
@@ -293,7 +311,15 @@ public class Message implements Serializable {
   }
 
   static Message fromPb(PubsubMessage messagePb) {
-    Builder builder = builder(new InternalByteArray(messagePb.getData()));
+    return builderFromPb(messagePb).build();
+  }
+
+  /**
+   * Returns a builder initialized with the content of {@code messagePb}. The payload is not copied.
+   */
+  static BuilderImpl builderFromPb(PubsubMessage messagePb) {
+    BuilderImpl builder = new BuilderImpl();
+    builder.payload(new InternalByteArray(messagePb.getData()));
     if (messagePb.hasPublishTime()) {
       Timestamp ts = messagePb.getPublishTime();
       Long millis = ts.getSeconds() * MILLIS_PER_SECOND + ts.getNanos() / NANOS_PER_MILLISECOND;
@@ -304,10 +330,8 @@ public class Message implements Serializable {
     if (!Objects.equals(messagePb.getMessageId(), "")) {
       builder.id(messagePb.getMessageId());
     }
-    for (Map.Entry<String, String> entry : messagePb.getAttributes().entrySet()) {
-      builder.addAttribute(entry.getKey(), entry.getValue());
-    }
-    return builder.build();
+    builder.attributes(messagePb.getAttributes());
+    return builder;
   }
 
   /**
@@ -25,16 +25,23 @@ import com.google.cloud.pubsub.PubSub.MessageProcessor;
 import com.google.cloud.pubsub.spi.PubSubRpc;
 import com.google.cloud.pubsub.spi.PubSubRpc.PullCallback;
 import com.google.cloud.pubsub.spi.PubSubRpc.PullFuture;
+import com.google.common.collect.ImmutableList;
 import com.google.pubsub.v1.PullRequest;
 import com.google.pubsub.v1.PullResponse;
 
 import io.grpc.internal.SharedResourceHolder;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -43,16 +50,17 @@ import java.util.concurrent.atomic.AtomicInteger;
 final class MessageConsumerImpl implements MessageConsumer {
 
   private static final int MAX_QUEUED_CALLBACKS = 100;
-  // shared scheduled executor, used to schedule pulls
-  private static final SharedResourceHolder.Resource<ExecutorService> CONSUMER_EXECUTOR =
-      new SharedResourceHolder.Resource<ExecutorService>() {
+  private static final int MAX_CONCURRENT_PULLS = 1;
+  // shared scheduled executor, used to schedule pulls and to send batched acks and nacks
+  private static final SharedResourceHolder.Resource<ScheduledExecutorService> CONSUMER_EXECUTOR =
+      new SharedResourceHolder.Resource<ScheduledExecutorService>() {
         @Override
-        public ExecutorService create() {
-          return Executors.newSingleThreadExecutor();
+        public ScheduledExecutorService create() {
+          return Executors.newSingleThreadScheduledExecutor();
         }
 
         @Override
-        public void close(ExecutorService instance) {
+        public void close(ScheduledExecutorService instance) {
           instance.shutdown();
         }
       };
@@ -63,17 +71,33 @@ final class MessageConsumerImpl implements MessageConsumer {
   private final AckDeadlineRenewer deadlineRenewer;
   private final String subscription;
   private final MessageProcessor messageProcessor;
-  private final ExecutorService consumerExecutor;
+  private final ScheduledExecutorService consumerExecutor;
+  private final AckBatcher ackBatcher;
   private final ExecutorFactory<ExecutorService> executorFactory;
   private final ExecutorService executor;
+  private final String orderingKeyAttribute;
+  private final KeyedExecutor keyedExecutor;
   private final AtomicInteger queuedCallbacks;
   private final int maxQueuedCallbacks;
   private final Object futureLock = new Object();
-  private final Runnable consumerRunnable;
+  private final List<ConsumerRunnable> consumerRunnables;
   private final NextPullPolicy pullPolicy;
+  private final FlowController flowController;
+  private final AtomicBoolean flowControlReleased = new AtomicBoolean();
+  private final Runnable flowControlListener = new Runnable() {
+    @Override
+    public void run() {
+      flowControlReleased.set(true);
+      pullIfNeeded();
+    }
+  };
   private boolean closed;
-  private Future<?> scheduledFuture;
-  private PullFuture pullerFuture;
+  // The number of pull loops currently running, between 1 and consumerRunnables.size()
+  private int activePulls = 1;
+  // The number of messages requested by pulls still outstanding
+  private int pendingMessages;
+  // Messages dispatched to the executor whose processing has not started yet
+  private final Set<AckingRunnable> pendingRunnables = new LinkedHashSet<>();
 
   /**
    * Interface for policies according to which the consumer should pull messages.
@@ -122,61 +146,192 @@ final class MessageConsumerImpl implements MessageConsumer {
     }
   }
 
+  /**
+   * A pull loop. Each loop has at most one pull outstanding, and pulls again as soon as the
+   * previous pull's messages were dispatched. The consumer runs from one to
+   * {@code maxConcurrentPulls} loops: it starts a new loop when a pull returns as many messages as
+   * requested, which signals a backlog, and stops one when a pull returns no messages.
+   */
   class ConsumerRunnable implements Runnable {
 
+    private final int index;
+    // Set while the loop is running, either scheduled or with a pull outstanding
+    private Future<?> scheduledFuture;
+    private PullFuture pullerFuture;
+    // Messages reserved from the flow controller for the outstanding pull and not yet returned,
+    // released either by the pull's callback or by close, whichever comes first
+    private int reservedMessages;
+
+    ConsumerRunnable(int index) {
+      this.index = index;
+    }
+
     @Override
     public void run() {
-      if (closed) {
-        return;
+      final int maxMessages;
+      synchronized (futureLock) {
+        if (closed) {
+          return;
+        }
+        // Concurrent pulls share the queue capacity evenly
+        maxMessages = Math.min(maxQueuedCallbacks - queuedCallbacks.get() - pendingMessages,
+            Math.max(1, maxQueuedCallbacks / activePulls));
+        if (maxMessages <= 0 || index >= activePulls) {
+          scheduledFuture = null;
+          return;
+        }
+        pendingMessages += maxMessages;
+      }
+      final int reserved;
+      if (flowController != null) {
+        flowControlReleased.set(false);
+        reserved = flowController.reserve(maxMessages);
+        boolean closedMeanwhile;
+        synchronized (futureLock) {
+          pendingMessages -= maxMessages - reserved;
+          closedMeanwhile = closed;
+          if (closedMeanwhile) {
+            pendingMessages -= reserved;
+          } else if (reserved == 0) {
+            // The flow controller is exhausted, its listener pulls again once messages are
+            // released. If they were released before the loop was unset, we pull again here.
+            scheduledFuture = null;
+          } else {
+            reservedMessages = reserved;
+          }
+        }
+        if (closedMeanwhile) {
+          // close didn't see this reservation, we return it here
+          flowController.received(reserved, 0, 0);
+          return;
+        }
+        if (reserved == 0) {
+          if (flowControlReleased.getAndSet(false)) {
+            pullIfNeeded();
+          }
+          return;
+        }
+      } else {
+        reserved = maxMessages;
       }
-      pullerFuture = pubsubRpc.pull(createPullRequest());
-      pullerFuture.addCallback(new PullCallback() {
+      PullFuture future = pubsubRpc.pull(createPullRequest(reserved));
+      synchronized (futureLock) {
+        pullerFuture = future;
+        if (closed) {
+          future.cancel(true);
+        }
+      }
+      future.addCallback(new PullCallback() {
         @Override
         public void success(PullResponse response) {
           List<com.google.pubsub.v1.ReceivedMessage> messages = response.getReceivedMessagesList();
           queuedCallbacks.addAndGet(messages.size());
+          pulled(reserved, messages.size());
+          if (flowController != null) {
+            long bytes = 0;
+            for (com.google.pubsub.v1.ReceivedMessage message : messages) {
+              bytes += message.getMessage().getSerializedSize();
+            }
+            // If close already returned the reservation, received messages are still accounted
+            // for, they are released once "nacked" by dispatch
+            flowController.received(takeReservation(ConsumerRunnable.this), messages.size(),
+                bytes);
+          }
           for (com.google.pubsub.v1.ReceivedMessage message : messages) {
             deadlineRenewer.add(subscription, message.getAckId());
             ReceivedMessage receivedMessage = ReceivedMessage.fromPb(pubsub, subscription, message);
-            executor.execute(ackingRunnable(receivedMessage));
+            dispatch(
+                new AckingRunnable(receivedMessage, message.getMessage().getSerializedSize()));
           }
-          nextPull();
+          nextPull(ConsumerRunnable.this);
         }
 
         @Override
         public void failure(Throwable error) {
+          synchronized (futureLock) {
+            pendingMessages -= reserved;
+          }
+          if (flowController != null) {
+            int unreleased = takeReservation(ConsumerRunnable.this);
+            if (unreleased > 0) {
+              flowController.received(unreleased, 0, 0);
+            }
+          }
           if (!(error instanceof CancellationException)) {
-            nextPull();
+            nextPull(ConsumerRunnable.this);
           }
         }
       });
     }
 
-    private PullRequest createPullRequest() {
+    private PullRequest createPullRequest(int maxMessages) {
       return PullRequest.newBuilder()
           .setSubscription(formatSubscriptionName(pubsubOptions.projectId(), subscription))
-          .setMaxMessages(maxQueuedCallbacks - queuedCallbacks.get())
+          .setMaxMessages(maxMessages)
           .setReturnImmediately(false)
           .build();
     }
+  }
 
-    private Runnable ackingRunnable(final ReceivedMessage receivedMessage) {
-      return new Runnable() {
-        @Override
-        public void run() {
-          try {
-            messageProcessor.process(receivedMessage);
-            pubsub.ackAsync(receivedMessage.subscription(), receivedMessage.ackId());
-          } catch (Exception ex) {
-            pubsub.nackAsync(receivedMessage.subscription(), receivedMessage.ackId());
-          } finally {
-            deadlineRenewer.remove(receivedMessage.subscription(), receivedMessage.ackId());
-            queuedCallbacks.decrementAndGet();
-            // We can now pull more messages, according to the next pull policy.
-            pullIfNeeded();
-          }
+  /**
+   * Returns the messages {@code runnable} reserved for its outstanding pull and not yet returned to
+   * the flow controller, and marks them as returned.
+   */
+  private int takeReservation(ConsumerRunnable runnable) {
+    synchronized (futureLock) {
+      int reserved = runnable.reservedMessages;
+      runnable.reservedMessages = 0;
+      return reserved;
+    }
+  }
+
+  /**
+   * Processes a message, then acks it if processing succeeded or "nacks" it otherwise. A message
+   * whose processing did not start when the consumer was closed, or that the executor rejected, is
+   * "nacked" without being processed. Either way, the message is released exactly once from the
+   * flow controller.
+   */
+  private final class AckingRunnable implements Runnable {
+
+    private final ReceivedMessage receivedMessage;
+    private final int size;
+
+    AckingRunnable(ReceivedMessage receivedMessage, int size) {
+      this.receivedMessage = receivedMessage;
+      this.size = size;
+    }
+
+    @Override
+    public void run() {
+      synchronized (futureLock) {
+        if (!pendingRunnables.remove(this)) {
+          // The message was already "nacked" by close
+          return;
         }
-      };
+      }
+      try {
+        messageProcessor.process(receivedMessage);
+        ackBatcher.ack(receivedMessage.subscription(), receivedMessage.ackId());
+      } catch (Exception ex) {
+        ackBatcher.nack(receivedMessage.subscription(), receivedMessage.ackId());
+      } finally {
+        release();
+        // We can now pull more messages, according to the next pull policy.
+        pullIfNeeded();
+      }
+    }
+
+    void skip() {
+      ackBatcher.nack(receivedMessage.subscription(), receivedMessage.ackId());
+      release();
+    }
+
+    private void release() {
+      deadlineRenewer.remove(receivedMessage.subscription(), receivedMessage.ackId());
+      queuedCallbacks.decrementAndGet();
+      if (flowController != null) {
+        flowController.release(size);
+      }
     }
   }
 
@@ -189,50 +344,153 @@ final class MessageConsumerImpl implements MessageConsumer {
     this.deadlineRenewer = builder.deadlineRenewer;
     this.queuedCallbacks = new AtomicInteger();
     this.consumerExecutor = SharedResourceHolder.get(CONSUMER_EXECUTOR);
+    long ackFlushDelayMillis =
+        firstNonNull(builder.ackFlushDelayMillis, AckBatcher.FLUSH_DELAY_MILLIS);
+    this.ackBatcher = new AckBatcher(pubsub, consumerExecutor, AckBatcher.MAX_ACK_IDS,
+        AckBatcher.MAX_BYTES, ackFlushDelayMillis);
     this.executorFactory =
         builder.executorFactory != null ? builder.executorFactory : new DefaultExecutorFactory();
     this.executor = executorFactory.get();
+    this.orderingKeyAttribute = builder.orderingKeyAttribute;
+    this.keyedExecutor = orderingKeyAttribute != null ? new KeyedExecutor(executor) : null;
     this.maxQueuedCallbacks = firstNonNull(builder.maxQueuedCallbacks, MAX_QUEUED_CALLBACKS);
-    this.consumerRunnable = new ConsumerRunnable();
+    int maxConcurrentPulls = firstNonNull(builder.maxConcurrentPulls, MAX_CONCURRENT_PULLS);
+    ImmutableList.Builder<ConsumerRunnable> runnables = ImmutableList.builder();
+    for (int i = 0; i < maxConcurrentPulls; i++) {
+      runnables.add(new ConsumerRunnable(i));
+    }
+    this.consumerRunnables = runnables.build();
     int nextPullThreshold = builder.nextPullThreshold != null ? builder.nextPullThreshold
         : this.maxQueuedCallbacks / 2;
     this.pullPolicy = new DefaultNextPullPolicy(maxQueuedCallbacks, nextPullThreshold);
-    nextPull();
+    this.flowController = builder.flowController;
+    if (flowController != null) {
+      flowController.addListener(flowControlListener);
+    }
+    synchronized (futureLock) {
+      ConsumerRunnable runnable = consumerRunnables.get(0);
+      runnable.scheduledFuture = consumerExecutor.submit(runnable);
+    }
+  }
+
+  /**
+   * Submits {@code runnable} to the executor, or "nacks" its message if the consumer is closed or
+   * the executor rejects it.
+   */
+  private void dispatch(AckingRunnable runnable) {
+    boolean skip;
+    synchronized (futureLock) {
+      skip = closed;
+      if (!skip) {
+        pendingRunnables.add(runnable);
+      }
+    }
+    if (skip) {
+      runnable.skip();
+      return;
+    }
+    try {
+      String orderingKey = orderingKeyAttribute != null
+          ? runnable.receivedMessage.attributes().get(orderingKeyAttribute) : null;
+      if (orderingKey != null) {
+        keyedExecutor.execute(orderingKey, runnable);
+      } else {
+        executor.execute(runnable);
+      }
+    } catch (RejectedExecutionException ex) {
+      boolean pending;
+      synchronized (futureLock) {
+        // close may have "nacked" the message already
+        pending = pendingRunnables.remove(runnable);
+      }
+      if (pending) {
+        runnable.skip();
+      }
+    }
   }
 
   private void pullIfNeeded() {
     synchronized (futureLock) {
-      if (closed || scheduledFuture != null || !pullPolicy.shouldPull(queuedCallbacks.get())) {
+      if (closed || !pullPolicy.shouldPull(queuedCallbacks.get())) {
         return;
       }
-      scheduledFuture = consumerExecutor.submit(consumerRunnable);
+      for (int i = 0; i < activePulls; i++) {
+        ConsumerRunnable runnable = consumerRunnables.get(i);
+        if (runnable.scheduledFuture == null) {
+          runnable.scheduledFuture = consumerExecutor.submit(runnable);
+        }
+      }
     }
   }
 
-  private void nextPull() {
+  private void nextPull(ConsumerRunnable runnable) {
     synchronized (futureLock) {
-      if (closed || queuedCallbacks.get() == maxQueuedCallbacks) {
-        scheduledFuture = null;
+      if (closed || runnable.index >= activePulls
+          || queuedCallbacks.get() + pendingMessages >= maxQueuedCallbacks) {
+        runnable.scheduledFuture = null;
         return;
       }
-      scheduledFuture = consumerExecutor.submit(consumerRunnable);
+      runnable.scheduledFuture = consumerExecutor.submit(runnable);
+    }
+  }
+
+  /**
+   * Accounts for a pull that returned {@code messages} out of {@code requested} messages, and
+   * scales the number of concurrent pulls to the subscription's backlog.
+   */
+  private void pulled(int requested, int messages) {
+    synchronized (futureLock) {
+      pendingMessages -= requested;
+      if (closed) {
+        return;
+      }
+      if (messages == requested && activePulls < consumerRunnables.size()) {
+        ConsumerRunnable runnable = consumerRunnables.get(activePulls++);
+        if (runnable.scheduledFuture == null) {
+          runnable.scheduledFuture = consumerExecutor.submit(runnable);
+        }
+      } else if (messages == 0 && activePulls > 1) {
+        // The loop with the highest index stops after its current pull
+        activePulls--;
+      }
     }
   }
 
   @Override
   public void close() {
+    List<AckingRunnable> skipped;
+    int unreleased = 0;
     synchronized (futureLock) {
       if (closed) {
         return;
       }
       closed = true;
-      if (scheduledFuture != null) {
-        scheduledFuture.cancel(true);
+      for (ConsumerRunnable runnable : consumerRunnables) {
+        if (runnable.scheduledFuture != null) {
+          runnable.scheduledFuture.cancel(true);
+        }
+        if (runnable.pullerFuture != null) {
+          runnable.pullerFuture.cancel(true);
+        }
+        // A cancelled pull's callback may never run, its reservation is returned here
+        unreleased += runnable.reservedMessages;
+        runnable.reservedMessages = 0;
       }
-      if (pullerFuture != null) {
-        pullerFuture.cancel(true);
+      // Queued messages are not processed, releasing the executor may drop them
+      skipped = new ArrayList<>(pendingRunnables);
+      pendingRunnables.clear();
+    }
+    if (flowController != null) {
+      flowController.removeListener(flowControlListener);
+      if (unreleased > 0) {
+        flowController.received(unreleased, 0, 0);
       }
     }
+    for (AckingRunnable runnable : skipped) {
+      runnable.skip();
+    }
+    // Pending acks and nacks are sent right away, before releasing the executor
+    ackBatcher.close();
     SharedResourceHolder.release(CONSUMER_EXECUTOR, consumerExecutor);
     executorFactory.release(executor);
   }
@@ -245,6 +503,10 @@ final class MessageConsumerImpl implements MessageConsumer {
     private Integer maxQueuedCallbacks;
     private ExecutorFactory<ExecutorService> executorFactory;
     private Integer nextPullThreshold;
+    private Long ackFlushDelayMillis;
+    private FlowController flowController;
+    private Integer maxConcurrentPulls;
+    private String orderingKeyAttribute;
 
     Builder(PubSubOptions pubsubOptions, String subscription, AckDeadlineRenewer deadlineRenewer,
         MessageProcessor messageProcessor) {
@@ -281,6 +543,42 @@ final class MessageConsumerImpl implements MessageConsumer {
       return this;
     }
 
+    /**
+     * Sets the maximum time, in milliseconds, acks and nacks are held to be sent in batches. If not
+     * set, {@link AckBatcher#FLUSH_DELAY_MILLIS} is used.
+     */
+    Builder ackFlushDelayMillis(Long ackFlushDelayMillis) {
+      this.ackFlushDelayMillis = ackFlushDelayMillis;
+      return this;
+    }
+
+    /**
+     * Sets the flow controller that limits the messages and bytes pulled by the consumer and not
+     * yet acknowledged or "nacked". The flow controller may be shared with other consumers.
+     */
+    Builder flowController(FlowController flowController) {
+      this.flowController = flowController;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of pulls the consumer keeps outstanding at the same time. The
+     * consumer starts with one pull and adds more while pulls return full batches.
+     */
+    Builder maxConcurrentPulls(Integer maxConcurrentPulls) {
+      this.maxConcurrentPulls = maxConcurrentPulls;
+      return this;
+    }
+
+    /**
+     * Sets the name of the attribute that holds the ordering key of messages. Messages with the
+     * same ordering key are processed one after the other, in the order they were pulled.
+     */
+    Builder orderingKeyAttribute(String orderingKeyAttribute) {
+      this.orderingKeyAttribute = orderingKeyAttribute;
+      return this;
+    }
+
     /**
      * Creates a {@code MessageConsumerImpl} object.
      */
@@ -16,6 +16,9 @@
 
 package com.google.cloud.pubsub;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import com.google.cloud.AsyncPage;
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.cloud.Page;
@@ -87,7 +90,10 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
 
     enum OptionType implements Option.OptionType {
       EXECUTOR_FACTORY,
-      MAX_QUEUED_CALLBACKS;
+      MAX_QUEUED_CALLBACKS,
+      FLOW_CONTROLLER,
+      MAX_CONCURRENT_PULLS,
+      ORDERING_KEY_ATTRIBUTE;
 
       @SuppressWarnings("unchecked")
       <T> T get(Map<Option.OptionType, ?> options) {
@@ -98,9 +104,17 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
         return get(options);
       }
 
+      String getString(Map<Option.OptionType, ?> options) {
+        return get(options);
+      }
+
       ExecutorFactory<ExecutorService> getExecutorFactory(Map<Option.OptionType, ?> options) {
         return get(options);
       }
+
+      FlowController getFlowController(Map<Option.OptionType, ?> options) {
+        return get(options);
+      }
     }
 
     private PullOption(Option.OptionType option, Object value) {
@@ -136,6 +150,134 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
     public static PullOption executorFactory(ExecutorFactory executorFactory) {
       return new PullOption(OptionType.EXECUTOR_FACTORY, executorFactory);
     }
+
+    /**
+     * Returns an option to limit the number of messages and bytes of messages pulled and not yet
+     * acknowledged or "nacked". Passing the same {@link FlowController} to several message
+     * consumers bounds the messages outstanding across all of them. The consumer stops pulling
+     * while the flow controller is exhausted. If not provided, only
+     * {@link #maxQueuedCallbacks(int)} limits the pulled messages.
+     *
+     * <p>Options created with this method are not serializable.
+     *
+     * @param flowController the flow controller
+     */
+    public static PullOption flowController(FlowController flowController) {
+      return new PullOption(OptionType.FLOW_CONTROLLER, flowController);
+    }
+
+    /**
+     * Returns an option to specify the maximum number of pull requests the message consumer keeps
+     * outstanding at the same time. The consumer starts with a single pull request and issues more
+     * while pulls return as many messages as requested, that is while the subscription has a
+     * backlog. It goes back to fewer pull requests when pulls return no messages. Concurrent pulls
+     * share the {@link #maxQueuedCallbacks(int)} capacity evenly. If not provided, at most one pull
+     * request is outstanding at any time.
+     *
+     * @throws IllegalArgumentException if {@code maxConcurrentPulls} is not positive
+     */
+    public static PullOption maxConcurrentPulls(int maxConcurrentPulls) {
+      checkArgument(maxConcurrentPulls > 0, "maxConcurrentPulls must be positive");
+      return new PullOption(OptionType.MAX_CONCURRENT_PULLS, maxConcurrentPulls);
+    }
+
+    /**
+     * Returns an option to process messages with the same ordering key one after the other, while
+     * messages with different ordering keys are processed in parallel by the executor (see
+     * {@link #executorFactory(ExecutorFactory)}). The ordering key of a message is the value of its
+     * {@code attribute} attribute. Messages without the attribute are processed independently. If
+     * not provided, all messages are processed independently.
+     *
+     * <p>Messages with the same ordering key are processed in the order they were pulled. Ordering
+     * is not preserved for messages that are "nacked" and delivered again, nor across pulls that
+     * complete out of order (see {@link #maxConcurrentPulls(int)}).
+     *
+     * @param attribute the name of the attribute that holds the ordering key of messages
+     */
+    public static PullOption orderingKeyAttribute(String attribute) {
+      return new PullOption(OptionType.ORDERING_KEY_ATTRIBUTE, checkNotNull(attribute));
+    }
+  }
+
+  /**
+   * Class for specifying options for batching published messages.
+   */
+  final class PublishOption extends Option {
+
+    private static final long serialVersionUID = -2813718302385633093L;
+
+    enum OptionType implements Option.OptionType {
+      MAX_BATCH_MESSAGES,
+      MAX_BATCH_BYTES,
+      MAX_BATCH_DELAY_MILLIS,
+      MAX_OUTSTANDING_MESSAGES;
+
+      @SuppressWarnings("unchecked")
+      <T> T get(Map<Option.OptionType, ?> options) {
+        return (T) options.get(this);
+      }
+
+      Integer getInteger(Map<Option.OptionType, ?> options) {
+        return get(options);
+      }
+
+      Long getLong(Map<Option.OptionType, ?> options) {
+        return get(options);
+      }
+    }
+
+    private PublishOption(Option.OptionType option, Object value) {
+      super(option, value);
+    }
+
+    /**
+     * Returns an option to specify the maximum number of messages sent in a single publish request.
+     * If not provided, batches of at most 100 messages are sent.
+     *
+     * @throws IllegalArgumentException if {@code maxBatchMessages} is not between 1 and 1000
+     */
+    public static PublishOption maxBatchMessages(int maxBatchMessages) {
+      checkArgument(maxBatchMessages > 0 && maxBatchMessages <= 1000,
+          "maxBatchMessages must be between 1 and 1000");
+      return new PublishOption(OptionType.MAX_BATCH_MESSAGES, maxBatchMessages);
+    }
+
+    /**
+     * Returns an option to specify the size in bytes of the messages after which a batch is sent,
+     * even if it holds fewer than the maximum number of messages. If not provided, batches are sent
+     * once they hold 1MiB of messages.
+     *
+     * @throws IllegalArgumentException if {@code maxBatchBytes} is not positive
+     */
+    public static PublishOption maxBatchBytes(long maxBatchBytes) {
+      checkArgument(maxBatchBytes > 0, "maxBatchBytes must be positive");
+      return new PublishOption(OptionType.MAX_BATCH_BYTES, maxBatchBytes);
+    }
+
+    /**
+     * Returns an option to specify the maximum time, in milliseconds, a message is held waiting for
+     * other messages of the same topic to be sent with. If not provided, messages are held for at
+     * most 10 milliseconds.
+     *
+     * @throws IllegalArgumentException if {@code maxBatchDelayMillis} is negative
+     */
+    public static PublishOption maxBatchDelayMillis(long maxBatchDelayMillis) {
+      checkArgument(maxBatchDelayMillis >= 0, "maxBatchDelayMillis must not be negative");
+      return new PublishOption(OptionType.MAX_BATCH_DELAY_MILLIS, maxBatchDelayMillis);
+    }
+
+    /**
+     * Returns an option to specify the maximum number of messages waiting to be published, either
+     * held in a batch or sent and not yet acknowledged by the service. Once the limit is reached,
+     * {@link Publisher#publish(String, Message)} blocks until previous publishes complete. If not
+     * provided, at most 10000 messages can be outstanding.
+     *
+     * @throws IllegalArgumentException if {@code maxOutstandingMessages} is not positive
+     */
+    public static PublishOption maxOutstandingMessages(int maxOutstandingMessages) {
+      checkArgument(maxOutstandingMessages > 0, "maxOutstandingMessages must be positive");
+      return new PublishOption(OptionType.MAX_OUTSTANDING_MESSAGES, maxOutstandingMessages);
+    }
   }
 
   /**
@@ -163,6 +305,32 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
     void close() throws Exception;
   }
 
+  /**
+   * An interface to publish messages in batches.
+   */
+  interface Publisher extends AutoCloseable {
+
+    /**
+     * Adds a message to be published to the provided topic. The message is sent together with
+     * other messages published to the same topic shortly after it. This method blocks if too many
+     * messages are waiting to be published (see
+     * {@link PublishOption#maxOutstandingMessages(int)}).
+     *
+     * @param topic the topic where the message is published
+     * @param message the message to publish
+     * @return a {@code Future} for the unique service-generated id for the message
+     * @throws IllegalStateException if the publisher is closed
+     */
+    Future<String> publish(String topic, Message message);
+
+    /**
+     * Sends the messages waiting to be batched and frees all resources. Futures returned for the
+     * messages complete once the service responds.
+     */
+    @Override
+    void close() throws Exception;
+  }
+
   /**
    * Creates a new topic.
    *
@@ -301,6 +469,25 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
    */
   Future<List<String>> publishAsync(String topic, Iterable<Message> messages);
 
+  /**
+   * Creates a publisher that groups messages by topic and sends each group with a single publish
+   * request. A group is sent once it holds enough messages or bytes of messages, or after a short
+   * delay. Batching lets applications that publish many small messages, one at a time, use far
+   * fewer requests than {@link #publishAsync(String, Message)}. You can stop the publisher by
+   * calling {@link Publisher#close()}, which sends the messages still waiting to be batched.
+   *
+   * <p>Example of publishing messages in batches:
+   * <pre> {@code
+   * try (Publisher publisher = pubsub.publisher(PublishOption.maxBatchDelayMillis(5))) {
+   *   Future<String> messageId = publisher.publish("topic", Message.of("payload"));
+   * }
+   * }</pre>
+   *
+   * @param options batching options
+   * @return a publisher for the provided options
+   */
+  Publisher publisher(PublishOption... options);
+
   /**
    * Creates a new subscription.
    *
@@ -473,7 +660,12 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
    * <p>The {@link PullOption#maxQueuedCallbacks(int)} option can be used to control the maximum
    * number of queued messages (messages either being processed or waiting to be processed). The
    * {@link PullOption#executorFactory(ExecutorFactory)} can be used to provide an executor to run
-   * message processor callbacks.
+   * message processor callbacks. The {@link PullOption#flowController(FlowController)} option can
+   * be used to limit the messages and bytes outstanding across several consumers. The
+   * {@link PullOption#maxConcurrentPulls(int)} option can be used to keep several pull requests
+   * outstanding when the subscription has a backlog. The
+   * {@link PullOption#orderingKeyAttribute(String)} option can be used to process messages with the
+   * same ordering key sequentially.
    *
    * @param subscription the subscription from which to pull messages
    * @param callback the callback to be executed on each message
@@ -482,6 +674,14 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
    */
   MessageConsumer pullAsync(String subscription, MessageProcessor callback, PullOption... options);
 
+  /**
+   * Returns the statistics used to pick the deadline automatic renewals extend the acknowledge
+   * deadline of pulled messages to, and the number of renewals, by subscription. Renewals extend
+   * deadlines to about the time messages of the subscription are usually held for, between 10 and
+   * 600 seconds.
+   */
+  AckDeadlineMetrics ackDeadlineMetrics();
+
   /**
    * Acknowledges the given messages for the provided subscription. Ack ids identify the messages to
    * acknowledge, as returned in {@link ReceivedMessage#ackId()} by {@link #pull(String, int)} and
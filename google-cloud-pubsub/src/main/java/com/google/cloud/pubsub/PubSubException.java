@@ -18,6 +18,9 @@ package com.google.cloud.pubsub;
 
 import com.google.api.gax.grpc.ApiException;
 import com.google.cloud.BaseServiceException;
+import com.google.common.collect.ImmutableSet;
+
+import io.grpc.Status.Code;
 
 import java.io.IOException;
 import java.util.Set;
@@ -30,6 +33,9 @@ import java.util.Set;
 public final class PubSubException extends BaseServiceException {
 
   private static final long serialVersionUID = 6434989638600001226L;
+  // UNAVAILABLE: the service did not process the request, it can always be retried
+  private static final Set<Error> RETRYABLE_ERRORS =
+      ImmutableSet.of(new Error(Code.UNAVAILABLE.value(), null, true));
 
   public PubSubException(IOException ex, boolean idempotent) {
     super(ex, idempotent);
@@ -39,8 +45,12 @@ public final class PubSubException extends BaseServiceException {
     super(apiException, idempotent);
   }
 
+  public PubSubException(int code, String message, String reason, boolean idempotent) {
+    super(code, message, reason, idempotent);
+  }
+
   @Override
   protected Set<Error> retryableErrors() {
-    return null;
+    return RETRYABLE_ERRORS;
   }
 }
@@ -18,8 +18,15 @@ package com.google.cloud.pubsub;
 
 import static com.google.cloud.pubsub.PubSub.ListOption.OptionType.PAGE_SIZE;
 import static com.google.cloud.pubsub.PubSub.ListOption.OptionType.PAGE_TOKEN;
+import static com.google.cloud.pubsub.PubSub.PublishOption.OptionType.MAX_BATCH_BYTES;
+import static com.google.cloud.pubsub.PubSub.PublishOption.OptionType.MAX_BATCH_DELAY_MILLIS;
+import static com.google.cloud.pubsub.PubSub.PublishOption.OptionType.MAX_BATCH_MESSAGES;
+import static com.google.cloud.pubsub.PubSub.PublishOption.OptionType.MAX_OUTSTANDING_MESSAGES;
 import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.EXECUTOR_FACTORY;
+import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.FLOW_CONTROLLER;
+import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.MAX_CONCURRENT_PULLS;
 import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.MAX_QUEUED_CALLBACKS;
+import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.ORDERING_KEY_ATTRIBUTE;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.cloud.AsyncPage;
@@ -300,6 +307,17 @@ class PubSubImpl extends BaseService<PubSubOptions> implements PubSub {
         });
   }
 
+  @Override
+  public Publisher publisher(PublishOption... options) {
+    Map<Option.OptionType, ?> optionMap = optionMap(options);
+    return PublisherImpl.builder(this)
+        .maxBatchMessages(MAX_BATCH_MESSAGES.getInteger(optionMap))
+        .maxBatchBytes(MAX_BATCH_BYTES.getLong(optionMap))
+        .maxBatchDelayMillis(MAX_BATCH_DELAY_MILLIS.getLong(optionMap))
+        .maxOutstandingMessages(MAX_OUTSTANDING_MESSAGES.getInteger(optionMap))
+        .build();
+  }
+
   @Override
   public List<String> publish(String topic, Message message, Message... messages) {
     return publish(topic, Lists.asList(message, messages));
@@ -525,9 +543,17 @@ class PubSubImpl extends BaseService<PubSubOptions> implements PubSub {
     return MessageConsumerImpl.builder(options(), subscription, ackDeadlineRenewer, callback)
         .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS.getInteger(optionMap))
         .executorFactory(EXECUTOR_FACTORY.getExecutorFactory(optionMap))
+        .flowController(FLOW_CONTROLLER.getFlowController(optionMap))
+        .maxConcurrentPulls(MAX_CONCURRENT_PULLS.getInteger(optionMap))
+        .orderingKeyAttribute(ORDERING_KEY_ATTRIBUTE.getString(optionMap))
         .build();
   }
 
+  @Override
+  public AckDeadlineMetrics ackDeadlineMetrics() {
+    return ackDeadlineRenewer.metrics();
+  }
+
   @Override
   public void ack(String subscription, String ackId, String... ackIds) {
     ack(subscription, Lists.asList(ackId, ackIds));
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
+import com.google.cloud.pubsub.PubSub.Publisher;
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default implementation for a publisher. Messages are grouped by topic and each group is sent
+ * with a single call to {@link PubSub#publishAsync(String, Iterable)} as soon as it holds
+ * {@code maxBatchMessages} messages or {@code maxBatchBytes} bytes of messages, or
+ * {@code maxBatchDelayMillis} milliseconds after its first message was added, whichever comes
+ * first. At most {@code maxOutstandingMessages} messages can be waiting to be published, further
+ * calls to {@link #publish(String, Message)} block until previous publishes complete.
+ */
+final class PublisherImpl implements Publisher {
+
+  static final int MAX_BATCH_MESSAGES = 100;
+  // Publish requests are limited to 10MB, we stay well below that
+  static final long MAX_BATCH_BYTES = 1024 * 1024;
+  static final long MAX_BATCH_DELAY_MILLIS = 10;
+  static final int MAX_OUTSTANDING_MESSAGES = 10_000;
+
+  private final PubSub pubsub;
+  private final ExecutorFactory<ScheduledExecutorService> executorFactory;
+  private final ScheduledExecutorService executor;
+  private final int maxBatchMessages;
+  private final long maxBatchBytes;
+  private final long maxBatchDelayMillis;
+  private final Semaphore outstandingMessages;
+  private final Map<String, Batch> batches = new HashMap<>();
+  private final Object lock = new Object();
+  private boolean closed;
+
+  /**
+   * This class holds the messages of a topic waiting to be published, together with the futures
+   * returned for them. When run, the batch is sent unless it was already sent because it got full.
+   */
+  private final class Batch implements Runnable {
+
+    private final String topic;
+    private final List<Message> messages = new ArrayList<>();
+    private final List<SettableFuture<String>> futures = new ArrayList<>();
+    private long bytes;
+    private Future<?> flushFuture;
+
+    Batch(String topic) {
+      this.topic = topic;
+    }
+
+    boolean add(Message message, SettableFuture<String> future) {
+      messages.add(message);
+      futures.add(future);
+      bytes += size(message);
+      return messages.size() >= maxBatchMessages || bytes >= maxBatchBytes;
+    }
+
+    @Override
+    public void run() {
+      synchronized (lock) {
+        if (batches.get(topic) != this) {
+          return;
+        }
+        batches.remove(topic);
+      }
+      send();
+    }
+
+    @SuppressWarnings("unchecked")
+    void send() {
+      Future<List<String>> future;
+      try {
+        future = pubsub.publishAsync(topic, messages);
+      } catch (RuntimeException ex) {
+        failed(ex);
+        return;
+      }
+      ListenableFuture<List<String>> listenableFuture = future instanceof ListenableFuture
+          ? (ListenableFuture<List<String>>) future : JdkFutureAdapters.listenInPoolThread(future);
+      Futures.addCallback(listenableFuture, new FutureCallback<List<String>>() {
+        @Override
+        public void onSuccess(List<String> messageIds) {
+          for (int i = 0; i < futures.size(); i++) {
+            futures.get(i).set(messageIds.get(i));
+          }
+          outstandingMessages.release(futures.size());
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+          failed(error);
+        }
+      });
+    }
+
+    private void failed(Throwable error) {
+      for (SettableFuture<String> future : futures) {
+        future.setException(error);
+      }
+      outstandingMessages.release(futures.size());
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("topic", topic)
+          .add("messages", messages.size())
+          .add("bytes", bytes)
+          .toString();
+    }
+  }
+
+  private PublisherImpl(Builder builder) {
+    this.pubsub = builder.pubsub;
+    this.executorFactory = pubsub.options().executorFactory();
+    this.executor = executorFactory.get();
+    this.maxBatchMessages = firstNonNull(builder.maxBatchMessages, MAX_BATCH_MESSAGES);
+    this.maxBatchBytes = firstNonNull(builder.maxBatchBytes, MAX_BATCH_BYTES);
+    this.maxBatchDelayMillis = firstNonNull(builder.maxBatchDelayMillis, MAX_BATCH_DELAY_MILLIS);
+    this.outstandingMessages = new Semaphore(
+        firstNonNull(builder.maxOutstandingMessages, MAX_OUTSTANDING_MESSAGES));
+  }
+
+  /**
+   * Returns an estimate of the size of a message in a publish request: its payload and the keys
+   * and values of its attributes.
+   */
+  private static long size(Message message) {
+    long size = message.payload().length();
+    for (Map.Entry<String, String> attribute : message.attributes().entrySet()) {
+      size += attribute.getKey().length() + attribute.getValue().length();
+    }
+    return size;
+  }
+
+  @Override
+  public Future<String> publish(String topic, Message message) {
+    synchronized (lock) {
+      checkState(!closed, "Publisher is closed");
+    }
+    outstandingMessages.acquireUninterruptibly();
+    SettableFuture<String> future = SettableFuture.create();
+    Batch batchToSend = null;
+    synchronized (lock) {
+      if (closed) {
+        outstandingMessages.release();
+        throw new IllegalStateException("Publisher is closed");
+      }
+      Batch batch = batches.get(topic);
+      if (batch == null) {
+        batch = new Batch(topic);
+        batch.flushFuture = executor.schedule(batch, maxBatchDelayMillis, TimeUnit.MILLISECONDS);
+        batches.put(topic, batch);
+      }
+      if (batch.add(message, future)) {
+        // The batch is full, we send it now instead of waiting for its delay
+        batches.remove(topic);
+        batch.flushFuture.cancel(false);
+        batchToSend = batch;
+      }
+    }
+    if (batchToSend != null) {
+      batchToSend.send();
+    }
+    return future;
+  }
+
+  @Override
+  public void close() {
+    List<Batch> batchesToSend;
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      batchesToSend = new ArrayList<>(batches.values());
+      batches.clear();
+    }
+    for (Batch batch : batchesToSend) {
+      batch.flushFuture.cancel(false);
+      batch.send();
+    }
+    executorFactory.release(executor);
+  }
+
+  static final class Builder {
+    private final PubSub pubsub;
+    private Integer maxBatchMessages;
+    private Long maxBatchBytes;
+    private Long maxBatchDelayMillis;
+    private Integer maxOutstandingMessages;
+
+    Builder(PubSub pubsub) {
+      this.pubsub = pubsub;
+    }
+
+    /**
+     * Sets the maximum number of messages sent in a single publish request.
+     */
+    Builder maxBatchMessages(Integer maxBatchMessages) {
+      this.maxBatchMessages = maxBatchMessages;
+      return this;
+    }
+
+    /**
+     * Sets the size in bytes of messages after which a batch is sent, even if it holds fewer than
+     * the maximum number of messages.
+     */
+    Builder maxBatchBytes(Long maxBatchBytes) {
+      this.maxBatchBytes = maxBatchBytes;
+      return this;
+    }
+
+    /**
+     * Sets the maximum time, in milliseconds, a message is held waiting for other messages to be
+     * sent with.
+     */
+    Builder maxBatchDelayMillis(Long maxBatchDelayMillis) {
+      this.maxBatchDelayMillis = maxBatchDelayMillis;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of messages waiting to be published. Publishing more messages blocks
+     * until previous publishes complete.
+     */
+    Builder maxOutstandingMessages(Integer maxOutstandingMessages) {
+      this.maxOutstandingMessages = maxOutstandingMessages;
+      return this;
+    }
+
+    /**
+     * Creates a {@code PublisherImpl} object.
+     */
+    PublisherImpl build() {
+      return new PublisherImpl(this);
+    }
+  }
+
+  /**
+   * Returns a builder for {@code PublisherImpl} objects given the service used to publish batches.
+   */
+  static Builder builder(PubSub pubsub) {
+    return new Builder(pubsub);
+  }
+}
@@ -0,0 +1,849 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub.testing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.AuthCredentials;
+import com.google.cloud.Clock;
+import com.google.cloud.RetryParams;
+import com.google.cloud.pubsub.PubSubException;
+import com.google.cloud.pubsub.PubSubOptions;
+import com.google.cloud.pubsub.spi.PubSubRpc;
+import com.google.cloud.pubsub.spi.PubSubRpcFactory;
+import com.google.common.util.concurrent.ForwardingListenableFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Timestamp;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.DeleteSubscriptionRequest;
+import com.google.pubsub.v1.DeleteTopicRequest;
+import com.google.pubsub.v1.GetSubscriptionRequest;
+import com.google.pubsub.v1.GetTopicRequest;
+import com.google.pubsub.v1.ListSubscriptionsRequest;
+import com.google.pubsub.v1.ListSubscriptionsResponse;
+import com.google.pubsub.v1.ListTopicSubscriptionsRequest;
+import com.google.pubsub.v1.ListTopicSubscriptionsResponse;
+import com.google.pubsub.v1.ListTopicsRequest;
+import com.google.pubsub.v1.ListTopicsResponse;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import com.google.pubsub.v1.ModifyPushConfigRequest;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PullRequest;
+import com.google.pubsub.v1.PullResponse;
+import com.google.pubsub.v1.ReceivedMessage;
+import com.google.pubsub.v1.Subscription;
+import com.google.pubsub.v1.Topic;
+
+import io.grpc.Status.Code;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, in-memory {@link PubSubRpc} for tests and benchmarks, which needs neither the
+ * Cloud SDK nor a separate emulator process.
+ *
+ * <p>Topics, subscriptions, publishing, pulling, acknowledging and modifying acknowledge deadlines
+ * are supported. Each subscription holds the messages published to its topic after it was created.
+ * A pulled message is leased until its acknowledge deadline; once the lease expires, or when its
+ * deadline is modified to 0, the message is delivered again with a new acknowledge id. Deadlines
+ * are measured with the configured {@link Clock}, so tests can expire leases deterministically.
+ * Pulls that don't return immediately wait up to 10 seconds for messages. Push configurations are
+ * stored, but messages are never pushed.
+ *
+ * <p>Every response is delayed by the configured latency, on a shared pool of daemon threads, to
+ * model the round trip to the service without blocking the caller. A call can also be made to fail
+ * with an {@code UNAVAILABLE} {@link PubSubException}, before it has any effect, at the
+ * configured rate. Failures are drawn from a seeded random generator, so a test sees the same
+ * failures every time it makes the same calls in the same order.
+ *
+ * <pre> {@code
+ * InMemoryPubSubRpc rpc = InMemoryPubSubRpc.builder()
+ *     .latency(1, TimeUnit.MILLISECONDS)
+ *     .failureRate(0.01)
+ *     .build();
+ * PubSub pubsub = rpc.options().service();
+ * } </pre>
+ */
+public class InMemoryPubSubRpc implements PubSubRpc {
+
+  private static final String PROJECT_ID = "in-memory-project";
+  private static final String DELETED_TOPIC = "_deleted-topic_";
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  private static final int DEFAULT_ACK_DEADLINE_SECONDS = 10;
+  private static final int MAX_ACK_DEADLINE_SECONDS = 600;
+  private static final long PULL_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  // How often leases and waiting pulls are checked while there are any
+  private static final long SWEEP_MILLIS = 100;
+  private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(
+      Runtime.getRuntime().availableProcessors(),
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("in-memory-pubsub-%d").build());
+
+  private final long latencyNanos;
+  private final double failureRate;
+  private final Clock clock;
+  private final AtomicLong roundTrips = new AtomicLong();
+
+  // Guarded by this.
+  private final Random random;
+  private final NavigableMap<String, Topic> topics = new TreeMap<>();
+  private final NavigableMap<String, SubscriptionState> subscriptions = new TreeMap<>();
+  private long nextMessageId = 1;
+  private long nextAckId = 1;
+  private long redeliveries;
+  private boolean sweepScheduled;
+
+  private static final class Lease {
+
+    final PubsubMessage message;
+    long deadline;
+
+    Lease(PubsubMessage message, long deadline) {
+      this.message = message;
+      this.deadline = deadline;
+    }
+  }
+
+  private static final class WaitingPull {
+
+    final SettableFuture<PullResponse> future = SettableFuture.create();
+    final int maxMessages;
+    final long expiresAt;
+
+    WaitingPull(int maxMessages, long expiresAt) {
+      this.maxMessages = maxMessages;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private static final class SubscriptionState {
+
+    Subscription subscription;
+    // Messages waiting to be delivered, redelivered messages first
+    final Deque<PubsubMessage> backlog = new ArrayDeque<>();
+    final Map<String, Lease> leases = new LinkedHashMap<>();
+    final Deque<WaitingPull> waitingPulls = new ArrayDeque<>();
+    // No lease expires before this time, leases are only scanned once it's reached
+    long nextExpiry = Long.MAX_VALUE;
+
+    SubscriptionState(Subscription subscription) {
+      this.subscription = subscription;
+    }
+  }
+
+  /**
+   * A response to complete outside of the lock, so that callbacks can call back into the RPC.
+   */
+  private static final class Delivery {
+
+    final SettableFuture<PullResponse> future;
+    final PullResponse response;
+
+    Delivery(SettableFuture<PullResponse> future, PullResponse response) {
+      this.future = future;
+      this.response = response;
+    }
+  }
+
+  private static final class PullFutureImpl
+      extends ForwardingListenableFuture.SimpleForwardingListenableFuture<PullResponse>
+      implements PullFuture {
+
+    PullFutureImpl(ListenableFuture<PullResponse> delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public void addCallback(final PullCallback callback) {
+      Futures.addCallback(delegate(), new FutureCallback<PullResponse>() {
+        @Override
+        public void onSuccess(PullResponse result) {
+          callback.success(result);
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+          callback.failure(error);
+        }
+      });
+    }
+  }
+
+  /**
+   * Builder for {@code InMemoryPubSubRpc} objects.
+   */
+  public static final class Builder {
+
+    private long latencyNanos;
+    private double failureRate;
+    private long seed;
+    private Clock clock = Clock.defaultClock();
+
+    private Builder() {}
+
+    /**
+     * Sets the time taken to answer each call. By default calls are answered immediately.
+     */
+    public Builder latency(long latency, TimeUnit unit) {
+      checkArgument(latency >= 0, "latency must not be negative");
+      this.latencyNanos = unit.toNanos(latency);
+      return this;
+    }
+
+    /**
+     * Sets the fraction of calls, between 0 and 1, that fail with an {@code UNAVAILABLE}
+     * {@link PubSubException}. By default no call fails.
+     */
+    public Builder failureRate(double failureRate) {
+      checkArgument(failureRate >= 0 && failureRate <= 1, "failureRate must be between 0 and 1");
+      this.failureRate = failureRate;
+      return this;
+    }
+
+    /**
+     * Sets the seed of the random generator that picks the calls that fail. By default 0 is used.
+     */
+    public Builder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * Sets the clock used to timestamp messages and to expire leases and waiting pulls. The clock
+     * is also set in the options returned by {@link InMemoryPubSubRpc#options()}.
+     */
+    public Builder clock(Clock clock) {
+      this.clock = checkNotNull(clock);
+      return this;
+    }
+
+    /**
+     * Creates an empty in-memory Pub/Sub service.
+     */
+    public InMemoryPubSubRpc build() {
+      return new InMemoryPubSubRpc(this);
+    }
+  }
+
+  private InMemoryPubSubRpc(Builder builder) {
+    this.latencyNanos = builder.latencyNanos;
+    this.failureRate = builder.failureRate;
+    this.random = new Random(builder.seed);
+    this.clock = builder.clock;
+  }
+
+  /**
+   * Creates an empty in-memory Pub/Sub service that answers immediately and never fails.
+   */
+  public static InMemoryPubSubRpc create() {
+    return builder().build();
+  }
+
+  /**
+   * Returns a builder for an in-memory Pub/Sub service with configurable latency, failures and
+   * clock.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns a {@link PubSubOptions} instance whose services use this in-memory Pub/Sub service.
+   * Closing those services leaves this service untouched, it can be shared by several of them.
+   */
+  public PubSubOptions options() {
+    return PubSubOptions.builder()
+        .projectId(PROJECT_ID)
+        .authCredentials(AuthCredentials.noAuth())
+        .retryParams(RetryParams.noRetries())
+        .clock(clock)
+        .serviceRpcFactory(new PubSubRpcFactory() {
+          @Override
+          public PubSubRpc create(PubSubOptions options) {
+            return InMemoryPubSubRpc.this;
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Returns the number of calls served so far, including failed calls.
+   */
+  public long roundTrips() {
+    return roundTrips.get();
+  }
+
+  /**
+   * Returns the number of messages delivered again, either because their lease expired or because
+   * they were "nacked".
+   */
+  public synchronized long redeliveries() {
+    return redeliveries;
+  }
+
+  /**
+   * Deletes all topics, subscriptions and messages. Waiting pulls fail with a {@code NOT_FOUND}
+   * {@link PubSubException}.
+   */
+  public void reset() {
+    List<WaitingPull> waitingPulls = new ArrayList<>();
+    synchronized (this) {
+      for (SubscriptionState state : subscriptions.values()) {
+        waitingPulls.addAll(state.waitingPulls);
+      }
+      topics.clear();
+      subscriptions.clear();
+    }
+    for (WaitingPull waitingPull : waitingPulls) {
+      waitingPull.future.setException(notFound("Subscription deleted"));
+    }
+  }
+
+  private static PubSubException error(Code code, String message, boolean idempotent) {
+    return new PubSubException(code.value(), message, code.name(), idempotent);
+  }
+
+  private static PubSubException notFound(String message, Object... params) {
+    return error(Code.NOT_FOUND, String.format(message, params), true);
+  }
+
+  private static PubSubException invalidArgument(String message, Object... params) {
+    return error(Code.INVALID_ARGUMENT, String.format(message, params), true);
+  }
+
+  /**
+   * Runs {@code operation} once the latency elapsed, unless the call is picked to fail, and
+   * returns a future for its result.
+   */
+  private <V> ListenableFuture<V> call(final Callable<V> operation) {
+    roundTrips.incrementAndGet();
+    final SettableFuture<V> future = SettableFuture.create();
+    Runnable runnable = new Runnable() {
+      @Override
+      public void run() {
+        if (future.isCancelled()) {
+          return;
+        }
+        try {
+          boolean fail;
+          synchronized (InMemoryPubSubRpc.this) {
+            fail = failureRate > 0 && random.nextDouble() < failureRate;
+          }
+          if (fail) {
+            throw error(Code.UNAVAILABLE, "Injected failure", false);
+          }
+          future.set(operation.call());
+        } catch (Exception ex) {
+          future.setException(ex);
+        }
+      }
+    };
+    if (latencyNanos > 0) {
+      EXECUTOR.schedule(runnable, latencyNanos, TimeUnit.NANOSECONDS);
+    } else {
+      runnable.run();
+    }
+    return future;
+  }
+
+  private static String projectPrefix(String project, String collection) {
+    return project + "/" + collection + "/";
+  }
+
+  private SubscriptionState subscription(String name) {
+    SubscriptionState state = subscriptions.get(name);
+    if (state == null) {
+      throw notFound("Subscription %s does not exist", name);
+    }
+    return state;
+  }
+
+  private static int ackDeadlineSeconds(int seconds) {
+    if (seconds == 0) {
+      return DEFAULT_ACK_DEADLINE_SECONDS;
+    }
+    if (seconds < DEFAULT_ACK_DEADLINE_SECONDS || seconds > MAX_ACK_DEADLINE_SECONDS) {
+      throw invalidArgument("Invalid ack deadline %d", seconds);
+    }
+    return seconds;
+  }
+
+  /**
+   * Moves the messages whose lease expired back to the backlog.
+   */
+  private void expireLeases(SubscriptionState state, long now) {
+    if (now < state.nextExpiry) {
+      return;
+    }
+    long nextExpiry = Long.MAX_VALUE;
+    Iterator<Lease> iterator = state.leases.values().iterator();
+    while (iterator.hasNext()) {
+      Lease lease = iterator.next();
+      if (lease.deadline <= now) {
+        iterator.remove();
+        state.backlog.addFirst(lease.message);
+        redeliveries++;
+      } else {
+        nextExpiry = Math.min(nextExpiry, lease.deadline);
+      }
+    }
+    state.nextExpiry = nextExpiry;
+  }
+
+  /**
+   * Leases up to {@code maxMessages} messages from the backlog of {@code state}.
+   */
+  private PullResponse lease(SubscriptionState state, int maxMessages, long now) {
+    PullResponse.Builder response = PullResponse.newBuilder();
+    long deadline = now + TimeUnit.SECONDS.toMillis(state.subscription.getAckDeadlineSeconds());
+    for (int i = 0; i < maxMessages && !state.backlog.isEmpty(); i++) {
+      PubsubMessage message = state.backlog.pollFirst();
+      String ackId = Long.toString(nextAckId++);
+      state.leases.put(ackId, new Lease(message, deadline));
+      state.nextExpiry = Math.min(state.nextExpiry, deadline);
+      response.addReceivedMessages(
+          ReceivedMessage.newBuilder().setAckId(ackId).setMessage(message).build());
+    }
+    return response.build();
+  }
+
+  /**
+   * Serves the waiting pulls of {@code state} that can be served: those that were cancelled are
+   * dropped, those that expired get no messages, the others get the messages in the backlog.
+   */
+  private void serveWaitingPulls(SubscriptionState state, long now, List<Delivery> deliveries) {
+    expireLeases(state, now);
+    Iterator<WaitingPull> iterator = state.waitingPulls.iterator();
+    while (iterator.hasNext()) {
+      WaitingPull waitingPull = iterator.next();
+      if (waitingPull.future.isDone()) {
+        iterator.remove();
+      } else if (!state.backlog.isEmpty()) {
+        iterator.remove();
+        deliveries.add(
+            new Delivery(waitingPull.future, lease(state, waitingPull.maxMessages, now)));
+      } else if (waitingPull.expiresAt <= now) {
+        iterator.remove();
+        deliveries.add(new Delivery(waitingPull.future, PullResponse.getDefaultInstance()));
+      }
+    }
+  }
+
+  private static void deliver(List<Delivery> deliveries) {
+    for (Delivery delivery : deliveries) {
+      delivery.future.set(delivery.response);
+    }
+  }
+
+  /**
+   * Schedules a check of leases and waiting pulls, unless one is already scheduled. Checks are
+   * only scheduled while there are leases or waiting pulls, so an idle service has no pending
+   * task.
+   */
+  private synchronized void scheduleSweep() {
+    if (sweepScheduled) {
+      return;
+    }
+    sweepScheduled = true;
+    EXECUTOR.schedule(new Runnable() {
+      @Override
+      public void run() {
+        sweep();
+      }
+    }, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private void sweep() {
+    List<Delivery> deliveries = new ArrayList<>();
+    boolean pending = false;
+    synchronized (this) {
+      sweepScheduled = false;
+      long now = clock.millis();
+      for (SubscriptionState state : subscriptions.values()) {
+        serveWaitingPulls(state, now, deliveries);
+        pending |= !state.leases.isEmpty() || !state.waitingPulls.isEmpty();
+      }
+    }
+    deliver(deliveries);
+    if (pending) {
+      scheduleSweep();
+    }
+  }
+
+  @Override
+  public Future<Topic> create(final Topic topic) {
+    return call(new Callable<Topic>() {
+      @Override
+      public Topic call() {
+        synchronized (InMemoryPubSubRpc.this) {
+          if (topics.containsKey(topic.getName())) {
+            throw error(Code.ALREADY_EXISTS, "Topic " + topic.getName() + " already exists",
+                true);
+          }
+          topics.put(topic.getName(), topic);
+          return topic;
+        }
+      }
+    });
+  }
+
+  @Override
+  public Future<PublishResponse> publish(final PublishRequest request) {
+    return call(new Callable<PublishResponse>() {
+      @Override
+      public PublishResponse call() {
+        List<Delivery> deliveries = new ArrayList<>();
+        PublishResponse.Builder response = PublishResponse.newBuilder();
+        synchronized (InMemoryPubSubRpc.this) {
+          if (!topics.containsKey(request.getTopic())) {
+            throw notFound("Topic %s does not exist", request.getTopic());
+          }
+          for (PubsubMessage message : request.getMessagesList()) {
+            if (message.getData().isEmpty() && message.getAttributes().isEmpty()) {
+              throw invalidArgument("A message must have data or attributes");
+            }
+          }
+          long now = clock.millis();
+          Timestamp publishTime = Timestamp.newBuilder()
+              .setSeconds(TimeUnit.MILLISECONDS.toSeconds(now))
+              .setNanos((int) TimeUnit.MILLISECONDS.toNanos(now % 1000))
+              .build();
+          List<PubsubMessage> published = new ArrayList<>(request.getMessagesCount());
+          for (PubsubMessage message : request.getMessagesList()) {
+            String messageId = Long.toString(nextMessageId++);
+            published.add(message.toBuilder()
+                .setMessageId(messageId)
+                .setPublishTime(publishTime)
+                .build());
+            response.addMessageIds(messageId);
+          }
+          for (SubscriptionState state : subscriptions.values()) {
+            if (state.subscription.getTopic().equals(request.getTopic())) {
+              state.backlog.addAll(published);
+              serveWaitingPulls(state, now, deliveries);
+            }
+          }
+        }
+        deliver(deliveries);
+        return response.build();
+      }
+    });
+  }
+
+  @Override
+  public Future<Topic> get(final GetTopicRequest request) {
+    return call(new Callable<Topic>() {
+      @Override
+      public Topic call() {
+        synchronized (InMemoryPubSubRpc.this) {
+          // As DefaultPubSubRpc, a missing topic is returned as null
+          return topics.get(request.getTopic());
+        }
+      }
+    });
+  }
+
+  @Override
+  public Future<ListTopicsResponse> list(final ListTopicsRequest request) {
+    return call(new Callable<ListTopicsResponse>() {
+      @Override
+      public ListTopicsResponse call() {
+        String prefix = projectPrefix(request.getProject(), "topics");
+        String start = request.getPageToken().isEmpty() ? prefix : request.getPageToken();
+        int pageSize = request.getPageSize() > 0 ? request.getPageSize() : DEFAULT_PAGE_SIZE;
+        ListTopicsResponse.Builder response = ListTopicsResponse.newBuilder();
+        synchronized (InMemoryPubSubRpc.this) {
+          for (Topic topic : topics.tailMap(start, false).values()) {
+            if (!topic.getName().startsWith(prefix)) {
+              break;
+            }
+            if (response.getTopicsCount() == pageSize) {
+              response.setNextPageToken(response.getTopics(pageSize - 1).getName());
+              break;
+            }
+            response.addTopics(topic);
+          }
+        }
+        return response.build();
+      }
+    });
+  }
+
+  @Override
+  public Future<ListTopicSubscriptionsResponse> list(
+      final ListTopicSubscriptionsRequest request) {
+    return call(new Callable<ListTopicSubscriptionsResponse>() {
+      @Override
+      public ListTopicSubscriptionsResponse call() {
+        int pageSize = request.getPageSize() > 0 ? request.getPageSize() : DEFAULT_PAGE_SIZE;
+        ListTopicSubscriptionsResponse.Builder response =
+            ListTopicSubscriptionsResponse.newBuilder();
+        synchronized (InMemoryPubSubRpc.this) {
+          if (!topics.containsKey(request.getTopic())) {
+            throw notFound("Topic %s does not exist", request.getTopic());
+          }
+          for (SubscriptionState state
+              : subscriptions.tailMap(request.getPageToken(), false).values()) {
+            if (!state.subscription.getTopic().equals(request.getTopic())) {
+              continue;
+            }
+            if (response.getSubscriptionsCount() == pageSize) {
+              response.setNextPageToken(response.getSubscriptions(pageSize - 1));
+              break;
+            }
+            response.addSubscriptions(state.subscription.getName());
+          }
+        }
+        return response.build();
+      }
+    });
+  }
+
+  @Override
+  public Future<Empty> delete(final DeleteTopicRequest request) {
+    return call(new Callable<Empty>() {
+      @Override
+      public Empty call() {
+        synchronized (InMemoryPubSubRpc.this) {
+          if (topics.remove(request.getTopic()) == null) {
+            return null;
+          }
+          // Subscriptions outlive their topic, as in the service
+          for (SubscriptionState state : subscriptions.values()) {
+            if (state.subscription.getTopic().equals(request.getTopic())) {
+              state.subscription = state.subscription.toBuilder().setTopic(DELETED_TOPIC).build();
+            }
+          }
+          return Empty.getDefaultInstance();
+        }
+      }
+    });
+  }
+
+  @Override
+  public Future<Subscription> create(final Subscription subscription) {
+    return call(new Callable<Subscription>() {
+      @Override
+      public Subscription call() {
+        synchronized (InMemoryPubSubRpc.this) {
+          if (subscriptions.containsKey(subscription.getName())) {
+            throw error(Code.ALREADY_EXISTS,
+                "Subscription " + subscription.getName() + " already exists", false);
+          }
+          if (!topics.containsKey(subscription.getTopic())) {
+            throw notFound("Topic %s does not exist", subscription.getTopic());
+          }
+          Subscription created = subscription.toBuilder()
+              .setAckDeadlineSeconds(ackDeadlineSeconds(subscription.getAckDeadlineSeconds()))
+              .build();
+          subscriptions.put(created.getName(), new SubscriptionState(created));
+          return created;
+        }
+      }
+    });
+  }
+
+  @Override
+  public Future<Subscription> get(final GetSubscriptionRequest request) {
+    return call(new Callable<Subscription>() {
+      @Override
+      public Subscription call() {
+        synchronized (InMemoryPubSubRpc.this) {
+          SubscriptionState state = subscriptions.get(request.getSubscription());
+          return state != null ? state.subscription : null;
+        }
+      }
+    });
+  }
+
+  @Override
+  public Future<ListSubscriptionsResponse> list(final ListSubscriptionsRequest request) {
+    return call(new Callable<ListSubscriptionsResponse>() {
+      @Override
+      public ListSubscriptionsResponse call() {
+        String prefix = projectPrefix(request.getProject(), "subscriptions");
+        String start = request.getPageToken().isEmpty() ? prefix : request.getPageToken();
+        int pageSize = request.getPageSize() > 0 ? request.getPageSize() : DEFAULT_PAGE_SIZE;
+        ListSubscriptionsResponse.Builder response = ListSubscriptionsResponse.newBuilder();
+        synchronized (InMemoryPubSubRpc.this) {
+          for (SubscriptionState state : subscriptions.tailMap(start, false).values()) {
+            if (!state.subscription.getName().startsWith(prefix)) {
+              break;
+            }
+            if (response.getSubscriptionsCount() == pageSize) {
+              response.setNextPageToken(response.getSubscriptions(pageSize - 1).getName());
+              break;
+            }
+            response.addSubscriptions(state.subscription);
+          }
+        }
+        return response.build();
+      }
+    });
+  }
+
+  @Override
+  public Future<Empty> delete(final DeleteSubscriptionRequest request) {
+    return call(new Callable<Empty>() {
+      @Override
+      public Empty call() {
+        SubscriptionState state;
+        synchronized (InMemoryPubSubRpc.this) {
+          state = subscriptions.remove(request.getSubscription());
+        }
+        if (state == null) {
+          return null;
+        }
+        for (WaitingPull waitingPull : state.waitingPulls) {
+          waitingPull.future.setException(notFound("Subscription deleted"));
+        }
+        return Empty.getDefaultInstance();
+      }
+    });
+  }
+
+  @Override
+  public Future<Empty> modify(final ModifyAckDeadlineRequest request) {
+    return call(new Callable<Empty>() {
+      @Override
+      public Empty call() {
+        List<Delivery> deliveries = new ArrayList<>();
+        synchronized (InMemoryPubSubRpc.this) {
+          SubscriptionState state = subscription(request.getSubscription());
+          int seconds = request.getAckDeadlineSeconds();
+          if (seconds < 0 || seconds > MAX_ACK_DEADLINE_SECONDS) {
+            throw invalidArgument("Invalid ack deadline %d", seconds);
+          }
+          long now = clock.millis();
+          expireLeases(state, now);
+          long deadline = now + TimeUnit.SECONDS.toMillis(seconds);
+          // Unknown or expired ack ids are ignored, as in the service
+          for (String ackId : request.getAckIdsList()) {
+            Lease lease = state.leases.get(ackId);
+            if (lease == null) {
+              continue;
+            }
+            if (seconds == 0) {
+              state.leases.remove(ackId);
+              state.backlog.addFirst(lease.message);
+              redeliveries++;
+            } else {
+              lease.deadline = deadline;
+              state.nextExpiry = Math.min(state.nextExpiry, deadline);
+            }
+          }
+          serveWaitingPulls(state, now, deliveries);
+        }
+        deliver(deliveries);
+        return Empty.getDefaultInstance();
+      }
+    });
+  }
+
+  @Override
+  public Future<Empty> acknowledge(final AcknowledgeRequest request) {
+    return call(new Callable<Empty>() {
+      @Override
+      public Empty call() {
+        synchronized (InMemoryPubSubRpc.this) {
+          SubscriptionState state = subscription(request.getSubscription());
+          expireLeases(state, clock.millis());
+          for (String ackId : request.getAckIdsList()) {
+            state.leases.remove(ackId);
+          }
+        }
+        return Empty.getDefaultInstance();
+      }
+    });
+  }
+
+  @Override
+  public PullFuture pull(final PullRequest request) {
+    ListenableFuture<ListenableFuture<PullResponse>> future =
+        call(new Callable<ListenableFuture<PullResponse>>() {
+          @Override
+          public ListenableFuture<PullResponse> call() {
+            if (request.getMaxMessages() <= 0) {
+              throw invalidArgument("maxMessages must be positive");
+            }
+            synchronized (InMemoryPubSubRpc.this) {
+              SubscriptionState state = subscription(request.getSubscription());
+              long now = clock.millis();
+              expireLeases(state, now);
+              if (!state.backlog.isEmpty() || request.getReturnImmediately()) {
+                PullResponse response = lease(state, request.getMaxMessages(), now);
+                if (!state.leases.isEmpty()) {
+                  scheduleSweep();
+                }
+                return Futures.immediateFuture(response);
+              }
+              WaitingPull waitingPull =
+                  new WaitingPull(request.getMaxMessages(), now + PULL_WAIT_MILLIS);
+              state.waitingPulls.add(waitingPull);
+              scheduleSweep();
+              return waitingPull.future;
+            }
+          }
+        });
+    return new PullFutureImpl(Futures.dereference(future));
+  }
+
+  @Override
+  public Future<Empty> modify(final ModifyPushConfigRequest request) {
+    return call(new Callable<Empty>() {
+      @Override
+      public Empty call() {
+        synchronized (InMemoryPubSubRpc.this) {
+          SubscriptionState state = subscription(request.getSubscription());
+          state.subscription =
+              state.subscription.toBuilder().setPushConfig(request.getPushConfig()).build();
+        }
+        return Empty.getDefaultInstance();
+      }
+    });
+  }
+
+  /**
+   * Does nothing: the state of the service is kept, so that it can be shared by several
+   * {@code PubSub} services. Use {@link #reset()} to delete it.
+   */
+  @Override
+  public void close() {
+  }
+}
@@ -15,7 +15,7 @@
  */
 
 /**
- * A testing helper for Google Cloud Pub/Sub.
+ * Testing helpers for Google Cloud Pub/Sub.
  *
  * <p>A simple usage example:
  * <p>Before the test:
@@ -30,6 +30,13 @@
  * helper.stop();
  * } </pre>
  *
+ * <p>Tests and benchmarks that need neither the emulator nor the Cloud SDK can use an in-memory
+ * service instead, optionally with latency and injected failures:
+ * <pre> {@code
+ * InMemoryPubSubRpc rpc = InMemoryPubSubRpc.create();
+ * PubSub inMemoryPubsub = rpc.options().service();
+ * } </pre>
+ *
  * @see <a href="https://github.com/GoogleCloudPlatform/google-cloud-java/blob/master/TESTING.md#testing-code-that-uses-pubsub">
  *     Google Cloud Java tools for testing</a>
  */
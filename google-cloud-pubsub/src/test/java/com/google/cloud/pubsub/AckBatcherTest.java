@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.common.collect.ImmutableList;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class AckBatcherTest {
+
+  private static final String SUBSCRIPTION1 = "subscription1";
+  private static final String SUBSCRIPTION2 = "subscription2";
+  private static final String ACK_ID1 = "ack-id1";
+  private static final String ACK_ID2 = "ack-id2";
+  private static final String ACK_ID3 = "ack-id3";
+  private static final long NO_FLUSH_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private PubSub pubsub;
+  private ScheduledExecutorService executor;
+
+  @Rule
+  public Timeout globalTimeout = Timeout.seconds(60);
+
+  @Before
+  public void setUp() {
+    pubsub = EasyMock.createStrictMock(PubSub.class);
+    executor = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(pubsub);
+    executor.shutdownNow();
+  }
+
+  private static IAnswer<Future<Void>> createAnswer(final CountDownLatch latch) {
+    return new IAnswer<Future<Void>>() {
+      @Override
+      public Future<Void> answer() throws Throwable {
+        latch.countDown();
+        return null;
+      }
+    };
+  }
+
+  @Test
+  public void testFlushAfterDelay() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(2);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andAnswer(createAnswer(latch));
+    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID3)))
+        .andAnswer(createAnswer(latch));
+    EasyMock.replay(pubsub);
+    AckBatcher batcher = new AckBatcher(pubsub, executor, 10, 1024, 10);
+    batcher.ack(SUBSCRIPTION1, ACK_ID1);
+    batcher.ack(SUBSCRIPTION1, ACK_ID2);
+    batcher.nack(SUBSCRIPTION1, ACK_ID3);
+    latch.await();
+    batcher.close();
+  }
+
+  @Test
+  public void testFlushOnMaxAckIds() {
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
+    EasyMock.replay(pubsub);
+    AckBatcher batcher = new AckBatcher(pubsub, executor, 2, 1024, NO_FLUSH_DELAY_MILLIS);
+    batcher.ack(SUBSCRIPTION1, ACK_ID1);
+    batcher.ack(SUBSCRIPTION2, ACK_ID1);
+    batcher.ack(SUBSCRIPTION1, ACK_ID2);
+    EasyMock.verify(pubsub);
+    EasyMock.reset(pubsub);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION2, ImmutableList.of(ACK_ID1))).andReturn(null);
+    EasyMock.replay(pubsub);
+    batcher.close();
+  }
+
+  @Test
+  public void testFlushOnMaxBytes() {
+    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
+    EasyMock.replay(pubsub);
+    AckBatcher batcher = new AckBatcher(pubsub, executor, 10,
+        ACK_ID1.length() + ACK_ID2.length(), NO_FLUSH_DELAY_MILLIS);
+    batcher.nack(SUBSCRIPTION1, ACK_ID1);
+    batcher.nack(SUBSCRIPTION1, ACK_ID2);
+    batcher.close();
+  }
+
+  @Test
+  public void testClose() {
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
+    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION2, ImmutableList.of(ACK_ID3))).andReturn(null);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID3)))
+        .andReturn(null);
+    EasyMock.replay(pubsub);
+    AckBatcher batcher = new AckBatcher(pubsub, executor, 10, 1024, NO_FLUSH_DELAY_MILLIS);
+    batcher.ack(SUBSCRIPTION1, ACK_ID1);
+    batcher.ack(SUBSCRIPTION1, ACK_ID2);
+    batcher.nack(SUBSCRIPTION2, ACK_ID3);
+    batcher.close();
+    // closing again should do nothing
+    batcher.close();
+    // acks after close are sent right away
+    batcher.ack(SUBSCRIPTION1, ACK_ID3);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.pubsub.AckDeadlineMetrics.SubscriptionMetrics;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+public class AckDeadlineMetricsTest {
+
+  private static final String SUBSCRIPTION1 = "subscription1";
+  private static final String SUBSCRIPTION2 = "subscription2";
+
+  @Test
+  public void testNoLeases() {
+    AckDeadlineMetrics metrics = new AckDeadlineMetrics();
+    assertEquals(10, metrics.ackDeadlineSeconds(SUBSCRIPTION1));
+    SubscriptionMetrics subscriptionMetrics = metrics.subscription(SUBSCRIPTION1);
+    assertEquals(10, subscriptionMetrics.ackDeadlineSeconds());
+    assertEquals(0, subscriptionMetrics.leases());
+    assertEquals(0, subscriptionMetrics.renewalRate(), 0);
+    assertEquals(0, metrics.bySubscription().size());
+  }
+
+  @Test
+  public void testShortLeases() {
+    AckDeadlineMetrics metrics = new AckDeadlineMetrics();
+    for (int i = 0; i < 100; i++) {
+      metrics.recordLease(SUBSCRIPTION1, 2_500);
+    }
+    assertEquals(10, metrics.ackDeadlineSeconds(SUBSCRIPTION1));
+    assertEquals(100, metrics.subscription(SUBSCRIPTION1).leases());
+  }
+
+  @Test
+  public void testPercentile() {
+    AckDeadlineMetrics metrics = new AckDeadlineMetrics();
+    for (int i = 0; i < 990; i++) {
+      metrics.recordLease(SUBSCRIPTION1, 45_500);
+    }
+    for (int i = 0; i < 10; i++) {
+      metrics.recordLease(SUBSCRIPTION1, 300_000);
+    }
+    assertEquals(46, metrics.ackDeadlineSeconds(SUBSCRIPTION1));
+    metrics.recordLease(SUBSCRIPTION1, 300_000);
+    assertEquals(301, metrics.ackDeadlineSeconds(SUBSCRIPTION1));
+    assertEquals(10, metrics.ackDeadlineSeconds(SUBSCRIPTION2));
+  }
+
+  @Test
+  public void testSlidingWindow() {
+    AckDeadlineMetrics metrics = new AckDeadlineMetrics();
+    for (int i = 0; i < 1_000; i++) {
+      metrics.recordLease(SUBSCRIPTION1, 120_000);
+    }
+    assertEquals(121, metrics.ackDeadlineSeconds(SUBSCRIPTION1));
+    for (int i = 0; i < 1_000; i++) {
+      metrics.recordLease(SUBSCRIPTION1, 1_000);
+    }
+    assertEquals(10, metrics.ackDeadlineSeconds(SUBSCRIPTION1));
+    assertEquals(2_000, metrics.subscription(SUBSCRIPTION1).leases());
+  }
+
+  @Test
+  public void testMaxDeadline() {
+    AckDeadlineMetrics metrics = new AckDeadlineMetrics();
+    metrics.recordLease(SUBSCRIPTION1, 3_600_000);
+    assertEquals(600, metrics.ackDeadlineSeconds(SUBSCRIPTION1));
+  }
+
+  @Test
+  public void testRenewals() {
+    AckDeadlineMetrics metrics = new AckDeadlineMetrics();
+    metrics.recordRenewal(SUBSCRIPTION1, 3);
+    metrics.recordRenewal(SUBSCRIPTION1, 1);
+    metrics.recordRenewal(SUBSCRIPTION2, 2);
+    metrics.recordLease(SUBSCRIPTION1, 1_000);
+    metrics.recordLease(SUBSCRIPTION1, 1_000);
+    SubscriptionMetrics subscriptionMetrics = metrics.subscription(SUBSCRIPTION1);
+    assertEquals(4, subscriptionMetrics.renewedMessages());
+    assertEquals(2, subscriptionMetrics.renewalRequests());
+    assertEquals(2, subscriptionMetrics.renewalRate(), 0);
+    assertEquals(ImmutableSet.of(SUBSCRIPTION1, SUBSCRIPTION2),
+        metrics.bySubscription().keySet());
+    assertEquals(2, metrics.bySubscription().get(SUBSCRIPTION2).renewedMessages());
+  }
+}
@@ -16,11 +16,14 @@
 
 package com.google.cloud.pubsub;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.google.cloud.Clock;
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.common.collect.ImmutableList;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.junit.After;
@@ -52,6 +55,20 @@ public class AckDeadlineRenewerTest {
   @Rule
   public Timeout globalTimeout = Timeout.seconds(60);
 
+  private static class FakeClock extends Clock {
+
+    private final AtomicLong millis = new AtomicLong();
+
+    void advance(long time, TimeUnit timeUnit) {
+      millis.addAndGet(timeUnit.toMillis(time));
+    }
+
+    @Override
+    public long millis() {
+      return millis.get();
+    }
+  }
+
   @Before
   public void setUp() {
     pubsub = EasyMock.createStrictMock(PubSub.class);
@@ -239,6 +256,123 @@ public class AckDeadlineRenewerTest {
     assertTrue(secondRenewalSub2.get() < (firstRenewalSub2.get() + MIN_DEADLINE_MILLIS));
   }
 
+  @Test
+  public void testRemoveRecordsLease() {
+    ackDeadlineRenewer.add(SUBSCRIPTION1, ACK_ID1);
+    ackDeadlineRenewer.remove(SUBSCRIPTION1, ACK_ID1);
+    ackDeadlineRenewer.remove(SUBSCRIPTION1, ACK_ID2);
+    AckDeadlineMetrics.SubscriptionMetrics metrics =
+        ackDeadlineRenewer.metrics().subscription(SUBSCRIPTION1);
+    assertEquals(1, metrics.leases());
+    assertEquals(0, metrics.renewedMessages());
+    assertEquals(MIN_DEADLINE_MILLIS / 1_000, metrics.ackDeadlineSeconds());
+  }
+
+  private static void recordLeases(AckDeadlineRenewer renewer) {
+    // The 99th percentile of these hold times is 20 seconds, the outlier is ignored
+    for (int i = 0; i < 99; i++) {
+      renewer.metrics().recordLease(SUBSCRIPTION1, 20_500);
+    }
+    renewer.metrics().recordLease(SUBSCRIPTION1, 300_000);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRenewToObservedDeadline() throws Exception {
+    FakeClock clock = new FakeClock();
+    PubSub pubsub = EasyMock.createStrictMock(PubSub.class);
+    ScheduledExecutorService executor = EasyMock.createStrictMock(ScheduledExecutorService.class);
+    ExecutorFactory executorFactory = EasyMock.createStrictMock(ExecutorFactory.class);
+    ScheduledFuture firstFuture = EasyMock.createStrictMock(ScheduledFuture.class);
+    ScheduledFuture secondFuture = EasyMock.createStrictMock(ScheduledFuture.class);
+    Capture<Runnable> renewal = Capture.newInstance();
+    EasyMock.expect(executorFactory.get()).andReturn(executor);
+    PubSubOptions options = PubSubOptions.builder()
+        .projectId("projectId")
+        .executorFactory(executorFactory)
+        .clock(clock)
+        .build();
+    EasyMock.expect(pubsub.options()).andReturn(options);
+    // The first renewal is due 1 second before the initial 10 seconds deadline, minus slack
+    EasyMock.expect(executor.schedule(EasyMock.capture(renewal), EasyMock.eq(8_000L),
+        EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(firstFuture);
+    EasyMock.expect(pubsub.modifyAckDeadlineAsync(SUBSCRIPTION1, 21_000, TimeUnit.MILLISECONDS,
+        ImmutableList.of(ACK_ID1))).andReturn(null);
+    // The next renewal is due 1 second before the renewed 21 seconds deadline, minus slack
+    EasyMock.expect(executor.schedule(EasyMock.<Runnable>anyObject(), EasyMock.eq(19_000L),
+        EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(secondFuture);
+    EasyMock.expect(secondFuture.cancel(true)).andReturn(true);
+    executorFactory.release(executor);
+    EasyMock.expectLastCall();
+    EasyMock.replay(executor, executorFactory, firstFuture, secondFuture, pubsub);
+    AckDeadlineRenewer ackDeadlineRenewer = new AckDeadlineRenewer(pubsub);
+    recordLeases(ackDeadlineRenewer);
+    ackDeadlineRenewer.add(SUBSCRIPTION1, ACK_ID1);
+    clock.advance(8, TimeUnit.SECONDS);
+    renewal.getValue().run();
+    AckDeadlineMetrics.SubscriptionMetrics metrics =
+        ackDeadlineRenewer.metrics().subscription(SUBSCRIPTION1);
+    assertEquals(21, metrics.ackDeadlineSeconds());
+    assertEquals(1, metrics.renewedMessages());
+    assertEquals(1, metrics.renewalRequests());
+    ackDeadlineRenewer.close();
+    EasyMock.verify(pubsub, executor, executorFactory, firstFuture, secondFuture);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testAddMovesRenewalForward() throws Exception {
+    FakeClock clock = new FakeClock();
+    PubSub pubsub = EasyMock.createStrictMock(PubSub.class);
+    ScheduledExecutorService executor = EasyMock.createStrictMock(ScheduledExecutorService.class);
+    ExecutorFactory executorFactory = EasyMock.createStrictMock(ExecutorFactory.class);
+    ScheduledFuture firstFuture = EasyMock.createStrictMock(ScheduledFuture.class);
+    ScheduledFuture secondFuture = EasyMock.createStrictMock(ScheduledFuture.class);
+    ScheduledFuture thirdFuture = EasyMock.createStrictMock(ScheduledFuture.class);
+    ScheduledFuture fourthFuture = EasyMock.createStrictMock(ScheduledFuture.class);
+    Capture<Runnable> firstRenewal = Capture.newInstance();
+    Capture<Runnable> secondRenewal = Capture.newInstance();
+    EasyMock.expect(executorFactory.get()).andReturn(executor);
+    PubSubOptions options = PubSubOptions.builder()
+        .projectId("projectId")
+        .executorFactory(executorFactory)
+        .clock(clock)
+        .build();
+    EasyMock.expect(pubsub.options()).andReturn(options);
+    EasyMock.expect(executor.schedule(EasyMock.capture(firstRenewal), EasyMock.eq(8_000L),
+        EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(firstFuture);
+    EasyMock.expect(pubsub.modifyAckDeadlineAsync(SUBSCRIPTION1, 21_000, TimeUnit.MILLISECONDS,
+        ImmutableList.of(ACK_ID1))).andReturn(null);
+    // ACK_ID1 is next due at 28 seconds
+    EasyMock.expect(executor.schedule(EasyMock.<Runnable>anyObject(), EasyMock.eq(19_000L),
+        EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(secondFuture);
+    // ACK_ID2, added at 8 seconds, is due at 17 seconds: the renewal is moved forward
+    EasyMock.expect(secondFuture.cancel(false)).andReturn(true);
+    EasyMock.expect(executor.schedule(EasyMock.capture(secondRenewal), EasyMock.eq(8_000L),
+        EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(thirdFuture);
+    EasyMock.expect(pubsub.modifyAckDeadlineAsync(SUBSCRIPTION1, 21_000, TimeUnit.MILLISECONDS,
+        ImmutableList.of(ACK_ID2))).andReturn(null);
+    // ACK_ID1 is still due at 28 seconds
+    EasyMock.expect(executor.schedule(EasyMock.<Runnable>anyObject(), EasyMock.eq(11_000L),
+        EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(fourthFuture);
+    EasyMock.expect(fourthFuture.cancel(true)).andReturn(true);
+    executorFactory.release(executor);
+    EasyMock.expectLastCall();
+    EasyMock.replay(executor, executorFactory, firstFuture, secondFuture, thirdFuture,
+        fourthFuture, pubsub);
+    AckDeadlineRenewer ackDeadlineRenewer = new AckDeadlineRenewer(pubsub);
+    recordLeases(ackDeadlineRenewer);
+    ackDeadlineRenewer.add(SUBSCRIPTION1, ACK_ID1);
+    clock.advance(8, TimeUnit.SECONDS);
+    firstRenewal.getValue().run();
+    ackDeadlineRenewer.add(SUBSCRIPTION1, ACK_ID2);
+    clock.advance(8, TimeUnit.SECONDS);
+    secondRenewal.getValue().run();
+    ackDeadlineRenewer.close();
+    EasyMock.verify(pubsub, executor, executorFactory, firstFuture, secondFuture, thirdFuture,
+        fourthFuture);
+  }
+
   @Test
   @SuppressWarnings("unchecked")
   public void testClose() throws Exception {
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FlowControllerTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testCreate() {
+    FlowController flowController = FlowController.create(10, 1024);
+    assertEquals(10, flowController.maxOutstandingMessages());
+    assertEquals(1024, flowController.maxOutstandingBytes());
+    assertEquals(0, flowController.outstandingMessages());
+    assertEquals(0, flowController.outstandingBytes());
+  }
+
+  @Test
+  public void testCreateInvalidLimits() {
+    thrown.expect(IllegalArgumentException.class);
+    FlowController.create(0, 1024);
+  }
+
+  @Test
+  public void testReserveMessages() {
+    FlowController flowController = FlowController.create(10, 1024);
+    assertEquals(6, flowController.reserve(6));
+    assertEquals(4, flowController.reserve(6));
+    assertEquals(0, flowController.reserve(6));
+    assertEquals(10, flowController.outstandingMessages());
+    flowController.received(6, 2, 20);
+    assertEquals(6, flowController.outstandingMessages());
+    assertEquals(20, flowController.outstandingBytes());
+    flowController.release(10);
+    assertEquals(5, flowController.outstandingMessages());
+    assertEquals(10, flowController.outstandingBytes());
+  }
+
+  @Test
+  public void testReserveBytes() {
+    FlowController flowController = FlowController.create(100, 1000);
+    assertEquals(10, flowController.reserve(10));
+    flowController.received(10, 10, 1000);
+    assertEquals(0, flowController.reserve(10));
+    flowController.release(100);
+    flowController.release(100);
+    // Received messages are 100 bytes on average, 200 bytes are left
+    assertEquals(2, flowController.reserve(10));
+  }
+
+  @Test
+  public void testLargeMessage() {
+    FlowController flowController = FlowController.create(100, 1000);
+    assertEquals(1, flowController.reserve(1));
+    flowController.received(1, 1, 5000);
+    assertEquals(0, flowController.reserve(10));
+    flowController.release(5000);
+    // Messages are 5000 bytes on average, at least one is let through
+    assertEquals(1, flowController.reserve(10));
+  }
+
+  @Test
+  public void testListeners() {
+    final AtomicInteger notifications = new AtomicInteger();
+    Runnable listener = new Runnable() {
+      @Override
+      public void run() {
+        notifications.incrementAndGet();
+      }
+    };
+    FlowController flowController = FlowController.create(2, 1024);
+    flowController.addListener(listener);
+    assertEquals(2, flowController.reserve(2));
+    flowController.received(2, 2, 20);
+    flowController.release(10);
+    // Listeners are only run when released messages unblock a pull
+    assertEquals(0, notifications.get());
+    assertEquals(1, flowController.reserve(2));
+    assertEquals(0, flowController.reserve(2));
+    flowController.received(1, 0, 0);
+    assertEquals(1, notifications.get());
+    flowController.release(10);
+    assertEquals(1, notifications.get());
+    assertEquals(2, flowController.reserve(2));
+    assertEquals(0, flowController.reserve(1));
+    flowController.removeListener(listener);
+    flowController.received(2, 0, 0);
+    assertEquals(1, notifications.get());
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyedExecutorTest {
+
+  private static final String KEY1 = "key1";
+  private static final String KEY2 = "key2";
+  private static final int TASKS = 100;
+
+  private ExecutorService executor;
+
+  @Rule
+  public Timeout globalTimeout = Timeout.seconds(60);
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testSameKeyRunsInOrder() throws InterruptedException {
+    KeyedExecutor keyedExecutor = new KeyedExecutor(executor);
+    final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch latch = new CountDownLatch(TASKS);
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < TASKS; i++) {
+      final int task = i;
+      expected.add(task);
+      keyedExecutor.execute(KEY1, new Runnable() {
+        @Override
+        public void run() {
+          maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+          executed.add(task);
+          running.decrementAndGet();
+          latch.countDown();
+        }
+      });
+    }
+    latch.await();
+    assertEquals(expected, executed);
+    assertEquals(1, maxRunning.get());
+  }
+
+  @Test
+  public void testDifferentKeysRunInParallel() throws InterruptedException {
+    KeyedExecutor keyedExecutor = new KeyedExecutor(executor);
+    final CountDownLatch key2Started = new CountDownLatch(1);
+    final CountDownLatch latch = new CountDownLatch(2);
+    // The task of key1 only completes once the task of key2 started
+    keyedExecutor.execute(KEY1, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          key2Started.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        latch.countDown();
+      }
+    });
+    keyedExecutor.execute(KEY2, new Runnable() {
+      @Override
+      public void run() {
+        key2Started.countDown();
+        latch.countDown();
+      }
+    });
+    latch.await();
+  }
+
+  @Test
+  public void testFailingTaskDoesNotBlockKey() throws InterruptedException {
+    KeyedExecutor keyedExecutor = new KeyedExecutor(executor);
+    final CountDownLatch latch = new CountDownLatch(1);
+    keyedExecutor.execute(KEY1, new Runnable() {
+      @Override
+      public void run() {
+        throw new RuntimeException();
+      }
+    });
+    keyedExecutor.execute(KEY1, new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    });
+    latch.await();
+  }
+
+  @Test
+  public void testRejectedTask() {
+    final AtomicBoolean reject = new AtomicBoolean(true);
+    final AtomicInteger executed = new AtomicInteger();
+    KeyedExecutor keyedExecutor = new KeyedExecutor(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        if (reject.getAndSet(false)) {
+          throw new RejectedExecutionException();
+        }
+        command.run();
+      }
+    });
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        executed.incrementAndGet();
+      }
+    };
+    try {
+      keyedExecutor.execute(KEY1, task);
+      fail("RejectedExecutionException expected");
+    } catch (RejectedExecutionException ex) {
+      // expected
+    }
+    // The rejected task must not hold back the following tasks of its key
+    keyedExecutor.execute(KEY1, task);
+    assertEquals(1, executed.get());
+  }
+}
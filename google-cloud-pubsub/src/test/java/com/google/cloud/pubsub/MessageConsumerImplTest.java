@@ -16,15 +16,21 @@
 
 package com.google.cloud.pubsub;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.cloud.pubsub.PubSub.MessageConsumer;
 import com.google.cloud.pubsub.PubSub.MessageProcessor;
 import com.google.cloud.pubsub.spi.PubSubRpc;
 import com.google.cloud.pubsub.spi.PubSubRpc.PullCallback;
 import com.google.cloud.pubsub.spi.PubSubRpc.PullFuture;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ForwardingListenableFuture;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.pubsub.v1.PullRequest;
 import com.google.pubsub.v1.PullResponse;
 
@@ -36,9 +42,11 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class MessageConsumerImplTest {
 
@@ -46,6 +54,8 @@ public class MessageConsumerImplTest {
   private static final String SUBSCRIPTION = "subscription";
   private static final String SUBSCRIPTION_PB = "projects/project/subscriptions/subscription";
   private static final int MAX_QUEUED_CALLBACKS = 42;
+  // Acks and nacks are only sent when the consumer is closed
+  private static final long ACK_FLUSH_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
   private static final Message MESSAGE1 = Message.of("payload1");
   private static final Message MESSAGE2 = Message.of("payload2");
   private static final String ACK_ID1 = "ack-id1";
@@ -91,7 +101,11 @@ public class MessageConsumerImplTest {
       implements PullFuture {
 
     TestPullFuture(PullResponse response) {
-      super(Futures.immediateFuture(response));
+      this(Futures.immediateFuture(response));
+    }
+
+    TestPullFuture(ListenableFuture<PullResponse> delegate) {
+      super(delegate);
     }
 
     @Override
@@ -135,6 +149,25 @@ public class MessageConsumerImplTest {
         .build();
   }
 
+  /**
+   * Returns a processor that waits for {@code latch} before processing {@code message}, so that
+   * the message is still queued when the next pull is sent.
+   */
+  private static MessageProcessor awaitingProcessor(final Message message,
+      final CountDownLatch latch, final boolean fail) {
+    return new MessageProcessor() {
+      @Override
+      public void process(Message received) throws Exception {
+        if (message.payloadAsString().equals(received.payloadAsString())) {
+          latch.await();
+        }
+        if (fail) {
+          throw new RuntimeException();
+        }
+      }
+    };
+  }
+
   private static IAnswer<Void> createAnswer(final CountDownLatch latch) {
     return new IAnswer<Void>() {
       @Override
@@ -153,8 +186,8 @@ public class MessageConsumerImplTest {
     EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
     EasyMock.expect(pubsub.options()).andReturn(options).times(2);
     final CountDownLatch latch = new CountDownLatch(2);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID2)).andReturn(null);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request)).andReturn(new TestPullFuture(PULL_RESPONSE));
     EasyMock.expect(pubsubRpc.pull(EasyMock.<PullRequest>anyObject()))
@@ -171,6 +204,7 @@ public class MessageConsumerImplTest {
     try (MessageConsumer consumer =
          MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, DO_NOTHING_PROCESSOR)
              .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
+             .ackFlushDelayMillis(ACK_FLUSH_DELAY_MILLIS)
              .build()) {
       latch.await();
     }
@@ -184,8 +218,8 @@ public class MessageConsumerImplTest {
     EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
     EasyMock.expect(pubsub.options()).andReturn(options).times(2);
     final CountDownLatch latch = new CountDownLatch(2);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID2)).andReturn(null);
+    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request)).andReturn(new TestPullFuture(PULL_RESPONSE));
     EasyMock.expect(pubsubRpc.pull(EasyMock.<PullRequest>anyObject()))
@@ -202,6 +236,7 @@ public class MessageConsumerImplTest {
     try (MessageConsumer consumer =
         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, THROW_PROCESSOR)
             .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
+            .ackFlushDelayMillis(ACK_FLUSH_DELAY_MILLIS)
             .build()) {
       latch.await();
     }
@@ -222,16 +257,9 @@ public class MessageConsumerImplTest {
     EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
     final CountDownLatch nextPullLatch = new CountDownLatch(1);
     final CountDownLatch latch = new CountDownLatch(2);
-    EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID1)).andAnswer(new IAnswer<Future<Void>>() {
-      @Override
-      public Future<Void> answer() throws Throwable {
-        nextPullLatch.await();
-        return null;
-      }
-    });
-    EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID2)).andReturn(null);
+    EasyMock.expect(pubsub.options()).andReturn(options).times(2);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request1)).andReturn(new TestPullFuture(response1));
     EasyMock.expect(pubsubRpc.pull(request2)).andAnswer(new IAnswer<PullFuture>() {
@@ -253,8 +281,10 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
     EasyMock.replay(pubsubRpc, options, renewer);
     try (MessageConsumer consumer =
-        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, DO_NOTHING_PROCESSOR)
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer,
+            awaitingProcessor(MESSAGE1, nextPullLatch, false))
             .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
+            .ackFlushDelayMillis(ACK_FLUSH_DELAY_MILLIS)
             .build()) {
       latch.await();
     }
@@ -275,16 +305,9 @@ public class MessageConsumerImplTest {
     EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
     final CountDownLatch nextPullLatch = new CountDownLatch(1);
     final CountDownLatch latch = new CountDownLatch(2);
-    EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID1)).andAnswer(new IAnswer<Future<Void>>() {
-      @Override
-      public Future<Void> answer() throws Throwable {
-        nextPullLatch.await();
-        return null;
-      }
-    });
-    EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID2)).andReturn(null);
+    EasyMock.expect(pubsub.options()).andReturn(options).times(2);
+    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request1)).andReturn(new TestPullFuture(response1));
     EasyMock.expect(pubsubRpc.pull(request2)).andAnswer(new IAnswer<PullFuture>() {
@@ -306,8 +329,10 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
     EasyMock.replay(pubsubRpc, options, renewer);
     try (MessageConsumer consumer =
-        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, THROW_PROCESSOR)
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer,
+            awaitingProcessor(MESSAGE1, nextPullLatch, true))
             .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
+            .ackFlushDelayMillis(ACK_FLUSH_DELAY_MILLIS)
             .build()) {
       latch.await();
     }
@@ -326,16 +351,9 @@ public class MessageConsumerImplTest {
     EasyMock.expect(pubsub.options()).andReturn(options).times(2);
     final CountDownLatch nextPullLatch = new CountDownLatch(1);
     final CountDownLatch latch = new CountDownLatch(3);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID2)).andAnswer(new IAnswer<Future<Void>>() {
-      @Override
-      public Future<Void> answer() throws Throwable {
-        nextPullLatch.await();
-        return null;
-      }
-    });
     EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ImmutableList.of(ACK_ID1, ACK_ID2, ACK_ID1)))
+        .andReturn(null);
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request1)).andReturn(new TestPullFuture(PULL_RESPONSE));
     EasyMock.expect(pubsubRpc.pull(request2)).andAnswer(new IAnswer<PullFuture>() {
@@ -361,8 +379,10 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
     EasyMock.replay(pubsubRpc, options, renewer);
     try (MessageConsumer consumer =
-         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, DO_NOTHING_PROCESSOR)
+         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer,
+             awaitingProcessor(MESSAGE2, nextPullLatch, false))
              .maxQueuedCallbacks(2)
+             .ackFlushDelayMillis(ACK_FLUSH_DELAY_MILLIS)
              .build()) {
       latch.await();
     }
@@ -381,16 +401,9 @@ public class MessageConsumerImplTest {
     EasyMock.expect(pubsub.options()).andReturn(options).times(2);
     final CountDownLatch nextPullLatch = new CountDownLatch(1);
     final CountDownLatch latch = new CountDownLatch(3);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID2)).andAnswer(new IAnswer<Future<Void>>() {
-      @Override
-      public Future<Void> answer() throws Throwable {
-        nextPullLatch.await();
-        return null;
-      }
-    });
     EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
+    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ImmutableList.of(ACK_ID1, ACK_ID2, ACK_ID1)))
+        .andReturn(null);
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request1)).andReturn(new TestPullFuture(PULL_RESPONSE));
     EasyMock.expect(pubsubRpc.pull(request2)).andAnswer(new IAnswer<PullFuture>() {
@@ -416,13 +429,172 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
     EasyMock.replay(pubsubRpc, options, renewer);
     try (MessageConsumer consumer =
-         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, THROW_PROCESSOR)
+         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer,
+             awaitingProcessor(MESSAGE2, nextPullLatch, true))
              .maxQueuedCallbacks(2)
+             .ackFlushDelayMillis(ACK_FLUSH_DELAY_MILLIS)
              .build()) {
       latch.await();
     }
   }
 
+  @Test
+  public void testMessageConsumerFlowControl() throws Exception {
+    PullRequest request = pullRequest(1);
+    PullResponse response1 = PullResponse.newBuilder()
+        .addReceivedMessages(MESSAGE1_PB)
+        .build();
+    PullResponse response2 = PullResponse.newBuilder()
+        .addReceivedMessages(MESSAGE2_PB)
+        .build();
+    EasyMock.expect(options.rpc()).andReturn(pubsubRpc);
+    EasyMock.expect(options.service()).andReturn(pubsub);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(pubsub.options()).andReturn(options).times(2);
+    final CountDownLatch latch = new CountDownLatch(2);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
+    EasyMock.replay(pubsub);
+    // The flow controller only lets one message be outstanding at a time
+    EasyMock.expect(pubsubRpc.pull(request)).andReturn(new TestPullFuture(response1));
+    EasyMock.expect(pubsubRpc.pull(request)).andReturn(new TestPullFuture(response2));
+    EasyMock.expect(pubsubRpc.pull(request))
+        .andReturn(new TestPullFuture(EMPTY_RESPONSE)).anyTimes();
+    renewer.add(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    renewer.remove(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall().andAnswer(createAnswer(latch));
+    renewer.add(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
+    renewer.remove(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall().andAnswer(createAnswer(latch));
+    EasyMock.replay(pubsubRpc, options, renewer);
+    FlowController flowController = FlowController.create(1, 1024);
+    try (MessageConsumer consumer =
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, DO_NOTHING_PROCESSOR)
+            .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
+            .ackFlushDelayMillis(ACK_FLUSH_DELAY_MILLIS)
+            .flowController(flowController)
+            .build()) {
+      latch.await();
+    }
+  }
+
+  @Test
+  public void testMessageConsumerConcurrentPulls() throws Exception {
+    PullRequest request = pullRequest(4);
+    PullResponse fullResponse = PullResponse.newBuilder()
+        .addReceivedMessages(MESSAGE1_PB)
+        .addReceivedMessages(MESSAGE2_PB)
+        .addReceivedMessages(MESSAGE1_PB)
+        .addReceivedMessages(MESSAGE2_PB)
+        .build();
+    EasyMock.expect(options.rpc()).andReturn(pubsubRpc);
+    EasyMock.expect(options.service()).andReturn(pubsub);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(pubsub.options()).andReturn(options).times(4);
+    final CountDownLatch latch = new CountDownLatch(4);
+    final CountDownLatch pullLatch = new CountDownLatch(2);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION,
+        ImmutableList.of(ACK_ID1, ACK_ID2, ACK_ID1, ACK_ID2))).andReturn(null);
+    EasyMock.replay(pubsub);
+    // A full batch signals a backlog, a second pull loop is started
+    EasyMock.expect(pubsubRpc.pull(request)).andReturn(new TestPullFuture(fullResponse));
+    // Both loops then wait on a pull that only completes when the consumer is closed
+    EasyMock.expect(pubsubRpc.pull(EasyMock.<PullRequest>anyObject()))
+        .andAnswer(new IAnswer<PullFuture>() {
+          @Override
+          public PullFuture answer() throws Throwable {
+            pullLatch.countDown();
+            return new TestPullFuture(SettableFuture.<PullResponse>create());
+          }
+        }).times(2);
+    renewer.add(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall().times(2);
+    renewer.add(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall().times(2);
+    renewer.remove(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall().andAnswer(createAnswer(latch)).times(2);
+    renewer.remove(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall().andAnswer(createAnswer(latch)).times(2);
+    EasyMock.replay(pubsubRpc, options, renewer);
+    try (MessageConsumer consumer =
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, DO_NOTHING_PROCESSOR)
+            .maxQueuedCallbacks(4)
+            .maxConcurrentPulls(2)
+            .ackFlushDelayMillis(ACK_FLUSH_DELAY_MILLIS)
+            .build()) {
+      latch.await();
+      pullLatch.await();
+    }
+  }
+
+  @Test
+  public void testCloseReleasesQueuedMessages() throws Exception {
+    EasyMock.expect(options.rpc()).andReturn(pubsubRpc);
+    EasyMock.expect(options.service()).andReturn(pubsub);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(pubsub.options()).andReturn(options).times(2);
+    // Queued messages are "nacked" without being processed
+    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
+    EasyMock.replay(pubsub);
+    final CountDownLatch pullLatch = new CountDownLatch(1);
+    EasyMock.expect(pubsubRpc.pull(pullRequest(10))).andReturn(new TestPullFuture(PULL_RESPONSE));
+    EasyMock.expect(pubsubRpc.pull(pullRequest(8))).andAnswer(new IAnswer<PullFuture>() {
+      @Override
+      public PullFuture answer() throws Throwable {
+        pullLatch.countDown();
+        return new TestPullFuture(SettableFuture.<PullResponse>create());
+      }
+    });
+    renewer.add(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    renewer.add(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
+    renewer.remove(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    renewer.remove(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, options, renewer);
+    // The executor is busy, pulled messages stay queued until it's released
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws InterruptedException {
+        new CountDownLatch(1).await();
+        return null;
+      }
+    });
+    FlowController flowController = FlowController.create(10, 1024);
+    MessageConsumer consumer =
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, new MessageProcessor() {
+          @Override
+          public void process(Message message) {
+            fail("Queued messages should not be processed after close");
+          }
+        })
+            .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
+            .ackFlushDelayMillis(ACK_FLUSH_DELAY_MILLIS)
+            .flowController(flowController)
+            .executorFactory(new ExecutorFactory<ExecutorService>() {
+              @Override
+              public ExecutorService get() {
+                return executor;
+              }
+
+              @Override
+              public void release(ExecutorService executor) {
+                executor.shutdownNow();
+              }
+            }).build();
+    // Both messages were dispatched once the next pull is sent
+    pullLatch.await();
+    consumer.close();
+    assertEquals(0, flowController.outstandingMessages());
+    assertEquals(0, flowController.outstandingBytes());
+  }
+
   @Test
   public void testClose() throws Exception {
     EasyMock.expect(options.rpc()).andReturn(pubsubRpc);
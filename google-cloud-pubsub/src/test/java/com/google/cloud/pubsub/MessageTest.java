@@ -16,14 +16,20 @@
 
 package com.google.cloud.pubsub;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.google.cloud.ByteArray;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
@@ -111,6 +117,18 @@ public class MessageTest {
     compareMessage(message1 ,message2);
   }
 
+  @Test
+  public void testPayloadViews() throws IOException {
+    ByteBuffer buffer = MESSAGE.payloadAsReadOnlyByteBuffer();
+    assertTrue(buffer.isReadOnly());
+    assertEquals(PAYLOAD.asReadOnlyByteBuffer(), buffer);
+    InputStream input = MESSAGE.payloadAsInputStream();
+    byte[] bytes = new byte[PAYLOAD.length()];
+    assertEquals(bytes.length, ByteStreams.read(input, bytes, 0, bytes.length));
+    assertEquals(-1, input.read());
+    assertArrayEquals(PAYLOAD.toByteArray(), bytes);
+  }
+
   @Test
   public void testToAndFromPb() {
     compareMessage(MESSAGE, Message.fromPb(MESSAGE.toPb()));
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertSame;
 
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.cloud.pubsub.PubSub.ListOption;
+import com.google.cloud.pubsub.PubSub.PublishOption;
 import com.google.cloud.pubsub.PubSub.PullOption;
 
 import org.easymock.EasyMock;
@@ -31,6 +32,12 @@ public class PubSubTest {
   private static final int PAGE_SIZE = 42;
   private static final String PAGE_TOKEN = "page token";
   private static final int MAX_QUEUED_CALLBACKS = 42;
+  private static final int MAX_CONCURRENT_PULLS = 4;
+  private static final String ORDERING_KEY_ATTRIBUTE = "orderingKey";
+  private static final int MAX_BATCH_MESSAGES = 500;
+  private static final long MAX_BATCH_BYTES = 1024L;
+  private static final long MAX_BATCH_DELAY_MILLIS = 20L;
+  private static final int MAX_OUTSTANDING_MESSAGES = 1000;
 
   @Test
   public void testListOption() {
@@ -55,5 +62,41 @@ public class PubSubTest {
     pullOption = PullOption.executorFactory(executorFactory);
     assertSame(executorFactory, pullOption.value());
     assertEquals(PullOption.OptionType.EXECUTOR_FACTORY, pullOption.optionType());
+    FlowController flowController = FlowController.create(100, 1024);
+    pullOption = PullOption.flowController(flowController);
+    assertSame(flowController, pullOption.value());
+    assertEquals(PullOption.OptionType.FLOW_CONTROLLER, pullOption.optionType());
+    pullOption = PullOption.maxConcurrentPulls(MAX_CONCURRENT_PULLS);
+    assertEquals(MAX_CONCURRENT_PULLS, pullOption.value());
+    assertEquals(PullOption.OptionType.MAX_CONCURRENT_PULLS, pullOption.optionType());
+    pullOption = PullOption.orderingKeyAttribute(ORDERING_KEY_ATTRIBUTE);
+    assertEquals(ORDERING_KEY_ATTRIBUTE, pullOption.value());
+    assertEquals(PullOption.OptionType.ORDERING_KEY_ATTRIBUTE, pullOption.optionType());
+  }
+
+  @Test
+  public void testPublishOptions() {
+    PublishOption publishOption = PublishOption.maxBatchMessages(MAX_BATCH_MESSAGES);
+    assertEquals(MAX_BATCH_MESSAGES, publishOption.value());
+    assertEquals(PublishOption.OptionType.MAX_BATCH_MESSAGES, publishOption.optionType());
+    publishOption = PublishOption.maxBatchBytes(MAX_BATCH_BYTES);
+    assertEquals(MAX_BATCH_BYTES, publishOption.value());
+    assertEquals(PublishOption.OptionType.MAX_BATCH_BYTES, publishOption.optionType());
+    publishOption = PublishOption.maxBatchDelayMillis(MAX_BATCH_DELAY_MILLIS);
+    assertEquals(MAX_BATCH_DELAY_MILLIS, publishOption.value());
+    assertEquals(PublishOption.OptionType.MAX_BATCH_DELAY_MILLIS, publishOption.optionType());
+    publishOption = PublishOption.maxOutstandingMessages(MAX_OUTSTANDING_MESSAGES);
+    assertEquals(MAX_OUTSTANDING_MESSAGES, publishOption.value());
+    assertEquals(PublishOption.OptionType.MAX_OUTSTANDING_MESSAGES, publishOption.optionType());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxBatchMessagesTooLarge() {
+    PublishOption.maxBatchMessages(1001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxConcurrentPullsNotPositive() {
+    PullOption.maxConcurrentPulls(0);
   }
 }
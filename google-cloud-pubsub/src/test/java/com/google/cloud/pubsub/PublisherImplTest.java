@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.pubsub.PubSub.Publisher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PublisherImplTest {
+
+  private static final String TOPIC1 = "topic1";
+  private static final String TOPIC2 = "topic2";
+  private static final Message MESSAGE1 = Message.of("payload1");
+  private static final Message MESSAGE2 = Message.of("payload2");
+  private static final String MESSAGE_ID1 = "message-id1";
+  private static final String MESSAGE_ID2 = "message-id2";
+  // Batches are only sent when full or when the publisher is closed
+  private static final long MAX_BATCH_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private PubSub pubsub;
+
+  @Rule
+  public Timeout globalTimeout = Timeout.seconds(60);
+
+  @Before
+  public void setUp() {
+    pubsub = EasyMock.createMock(PubSub.class);
+    PubSubOptions options = PubSubOptions.builder()
+        .projectId("projectId")
+        .build();
+    EasyMock.expect(pubsub.options()).andReturn(options);
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(pubsub);
+  }
+
+  private static Future<List<String>> messageIds(String... messageIds) {
+    return Futures.<List<String>>immediateFuture(ImmutableList.copyOf(messageIds));
+  }
+
+  @Test
+  public void testPublishFullBatch() throws Exception {
+    EasyMock.expect(pubsub.publishAsync(TOPIC1, ImmutableList.of(MESSAGE1, MESSAGE2)))
+        .andReturn(messageIds(MESSAGE_ID1, MESSAGE_ID2));
+    EasyMock.replay(pubsub);
+    try (Publisher publisher = PublisherImpl.builder(pubsub)
+        .maxBatchMessages(2)
+        .maxBatchDelayMillis(MAX_BATCH_DELAY_MILLIS)
+        .build()) {
+      Future<String> future1 = publisher.publish(TOPIC1, MESSAGE1);
+      assertFalse(future1.isDone());
+      Future<String> future2 = publisher.publish(TOPIC1, MESSAGE2);
+      assertEquals(MESSAGE_ID1, future1.get());
+      assertEquals(MESSAGE_ID2, future2.get());
+    }
+  }
+
+  @Test
+  public void testPublishFullBytes() throws Exception {
+    EasyMock.expect(pubsub.publishAsync(TOPIC1, ImmutableList.of(MESSAGE1)))
+        .andReturn(messageIds(MESSAGE_ID1));
+    EasyMock.replay(pubsub);
+    try (Publisher publisher = PublisherImpl.builder(pubsub)
+        .maxBatchBytes((long) MESSAGE1.payload().length())
+        .maxBatchDelayMillis(MAX_BATCH_DELAY_MILLIS)
+        .build()) {
+      assertEquals(MESSAGE_ID1, publisher.publish(TOPIC1, MESSAGE1).get());
+    }
+  }
+
+  @Test
+  public void testPublishAfterDelay() throws Exception {
+    EasyMock.expect(pubsub.publishAsync(TOPIC1, ImmutableList.of(MESSAGE1)))
+        .andReturn(messageIds(MESSAGE_ID1));
+    EasyMock.replay(pubsub);
+    try (Publisher publisher = PublisherImpl.builder(pubsub)
+        .maxBatchDelayMillis(10L)
+        .build()) {
+      assertEquals(MESSAGE_ID1, publisher.publish(TOPIC1, MESSAGE1).get());
+    }
+  }
+
+  @Test
+  public void testPublishByTopic() throws Exception {
+    EasyMock.expect(pubsub.publishAsync(TOPIC1, ImmutableList.of(MESSAGE1)))
+        .andReturn(messageIds(MESSAGE_ID1));
+    EasyMock.expect(pubsub.publishAsync(TOPIC2, ImmutableList.of(MESSAGE2)))
+        .andReturn(messageIds(MESSAGE_ID2));
+    EasyMock.replay(pubsub);
+    Publisher publisher = PublisherImpl.builder(pubsub)
+        .maxBatchDelayMillis(MAX_BATCH_DELAY_MILLIS)
+        .build();
+    Future<String> future1 = publisher.publish(TOPIC1, MESSAGE1);
+    Future<String> future2 = publisher.publish(TOPIC2, MESSAGE2);
+    publisher.close();
+    assertEquals(MESSAGE_ID1, future1.get());
+    assertEquals(MESSAGE_ID2, future2.get());
+  }
+
+  @Test
+  public void testPublishFailure() throws Exception {
+    RuntimeException exception = new RuntimeException();
+    EasyMock.expect(pubsub.publishAsync(TOPIC1, ImmutableList.of(MESSAGE1)))
+        .andReturn(Futures.<List<String>>immediateFailedFuture(exception));
+    EasyMock.replay(pubsub);
+    try (Publisher publisher = PublisherImpl.builder(pubsub)
+        .maxBatchMessages(1)
+        .build()) {
+      publisher.publish(TOPIC1, MESSAGE1).get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertSame(exception, ex.getCause());
+    }
+  }
+
+  @Test
+  public void testMaxOutstandingMessages() throws Exception {
+    SettableFuture<List<String>> publishFuture = SettableFuture.create();
+    EasyMock.expect(pubsub.publishAsync(TOPIC1, ImmutableList.of(MESSAGE1)))
+        .andReturn(publishFuture);
+    EasyMock.expect(pubsub.publishAsync(TOPIC1, ImmutableList.of(MESSAGE2)))
+        .andReturn(messageIds(MESSAGE_ID2));
+    EasyMock.replay(pubsub);
+    try (final Publisher publisher = PublisherImpl.builder(pubsub)
+        .maxBatchMessages(1)
+        .maxOutstandingMessages(1)
+        .build()) {
+      Future<String> future1 = publisher.publish(TOPIC1, MESSAGE1);
+      final CountDownLatch started = new CountDownLatch(1);
+      final AtomicReference<Future<String>> future2 = new AtomicReference<>();
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          started.countDown();
+          future2.set(publisher.publish(TOPIC1, MESSAGE2));
+        }
+      };
+      thread.start();
+      started.await();
+      // The second publish blocks until the first one completes
+      thread.join(100);
+      assertNull(future2.get());
+      publishFuture.set(ImmutableList.of(MESSAGE_ID1));
+      thread.join();
+      assertEquals(MESSAGE_ID1, future1.get());
+      assertEquals(MESSAGE_ID2, future2.get().get());
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    EasyMock.expect(pubsub.publishAsync(TOPIC1, ImmutableList.of(MESSAGE1, MESSAGE2)))
+        .andReturn(messageIds(MESSAGE_ID1, MESSAGE_ID2));
+    EasyMock.replay(pubsub);
+    Publisher publisher = PublisherImpl.builder(pubsub)
+        .maxBatchDelayMillis(MAX_BATCH_DELAY_MILLIS)
+        .build();
+    Future<String> future1 = publisher.publish(TOPIC1, MESSAGE1);
+    Future<String> future2 = publisher.publish(TOPIC1, MESSAGE2);
+    publisher.close();
+    assertEquals(MESSAGE_ID1, future1.get());
+    assertEquals(MESSAGE_ID2, future2.get());
+    // closing again should do nothing
+    publisher.close();
+    try {
+      publisher.publish(TOPIC1, MESSAGE1);
+      fail("IllegalStateException expected");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.Clock;
+import com.google.cloud.pubsub.Message;
+import com.google.cloud.pubsub.PubSub;
+import com.google.cloud.pubsub.PubSub.MessageConsumer;
+import com.google.cloud.pubsub.PubSub.MessageProcessor;
+import com.google.cloud.pubsub.PubSubException;
+import com.google.cloud.pubsub.ReceivedMessage;
+import com.google.cloud.pubsub.SubscriptionInfo;
+import com.google.cloud.pubsub.TopicInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.GetTopicRequest;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PullRequest;
+import com.google.pubsub.v1.PullResponse;
+import com.google.pubsub.v1.Subscription;
+import com.google.pubsub.v1.Topic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@RunWith(JUnit4.class)
+public class InMemoryPubSubRpcTest {
+
+  private static final String TOPIC = "topic";
+  private static final String SUBSCRIPTION = "subscription";
+  private static final String TOPIC_NAME = "projects/in-memory-project/topics/topic";
+  private static final String SUBSCRIPTION_NAME =
+      "projects/in-memory-project/subscriptions/subscription";
+  private static final PubsubMessage MESSAGE_PB =
+      PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8("payload")).build();
+
+  @Rule
+  public Timeout globalTimeout = Timeout.seconds(60);
+
+  private static class FakeClock extends Clock {
+
+    private final AtomicLong millis = new AtomicLong();
+
+    void advance(long time, TimeUnit timeUnit) {
+      millis.addAndGet(timeUnit.toMillis(time));
+    }
+
+    @Override
+    public long millis() {
+      return millis.get();
+    }
+  }
+
+  private static void createSubscription(InMemoryPubSubRpc rpc) throws Exception {
+    rpc.create(Topic.newBuilder().setName(TOPIC_NAME).build()).get();
+    rpc.create(Subscription.newBuilder()
+        .setName(SUBSCRIPTION_NAME)
+        .setTopic(TOPIC_NAME)
+        .build()).get();
+  }
+
+  private static void publish(InMemoryPubSubRpc rpc) throws Exception {
+    rpc.publish(PublishRequest.newBuilder().setTopic(TOPIC_NAME).addMessages(MESSAGE_PB).build())
+        .get();
+  }
+
+  private static PullResponse pull(InMemoryPubSubRpc rpc) throws Exception {
+    return rpc.pull(PullRequest.newBuilder()
+        .setSubscription(SUBSCRIPTION_NAME)
+        .setMaxMessages(10)
+        .setReturnImmediately(true)
+        .build()).get();
+  }
+
+  @Test
+  public void testPublishPullAck() throws Exception {
+    InMemoryPubSubRpc rpc = InMemoryPubSubRpc.create();
+    try (PubSub pubsub = rpc.options().service()) {
+      pubsub.create(TopicInfo.of(TOPIC));
+      pubsub.create(SubscriptionInfo.of(TOPIC, SUBSCRIPTION));
+      String messageId = pubsub.publish(TOPIC, Message.of("payload"));
+      Iterator<ReceivedMessage> messages = pubsub.pull(SUBSCRIPTION, 10);
+      ReceivedMessage message = messages.next();
+      assertFalse(messages.hasNext());
+      assertEquals(messageId, message.id());
+      assertEquals("payload", message.payloadAsString());
+      message.ack();
+      assertFalse(pubsub.pull(SUBSCRIPTION, 10).hasNext());
+      assertTrue(pubsub.deleteSubscription(SUBSCRIPTION));
+      assertFalse(pubsub.deleteSubscription(SUBSCRIPTION));
+      assertTrue(pubsub.deleteTopic(TOPIC));
+      assertNull(pubsub.getTopic(TOPIC));
+    }
+    assertTrue(rpc.roundTrips() > 0);
+  }
+
+  @Test
+  public void testCreateTwice() throws Exception {
+    InMemoryPubSubRpc rpc = InMemoryPubSubRpc.create();
+    Topic topic = Topic.newBuilder().setName(TOPIC_NAME).build();
+    rpc.create(topic).get();
+    try {
+      rpc.create(topic).get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertEquals(6, ((PubSubException) ex.getCause()).code());
+    }
+  }
+
+  @Test
+  public void testLeaseExpiry() throws Exception {
+    FakeClock clock = new FakeClock();
+    InMemoryPubSubRpc rpc = InMemoryPubSubRpc.builder().clock(clock).build();
+    createSubscription(rpc);
+    publish(rpc);
+    String ackId = pull(rpc).getReceivedMessages(0).getAckId();
+    assertEquals(0, pull(rpc).getReceivedMessagesCount());
+    clock.advance(9, TimeUnit.SECONDS);
+    assertEquals(0, pull(rpc).getReceivedMessagesCount());
+    clock.advance(1, TimeUnit.SECONDS);
+    PullResponse response = pull(rpc);
+    assertEquals(1, response.getReceivedMessagesCount());
+    assertFalse(ackId.equals(response.getReceivedMessages(0).getAckId()));
+    assertEquals(1, rpc.redeliveries());
+    // Acknowledging the expired lease has no effect
+    rpc.acknowledge(AcknowledgeRequest.newBuilder()
+        .setSubscription(SUBSCRIPTION_NAME)
+        .addAckIds(ackId)
+        .build()).get();
+    clock.advance(10, TimeUnit.SECONDS);
+    assertEquals(1, pull(rpc).getReceivedMessagesCount());
+  }
+
+  @Test
+  public void testModifyAckDeadline() throws Exception {
+    FakeClock clock = new FakeClock();
+    InMemoryPubSubRpc rpc = InMemoryPubSubRpc.builder().clock(clock).build();
+    createSubscription(rpc);
+    publish(rpc);
+    String ackId = pull(rpc).getReceivedMessages(0).getAckId();
+    rpc.modify(ModifyAckDeadlineRequest.newBuilder()
+        .setSubscription(SUBSCRIPTION_NAME)
+        .setAckDeadlineSeconds(60)
+        .addAckIds(ackId)
+        .build()).get();
+    clock.advance(30, TimeUnit.SECONDS);
+    assertEquals(0, pull(rpc).getReceivedMessagesCount());
+    rpc.modify(ModifyAckDeadlineRequest.newBuilder()
+        .setSubscription(SUBSCRIPTION_NAME)
+        .setAckDeadlineSeconds(0)
+        .addAckIds(ackId)
+        .build()).get();
+    assertEquals(1, pull(rpc).getReceivedMessagesCount());
+    assertEquals(1, rpc.redeliveries());
+  }
+
+  @Test
+  public void testWaitingPull() throws Exception {
+    InMemoryPubSubRpc rpc = InMemoryPubSubRpc.create();
+    createSubscription(rpc);
+    Future<PullResponse> future = rpc.pull(PullRequest.newBuilder()
+        .setSubscription(SUBSCRIPTION_NAME)
+        .setMaxMessages(10)
+        .build());
+    assertFalse(future.isDone());
+    publish(rpc);
+    assertEquals(1, future.get().getReceivedMessagesCount());
+  }
+
+  @Test
+  public void testFailureRate() throws Exception {
+    InMemoryPubSubRpc rpc = InMemoryPubSubRpc.builder().failureRate(1.0).build();
+    try {
+      rpc.get(GetTopicRequest.newBuilder().setTopic(TOPIC_NAME).build()).get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      PubSubException exception = (PubSubException) ex.getCause();
+      assertEquals(14, exception.code());
+      assertTrue(exception.retryable());
+    }
+    assertEquals(1, rpc.roundTrips());
+  }
+
+  @Test
+  public void testLatency() throws Exception {
+    InMemoryPubSubRpc rpc = InMemoryPubSubRpc.builder()
+        .latency(50, TimeUnit.MILLISECONDS)
+        .build();
+    Future<Topic> future = rpc.create(Topic.newBuilder().setName(TOPIC_NAME).build());
+    assertFalse(future.isDone());
+    assertEquals(TOPIC_NAME, future.get().getName());
+  }
+
+  @Test
+  public void testMessageConsumer() throws Exception {
+    InMemoryPubSubRpc rpc = InMemoryPubSubRpc.builder()
+        .latency(1, TimeUnit.MILLISECONDS)
+        .build();
+    int messages = 100;
+    final CountDownLatch latch = new CountDownLatch(messages);
+    try (PubSub pubsub = rpc.options().service()) {
+      pubsub.create(TopicInfo.of(TOPIC));
+      pubsub.create(SubscriptionInfo.of(TOPIC, SUBSCRIPTION));
+      ImmutableList.Builder<Message> builder = ImmutableList.builder();
+      for (int i = 0; i < messages; i++) {
+        builder.add(Message.of("payload" + i));
+      }
+      pubsub.publish(TOPIC, builder.build());
+      try (MessageConsumer consumer = pubsub.pullAsync(SUBSCRIPTION, new MessageProcessor() {
+        @Override
+        public void process(Message message) {
+          latch.countDown();
+        }
+      })) {
+        latch.await();
+      }
+      // Processed messages were acknowledged
+      assertEquals(0, Iterators.size(pubsub.pull(SUBSCRIPTION, messages)));
+    }
+  }
+}